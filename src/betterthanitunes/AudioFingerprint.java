@@ -0,0 +1,158 @@
+package betterthanitunes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class computes a fingerprint of the audio in a file, so the same track is
+ * recognised under another path or after its tags were edited. The ID3v2 tag
+ * at the start of the file, the metadata blocks of a FLAC file and the APE and
+ * ID3v1 tags at its end are skipped, and the audio between them is streamed
+ * through a reusable buffer into a 64-bit xxHash, so the file is never held in
+ * memory. Each thread has its own buffer, so files can be fingerprinted in parallel.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class AudioFingerprint {
+    public static final long UNKNOWN = 0; // Stored for songs that haven't been fingerprinted
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int ID3V1_LENGTH = 128;
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L, PRIME2 = 0xC2B2AE3D27D4EB4FL, PRIME3 = 0x165667B19E3779F9L,
+                              PRIME4 = 0x85EBCA77C2B2AE63L, PRIME5 = 0x27D4EB2F165667C5L;
+
+    private static final ThreadLocal<ByteBuffer> buffers =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN));
+    // Totals of every fingerprint computed, for reporting throughput
+    private static final AtomicLong bytesHashed = new AtomicLong(), nanosHashing = new AtomicLong();
+
+    private AudioFingerprint() {}
+
+    /**
+     * Method computes the fingerprint of a file's audio
+     * @param path the path of the audio file
+     * @return the fingerprint, which is never UNKNOWN
+     * @throws IOException if the file can't be read
+     */
+    public static long compute(String path) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long audioStart = Mp3TagReader.id3v2Length(channel), audioEnd = channel.size();
+            // The tags of a FLAC file are in metadata blocks before its audio
+            audioStart = FlacReader.audioOffset(channel, audioStart);
+            if(audioEnd - audioStart >= ID3V1_LENGTH) {
+                ByteBuffer tail = Mp3TagReader.read(channel, audioEnd - ID3V1_LENGTH, 3);
+                if(tail.get(0) == 'T' && tail.get(1) == 'A' && tail.get(2) == 'G') audioEnd -= ID3V1_LENGTH;
+            }
+            audioEnd -= Mp3TagReader.apeTagLength(channel, audioStart, audioEnd);
+
+            long fingerprint = hash(channel, audioStart, Math.max(audioEnd - audioStart, 0));
+            bytesHashed.addAndGet(Math.max(audioEnd - audioStart, 0));
+            return (fingerprint == UNKNOWN) ? 1 : fingerprint;
+        } finally {
+            nanosHashing.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Method computes the 64-bit xxHash of part of a file, reading it a buffer at a time
+     * @param channel the open file
+     * @param position where the bytes to hash start
+     * @param length the number of bytes to hash
+     * @return the hash
+     * @throws IOException if the file can't be read
+     */
+    private static long hash(FileChannel channel, long position, long length) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        long v1 = PRIME1 + PRIME2, v2 = PRIME2, v3 = 0, v4 = -PRIME1;
+        long remaining = length;
+        while(true) {
+            // Fill the buffer after the bytes left over from the last read, which are fewer than one stripe
+            while(buffer.hasRemaining() && remaining > 0) {
+                int limit = buffer.limit();
+                if(buffer.remaining() > remaining) buffer.limit(buffer.position() + (int)remaining);
+                int read = channel.read(buffer, position);
+                buffer.limit(limit);
+                if(read < 0) throw new IOException("The file ended before its audio did");
+                position += read;
+                remaining -= read;
+            }
+            buffer.flip();
+            if(remaining == 0) break;
+            // The buffer is full, and its size is a multiple of the 32-byte stripe
+            while(buffer.remaining() >= 32) {
+                v1 = round(v1, buffer.getLong());
+                v2 = round(v2, buffer.getLong());
+                v3 = round(v3, buffer.getLong());
+                v4 = round(v4, buffer.getLong());
+            }
+            buffer.compact();
+        }
+
+        // The last buffer holds the end of the audio
+        while(buffer.remaining() >= 32) {
+            v1 = round(v1, buffer.getLong());
+            v2 = round(v2, buffer.getLong());
+            v3 = round(v3, buffer.getLong());
+            v4 = round(v4, buffer.getLong());
+        }
+        long hash;
+        if(length >= 32) {
+            hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = merge(hash, v1);
+            hash = merge(hash, v2);
+            hash = merge(hash, v3);
+            hash = merge(hash, v4);
+        }
+        else hash = PRIME5;
+        hash += length;
+
+        while(buffer.remaining() >= 8) {
+            hash ^= round(0, buffer.getLong());
+            hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+        }
+        if(buffer.remaining() >= 4) {
+            hash ^= (buffer.getInt() & 0xFFFFFFFFL) * PRIME1;
+            hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+        }
+        while(buffer.hasRemaining()) {
+            hash ^= (buffer.get() & 0xFF) * PRIME5;
+            hash = Long.rotateLeft(hash, 11) * PRIME1;
+        }
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME2;
+        return Long.rotateLeft(accumulator, 31) * PRIME1;
+    }
+
+    private static long merge(long hash, long accumulator) {
+        hash ^= round(0, accumulator);
+        return hash * PRIME1 + PRIME4;
+    }
+
+    // Method returns the number of bytes of audio hashed by every thread so far
+    public static long getBytesHashed() {
+        return bytesHashed.get();
+    }
+
+    /**
+     * Method gets the rate at which audio has been fingerprinted, counting the time of every thread
+     * @return the throughput of one thread in MB/s
+     */
+    public static double getMegabytesPerSecond() {
+        return bytesHashed.get() / 1048576.0 / Math.max(nanosHashing.get() / 1e9, 1e-9);
+    }
+}
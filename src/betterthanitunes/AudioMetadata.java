@@ -0,0 +1,100 @@
+package betterthanitunes;
+
+import com.mpatric.mp3agic.ID3v1;
+
+/**
+ * Class holds what was learned about an audio file without decoding it:
+ * its tag, its length and the format of its audio stream.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class AudioMetadata {
+    /**
+     * Enum represents where the length of a file came from. The sources of MP3 files
+     * are listed from the cheapest to the most expensive, and the other formats store their length.
+     */
+    public enum DurationSource {
+        XING,       // Frame count of a Xing, Info or LAME header in the first frame
+        VBRI,       // Frame count of a Fraunhofer VBRI header in the first frame
+        CBR,        // Size of the audio divided by the bitrate, after checking the first frames have the same bitrate
+        FULL_SCAN,  // Every frame of the file was read
+        STREAMINFO, // Sample count of the STREAMINFO block of a FLAC file
+        GRANULE     // Granule position of the last page of an Ogg file
+    }
+
+    private final ID3v1 tag;
+    private final long duration;
+    private final int bitrate, sampleRate;
+    private final String channelMode;
+    private final boolean vbr;
+    private final long fileSize, lastModified;
+    private final DurationSource durationSource;
+
+    /**
+     * Constructor creates the metadata of a file
+     * @param tag the ID3v2 tag of the file if it has one, else its ID3v1 tag, else null
+     * @param duration the length of the audio in microseconds
+     * @param bitrate the bitrate in kbps, averaged over the file if it is VBR
+     * @param sampleRate the sample rate in Hz
+     * @param channelMode the channel mode, such as Stereo or Mono
+     * @param vbr whether the bitrate changes from frame to frame
+     * @param fileSize the size of the file in bytes
+     * @param lastModified when the file was last modified, in milliseconds since the epoch
+     * @param durationSource where the length came from
+     */
+    public AudioMetadata(ID3v1 tag, long duration, int bitrate, int sampleRate, String channelMode,
+                         boolean vbr, long fileSize, long lastModified, DurationSource durationSource) {
+        this.tag = tag;
+        this.duration = duration;
+        this.bitrate = bitrate;
+        this.sampleRate = sampleRate;
+        this.channelMode = channelMode;
+        this.vbr = vbr;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.durationSource = durationSource;
+    }
+
+    public ID3v1 getTag() {
+        return tag;
+    }
+
+    // Method returns the length of the audio in microseconds
+    public long getDuration() {
+        return duration;
+    }
+
+    public int getBitrate() {
+        return bitrate;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public String getChannelMode() {
+        return channelMode;
+    }
+
+    public boolean isVbr() {
+        return vbr;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public DurationSource getDurationSource() {
+        return durationSource;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%.3f s, %d kbps%s, %d Hz, %s (%s)", duration / 1e6, bitrate, vbr ? " VBR" : "",
+                             sampleRate, channelMode, durationSource);
+    }
+}
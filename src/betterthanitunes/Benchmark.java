@@ -0,0 +1,533 @@
+package betterthanitunes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import com.mpatric.mp3agic.ID3v1;
+import com.mpatric.mp3agic.ID3v24Tag;
+import com.mpatric.mp3agic.Mp3File;
+
+/**
+ * Class measures the parts of the application that depend on the size of the
+ * user's files and library. It is run from the command line, separately from
+ * the application:
+ * java betterthanitunes.Benchmark tags [files or folders of MP3 files]
+ * java betterthanitunes.Benchmark fingerprint [files or folders of audio files]
+ * java betterthanitunes.Benchmark formats [files or folders of audio files]
+ * java betterthanitunes.Benchmark startup [folder for synthetic songs] [song counts]
+ * java betterthanitunes.Benchmark records [folder for synthetic songs] [song count]
+ * java betterthanitunes.Benchmark browse [folder for synthetic songs] [song count]
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class Benchmark {
+    private static final int RUNS = 5; // Timed runs of each file, after one untimed run to warm up
+
+    public static void main(String[] args) throws Exception {
+        if(args.length < 2) {
+            System.out.println("Usage: java betterthanitunes.Benchmark tags [files or folders]");
+            System.out.println("       java betterthanitunes.Benchmark fingerprint [files or folders]");
+            System.out.println("       java betterthanitunes.Benchmark formats [files or folders]");
+            System.out.println("       java betterthanitunes.Benchmark startup [folder] [song counts, default 10000 50000 100000]");
+            System.out.println("       java betterthanitunes.Benchmark records [folder] [song count, default 100000]");
+            System.out.println("       java betterthanitunes.Benchmark browse [folder] [song count, default 100000]");
+            return;
+        }
+        if(args[0].equals("startup")) {
+            benchmarkStartup(args);
+            return;
+        }
+        if(args[0].equals("records")) {
+            benchmarkRecords(args);
+            return;
+        }
+        if(args[0].equals("browse")) {
+            benchmarkBrowse(args);
+            return;
+        }
+        List<String> paths = new ArrayList<>();
+        for(int i = 1; i < args.length; i++)
+            findAudioFiles(new File(args[i]), paths);
+
+        switch(args[0]) {
+            case "tags": benchmarkTags(paths); break;
+            case "fingerprint": benchmarkFingerprints(paths); break;
+            case "formats": benchmarkFormats(paths); break;
+            default: System.out.println("Unknown benchmark: " + args[0]);
+        }
+    }
+
+    /**
+     * Method adds a file, or every audio file MetadataReaders supports in a folder and its subfolders, to a list
+     * @param file the file or folder
+     * @param paths the list of paths to add to
+     */
+    private static void findAudioFiles(File file, List<String> paths) {
+        if(file.isDirectory()) {
+            File[] children = file.listFiles();
+            if(children == null) return;
+            for(File child : children)
+                findAudioFiles(child, paths);
+        }
+        else if(MetadataReaders.isSupported(file.getName()))
+            paths.add(file.getPath());
+    }
+
+    /**
+     * Method compares reading each file's tag and length with a full Mp3File scan,
+     * which is what building a Song used to do, and with Mp3TagReader
+     * @param paths the audio files to read. Only the MP3 files are read
+     */
+    private static void benchmarkTags(List<String> paths) throws Exception {
+        List<String> mp3Paths = new ArrayList<>();
+        for(String path : paths) {
+            if(readerOf(path) instanceof Mp3TagReader) mp3Paths.add(path);
+        }
+        paths = mp3Paths;
+        LatencyStats scanStats = new LatencyStats("Mp3File full scan");
+        LatencyStats readerStats = new LatencyStats("Mp3TagReader");
+        long totalBytes = 0;
+        double worstDifference = 0;
+
+        System.out.printf("%-40s %10s %12s %12s %12s %12s  %s%n", "File", "KB", "Scan ms", "Reader ms", "Scan length", "Reader diff", "Source");
+        for(String path : paths) {
+            long scanNanos = 0, readerNanos = 0;
+            Mp3File mp3File = new Mp3File(path);
+            AudioMetadata metadata = Mp3TagReader.read(path);
+            for(int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                mp3File = new Mp3File(path);
+                long scanned = System.nanoTime();
+                metadata = Mp3TagReader.read(path);
+                long read = System.nanoTime();
+                scanStats.record(scanned - start);
+                readerStats.record(read - scanned);
+                scanNanos += scanned - start;
+                readerNanos += read - scanned;
+            }
+
+            long scanLength = mp3File.getLengthInMilliseconds();
+            long difference = metadata.getDuration() / 1000 - scanLength;
+            worstDifference = Math.max(worstDifference, Math.abs(difference) / (double)Math.max(scanLength, 1));
+            totalBytes += metadata.getFileSize();
+            String name = new File(path).getName();
+            if(name.length() > 40) name = name.substring(0, 37) + "...";
+            System.out.printf("%-40s %10d %12.3f %12.3f %10d ms %+9d ms  %s%n", name, metadata.getFileSize() / 1024,
+                              scanNanos / (RUNS * 1e6), readerNanos / (RUNS * 1e6), scanLength, difference, metadata);
+        }
+
+        System.out.println();
+        System.out.println(scanStats);
+        System.out.println(readerStats);
+        System.out.printf("%d files, %.1f MB. Reader is %.1fx faster, worst length difference %.2f%%%n", paths.size(), totalBytes / 1048576.0,
+                          scanStats.getTotalMillis() / Math.max(readerStats.getTotalMillis(), 1e-6), worstDifference * 100);
+    }
+
+    /**
+     * Method measures how fast audio is fingerprinted by one thread and by a thread
+     * per processor. The files are fingerprinted once first, untimed, so they are read
+     * from the operating system's cache and the hashing itself is measured
+     * @param paths the audio files to fingerprint
+     */
+    private static void benchmarkFingerprints(List<String> paths) throws Exception {
+        for(String path : paths)
+            AudioFingerprint.compute(path);
+        long bytesPerRun = AudioFingerprint.getBytesHashed();
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d files, %.1f MB of audio%n%8s %10s %10s%n", paths.size(), bytesPerRun / 1048576.0, "Threads", "ms", "MB/s");
+        for(int threads : new int[] {1, processors}) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            List<Callable<Long>> tasks = new ArrayList<>();
+            for(String path : paths)
+                tasks.add(() -> AudioFingerprint.compute(path));
+            long nanos = Long.MAX_VALUE;
+            for(int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                for(Future<Long> result : pool.invokeAll(tasks))
+                    result.get();
+                nanos = Math.min(nanos, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            System.out.printf("%8d %10.1f %10.0f%n", threads, nanos / 1e6, bytesPerRun / 1048576.0 / (nanos / 1e9));
+            if(processors == 1) break;
+        }
+    }
+
+    /**
+     * Method measures how long the MetadataReader of each format takes to read a file, against
+     * reading the file's format through Java Sound, whose readers are what plays the file. Each
+     * file is read untimed first and then RUNS times, and its fastest run is recorded for its format
+     * @param paths the audio files to read
+     */
+    private static void benchmarkFormats(List<String> paths) throws Exception {
+        Map<String, LatencyStats> readerStats = new LinkedHashMap<>(), soundStats = new LinkedHashMap<>();
+        Map<String, Long> formatBytes = new HashMap<>();
+
+        // The readers are run over every file first, so the JIT has compiled them before any file is timed
+        for(int run = 0; run < RUNS; run++) {
+            for(String path : paths)
+                MetadataReaders.read(path);
+        }
+
+        System.out.printf("%-32s %-10s %8s %10s %10s %10s  %-10s %s%n", "File", "Format", "KB", "Reader ms", "Sound ms", "Length", "Source", "Title - Artist");
+        for(String path : paths) {
+            MetadataReader reader = readerOf(path);
+            AudioMetadata metadata = MetadataReaders.read(path);
+            boolean playable = readSoundFormat(path);
+            long readerNanos = Long.MAX_VALUE, soundNanos = Long.MAX_VALUE;
+            for(int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                metadata = MetadataReaders.read(path);
+                long read = System.nanoTime();
+                if(playable) readSoundFormat(path);
+                long sound = System.nanoTime();
+                readerNanos = Math.min(readerNanos, read - start);
+                soundNanos = Math.min(soundNanos, sound - read);
+            }
+
+            String format = reader.getFormat();
+            readerStats.computeIfAbsent(format, name -> new LatencyStats(name + " reader")).record(readerNanos);
+            if(playable) soundStats.computeIfAbsent(format, name -> new LatencyStats(name + " Java Sound")).record(soundNanos);
+            formatBytes.merge(format, metadata.getFileSize(), Long::sum);
+
+            ID3v1 tag = metadata.getTag();
+            String name = new File(path).getName();
+            if(name.length() > 32) name = name.substring(0, 29) + "...";
+            System.out.printf("%-32s %-10s %8d %10.3f %10s %7d ms  %-10s %s%n", name, format, metadata.getFileSize() / 1024, readerNanos / 1e6,
+                              playable ? String.format("%.3f", soundNanos / 1e6) : "-", metadata.getDuration() / 1000, metadata.getDurationSource(),
+                              (tag != null) ? tag.getTitle() + " - " + tag.getArtist() : "No tags");
+        }
+
+        System.out.println();
+        for(Map.Entry<String, LatencyStats> entry : readerStats.entrySet()) {
+            LatencyStats stats = entry.getValue();
+            System.out.printf("%s: %d files, %.1f MB%n  %s%n", entry.getKey(), stats.getCount(), formatBytes.get(entry.getKey()) / 1048576.0, stats);
+            if(soundStats.containsKey(entry.getKey())) System.out.println("  " + soundStats.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * Method finds the MetadataReader that reads a file
+     * @param path the path of the file
+     * @return the reader picked for the file's contents
+     * @throws IOException if the file can't be read
+     */
+    private static MetadataReader readerOf(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return MetadataReaders.forFile(path, channel);
+        }
+    }
+
+    /**
+     * Method reads the format of a file through the Java Sound readers on the classpath
+     * @param path the path of the file
+     * @return false if no reader understands the file
+     */
+    private static boolean readSoundFormat(String path) {
+        try {
+            AudioSystem.getAudioFileFormat(new File(path));
+            return true;
+        } catch(UnsupportedAudioFileException | IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Method compares the time until the first window has its songs, and the heap kept
+     * afterwards, of building a Song for every song in the Library when the Controller
+     * starts (what the Controller used to do) with building Songs when they are used.
+     * Each song count gets its own database of synthetic songs in the folder
+     * @param args the folder for the synthetic songs and databases, then the song counts
+     */
+    private static void benchmarkStartup(String[] args) throws Exception {
+        File folder = new File(args[1]);
+        List<Integer> counts = new ArrayList<>();
+        for(int i = 2; i < args.length; i++)
+            counts.add(Integer.parseInt(args[i]));
+        if(counts.isEmpty()) {
+            counts.add(10000);
+            counts.add(50000);
+            counts.add(100000);
+        }
+
+        // Derby 10.10 can fail re-preparing the cached Songs insert, which uses the SongIds sequence, when
+        // its index statistics daemon invalidates the statement part way through building a large library
+        System.setProperty("derby.storage.indexStats.auto", "false");
+
+        System.out.printf("%10s %-6s %14s %14s %14s%n", "Songs", "Start", "Controller ms", "First page ms", "Retained MB");
+        for(int count : counts) {
+            System.setProperty(StorageMode.URL_PROPERTY, "jdbc:derby:" + new File(folder, "library" + count).getPath());
+            createSyntheticLibrary(new File(folder, "songs"), count);
+            for(boolean eager : new boolean[] {false, true}) {
+                long baseline = usedHeap();
+                long start = System.nanoTime();
+                Controller controller = new Controller();
+                HashMap<String, Song> songs = new HashMap<>();
+                if(eager) {
+                    SongData songData = controller.loadSongs("Library");
+                    for(int row = 0; row < songData.size(); row++)
+                        songs.put(songData.getPath(row), new Song(songData.getPath(row)));
+                }
+                long constructed = System.nanoTime();
+                SongData firstPage = controller.returnSongs("Library", SongSort.DEFAULT, null, SongTableModel.PAGE_SIZE);
+                long firstPageLoaded = System.nanoTime();
+                long retained = usedHeap() - baseline;
+
+                System.out.printf("%10d %-6s %14.1f %14.1f %14.1f%n", count, eager ? "eager" : "lazy", (constructed - start) / 1e6,
+                                  (firstPageLoaded - start) / 1e6, retained / 1048576.0);
+                if(songs.size() + firstPage.size() < 0) System.out.println(); // Keeps both reachable until the heap is measured
+                controller.disconnectDatabase();
+            }
+        }
+    }
+
+    /**
+     * Method compares the heap kept by the Songs of a Library with the heap kept by
+     * what a Song used to hold: the metadata read from the file, with its ID3v2 tag object.
+     * The Songs are built both from the files and from the database, as the song tables build them
+     * @param args the folder for the synthetic songs and database, then the song count
+     */
+    private static void benchmarkRecords(String[] args) throws Exception {
+        File folder = new File(args[1]);
+        int count = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
+        System.setProperty("derby.storage.indexStats.auto", "false");
+        System.setProperty(StorageMode.URL_PROPERTY, "jdbc:derby:" + new File(folder, "library" + count).getPath());
+        createSyntheticLibrary(new File(folder, "songs"), count);
+
+        List<String> paths = new ArrayList<>();
+        findAudioFiles(new File(folder, "songs"), paths);
+        paths = new ArrayList<>(paths.subList(0, Math.min(count, paths.size())));
+        System.out.printf("%-36s %10s %14s %14s%n", "Representation", "Songs", "Retained MB", "Bytes/song");
+
+        // The database is started once before the baseline, and shut down before measuring, so only the songs are counted
+        DatabaseModel database = new DatabaseModel();
+        if(!database.createConnection()) return;
+        database.shutdown();
+        long baseline = usedHeap();
+        database = new DatabaseModel();
+        if(!database.createConnection()) return;
+        long start = System.nanoTime();
+        SongData library = database.loadSongs("Library");
+        long loaded = System.nanoTime();
+        database.shutdown();
+        long retained = usedHeap() - baseline;
+        printRetained("Songs read from the database", library.size(), retained);
+        System.out.printf("Library loaded in %.0f ms. %d different strings are shared by the songs%n",
+                          (loaded - start) / 1e6, StringDictionary.size());
+        library = null;
+
+        // The benchmark keeps the paths, so from here on they aren't counted
+        baseline = usedHeap();
+        List<Song> songs = new ArrayList<>(paths.size());
+        for(String path : paths)
+            songs.add(new Song(path));
+        retained = usedHeap() - baseline;
+        printRetained("Songs read from the files", songs.size(), retained);
+        songs = null;
+
+        baseline = usedHeap();
+        List<AudioMetadata> tags = new ArrayList<>(paths.size());
+        for(String path : paths)
+            tags.add(Mp3TagReader.read(path));
+        retained = usedHeap() - baseline;
+        printRetained("Tag objects (the old Song)", tags.size(), retained);
+    }
+
+    /**
+     * Method measures the browser's index of a Library: how long it takes to build and how
+     * much heap it keeps, how long a selection and the counts of a list take compared with
+     * querying the Songs table for the same songs, and how long an edit takes to index
+     * @param args the folder for the synthetic songs and database, then the song count
+     */
+    private static void benchmarkBrowse(String[] args) throws Exception {
+        File folder = new File(args[1]);
+        int count = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
+        String url = "jdbc:derby:" + new File(folder, "library" + count).getPath();
+        System.setProperty("derby.storage.indexStats.auto", "false");
+        System.setProperty(StorageMode.URL_PROPERTY, url);
+        createSyntheticLibrary(new File(folder, "songs"), count);
+
+        // The database is started once before the baseline, and shut down before measuring, so only the index is counted
+        DatabaseModel database = new DatabaseModel();
+        if(!database.createConnection()) return;
+        database.shutdown();
+        long baseline = usedHeap();
+        database = new DatabaseModel();
+        if(!database.createConnection()) return;
+        SongData library = database.returnSongs("Library", new SongSort(SongSort.Column.ID, true), null, 0);
+        database.shutdown();
+        long start = System.nanoTime();
+        FacetIndex index = new FacetIndex();
+        index.build(library);
+        long built = System.nanoTime();
+        library = null;
+        long retained = usedHeap() - baseline;
+        System.out.printf("Indexed %d songs in %.0f ms, %.1f MB retained (%.0f bytes/song, including the Songs)%n", index.size(),
+                          (built - start) / 1e6, retained / 1048576.0, retained / (double)Math.max(index.size(), 1));
+
+        List<Map<FacetIndex.Facet, String>> selections = new ArrayList<>();
+        List<String> queries = new ArrayList<>();
+        List<Object[]> queryArgs = new ArrayList<>();
+        Map<FacetIndex.Facet, String> selection = FacetIndex.newSelection();
+        selection.put(FacetIndex.Facet.ARTIST, "Artist 7");
+        selections.add(selection);
+        queries.add("artist = ?");
+        queryArgs.add(new Object[] {"Artist 7"});
+        selection = FacetIndex.newSelection();
+        selection.put(FacetIndex.Facet.GENRE, Controller.getGenreName(3));
+        selections.add(selection);
+        queries.add("genre = ?");
+        queryArgs.add(new Object[] {3});
+        selection = FacetIndex.newSelection();
+        selection.put(FacetIndex.Facet.GENRE, Controller.getGenreName(3));
+        selection.put(FacetIndex.Facet.YEAR, "1963");
+        selections.add(selection);
+        queries.add("genre = ? AND yearCreated = ?");
+        queryArgs.add(new Object[] {3, "1963"});
+
+        try (Connection connection = DriverManager.getConnection(url)) {
+            System.out.printf("%-34s %8s %14s %14s %14s%n", "Selection", "Songs", "Index us", "Counts us", "Query us");
+            for(int i = 0; i < selections.size(); i++) {
+                selection = selections.get(i);
+                int songs = 0;
+                long selectNanos = Long.MAX_VALUE, countNanos = Long.MAX_VALUE, queryNanos = Long.MAX_VALUE;
+                try (PreparedStatement statement = connection.prepareStatement("SELECT songId FROM Songs WHERE " + queries.get(i))) {
+                    for(int j = 0; j < queryArgs.get(i).length; j++)
+                        statement.setObject(j + 1, queryArgs.get(i)[j]);
+                    for(int run = 0; run < RUNS * 20; run++) {
+                        long runStart = System.nanoTime();
+                        songs = index.select(selection).size();
+                        long selected = System.nanoTime();
+                        for(FacetIndex.Facet facet : FacetIndex.Facet.values())
+                            index.countValues(facet, selection);
+                        long counted = System.nanoTime();
+                        int rows = 0;
+                        try (ResultSet results = statement.executeQuery()) {
+                            while(results.next())
+                                rows++;
+                        }
+                        long queried = System.nanoTime();
+                        if(rows != songs) System.out.println("The query found " + rows + " songs, the index " + songs);
+                        selectNanos = Math.min(selectNanos, selected - runStart);
+                        countNanos = Math.min(countNanos, counted - selected);
+                        queryNanos = Math.min(queryNanos, queried - counted);
+                    }
+                }
+                System.out.printf("%-34s %8d %14.1f %14.1f %14.1f%n", selection.toString(), songs, selectNanos / 1e3,
+                                  countNanos / 1e3, queryNanos / 1e3);
+            }
+        } catch(SQLException e) {
+            e.printStackTrace();
+        }
+
+        // Edit the artist of songs back and forth, which moves each song between two artists' postings
+        ArrayList<Song> edited = index.select(selections.get(0));
+        start = System.nanoTime();
+        for(int run = 0; run < RUNS * 100; run++) {
+            Song song = edited.get(run % edited.size());
+            index.update(song.getPath(), 1, (run % 2 == 0) ? "Edited Artist" : song.getArtist());
+        }
+        System.out.printf("Indexed %d edits in %.3f us each%n", RUNS * 100, (System.nanoTime() - start) / 1e3 / (RUNS * 100));
+        try {
+            DriverManager.getConnection(url + ";shutdown=true");
+        } catch(SQLException e) {
+            // Derby reports a successful shutdown as an exception
+        }
+    }
+
+    /**
+     * Method prints the heap kept by a number of songs
+     * @param representation how the songs are held
+     * @param songs the number of songs
+     * @param retained the bytes of heap they keep
+     */
+    private static void printRetained(String representation, int songs, long retained) {
+        System.out.printf("%-36s %10d %14.1f %14.0f%n", representation, songs, retained / 1048576.0, retained / (double)Math.max(songs, 1));
+    }
+
+    /**
+     * Method creates a database whose Library has a number of synthetic songs, unless it
+     * already exists. The songs are small MP3 files with an ID3v2 tag and 40 silent frames
+     * @param folder the folder to write the songs to
+     * @param count the number of songs in the Library
+     */
+    private static void createSyntheticLibrary(File folder, int count) throws IOException {
+        DatabaseModel database = new DatabaseModel();
+        if(!database.createConnection()) throw new IOException("Unable to create the database " + System.getProperty(StorageMode.URL_PROPERTY));
+        List<Song> songs = new ArrayList<>();
+        for(int i = database.countSongs("Library"); i < count; i++) {
+            File file = new File(folder, String.format("%03d/song%06d.mp3", i / 1000, i));
+            if(!file.exists()) writeSyntheticSong(file, i);
+            songs.add(new Song(file.getPath()));
+            if(songs.size() == 1000 || i == count - 1) {
+                database.insertSongs(songs, "Library");
+                songs.clear();
+            }
+        }
+        database.shutdown();
+    }
+
+    /**
+     * Method writes a small MP3 file: an ID3v2 tag followed by 40 silent 8 kbps frames
+     * @param file the file to write
+     * @param number the number of the song, used in its tag
+     */
+    private static void writeSyntheticSong(File file, int number) throws IOException {
+        ID3v24Tag tag = new ID3v24Tag();
+        tag.setTitle("Synthetic Song " + number);
+        tag.setArtist("Artist " + number % 2000);
+        tag.setAlbum("Album " + number % 10000);
+        tag.setYear(Integer.toString(1960 + number % 60));
+        tag.setGenre(number % 8);
+        tag.setComment("Generated by the startup benchmark");
+
+        // MPEG 2.5 layer III, 8 kbps, 8000 Hz, mono, so every frame is 72 bytes
+        byte[] frame = new byte[72];
+        frame[0] = (byte)0xFF;
+        frame[1] = (byte)0xE3;
+        frame[2] = (byte)0x18;
+        frame[3] = (byte)0xC0;
+
+        file.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(tag.toBytes());
+            for(int i = 0; i < 40; i++)
+                out.write(frame);
+        } catch(Exception e) {
+            throw new IOException("Unable to write " + file, e);
+        }
+    }
+
+    /**
+     * Method measures the heap in use after collecting garbage
+     * @return the bytes of heap in use
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
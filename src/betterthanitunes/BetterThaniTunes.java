@@ -92,6 +92,18 @@ public class BetterThaniTunes {
         }
     }
     
+    /**
+     * Method updates the song table of all Views displaying a playlist, except the View that changed it
+     * @param callingView the view that already updated it's song table
+     * @param playlistName the playlist that needs to be updated in any other windows displaying it
+     */
+    public static void updateWindows(View callingView, String playlistName) {
+        for(View view : views) {
+            if((view != callingView) && view.getCurrentPlaylist().equals(playlistName))
+                view.updateSongTableView(view.getCurrentPlaylist());
+        }
+    }
+    
     /**
      * Method refreshes all View windows.
      */
@@ -100,6 +112,17 @@ public class BetterThaniTunes {
             view.updateSongTableView(view.getCurrentPlaylist());
     }
     
+    /**
+     * Method refreshes all View windows, except the View that already updated it's song table
+     * @param callingView the view that doesn't need to be refreshed
+     */
+    public static void updateAllWindows(View callingView) {
+        for(View view : views) {
+            if(view != callingView)
+                view.updateSongTableView(view.getCurrentPlaylist());
+        }
+    }
+    
     /**
      * Method updates the first View window created.
      */
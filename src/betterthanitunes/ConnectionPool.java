@@ -0,0 +1,273 @@
+package betterthanitunes;
+
+import java.util.List;
+import java.util.EnumMap;
+import java.util.ArrayList;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.DriverManager;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class keeps a small, fixed set of open database connections split into two
+ * lanes. The read lane has several connections so table loads, background scans
+ * and other selects can run at the same time. The write lane has one connection,
+ * so inserts, updates and deletes never wait behind a long read and never
+ * compete with each other for Derby's locks. Each connection has its own
+ * statement cache, and each lane records how long callers wait for a
+ * connection and how much of the time its connections are busy. Once the pool
+ * is closed no connection can be borrowed, and the connections still borrowed
+ * are closed as they are released.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class ConnectionPool {
+    public static final int DEFAULT_READ_CONNECTIONS = 3;
+    private static final long CLOSED_CHECK_MILLISECONDS = 100; // How often a caller waiting for a connection checks if the pool closed
+
+    /**
+     * Enum represents the two groups of connections in the pool.
+     */
+    public enum Lane {
+        READ, WRITE
+    }
+
+    /**
+     * Class represents one open connection of the pool along with its statement cache.
+     */
+    public static class PooledConnection {
+        private final Connection connection;
+        private final StatementCache statements;
+        private final Lane lane;
+        private int holdCount = 0;
+        private long borrowedAt;
+
+        private PooledConnection(Connection connection, Lane lane) {
+            this.connection = connection;
+            this.lane = lane;
+            statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        public StatementCache getStatements() {
+            return statements;
+        }
+
+        public Lane getLane() {
+            return lane;
+        }
+
+        /**
+         * Method closes the connection along with its cached statements.
+         */
+        private void close() {
+            statements.clear();
+            try {
+                connection.close();
+            } catch(SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Class holds the connections, the idle connections and statistics of one lane.
+     */
+    private static class LaneState {
+        private final int size;
+        private final List<PooledConnection> connections; // Every connection opened for the lane, idle or borrowed
+        private final BlockingQueue<PooledConnection> idle;
+        private final ThreadLocal<PooledConnection> held = new ThreadLocal<>();
+        private final LatencyStats waitStats;
+        private long busyNanos = 0;
+        private int inUse = 0, peakInUse = 0;
+
+        private LaneState(Lane lane, int size) {
+            this.size = size;
+            connections = new ArrayList<>(size);
+            idle = new ArrayBlockingQueue<>(size);
+            waitStats = new LatencyStats(lane + " connection wait");
+        }
+    }
+
+    private final String url;
+    private final EnumMap<Lane, LaneState> lanes = new EnumMap<>(Lane.class);
+    private long openedAt;
+    private volatile boolean closed = false; // Guarded by this when connections are given back to a lane
+
+    /**
+     * Constructor opens every connection of the pool
+     * @param url the URL of the database, including any connection attributes
+     * @param readConnections the number of connections in the read lane
+     * @throws SQLException if a connection could not be opened. Any connections already opened are closed
+     */
+    public ConnectionPool(String url, int readConnections) throws SQLException {
+        this.url = url;
+        lanes.put(Lane.WRITE, new LaneState(Lane.WRITE, 1));
+        lanes.put(Lane.READ, new LaneState(Lane.READ, Math.max(readConnections, 1)));
+        try {
+            // Open the write connection first, it is the one that creates the database if it doesn't exist
+            for(Lane lane : new Lane[] {Lane.WRITE, Lane.READ}) {
+                LaneState state = lanes.get(lane);
+                for(int i = 0; i < state.size; i++) {
+                    PooledConnection pooled = new PooledConnection(DriverManager.getConnection(url), lane);
+                    state.connections.add(pooled);
+                    state.idle.add(pooled);
+                }
+            }
+        } catch(SQLException e) {
+            close();
+            throw e;
+        }
+        openedAt = System.nanoTime();
+    }
+
+    /**
+     * Method takes a connection from a lane, waiting until one is idle. A thread that
+     * already holds a connection from the lane gets the same connection back, so nested
+     * calls can't deadlock. Every borrow must be matched by a call to release
+     * @param lane the lane to take the connection from
+     * @return a connection that only the calling thread is using
+     * @throws SQLException if the pool is closed, or the thread was interrupted while waiting
+     */
+    public PooledConnection borrow(Lane lane) throws SQLException {
+        if(closed) throw new SQLException("The connection pool is closed");
+        LaneState state = lanes.get(lane);
+        PooledConnection pooled = state.held.get();
+        if(pooled != null) {
+            pooled.holdCount++;
+            return pooled;
+        }
+
+        long start = System.nanoTime();
+        try {
+            // Every connection may be borrowed when the pool closes, so the wait is cut short to notice it
+            while((pooled = state.idle.poll(CLOSED_CHECK_MILLISECONDS, TimeUnit.MILLISECONDS)) == null) {
+                if(closed) throw new SQLException("The connection pool is closed");
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a " + lane + " connection", e);
+        }
+        long now = System.nanoTime();
+        state.waitStats.record(now - start);
+        if(closed) {
+            // The pool closed while the connection was being taken, after the idle connections were closed
+            pooled.close();
+            throw new SQLException("The connection pool is closed");
+        }
+
+        pooled.holdCount = 1;
+        pooled.borrowedAt = now;
+        state.held.set(pooled);
+        synchronized(state) {
+            state.inUse++;
+            if(state.inUse > state.peakInUse) state.peakInUse = state.inUse;
+        }
+        return pooled;
+    }
+
+    /**
+     * Method gives a borrowed connection back to its lane, or closes it if the pool has closed
+     * @param pooled the connection returned by borrow
+     */
+    public void release(PooledConnection pooled) {
+        if(--pooled.holdCount > 0) return;
+
+        LaneState state = lanes.get(pooled.lane);
+        state.held.remove();
+        synchronized(state) {
+            state.inUse--;
+            state.busyNanos += System.nanoTime() - pooled.borrowedAt;
+        }
+        synchronized(this) {
+            // close takes the pool's lock, so a connection given back here is either closed by it or closed below
+            if(!closed) {
+                state.idle.offer(pooled);
+                return;
+            }
+        }
+        pooled.close();
+    }
+
+    /**
+     * Method gets the statistics of how long callers waited for a connection from a lane
+     * @param lane the lane of the pool
+     * @return the wait time statistics of the lane
+     */
+    public LatencyStats getWaitStats(Lane lane) {
+        return lanes.get(lane).waitStats;
+    }
+
+    /**
+     * Method gets the share of time a lane's connections have been busy since the pool opened
+     * @param lane the lane of the pool
+     * @return the utilisation of the lane, from 0.0 (always idle) to 1.0 (always busy)
+     */
+    public double getUtilisation(Lane lane) {
+        LaneState state = lanes.get(lane);
+        long elapsed = System.nanoTime() - openedAt;
+        synchronized(state) {
+            return (elapsed <= 0) ? 0 : (double)state.busyNanos / ((double)elapsed * state.size);
+        }
+    }
+
+    /**
+     * Method gets the highest number of a lane's connections that were in use at the same time
+     * @param lane the lane of the pool
+     * @return the peak number of borrowed connections
+     */
+    public int getPeakInUse(Lane lane) {
+        LaneState state = lanes.get(lane);
+        synchronized(state) {
+            return state.peakInUse;
+        }
+    }
+
+    /**
+     * Method adds up the statement cache statistics of every connection, idle or borrowed
+     * @return a summary of the cache hits, misses and evictions
+     */
+    public String getStatementCacheSummary() {
+        long hits = 0, misses = 0, evictions = 0;
+        for(LaneState state : lanes.values()) {
+            for(PooledConnection pooled : state.connections) {
+                hits += pooled.statements.getHits();
+                misses += pooled.statements.getMisses();
+                evictions += pooled.statements.getEvictions();
+            }
+        }
+        return "Statement cache: " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+    }
+
+    /**
+     * Method closes the pool. The idle connections are closed now, along with their
+     * cached statements, and the borrowed ones are closed when they are released.
+     */
+    public void close() {
+        synchronized(this) {
+            closed = true;
+        }
+        for(LaneState state : lanes.values()) {
+            PooledConnection pooled;
+            while((pooled = state.idle.poll()) != null)
+                pooled.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder("Connection pool (" + url + ")");
+        for(Lane lane : Lane.values()) {
+            LaneState state = lanes.get(lane);
+            summary.append(String.format("%n%s lane: %d connections, %.1f%% utilised, peak %d in use, %s",
+                                         lane, state.size, getUtilisation(lane) * 100, getPeakInUse(lane), state.waitStats));
+        }
+        return summary.toString();
+    }
+}
@@ -1,12 +1,21 @@
 package betterthanitunes;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import javax.swing.SwingUtilities;
+import com.mpatric.mp3agic.ID3v1Genres;
 import javazoom.jlgui.basicplayer.BasicController;
-import javazoom.jlgui.basicplayer.BasicPlayer;
 import javazoom.jlgui.basicplayer.BasicPlayerEvent;
 import javazoom.jlgui.basicplayer.BasicPlayerException;
 import javazoom.jlgui.basicplayer.BasicPlayerListener;
@@ -19,60 +28,127 @@ import javazoom.jlgui.basicplayer.BasicPlayerListener;
  * @author Mark Saavedra
  */
 public class Controller implements BasicPlayerListener {
+    public static final int RECENTLY_PLAYED_SIZE = 10;
+    
     private BasicController controller;
-    private BasicPlayer player = new BasicPlayer();
+    private final PlaybackActor actor = new PlaybackActor(this::songEnded); // Owns the player. Commands to it run on the actor's thread
+    private final GaplessPlayer player = actor.getPlayer(); // Plays the next song in the play queue without a gap
     private DatabaseModel database;
+    private WriteBehindQueue writes; // Changes made from the windows are written to the database in the background
+    private TagWriteQueue tagWrites; // Changes to songs are written to their files in the background
+    // Edits of songs still queued to be written, by path and column. Songs read from the database are shown with them
+    private final HashMap<String, HashMap<Integer, Object>> pendingEdits = new HashMap<>(); // Guarded by itself
+    private FolderWatcher watcher; // Keeps the Library up to date with a folder, if one is being watched
     
     private double gain = 0.5; // Volume (0.0 - 1.0)
-    private long secondsPlayed = 0; // Song progression
-    private int currentIndex = -1;
-    private String songPlaying = "";
-    private boolean repeatSong = false, repeatPlaylist = false;
-    
-    private HashMap<String, Song> songs = new HashMap<>();
-    private ArrayList<String> playOrder = new ArrayList<>();
-    public static ArrayList<String> genres = new ArrayList<>();
-    private ArrayList<String> recentlyPlayed = new ArrayList<>();
+    private volatile long songLength = 0; // Length of the song playing in microseconds, from its Song when it starts
+    private volatile String songPlaying = "";
+    private volatile Song externalSong; // The song playing from outside the Library, read from its file once when it started
+    private volatile boolean nextPrepared = false; // Whether the song after the one playing has been handed to the player
+    private volatile long endOfMedia = 0; // When the last song ended without a prepared song to follow it, in nanoseconds
+    private final LatencyStats endOfMediaStats = new LatencyStats("Transitions after end of media");
+    private final ProgressBus progressBus = new ProgressBus(); // The position of the song playing, sampled by the windows
+    private final LatencyStats progressStats = new LatencyStats("Progress callback");
+    private final FirstAudioStats libraryFirstAudio = new FirstAudioStats("Library songs");
+    private final FirstAudioStats externalFirstAudio = new FirstAudioStats("External songs");
+    private volatile FirstAudioStats firstAudio; // The statistics the song being started is recorded in
+    private volatile long[] firstAudioMarks; // When each stage of starting the song began, until its first audio is reported
+    private volatile boolean repeatSong = false, repeatPlaylist = false; // Changed on the playback thread, read by the player too
+    
+    private SongCache songs = new SongCache(this::loadSong, SongCache.DEFAULT_CAPACITY); // Songs of the Library, built when first used
+    private HashSet<String> playlists = new HashSet<>(); // Names of the playlists, so new names can be checked without the database
+    private final PlayQueue playQueue = new PlayQueue(); // The songIds of the song table that filled it, and the songs queued to play next
+    private List<Object> playOrderKey; // The rows and order of the table the play queue was read from. Only used on the event dispatch thread
+    private volatile String playOrderPlaylist = ""; // The playlist the play queue was read from, so songs added to it are added to the queue
+    private volatile boolean playOrderBrowsing = false; // Whether the play queue was read from songs selected in the browser
+    private final FacetIndex facets = new FacetIndex(); // Genres, years, artists and albums of the Library, for the browser
+    // Names of the ID3 genre codes: the ID3v1 and Winamp genres mp3agic knows, then the ones Winamp 5.6 added
+    public static final List<String> genres;
+    static {
+        ArrayList<String> names = new ArrayList<>(Arrays.asList(ID3v1Genres.GENRES));
+        names.addAll(Arrays.asList("Abstract", "Art Rock", "Baroque", "Bhangra", "Big Beat", "Breakbeat", "Chillout",
+                                   "Downtempo", "Dub", "EBM", "Eclectic", "Electro", "Electroclash", "Emo", "Experimental",
+                                   "Garage", "Global", "IDM", "Illbient", "Industro-Goth", "Jam Band", "Krautrock",
+                                   "Leftfield", "Lounge", "Math Rock", "New Romantic", "Nu-Breakz", "Post-Punk",
+                                   "Post-Rock", "Psytrance", "Shoegaze", "Space Rock", "Trop Rock", "World Music",
+                                   "Neoclassical", "Audiobook", "Audio Theatre", "Neue Deutsche Welle", "Podcast",
+                                   "Indie Rock", "G-Funk", "Dubstep", "Garage Rock", "Psybient"));
+        genres = Collections.unmodifiableList(names);
+    }
+    
+    // Ring buffer of the names of recently played songs, where recentlyPlayedHead is the slot of the newest song
+    private final String[] recentlyPlayed = new String[RECENTLY_PLAYED_SIZE];
+    private int recentlyPlayedHead = -1, recentlyPlayedCount = 0;
 	
     public Controller() {
     	player.addBasicPlayerListener(this);
+    	player.setTrackListener(this::trackStarted);
     	controller = (BasicController)player;
         
-        genres.add("Hip-Hop");
-        genres.add("Classical");
-        genres.add("Unknown");
-        genres.add("Rock");
-        genres.add("Pop");
-        genres.add("Electronic");
-        genres.add("Dance");
-        genres.add("Mix");
-        
         database = new DatabaseModel();
         if(!database.createConnection()) System.exit(0);
+        writes = new WriteBehindQueue(database);
+        tagWrites = new TagWriteQueue(this);
         
-        Object[][] songData = returnAllSongs("Library");
-        for(int i = 0; i < songData.length; i++)
-            songs.put(songData[i][6].toString(), new Song(songData[i][6].toString()));
+        playlists.addAll(database.returnAllPlaylists());
         
-        recentlyPlayed = database.returnRecentlyPlayedSongs();
+        // Fill the ring buffer oldest first, and delete older songs left in the table by earlier versions
+        ArrayList<String> recentSongs = database.returnRecentlyPlayedSongs(RECENTLY_PLAYED_SIZE);
+        for(int i = recentSongs.size() - 1; i >= 0; i--)
+            pushRecentlyPlayed(recentSongs.get(i));
+        writes.submit("trimRecentlyPlayed", () -> database.trimRecentlyPlayed(RECENTLY_PLAYED_SIZE));
+        
+        // The browser's index reads the whole Library, so it is built without delaying the window
+        Thread indexer = new Thread(() -> facets.build(returnSongs("Library", new SongSort(SongSort.Column.ID, true), null, 0)),
+                                    "Facet index");
+        indexer.setDaemon(true);
+        indexer.start();
     }
     
-    public ArrayList<String> getRecentlyPlayed() {
-        recentlyPlayed = database.returnRecentlyPlayedSongs();
-        ArrayList<String> temp = new ArrayList<>();
-        if(recentlyPlayed.size() > 10) {
-            for(int i = 0; i < 10; i++) {
-                temp.add(recentlyPlayed.get(i));
-            }
-            return temp;
-        } else
-            return recentlyPlayed;
+    /**
+     * Method gets the name of an ID3 genre code
+     * @param genre the genre code
+     * @return the name of the genre, or Unknown if the code isn't in the genre table
+     */
+    public static String getGenreName(int genre) {
+        return (genre >= 0 && genre < genres.size()) ? genres.get(genre) : "Unknown";
+    }
+    
+    /**
+     * Method gets the recently played songs from memory
+     * @return the names of the songs, most recently played first
+     */
+    public synchronized ArrayList<String> getRecentlyPlayed() {
+        ArrayList<String> songNames = new ArrayList<>(recentlyPlayedCount);
+        for(int i = 0; i < recentlyPlayedCount; i++)
+            songNames.add(recentlyPlayed[(recentlyPlayedHead - i + RECENTLY_PLAYED_SIZE) % RECENTLY_PLAYED_SIZE]);
+        return songNames;
     }
     
+    /**
+     * Method records that a song was played. The song is added to the ring buffer and to the
+     * Play Recent menu of every View right away, and saved to the database in the background,
+     * where all but the newest RECENTLY_PLAYED_SIZE songs are deleted
+     * @param songName the name of the song that was played
+     */
     public void addToRecentlyPlayed(String songName) {
-        int size = database.getRecentlyPlayedSize();
-        database.addToRecentlyPlayed(songName, size);
+        if(songName.length() == 0) return;
+        pushRecentlyPlayed(songName);
+        writes.submit(() -> database.addToRecentlyPlayed(songName));
+        // Only the last trim queued before a flush is needed, so every trim has the same key
+        writes.submit("trimRecentlyPlayed", () -> database.trimRecentlyPlayed(RECENTLY_PLAYED_SIZE));
         
+        updateViews(view -> view.addRecentlyPlayedSong(songName));
+    }
+    
+    /**
+     * Method puts a song into the next slot of the ring buffer, overwriting the oldest song once it is full
+     * @param songName the name of the song
+     */
+    private synchronized void pushRecentlyPlayed(String songName) {
+        recentlyPlayedHead = (recentlyPlayedHead + 1) % RECENTLY_PLAYED_SIZE;
+        recentlyPlayed[recentlyPlayedHead] = songName;
+        if(recentlyPlayedCount < RECENTLY_PLAYED_SIZE) recentlyPlayedCount++;
     }
     
     public String getCurrentSong() {
@@ -81,20 +157,42 @@ public class Controller implements BasicPlayerListener {
     
     public String getCurrentSongName() {
         if(songPlaying.length() == 0) return "";
-        return (songs.get(songPlaying).getTitle());
+        Song song = getPlayingSong();
+        return (song != null) ? song.getTitle() : new File(songPlaying).getName();
     }
     
     /**
-     * Method updates the volume of song playback
+     * Method gets the Song playing without reading its file: a song of the Library
+     * from the song cache, and a song outside it as it was read when it started
+     * @return the Song, or null if nothing is playing
+     */
+    private Song getPlayingSong() {
+        String path = songPlaying;
+        if(path.length() == 0) return null;
+        Song song = externalSong;
+        return (song != null && song.getPath().equals(path)) ? song : songs.get(path);
+    }
+    
+    /**
+     * Method updates the volume of song playback. The player's gain is
+     * changed on the thread of the PlaybackActor
      * @param volume the value to set the gain
      */
     public void changeVolume(double volume) {
+        actor.send(PlaybackActor.Command.VOLUME, () -> setVolume(volume));
+    }
+    
+    /**
+     * Method sets the gain of the player, on the thread of the PlaybackActor
+     * @param volume the value to set the gain
+     */
+    private void setVolume(double volume) {
         try {
-            if(isPlayerActive()) controller.setGain(volume);
+            // The player has a gain control while a song is open, even before the actor has seen it start
+            if(player.hasGainControl()) controller.setGain(volume);
             gain = volume;
             // Update the volume slider of all Views
-            for(View view : BetterThaniTunes.getAllViews())
-                view.updateVolumeSlider(gain);
+            updateViews(view -> view.updateVolumeSlider(volume));
         }
         catch(BasicPlayerException e) {
             e.printStackTrace();
@@ -115,22 +213,210 @@ public class Controller implements BasicPlayerListener {
      * @return true if the song exists in the library. Otherwise, false
      */
     public boolean songExists(String path) {
-        return songs.containsKey(path);
+        return songs.getIfPresent(path) != null || database.songExists(path);
     }
     
     /**
-     * Method maps a song's path to it's Song object so it can be referred to by any playlist
+     * Method adds a song to a playlist, caching it's Song object if it is new to the Library
      * @param song the song to be added
      * @param playlistName the playlist for the song to be added to
      * @return true if the song is added. Otherwise, false
      */
     public boolean addSong(Song song, String playlistName) {
-        if(database.insertSong(song, playlistName)) {
-            if(playlistName.equals("Library"))
-                songs.put(song.getPath(), song);
+        DatabaseModel.InsertResult result = addSongs(Collections.singletonList(song), playlistName).get(0);
+        return result == DatabaseModel.InsertResult.ADDED_TO_LIBRARY || result == DatabaseModel.InsertResult.ADDED_TO_PLAYLIST;
+    }
+    
+    /**
+     * Method adds many songs to a playlist in one database transaction,
+     * caching the Song object of every song that is new to the Library
+     * @param songs the songs to be added
+     * @param playlistName the playlist for the songs to be added to
+     * @return the result for each song, in the same order as the songs
+     */
+    public List<DatabaseModel.InsertResult> addSongs(Collection<Song> songs, String playlistName) {
+        flushWrites("Playlists", playlistName); // The playlist may have been created by a write that is still queued
+        Map<String, Integer> newSongIds = new HashMap<>();
+        List<DatabaseModel.InsertResult> results = database.insertSongs(songs, playlistName, newSongIds);
+        // Songs added to the playlist the play queue was read from join the end of the queue
+        boolean queuePlaylist = !playOrderBrowsing && playOrderPlaylist.equals(playlistName);
+        boolean queueLibrary = !playOrderBrowsing && playOrderPlaylist.equals("Library");
+        boolean queued = false;
+        int i = 0;
+        for(Song song : songs) {
+            Integer songId = newSongIds.get(song.getPath());
+            DatabaseModel.InsertResult result = results.get(i++);
+            if(result == DatabaseModel.InsertResult.ADDED_TO_LIBRARY && songId != null) {
+                Song added = song.withSongId(songId);
+                this.songs.put(added);
+                facets.put(added);
+                if(queuePlaylist || queueLibrary) {
+                    playQueue.append(songId);
+                    queued = true;
+                }
+            }
+            else if(result == DatabaseModel.InsertResult.ADDED_TO_PLAYLIST && queuePlaylist) {
+                int addedId = songIdOf(song.getPath());
+                if(addedId != -1) {
+                    playQueue.append(addedId);
+                    queued = true;
+                }
+            }
+        }
+        if(queued) cancelNextSong();
+        return results;
+    }
+    
+    /**
+     * Method starts importing every MP3 file in a folder and its subfolders in the background.
+     * Songs already in the Library are skipped
+     * @param folder the folder to import
+     * @param playlistName the playlist for the songs to be added to
+     * @param skipDuplicates whether to skip files whose audio is already in the Library under another path
+     * @return the import, to follow its progress or cancel it
+     */
+    public FolderImport importFolder(File folder, String playlistName, boolean skipDuplicates) {
+        FolderImport folderImport = new FolderImport(this, folder, playlistName, skipDuplicates);
+        folderImport.start();
+        return folderImport;
+    }
+    
+    /**
+     * Method finds the songs of the Library that have the same audio, fingerprinting
+     * the songs that were imported without a fingerprint first
+     * @return the duplicates
+     */
+    public DuplicateFinder.Report findDuplicates() {
+        return new DuplicateFinder(this).findDuplicates();
+    }
+    
+    /**
+     * Method returns the paths of the songs whose audio hasn't been fingerprinted
+     * @return list of the paths
+     */
+    public List<String> returnUnfingerprintedPaths() {
+        writes.flush();
+        return database.returnUnfingerprintedPaths();
+    }
+    
+    /**
+     * Method stores the fingerprints of songs
+     * @param fingerprints map from the path of each song to its AudioFingerprint
+     * @return true if every song was updated. Otherwise, false
+     */
+    public boolean updateFingerprints(Map<String, Long> fingerprints) {
+        if(!database.updateFingerprints(fingerprints)) return false;
+        for(String path : fingerprints.keySet())
+            songs.remove(path); // Built again from the database, with its fingerprint, the next time it is used
+        return true;
+    }
+    
+    /**
+     * Method finds a song of the Library with the same audio as a file
+     * @param fingerprint the AudioFingerprint of the file
+     * @return the path of the song, or null if no song has the fingerprint
+     */
+    public String returnPathWithFingerprint(long fingerprint) {
+        writes.flush();
+        return database.returnPathWithFingerprint(fingerprint);
+    }
+    
+    /**
+     * Method finds the songs whose audio is the same as another song's
+     * @return the paths of the duplicates, grouped by their audio
+     */
+    public List<List<String>> returnDuplicates() {
+        writes.flush();
+        return database.returnDuplicates();
+    }
+    
+    /**
+     * Method updates the songs whose files changed on disk with the tags and
+     * audio metadata read from the files again
+     * @param songs the songs, read again from their files
+     * @return true if the songs were updated. Otherwise, false
+     */
+    public boolean updateSongFiles(List<Song> songs) {
+        tagWrites.flush(); // Edits still queued would otherwise overwrite the new tags
+        writes.flush();
+        if(!database.updateSongFiles(songs)) return false;
+        for(Song song : songs) {
+            this.songs.remove(song.getPath()); // Built again from the database the next time it is used
+            facets.put(song);
+        }
+        return true;
+    }
+    
+    /**
+     * Method records the new size and modification time of a file whose tags were
+     * written, so the next rescan doesn't read it again. Called by the tag writer
+     * @param path the path of the file
+     */
+    public void tagsWritten(String path) {
+        File file = new File(path);
+        long fileSize = file.length(), lastModified = file.lastModified();
+        writes.submit(Arrays.asList("Stamp", path), () -> database.updateFileStamp(path, fileSize, lastModified));
+    }
+    
+    /**
+     * Method returns the size and modification time stored for the songs in a folder
+     * @param folder the folder, or null for every song in the Library
+     * @return map from each song's path to its file size and modification time
+     */
+    public Map<String, long[]> returnFileStamps(String folder) {
+        return database.returnFileStamps(folder);
+    }
+    
+    /**
+     * Method returns the size and modification time stored for songs
+     * @param paths the paths of the songs
+     * @return map from the path of each song in the Library to its file size and modification time
+     */
+    public Map<String, long[]> returnFileStamps(Collection<String> paths) {
+        return database.returnFileStamps(paths);
+    }
+    
+    /**
+     * Method checks every song in the Library against its file, reading the
+     * changed files again and removing the songs whose files are gone
+     * @return the changes made
+     */
+    public LibraryScanner.Result rescanLibrary() {
+        return new LibraryScanner(this).rescanLibrary();
+    }
+    
+    /**
+     * Method starts keeping the Library up to date with a folder and its subfolders,
+     * instead of the folder watched before
+     * @param folder the folder to watch
+     * @return true if the folder is being watched. Otherwise, false
+     */
+    public synchronized boolean watchFolder(File folder) {
+        stopWatching();
+        try {
+            watcher = new FolderWatcher(new LibraryScanner(this), folder);
+            watcher.start();
             return true;
+        } catch(IOException e) {
+            e.printStackTrace();
+            return false;
         }
-        return false;
+    }
+    
+    /**
+     * Method stops watching the folder being watched, if there is one.
+     */
+    public synchronized void stopWatching() {
+        if(watcher != null) watcher.close();
+        watcher = null;
+    }
+    
+    /**
+     * Method gets the folder being watched
+     * @return the folder, or null if no folder is being watched
+     */
+    public synchronized File getWatchedFolder() {
+        return (watcher != null) ? watcher.getFolder() : null;
     }
     
     /**
@@ -141,56 +427,228 @@ public class Controller implements BasicPlayerListener {
      * @return true if the song is deleted. Otherwise, false
      */
     public boolean deleteSong(Song song, String playlistName, int id) {
-        if(song.getPath().equals(songPlaying)) stop();
-        if(database.deleteSong(song, playlistName, id)) {
-            if(playlistName.equals("Library"))
-                songs.remove(song.getPath());
+        return deleteSongs(Collections.singletonList(song.getPath()), Collections.singletonList(id), playlistName);
+    }
+    
+    /**
+     * Method deletes many songs from a playlist in one database transaction. Songs removed
+     * from a playlist are deleted by the write-behind queue, songs deleted from the Library
+     * right away, so they are also dropped from the song cache
+     * @param paths the paths of the songs to be deleted
+     * @param ids the unique id of each song in the playlist, in the same order as the paths
+     * @param playlistName the playlist for the songs to be deleted from
+     * @return true if all of the songs are deleted, or queued to be deleted. Otherwise, false
+     */
+    public boolean deleteSongs(List<String> paths, List<Integer> ids, String playlistName) {
+        if(paths.contains(songPlaying)) stop();
+        // Songs deleted from the Library leave every play queue, songs removed from a playlist only its own
+        if(playlistName.equals("Library") || (!playOrderBrowsing && playOrderPlaylist.equals(playlistName))) {
+            for(String path : paths) {
+                int songId = songIdOf(path);
+                if(songId != -1) playQueue.remove(songId);
+            }
+            cancelNextSong();
+        }
+        if(!playlistName.equals("Library")) {
+            List<String> removedPaths = new ArrayList<>(paths);
+            List<Integer> removedIds = new ArrayList<>(ids);
+            // Reads of the playlist wait for the removal, as the rows read depend on it
+            return writes.submit(Arrays.asList("Rows", playlistName, new Object()),
+                                 () -> database.deleteSongs(removedPaths, removedIds, playlistName));
+        }
+        
+        writes.flush();
+        if(database.deleteSongs(paths, ids, playlistName)) {
+            if(playlistName.equals("Library")) {
+                for(String path : paths) {
+                    songs.remove(path);
+                    facets.remove(path);
+                }
+            }
             return true;
         }
         return false;
     }
     
     /**
-     * Method updates one attribute of a song in the database
+     * Method updates one attribute of a song. The database is updated by the write-behind
+     * queue, where a newer value for the same song and column replaces one not yet written,
+     * and the tags of an MP3 file by the tag writer, which writes each file once for several changes
      * @param songPath the desired song to update
      * @param updatedColumn the column relating the view table and database table
      * @param updatedValue the value to update the database row
-     * @return true if the update in the database was successful. Otherwise, false
+     * @return true if the update was queued. Otherwise, false
      */
     public boolean updateSong(String songPath, int updatedColumn, Object updatedValue) {
-        if(database.updateSong(songPath, updatedColumn, updatedValue)) {
-            songs.get(songPath).setArtist(updatedValue.toString());
-            /*
-                songs.get(songPath).saveSong(songPath);
-                This line needs to work but it currently doesn't. Without it,
-                songs will still display the original tag info they had when
-                they were created. The database and song table will contain the
-                changes though.
-            */
+        // The edit is shown by songs read before it is written, so reading them doesn't wait for it
+        synchronized(pendingEdits) {
+            pendingEdits.computeIfAbsent(songPath, path -> new HashMap<>()).put(updatedColumn, updatedValue);
+        }
+        if(writes.submit(Arrays.asList("Songs", songPath, updatedColumn), () -> {
+            boolean updated = database.updateSong(songPath, updatedColumn, updatedValue);
+            editWritten(songPath, updatedColumn, updatedValue);
+            return updated;
+        })) {
+            if(TagWriter.canWrite(songPath)) tagWrites.submit(songPath, updatedColumn, updatedValue);
+            facets.update(songPath, updatedColumn, updatedValue);
+            // A song that isn't cached is built from the database the next time it is used, so it will have the change
+            Song song = songs.getIfPresent(songPath);
+            if(song != null) songs.put(song.withTag(updatedColumn, updatedValue));
             if(songPath.equals(songPlaying)) {
-                for(View view : BetterThaniTunes.getAllViews())
-                    view.updatePlayer(songs.get(songPlaying));
+                Song playing = songs.get(songPath);
+                updateViews(view -> view.updatePlayer(playing));
             }
             return true;
         }
-        else return false;
+        editWritten(songPath, updatedColumn, updatedValue);
+        return false;
+    }
+    
+    /**
+     * Method forgets an edit once it has been written, in the transaction of its batch. Its rows
+     * are locked until the batch commits, so a read that no longer sees the edit waits for it
+     * @param path the path of the song
+     * @param column the column edited
+     * @param value the value written. A newer edit of the same column is kept
+     */
+    private void editWritten(String path, int column, Object value) {
+        synchronized(pendingEdits) {
+            HashMap<Integer, Object> edits = pendingEdits.get(path);
+            if(edits == null || edits.get(column) != value) return;
+            edits.remove(column);
+            if(edits.isEmpty()) pendingEdits.remove(path);
+        }
+    }
+    
+    /**
+     * Method copies the edits not yet written. It is called before the database is read, so
+     * an edit written while the read runs is still shown
+     * @return the edits by path and column
+     */
+    private Map<String, HashMap<Integer, Object>> copyPendingEdits() {
+        synchronized(pendingEdits) {
+            if(pendingEdits.isEmpty()) return Collections.emptyMap();
+            Map<String, HashMap<Integer, Object>> copy = new HashMap<>();
+            for(Map.Entry<String, HashMap<Integer, Object>> entry : pendingEdits.entrySet())
+                copy.put(entry.getKey(), new HashMap<>(entry.getValue()));
+            return copy;
+        }
+    }
+    
+    /**
+     * Method applies the edits not yet written to a song read from the database
+     * @param song the song, or null
+     * @param edits the edits copied before the song was read
+     * @return the song with its edits
+     */
+    private static Song withEdits(Song song, Map<String, HashMap<Integer, Object>> edits) {
+        HashMap<Integer, Object> songEdits = (song != null) ? edits.get(song.getPath()) : null;
+        if(songEdits != null) {
+            for(Map.Entry<Integer, Object> edit : songEdits.entrySet())
+                song = song.withTag(edit.getKey(), edit.getValue());
+        }
+        return song;
+    }
+    
+    /**
+     * Method applies the edits not yet written to the rows read from the database
+     * @param songData the rows
+     * @param edits the edits copied before the rows were read
+     * @return the rows, with their edits
+     */
+    private static SongData withEdits(SongData songData, Map<String, HashMap<Integer, Object>> edits) {
+        if(edits.isEmpty() || songData == null) return songData;
+        for(int row = 0; row < songData.size(); row++) {
+            if(edits.containsKey(songData.getPath(row)))
+                songData.setSong(row, withEdits(songData.getSong(row), edits));
+        }
+        return songData;
+    }
+    
+    /**
+     * Method waits for the queued writes of one kind, for one playlist or every playlist
+     * when the name is null, before the database is read. Edits of songs aren't waited
+     * for, as songs read are shown with them
+     * @param kind the first element of the keys of the writes, such as "Rows" or "Columns"
+     * @param playlistName the playlist the writes change, or null for any
+     */
+    private void flushWrites(String kind, String playlistName) {
+        Predicate<Object> affects = key -> (key instanceof List) && ((List<?>)key).get(0).equals(kind)
+                                           && (playlistName == null || ((List<?>)key).get(1).equals(playlistName));
+        writes.flush(affects);
     }
     
     /**
-     * Method gets a specific song from the Library
-     * @param path the key of the Song object in the map
-     * @return the Song object corresponding to it's key (path)
+     * Method gets a specific song from the Library, building it if it isn't cached
+     * @param path the path of the song
+     * @return the Song object corresponding to it's path, or null if the song isn't in the Library
      */
     public Song getSong(String path) {
         return songs.get(path);
     }
     
+    /**
+     * Method builds the Song of a Library song that isn't in the song cache from its
+     * row in the Songs table, which holds everything a Song does, so the file isn't read
+     * @param path the path of the song
+     * @return the Song, or null if the song isn't in the Library
+     */
+    private Song loadSong(String path) {
+        Map<String, HashMap<Integer, Object>> edits = copyPendingEdits();
+        return withEdits(database.returnLibrarySong(path), edits);
+    }
+    
+    /**
+     * Method finds the songId of a song of the Library, from the browser's index if it is built
+     * @param path the path of the song
+     * @return the songId, or -1 if the song isn't in the Library
+     */
+    private int songIdOf(String path) {
+        int songId = facets.getSongId(path);
+        if(songId != -1) return songId;
+        Song song = songs.get(path);
+        return (song != null) ? song.getSongId() : -1;
+    }
+    
+    /**
+     * Method gets the Song of a songId in the play queue, from the browser's index if it is
+     * built, so the song after the one playing is found without reading the database
+     * @param songId the songId
+     * @return the Song, or null if the songId is PlayQueue.NONE or the song isn't in the Library
+     */
+    private Song getQueuedSong(int songId) {
+        if(songId == PlayQueue.NONE) return null;
+        Song song = facets.getSong(songId);
+        if(song != null) return song;
+        Map<String, HashMap<Integer, Object>> edits = copyPendingEdits();
+        song = withEdits(database.returnLibrarySong(songId), edits);
+        if(song != null) songs.put(song);
+        return song;
+    }
+    
+    /**
+     * Method gets the cache of Song objects
+     * @return the song cache
+     */
+    public SongCache getSongCache() {
+        return songs;
+    }
+    
+    /**
+     * Method gets the index that the browser lists and selects songs of the Library from
+     * @return the facet index
+     */
+    public FacetIndex getFacetIndex() {
+        return facets;
+    }
+    
     /**
      * Method gets all of the attributes for one row in the Songs table
      * @param path the specific row to pull from the databse
      * @return array of Objects that are attributes for a database row
      */
     public Object[] getSongData(String path) {
+        writes.flush();
         return database.returnSong(path);
     }
     
@@ -200,25 +658,105 @@ public class Controller implements BasicPlayerListener {
      * @return 2D Object array of songs and their attributes
      */
     public Object[][] returnAllSongs(String playlistName) {
+        writes.flush();
         return database.returnAllSongs(playlistName);
     }
     
     /**
-     * Method attempts to add a playlist to the database
+     * Method returns the data for all songs in a playlist from the database, column by column
+     * @param playlistName the desired playlist
+     * @return the songs in the playlist
+     */
+    public SongData loadSongs(String playlistName) {
+        writes.flush();
+        return database.loadSongs(playlistName);
+    }
+    
+    /**
+     * Method returns one page of a playlist in a sort order, starting after the last row of the previous page
+     * @param playlistName the desired playlist
+     * @param sort the order of the songs
+     * @param afterKey the position of the last row of the previous page, or null for the first page
+     * @param limit the maximum number of songs, or 0 for the rest of the playlist
+     * @return the songs of the page
+     */
+    public SongData returnSongs(String playlistName, SongSort sort, SongSort.Position afterKey, int limit) {
+        flushWrites("Rows", playlistName);
+        Map<String, HashMap<Integer, Object>> edits = copyPendingEdits();
+        return withEdits(database.returnSongs(playlistName, sort, afterKey, limit), edits);
+    }
+    
+    /**
+     * Method returns one page of a playlist in a sort order, starting at a row number
+     * @param playlistName the desired playlist
+     * @param sort the order of the songs
+     * @param offset the number of songs to skip
+     * @param limit the maximum number of songs, or 0 for the rest of the playlist
+     * @return the songs of the page
+     */
+    public SongData returnSongs(String playlistName, SongSort sort, int offset, int limit) {
+        flushWrites("Rows", playlistName);
+        Map<String, HashMap<Integer, Object>> edits = copyPendingEdits();
+        return withEdits(database.returnSongs(playlistName, sort, offset, limit), edits);
+    }
+    
+    /**
+     * Method returns the songIds of every song in a playlist in a sort order
+     * @param playlistName the desired playlist
+     * @param sort the order of the songs
+     * @return the songIds in order
+     */
+    public int[] returnSongIds(String playlistName, SongSort sort) {
+        writes.flush();
+        return database.returnSongIds(playlistName, sort);
+    }
+    
+    /**
+     * Method determines whether the pages of a playlist in a sort order are read through an index,
+     * so each page costs the same however large the playlist is
+     * @param playlistName the desired playlist
+     * @param sort the order of the songs
+     * @return true if the playlist can be read a page at a time
+     */
+    public boolean isIndexed(String playlistName, SongSort sort) {
+        return database.isIndexed(playlistName, sort);
+    }
+    
+    /**
+     * Method counts the songs in a playlist
+     * @param playlistName the desired playlist
+     * @return the number of songs in the playlist
+     */
+    public int countSongs(String playlistName) {
+        flushWrites("Rows", playlistName);
+        return database.countSongs(playlistName);
+    }
+    
+    /**
+     * Method attempts to add a playlist, which is inserted into the database by the write-behind queue
      * @param playlistName the name of the playlist to be inserted
-     * @return true if the playlist was inserted. Otherwise, false
+     * @return true if the playlist was queued to be inserted. False if the name is taken or not allowed
      */
     public boolean addPlaylist(String playlistName) {
-        return database.insertPlaylist(playlistName);
+        if(playlistName.equals("Library") || playlistName.equals("")) {
+            System.out.println("You cannot create a playlist called " + playlistName);
+            return false;
+        }
+        if(!playlists.add(playlistName)) {
+            System.out.println("\n" + playlistName + " already exists!");
+            return false;
+        }
+        return writes.submit(Arrays.asList("Playlists", playlistName, new Object()), () -> database.insertPlaylist(playlistName));
     }
     
     /**
-     * Method attempts to delete a playlist from the database
+     * Method attempts to delete a playlist, which is deleted from the database by the write-behind queue
      * @param playlistName the name of the playlist to be inserted
-     * @return true if the playlist was deleted. Otherwise, false
+     * @return true if the playlist was queued to be deleted. Otherwise, false
      */
     public boolean deletePlaylist(String playlistName) {
-        return database.deletePlaylist(playlistName);
+        playlists.remove(playlistName);
+        return writes.submit(Arrays.asList("Playlists", playlistName, new Object()), () -> database.deletePlaylist(playlistName));
     }
     
     /**
@@ -226,6 +764,7 @@ public class Controller implements BasicPlayerListener {
      * @return list of playlist names
      */
     public ArrayList<String> returnAllPlaylists() {
+        flushWrites("Playlists", null);
         return database.returnAllPlaylists();
     }
     
@@ -237,7 +776,9 @@ public class Controller implements BasicPlayerListener {
      * @return true if the column visibility was updated. Otherwise, false
      */
     public boolean setColumnVisibility(String playlist, String column, boolean visibility) {
-        return database.updateColumnVisibility(playlist, column, visibility);
+        // Toggling a column again before the queue is flushed replaces the earlier write
+        return writes.submit(Arrays.asList("Columns", playlist, column),
+                             () -> database.updateColumnVisibility(playlist, column, visibility));
     }
     
     /**
@@ -246,70 +787,213 @@ public class Controller implements BasicPlayerListener {
      * @return an array of booleans indicating the column visibilities
      */
     public boolean[] getColumnVisibility(String playlistName) {
+        // The columns of a playlist are stored when it is inserted
+        flushWrites("Playlists", playlistName);
+        flushWrites("Columns", playlistName);
         return database.returnColumnVisibility(playlistName);
     }
     
     /**
-     * Method updates the playOrder array list to contain the order of songs as they
-     * appear in a playlist, so they can be iterated over for consecutive playback
-     * @param songPaths the paths of the songs
+     * Method makes the play queue follow the rows of a song table in the order they are
+     * displayed. If the queue was already read from the same rows in the same order, it is
+     * kept as it is, since the songs added and deleted since then were added to and removed
+     * from it. Otherwise only the songIds of the rows are read, on the thread of the
+     * PlaybackActor after the commands sent before it, so a song played just before
+     * starts without waiting for them
+     * @param table the table model of the song table
      */
-    public void updatePlayOrder(ArrayList<String> songPaths) {
-        playOrder.clear();
-        for(String songPath : songPaths)
-            playOrder.add(songPath);
+    public void updatePlayOrder(SongTableModel table) {
+        List<Object> key = table.getOrderKey();
+        if(key.equals(playOrderKey)) return;
+        playOrderKey = key;
+        playOrderPlaylist = table.getPlaylist();
+        playOrderBrowsing = table.isBrowsing();
+        Supplier<int[]> songIds = table.getSongIdReader();
+        actor.send(null, () -> {
+            playQueue.setOrder(songIds.get());
+            cancelNextSong();
+        });
     }
     
     /**
-     * Method randomizes the playOrder array list.
+     * Method shuffles the play queue, after the commands sent before it.
      */
     public void shufflePlayOrder() {
-        Collections.shuffle(playOrder);
+        actor.send(null, () -> {
+            playQueue.shuffle();
+            cancelNextSong();
+        });
+    }
+    
+    /**
+     * Method plays the play queue in the order of its song table again, continuing from
+     * the song playing, after the commands sent before it.
+     */
+    public void unshufflePlayOrder() {
+        actor.send(null, () -> {
+            playQueue.unshuffle();
+            cancelNextSong();
+        });
+    }
+    
+    /**
+     * Method queues songs of the Library to play after the song playing, before the songs
+     * of the play queue's table continue, after the commands sent before it
+     * @param queuedSongs the songs, in the order they should play
+     * @param next true to play them before the songs already queued, false to play them after
+     */
+    public void queueSongs(List<Song> queuedSongs, boolean next) {
+        actor.send(null, () -> {
+            // Songs queued to play next go in front of each other, so they are added last song first
+            for(int i = 0; i < queuedSongs.size(); i++) {
+                Song song = queuedSongs.get(next ? queuedSongs.size() - 1 - i : i);
+                if(song.getSongId() < 0) continue; // Only songs of the Library have a songId
+                if(next) playQueue.insertNext(song.getSongId());
+                else playQueue.enqueue(song.getSongId());
+            }
+            cancelNextSong();
+        });
+    }
+    
+    /**
+     * Method forgets the song prepared to play next, because the play queue or the repeat options
+     * changed. The song that follows now is prepared on the next progress update
+     */
+    private void cancelNextSong() {
+        player.cancelNext();
+        nextPrepared = false;
+    }
+    
+    /**
+     * Method changes every window on the event dispatch thread. Commands of the PlaybackActor
+     * and the player's callbacks run on their own threads, so they pass the values to show
+     * rather than changing Swing components or reading the list of windows themselves
+     * @param update the change to make to each window
+     */
+    private void updateViews(Consumer<View> update) {
+        Runnable updateAll = () -> {
+            for(View view : BetterThaniTunes.getAllViews())
+                update.accept(view);
+        };
+        if(SwingUtilities.isEventDispatchThread()) updateAll.run();
+        else SwingUtilities.invokeLater(updateAll);
     }
     
     public void updateShuffleStatus(boolean shuffled) {
-        for(View view : BetterThaniTunes.getAllViews())
-            view.updateShuffleOption(shuffled);
+        updateViews(view -> view.updateShuffleOption(shuffled));
+    }
+    
+    /**
+     * Method plays a song. The song is opened on the thread of the PlaybackActor,
+     * after every command sent before it
+     * @param songPath the file path of the song to be opened
+     * @param row the row of the song in the song table, where the play queue continues from
+     * once it follows the table, or -1 for a song outside the Library
+     */
+    public void play(String songPath, int row) {
+        actor.send(PlaybackActor.Command.PLAY, () -> playSong(songPath, row));
     }
     
     /**
-     * Method plays a song
+     * Method opens and starts a song, on the thread of the PlaybackActor
      * @param songPath the file path of the song to be opened
-     * @param currentIndex the index of the song in the song table,
-     * corresponding to it's position in the play order
+     * @param row the row of the song in the song table, or -1 for a song outside the playlist
+     */
+    private void playSong(String songPath, int row) {
+        long[] marks = startMarks();
+        // Songs of the Library come from the song cache. Only a song outside it is read from its file, once
+        Song song = songs.get(songPath);
+        boolean inLibrary = song != null;
+        if(!inLibrary) song = new Song(songPath);
+        
+        if(row == -1 || !inLibrary) playQueue.stop();
+        else playQueue.start(row, song.getSongId());
+        startSong(song, inLibrary, row == -1, marks);
+    }
+    
+    /**
+     * Method plays a step of the play queue, on the thread of the PlaybackActor
+     * @param step a step from PlayQueue.peekNext or PlayQueue.peekPrevious
+     * @return true if the song starts playing. False if the step no longer holds a song, and playback stops
      */
-    public void play(String songPath, int currentIndex) {
+    private boolean playQueued(int step) {
+        long[] marks = startMarks();
+        Song song = getQueuedSong(playQueue.advance(step));
+        if(song == null) {
+            stopSong();
+            return false;
+        }
+        startSong(song, true, false, marks);
+        return true;
+    }
+    
+    /**
+     * Method starts timing a song until its first audio is heard
+     * @return the marks of the stages, with the time the metadata stage started
+     */
+    private long[] startMarks() {
         // Updates pause_resume button of all windows to switch text from 'resume' to 'pause'
         if(isPlayerPaused()) {
-            for(View view : BetterThaniTunes.getAllViews())
-                view.updatePauseResumeButton("Pause");
+            updateViews(view -> view.updatePauseResumeButton("Pause"));
         }
         
+        long[] marks = new long[FirstAudioStats.Stage.TOTAL.ordinal() + 1];
+        marks[FirstAudioStats.Stage.METADATA.ordinal()] = System.nanoTime();
+        firstAudioMarks = null; // The song being replaced may not have been heard yet
+        return marks;
+    }
+    
+    /**
+     * Method opens and starts a song whose Song has been found, on the thread of the PlaybackActor
+     * @param song the song
+     * @param inLibrary whether the song is in the Library, or was read from its file
+     * @param external whether the song was played from outside the playlist, to keep its first audio apart
+     * @param marks the marks of the stages started by startMarks
+     */
+    private void startSong(Song song, boolean inLibrary, boolean external, long[] marks) {
+        String songPath = song.getPath();
         try {  
+            marks[FirstAudioStats.Stage.OPEN.ordinal()] = System.nanoTime();
             controller.open(new File(songPath));
+            songLength = song.getDuration();
+            marks[FirstAudioStats.Stage.LINE_START.ordinal()] = System.nanoTime();
             controller.play();
-            changeVolume(gain);
+            marks[FirstAudioStats.Stage.FIRST_PROGRESS.ordinal()] = System.nanoTime();
+            // The first call of progress records the stages. Songs played from the menu are kept apart from the Library's
+            firstAudio = external ? externalFirstAudio : libraryFirstAudio;
+            firstAudioMarks = marks;
+            setVolume(gain);
             
+            externalSong = inLibrary ? null : song;
             songPlaying = songPath;
-            this.currentIndex = currentIndex;
 
             // Updates area of all windows that display the currently playing song
-            for(View view : BetterThaniTunes.getAllViews())
-                view.updatePlayer(new Song(songPlaying));
+            updateViews(view -> view.updatePlayer(song));
         } catch(BasicPlayerException e) {
             e.printStackTrace();
         }
     }
     
+    /**
+     * Method adds the song playing to the recently played songs once the
+     * commands sent before it have run, so it is the song they started
+     */
+    public void addCurrentSongToRecentlyPlayed() {
+        actor.send(null, () -> addToRecentlyPlayed(getCurrentSongName()));
+    }
+    
     /**
      * Method pauses the song that is currently playing
      * or resumes the song that is currently paused.
      */
     public void pause_resume() {
+        actor.send(PlaybackActor.Command.PAUSE, this::pauseOrResume);
+    }
+    
+    private void pauseOrResume() {
     	if(isPlayerPlaying()) {
             // Updates pause_resume button of all windows to switch text from 'pause' to 'resume'
-            for(View view : BetterThaniTunes.getAllViews())
-                view.updatePauseResumeButton("Resume");
+            updateViews(view -> view.updatePauseResumeButton("Resume"));
             try {
                 controller.pause();
             } catch(BasicPlayerException e) {
@@ -318,8 +1002,7 @@ public class Controller implements BasicPlayerListener {
     	}
     	else if(isPlayerPaused()) {
             // Update pause_resume button of all windows to switch text from 'pause' to 'resume'
-            for(View view : BetterThaniTunes.getAllViews())
-                view.updatePauseResumeButton("Pause");
+            updateViews(view -> view.updatePauseResumeButton("Pause"));
             try {
                 controller.resume();
             } catch(BasicPlayerException e) {
@@ -333,18 +1016,23 @@ public class Controller implements BasicPlayerListener {
      * Method stops the current song from playing.
      */
     public void stop() {
+        actor.send(PlaybackActor.Command.STOP, this::stopSong);
+    }
+    
+    private void stopSong() {
         // If player isn't playing a song, do nothing
     	if(isPlayerActive()) {
             // Update song area & pause/resume button of all windows
-            for(View view : BetterThaniTunes.getAllViews()) {
+            updateViews(view -> {
                 view.clearPlayer();
                 view.updatePauseResumeButton("Pause");
-            }
+            });
             try {
                 // Stop the song
                 controller.stop();
                 songPlaying = "";
-                currentIndex = -1;
+                playQueue.stop();
+                progressBus.clear();
             } catch(BasicPlayerException e) {
                 e.printStackTrace();
             }
@@ -352,63 +1040,75 @@ public class Controller implements BasicPlayerListener {
     	else System.out.println("Nothing is playing");
     }
     
+    /**
+     * Method moves the song playing to a position
+     * @param microseconds the position in the song, in microseconds
+     */
+    public void seek(long microseconds) {
+        actor.send(PlaybackActor.Command.SEEK, () -> seekSong(microseconds));
+    }
+    
+    private void seekSong(long microseconds) {
+        if(!isPlayerActive() || songLength <= 0) return;
+        try {
+            player.seekMicroseconds(Math.max(0, Math.min(microseconds, songLength)), songLength);
+            nextPrepared = false;
+        } catch(BasicPlayerException e) {
+            e.printStackTrace();
+        }
+    }
+    
     /**
      * Method plays the next song in the library.
      */
     public void nextSong() {
+        actor.send(PlaybackActor.Command.NEXT, this::playNextSong);
+    }
+    
+    private void playNextSong() {
         // If external song was playing, this method does nothing
-    	if(currentIndex != -1 && !isPlayerStopped()) {
+    	if(playQueue.isPlaying() && !isPlayerStopped()) {
             // If user has option to repeat song selected, replay the same song
             if(repeatSong) {
                 // If the player is paused, update the pause_resume button to display 'pause'
                 if(isPlayerPaused()) {
-                    for(View view : BetterThaniTunes.getAllViews())
-                        view.updatePauseResumeButton("Pause");
+                    updateViews(view -> view.updatePauseResumeButton("Pause"));
                 }
                 try {
                     controller.open(new File(songPlaying));
                     controller.play();
-                    changeVolume(gain);
+                    setVolume(gain);
                 } catch(BasicPlayerException e) {
                     e.printStackTrace();
                 }
             }
-            // User doesn't have repeat song option selected, so play next song in library
+            // User doesn't have repeat song option selected, so play next song in the play queue
             else {
-                // If song playing was last song in the play order...
-                if(currentIndex == (playOrder.size() - 1)) {
-                    // If user wants to repeat playlist, play first song in playlist
-                    if(repeatPlaylist) currentIndex = 0;
-                    else {
-                        stop();
-                        return;
-                    }
-                }
-                // Else, play next song
-                else currentIndex++;
-                play(playOrder.get(currentIndex), currentIndex);
+                // If song playing was the last song, the first song plays next only if the user wants to repeat the playlist
+                int next = playQueue.peekNext(repeatPlaylist);
+                if(next == PlayQueue.NONE) stopSong();
+                else playQueued(next);
             }
         }
     }
     
     /**
      * Overridden method of nextSong method that is used solely to
-     * play the next song in playOrder once a song finishes playing
+     * play the next song in the play queue once a song finishes playing
      * @param obj useless parameter used to override method
-     * @return true if next song starts playing. False if end of playOrder is reached
+     * @return true if next song starts playing. False if the end of the play queue is reached
      */
     private boolean nextSong(Object obj) {
         // If user has option to repeat song selected, replay the same song
         if(repeatSong) {
             // If the player is paused, update the pause_resume button to display 'pause'
             if(isPlayerPaused()) {
-                for(View view : BetterThaniTunes.getAllViews())
-                    view.updatePauseResumeButton("Pause");
+                updateViews(view -> view.updatePauseResumeButton("Pause"));
             }
             try {
                 controller.open(new File(songPlaying));
                 controller.play();
-                changeVolume(gain);
+                setVolume(gain);
                 return true;
             } catch(BasicPlayerException e) {
                 e.printStackTrace();
@@ -416,19 +1116,13 @@ public class Controller implements BasicPlayerListener {
             }
         }
         else {
-            // If song playing was last song in the play order...
-            if(currentIndex == (playOrder.size() - 1)) {
-                // If user wants to repeat playlist, play first song in playlist
-                if(repeatPlaylist) currentIndex = 0;
-                else {
-                    stop();
-                    return false;
-                }
+            // If song playing was the last song, the first song plays next only if the user wants to repeat the playlist
+            int next = playQueue.peekNext(repeatPlaylist);
+            if(next == PlayQueue.NONE) {
+                stopSong();
+                return false;
             }
-            else currentIndex++;
-            
-            play(playOrder.get(currentIndex), currentIndex);
-            return true;
+            return playQueued(next);
         }
     }
     
@@ -436,42 +1130,36 @@ public class Controller implements BasicPlayerListener {
      * Method plays the previous song in the library.
      */
     public void previousSong() {
+        actor.send(PlaybackActor.Command.PREVIOUS, this::playPreviousSong);
+    }
+    
+    private void playPreviousSong() {
     	// If external song is playing or no song is playing, don't do anything
-    	if(currentIndex != -1 && isPlayerActive()) {
+    	if(playQueue.isPlaying() && isPlayerActive()) {
             // If user has option to repeat song selected, replay the same song
             if(repeatSong) {
                 // If the player is paused, update the pause_resume button of all windows to display 'pause'
                 if(isPlayerPaused()) {
-                    for(View view : BetterThaniTunes.getAllViews())
-                        view.updatePauseResumeButton("Pause");
+                    updateViews(view -> view.updatePauseResumeButton("Pause"));
                 }
                 try {
                     controller.open(new File(songPlaying));
                     controller.play();
-                    changeVolume(gain);
+                    setVolume(gain);
                     
                     // Update song area of all windows to display song info of new song
-                    for(View view : BetterThaniTunes.getAllViews())
-                        view.updatePlayer(new Song(songPlaying));
+                    Song song = getPlayingSong();
+                    updateViews(view -> view.updatePlayer(song));
                 } catch(BasicPlayerException e) {
                     e.printStackTrace();
                 }
             }
-            // User doesn't have repeat song option selected, so play previous song in library
+            // User doesn't have repeat song option selected, so play previous song in the play queue
             else {
-                // If the song played is past 2 seconds, just restart it
-                if(secondsPlayed > 2);
-                // Else, try and play the previous song
-                else if(currentIndex == 0) {
-                    if(repeatPlaylist) currentIndex = playOrder.size() - 1;
-                    else {
-                        stop();
-                        return;
-                    }
-                }
-                else currentIndex--;
-                
-                play(playOrder.get(currentIndex), currentIndex);
+                // If the song played is past 2 seconds, just restart it. Else, try and play the previous song
+                int previous = (player.getTrackMicroseconds() > 2000000) ? PlayQueue.REPEAT : playQueue.peekPrevious(repeatPlaylist);
+                if(previous == PlayQueue.NONE) stopSong();
+                else playQueued(previous);
             }
         }
     }
@@ -481,7 +1169,7 @@ public class Controller implements BasicPlayerListener {
      * @return true if the player is playing. Otherwise, false
      */
     public boolean isPlayerPlaying() {
-        return player.getStatus() == BasicPlayer.PLAYING;
+        return actor.getState() == PlaybackActor.State.PLAYING;
     }
     
     /**
@@ -489,7 +1177,7 @@ public class Controller implements BasicPlayerListener {
      * @return true if the player is paused. Otherwise, false
      */
     public boolean isPlayerPaused() {
-        return player.getStatus() == BasicPlayer.PAUSED;
+        return actor.getState() == PlaybackActor.State.PAUSED;
     }
     
     /**
@@ -497,7 +1185,7 @@ public class Controller implements BasicPlayerListener {
      * @return true if the player is stopped. Otherwise, false
      */
     public boolean isPlayerStopped() {
-        return player.getStatus() == BasicPlayer.STOPPED;
+        return actor.getState() == PlaybackActor.State.STOPPED;
     }
     
     /**
@@ -509,65 +1197,125 @@ public class Controller implements BasicPlayerListener {
     }
     
     /**
-     * Method updates whether the playOrder should be repeated after reaching the last song
-     * @param repeatPlaylist the value to determine if playOrder should repeat
+     * Method updates whether the play queue should be repeated after reaching the last song,
+     * after the commands sent before it
+     * @param repeatPlaylist the value to determine if the play queue should repeat
      */
     public void updateRepeatPlaylistStatus(boolean repeatPlaylist) {
-        this.repeatPlaylist = repeatPlaylist;
-        for(View view : BetterThaniTunes.getAllViews())
-            view.updateRepeatPlaylistOption(repeatPlaylist);
+        actor.send(null, () -> {
+            this.repeatPlaylist = repeatPlaylist;
+            cancelNextSong();
+        });
+        updateViews(view -> view.updateRepeatPlaylistOption(repeatPlaylist));
     }
     
     /**
-     * Method updates whether the song should be repeated after playing
+     * Method updates whether the song should be repeated after playing, after the commands
+     * sent before it
      * @param repeatSong the value to determine if the song should repeat
      */
     public void updateRepeatSongStatus(boolean repeatSong) {
-    	this.repeatSong = repeatSong;
-        for(View view : BetterThaniTunes.getAllViews())
-            view.updateRepeatSongOption(repeatSong);
+        actor.send(null, () -> {
+            this.repeatSong = repeatSong;
+            cancelNextSong();
+        });
+        updateViews(view -> view.updateRepeatSongOption(repeatSong));
     }
     
     @Override
     public void stateUpdated(BasicPlayerEvent e) {
     	System.out.println("\nState updated: " + e.toString());
-        // If a song has just finished playing (the next button wasn't pressed)
-    	if(!songPlaying.equals("") && e.toString().substring(0,3).equals("EOM")) {
-            
-            // Wait for the player to officially stop
-            while(!isPlayerStopped());
-            
-            // Try and play the next song
-            if(!nextSong(0)) {
-                // If the next song doesn't play, clear the song area of all windows
-                for(View view : BetterThaniTunes.getAllViews())
-                    view.clearPlayer();
-            }
-    	}
+    }
+    
+    /**
+     * Method is called by the PlaybackActor on its thread when a song has finished
+     * playing by itself and the player has stopped, to play the next song in the play queue
+     */
+    private void songEnded() {
+        if(songPlaying.equals("")) return;
+        // Try and play the next song. The time until it is heard is recorded by progress
+        endOfMedia = System.nanoTime();
+        if(!nextSong(0)) {
+            endOfMedia = 0;
+            progressBus.clear();
+            // If the next song doesn't play, clear the song area of all windows
+            updateViews(view -> view.clearPlayer());
+        }
     }
     
     @Override
     public void opened(Object stream, Map properties) {
         System.out.println("\nOpened: " + properties.toString());
+        nextPrepared = false; // The song after the one opened is prepared when it nears its end
+    }
+    
+    /**
+     * Method prepares the song after the one playing in the play queue to follow it without
+     * a gap. It runs on the actor's thread, as the song is read from the database when the
+     * browser's index isn't built yet
+     */
+    private void prepareNextSong() {
+        if(!nextPrepared) return; // The play queue or the repeat options changed since it was requested
+        int next = repeatSong ? PlayQueue.REPEAT : playQueue.peekNext(repeatPlaylist);
+        Song song = getQueuedSong(playQueue.songAt(next));
+        // The step is checked again when the song starts, as the queue can change before then
+        if(song != null) player.prepareNext(new File(song.getPath()), new QueuedTrack(next, song));
+    }
+    
+    /**
+     * Class represents a song prepared to follow the one playing, with its step in the play queue.
+     * The player gives it back when the song starts, so its Song doesn't have to be found again
+     */
+    private static class QueuedTrack {
+        private final int step;
+        private final Song song;
+        
+        private QueuedTrack(int step, Song song) {
+            this.step = step;
+            this.song = song;
+        }
+    }
+    
+    /**
+     * Method is called by the player when the song prepared to follow the last one starts to be
+     * heard. The song is now the one playing, and the windows show it
+     * @param track the QueuedTrack the song was prepared with
+     */
+    private void trackStarted(Object track) {
+        QueuedTrack prepared = (QueuedTrack)track;
+        Song song = prepared.song;
+        playQueue.advanceTo(prepared.step, song.getSongId());
+        songPlaying = song.getPath();
+        songLength = song.getDuration();
+        nextPrepared = false;
+        updateViews(view -> view.updatePlayer(song));
     }
     
     @Override
     public void progress(int bytesread, long ms, byte[] pcmdata, Map properties) {
-        // Number of seconds is in microseconds, so convert it into seconds
-        long secondsPlayed = (long)properties.get("mp3.position.microseconds");
-        long songLength = songs.get(songPlaying).getDuration();
-        for(View view : BetterThaniTunes.getAllViews()) {
-            view.updateProgressBar(secondsPlayed, songLength);
+        long start = System.nanoTime();
+        // The position of the song being heard, in microseconds. The line is shared by songs played without a gap
+        long trackMicroseconds = player.getTrackMicroseconds();
+        long[] marks = firstAudioMarks;
+        if(marks != null) {
+            firstAudioMarks = null;
+            marks[FirstAudioStats.Stage.TOTAL.ordinal()] = start;
+            firstAudio.record(marks);
         }
+        if(endOfMedia != 0) {
+            endOfMediaStats.recordSince(endOfMedia);
+            endOfMedia = 0;
+        }
+        // The windows draw the latest position at their own rate, so the player's thread never waits on them
+        progressBus.publish(trackMicroseconds, songLength);
         
-        
-        /* If the seconds displayed isn't up to date, refresh
-           all views to display correct song progression */
-        /*if(secondsPlayed != this.secondsPlayed) {
-            this.secondsPlayed = secondsPlayed;
-            for(View view : BetterThaniTunes.getAllViews())
-                view.updatePlayer(new Song(songPlaying), secondsPlayed);
-        }*/
+        // Shortly before the song ends, the next one is opened and its start decoded, so it follows without a gap
+        if(!nextPrepared && songLength > 0 && songLength - trackMicroseconds < GaplessPlayer.DECODE_AHEAD_MICROSECONDS) {
+            nextPrepared = true;
+            // The song may have to be read from the database, which this thread must never wait on
+            actor.send(null, this::prepareNextSong);
+        }
+        progressStats.recordSince(start);
     }
     
     @Override
@@ -575,10 +1323,73 @@ public class Controller implements BasicPlayerListener {
     	System.out.println("\nsetController: " + controller);
     }
     
+    /**
+     * Method waits until every change queued by the windows has been written to the database.
+     */
+    public void flushWrites() {
+        writes.flush();
+    }
+    
+    /**
+     * Method gets the write-behind queue, which keeps its depth and flush latency
+     * @return the queue that writes changes made from the windows
+     */
+    public WriteBehindQueue getWriteBehindQueue() {
+        return writes;
+    }
+    
+    // Method returns the position of the song playing, which the windows sample with a timer
+    public ProgressBus getProgressBus() {
+        return progressBus;
+    }
+    
+    /**
+     * Method gets how long each call of progress took on the player's thread, once per chunk of audio written
+     * @return the statistics, in milliseconds
+     */
+    public LatencyStats getProgressStats() {
+        return progressStats;
+    }
+    
+    /**
+     * Method gets how long songs took to be heard once played, by stage
+     * @param external true for songs played from outside the Library, false for songs of the Library
+     * @return the statistics, in milliseconds
+     */
+    public FirstAudioStats getFirstAudioStats(boolean external) {
+        return external ? externalFirstAudio : libraryFirstAudio;
+    }
+    
+    /**
+     * Method gets how long the song after the last one took to start when it wasn't prepared in time,
+     * from the end of the last song until the player reported the first progress of the next one
+     * @return the statistics, in milliseconds
+     */
+    public LatencyStats getEndOfMediaStats() {
+        return endOfMediaStats;
+    }
+    
+    /**
+     * Method gets how long songs prepared ahead took to follow the last song
+     * @return the statistics, in milliseconds
+     */
+    public LatencyStats getGaplessTransitionStats() {
+        return player.getTransitionStats();
+    }
+    
     /**
      * Method disconnects the connection to the database.
      */
     public void disconnectDatabase() {
+        stopWatching();
+        // Write the changes that are still queued before closing the connection. The tag writer queues database changes too
+        if(!tagWrites.close(5000))
+            System.out.println("\nUnable to write all queued changes to the song files");
+        if(!writes.close(5000))
+            System.out.println("\nUnable to write all queued changes to the database");
+        System.out.println("\n" + songs);
+        System.out.println("\n" + player + "\n" + endOfMediaStats + "\n" + actor + "\n" + progressBus + "\n" + progressStats);
+        System.out.println("\n" + libraryFirstAudio + "\n" + externalFirstAudio + "\n" + playQueue);
         database.shutdown();
     }
 }
\ No newline at end of file
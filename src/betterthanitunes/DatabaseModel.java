@@ -1,13 +1,25 @@
 package betterthanitunes;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.sql.ResultSet;
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Savepoint;
 import java.sql.SQLException;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import betterthanitunes.ConnectionPool.Lane;
+import betterthanitunes.ConnectionPool.PooledConnection;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Class represents the database that holds all songs in a user's library,
@@ -16,7 +28,74 @@ import java.util.List;
  * @author Mark Saavedra
  */
 public class DatabaseModel {
-    private Connection connection = null;
+    private static final int FETCH_SIZE = 1000; // Rows per round trip when loading whole playlists
+    private static final int IN_CHUNK_SIZE = 100; // Values per IN clause when looking up many rows at once
+    
+    // Inserts the default column visibility of the playlist named by all 8 parameters
+    static final String COLUMN_INSERT_QUERY = "INSERT INTO Columns (playlistName, columnName, visible, columnOrder) VALUES" +
+                                              "(?, 'Title', TRUE, 1)," +
+                                              "(?, 'Artist', TRUE, 2)," +
+                                              "(?, 'Album', TRUE, 3)," +
+                                              "(?, 'Year', TRUE, 4)," +
+                                              "(?, 'Genre', TRUE, 5)," +
+                                              "(?, 'Comment', TRUE, 6)," +
+                                              "(?, 'Path', FALSE, 7)," +
+                                              "(?, 'ID', FALSE, 8)";
+    
+    // Select the columns of a SongData row, from the Library or from a playlist joined with its songs
+    private static final String SELECT_LIBRARY_SONGS = "SELECT title, artist, album, yearCreated, genre, comment, path, -1, songId," +
+                                                       " duration, bitrate, sampleRate, channelMode, vbr, fileSize, lastModified, fingerprint FROM Songs";
+    private static final String PLAYLIST_JOIN = " FROM SongPlaylist sp INNER JOIN Songs s ON s.songId = sp.songId";
+    private static final String SELECT_PLAYLIST_SONGS = "SELECT s.title, s.artist, s.album, s.yearCreated, s.genre, s.comment, s.path, sp.id, s.songId," +
+                                                        " s.duration, s.bitrate, s.sampleRate, s.channelMode, s.vbr, s.fileSize, s.lastModified, s.fingerprint" +
+                                                        PLAYLIST_JOIN;
+    // Select only the songId of each row, for the play queue
+    private static final String SELECT_LIBRARY_SONG_IDS = "SELECT songId FROM Songs";
+    private static final String SELECT_PLAYLIST_SONG_IDS = "SELECT s.songId" + PLAYLIST_JOIN;
+    // The columns of Songs with an index in each direction, which pages of a large playlist are read through
+    private static final Set<SongSort.Column> INDEXED_COLUMNS = Collections.unmodifiableSet(EnumSet.of(
+        SongSort.Column.TITLE, SongSort.Column.ARTIST, SongSort.Column.ALBUM, SongSort.Column.YEAR, SongSort.Column.GENRE,
+        SongSort.Column.COMMENT, SongSort.Column.PATH, SongSort.Column.DURATION, SongSort.Column.BITRATE, SongSort.Column.FILE_SIZE));
+    // A playlist is paged through the indexes of Songs when it has at least this fraction of the Library's songs
+    private static final int INDEXED_PLAYLIST_FRACTION = 20;
+    private final StorageMode storageMode;
+    private ConnectionPool pool = null;
+    private long connectMillis = -1;
+    private final LatencyStats queryStats = new LatencyStats("Queries");
+    private final LatencyStats updateStats = new LatencyStats("Updates");
+    
+    /**
+     * Interface reads the rows of a ResultSet before the ResultSet is closed
+     * @param <T> the type of value built from the rows
+     */
+    public interface ResultHandler<T> {
+        T handle(ResultSet results) throws SQLException;
+    }
+    
+    /**
+     * Enum represents what happened to one song of a bulk insert.
+     */
+    public enum InsertResult {
+        ADDED_TO_LIBRARY,   // The song was new, so it was added to the Library (and the playlist)
+        ADDED_TO_PLAYLIST,  // The song was already in the Library and was added to the playlist
+        ALREADY_IN_LIBRARY, // The song was already in the Library, so nothing was inserted
+        FAILED              // The song could not be inserted
+    }
+    
+    /**
+     * Default constructor uses the storage mode selected by the betterthanitunes.storage property.
+     */
+    public DatabaseModel() {
+        this(StorageMode.fromSystemProperty());
+    }
+    
+    /**
+     * Constructor creates a database model for a storage mode
+     * @param storageMode whether the database runs embedded or on a network server
+     */
+    public DatabaseModel(StorageMode storageMode) {
+        this.storageMode = storageMode;
+    }
     
     /**
      * Method establishes connection to the database so statements can be executed
@@ -24,16 +103,84 @@ public class DatabaseModel {
      */
     public boolean createConnection() {
         try {
-            Class.forName("org.apache.derby.jdbc.ClientDriver");
-            connection = DriverManager.getConnection("jdbc:derby://localhost:1527/BetterThaniTunes;create=true");
+            long start = System.nanoTime();
+            Class.forName(storageMode.getDriver());
+            pool = new ConnectionPool(storageMode.getUrl() + ";create=true", ConnectionPool.DEFAULT_READ_CONNECTIONS);
+            
+            // Migrate on the write connection so no other write can see a half-migrated schema
+            PooledConnection pooled = pool.borrow(Lane.WRITE);
+            try {
+                new SchemaMigrator(pooled.getConnection()).migrate();
+            } finally {
+                pool.release(pooled);
+            }
+            connectMillis = (System.nanoTime() - start) / 1000000;
+            
+            System.out.println("\nConnected to " + storageMode.getUrl() + " (" + storageMode + ") in " + connectMillis + " ms");
             return true;
         }
         catch (ClassNotFoundException | SQLException e) {
-            System.out.println("\nUnable to connect to BetterThaniTunes database");
+            e.printStackTrace();
+            System.out.println("\nUnable to connect to BetterThaniTunes database (" + storageMode + ")");
+            if(pool != null) {
+                pool.close();
+                pool = null;
+            }
             return false;
         }
     }
     
+    /**
+     * Method gets the storage mode of the database
+     * @return whether the database runs embedded or on a network server
+     */
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+    
+    /**
+     * Method gets how long it took to open the connection and check the tables
+     * @return the startup time in milliseconds, or -1 if there is no connection
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+    
+    /**
+     * Method gets the latency statistics of select statements
+     * @return the statistics of every executeQuery call
+     */
+    public LatencyStats getQueryStats() {
+        return queryStats;
+    }
+    
+    /**
+     * Method gets the latency statistics of update, insert and delete statements
+     * @return the statistics of every executeUpdate call
+     */
+    public LatencyStats getUpdateStats() {
+        return updateStats;
+    }
+    
+    /**
+     * Method sets the values of a prepared statement's parameters
+     * @param statement the statement containing the parameters
+     * @param args the values to be placed inside the statement
+     * @throws SQLException if a parameter could not be set
+     */
+    private void setParameters(PreparedStatement statement, Object[] args) throws SQLException {
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].getClass() == String.class)
+                statement.setString(i+1, args[i].toString());
+            else if(args[i].getClass() == Integer.class)
+                statement.setInt(i+1, (int)args[i]);
+            else if(args[i].getClass() == Boolean.class)
+                statement.setBoolean(i+1, (boolean)args[i]);
+            else
+                statement.setObject(i+1, args[i]);
+        }
+    }
+    
     /**
      * Method sends a query to the database, including updates, inserts, and deletes
      * @param query the statement to be executed
@@ -41,52 +188,108 @@ public class DatabaseModel {
      * @return true if executing the prepared statement threw no exceptions. Otherwise, false
      */
     public boolean executeUpdate(String query, Object[] args) {
-        PreparedStatement statement;
+        PooledConnection pooled = null;
         try {
-            statement = connection.prepareStatement(query);
-            for(int i = 0; i < args.length; i++) {
-                if(args[i].getClass() == String.class)
-                    statement.setString(i+1, args[i].toString());
-                else if(args[i].getClass() == Integer.class)
-                    statement.setInt(i+1, (int)args[i]);
-                else if(args[i].getClass() == Boolean.class)
-                    statement.setBoolean(i+1, (boolean)args[i]);
-            }
-            
+            long start = System.nanoTime();
+            pooled = pool.borrow(Lane.WRITE);
+            PreparedStatement statement = pooled.getStatements().prepare(query);
+            setParameters(statement, args);
             statement.executeUpdate();
+            updateStats.recordSince(start);
             return true;
         } catch (SQLException e) {
             e.printStackTrace();
             return false;
+        } finally {
+            if(pooled != null) pool.release(pooled);
         }
     }
     
     /**
-     * Method sends a query to the database, including selects
+     * Method sends a query to the database, including selects. The ResultSet
+     * is closed once the handler returns, so the handler must read every row it needs
+     * @param <T> the type of value built from the rows
      * @param query the statement to be executed
      * @param args the values to be placed inside the query
-     * @return a ResultSet containing the return values from the query
+     * @param handler reads the rows returned by the query
+     * @return the value returned by the handler, or null if the query failed
      */
-    public ResultSet executeQuery(String query, Object[] args) {
-        PreparedStatement statement;
+    public <T> T executeQuery(String query, Object[] args, ResultHandler<T> handler) {
+        return executeQuery(query, args, 0, handler);
+    }
+    
+    /**
+     * Method sends a query to the database, including selects, fetching rows in
+     * blocks of a given size. The ResultSet is closed once the handler returns
+     * @param <T> the type of value built from the rows
+     * @param query the statement to be executed
+     * @param args the values to be placed inside the query
+     * @param fetchSize the number of rows fetched per round trip, or 0 for the driver default
+     * @param handler reads the rows returned by the query
+     * @return the value returned by the handler, or null if the query failed
+     */
+    public <T> T executeQuery(String query, Object[] args, int fetchSize, ResultHandler<T> handler) {
+        PooledConnection pooled = null;
         try {
-            statement = connection.prepareStatement(query);
-            for(int i = 0; i < args.length; i++) {
-                if(args[i].getClass() == String.class)
-                    statement.setString(i+1, args[i].toString());
-                else if(args[i].getClass() == Integer.class)
-                    statement.setInt(i+1, (int)args[i]);
-                else if(args[i].getClass() == Boolean.class)
-                    statement.setBoolean(i+1, (boolean)args[i]);
+            long start = System.nanoTime();
+            pooled = pool.borrow(Lane.READ);
+            PreparedStatement statement = pooled.getStatements().prepare(query);
+            statement.setFetchSize(fetchSize);
+            setParameters(statement, args);
+            try (ResultSet results = statement.executeQuery()) {
+                T value = handler.handle(results);
+                queryStats.recordSince(start);
+                return value;
             }
-            
-            return statement.executeQuery();
         } catch (SQLException e) {
             e.printStackTrace();
             return null;
+        } finally {
+            if(pooled != null) pool.release(pooled);
+        }
+    }
+    
+    /**
+     * Method makes many changes in one transaction on the write connection. Each change
+     * runs inside a savepoint, so a change that fails is rolled back without undoing the others
+     * @param writes the changes to make, in order
+     * @return the number of changes that failed
+     */
+    public int runInTransaction(List<WriteBehindQueue.Write> writes) {
+        int failures = 0;
+        PooledConnection pooled = null;
+        try {
+            pooled = pool.borrow(Lane.WRITE);
+            Connection connection = pooled.getConnection();
+            connection.setAutoCommit(false);
+            for(WriteBehindQueue.Write write : writes) {
+                Savepoint savepoint = connection.setSavepoint();
+                if(write.write())
+                    connection.releaseSavepoint(savepoint);
+                else {
+                    connection.rollback(savepoint);
+                    failures++;
+                }
+            }
+            connection.commit();
+            return failures;
+        } catch(SQLException e) {
+            e.printStackTrace();
+            if(pooled != null) rollback(pooled);
+            return writes.size();
+        } finally {
+            if(pooled != null) release(pooled);
         }
     }
     
+    /**
+     * Method gets the connection pool, which keeps the wait time and utilisation of its read and write lanes
+     * @return the connection pool, or null if there is no connection
+     */
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+    
     /**
      * Method inserts a playlist into the Playlists table 
      * @param playlistName the name of the playlist to be inserted
@@ -99,24 +302,14 @@ public class DatabaseModel {
         }
         
         // Insert playlist name into Playlists table
-        boolean wasPlaylistInserted = executeUpdate("INSERT INTO Playlists VALUES (?)", new Object[] {playlistName});
+        boolean wasPlaylistInserted = executeUpdate("INSERT INTO Playlists (playlistName) VALUES (?)", new Object[] {playlistName});
         if(!wasPlaylistInserted) {
             System.out.println("\n" + playlistName + " already exists!");
             return false;
         }
         
         // Insert column visibility info into Columns table
-        String columnInsertQuery = "INSERT INTO Columns (playlistName, columnName, visible, columnOrder) VALUES" +
-                                    "('" + playlistName + "', 'Title', TRUE, 1)," +
-                                    "('" + playlistName + "', 'Artist', TRUE, 2)," +
-                                    "('" + playlistName + "', 'Album', TRUE, 3)," +
-                                    "('" + playlistName + "', 'Year', TRUE, 4)," +
-                                    "('" + playlistName + "', 'Genre', TRUE, 5)," +
-                                    "('" + playlistName + "', 'Comment', TRUE, 6)," +
-                                    "('" + playlistName + "', 'Path', FALSE, 7)," +
-                                    "('" + playlistName + "', 'ID', FALSE, 8)";
-        
-        boolean wasColInfoInserted = executeUpdate(columnInsertQuery, new Object[]{});
+        boolean wasColInfoInserted = insertColumns(playlistName);
         if(!wasColInfoInserted) {
             // Column visibility info insert failed, so delete playlist from Playlists table
             System.out.println("\nPlaylist was inserted but column visibility setup failed!");
@@ -127,6 +320,17 @@ public class DatabaseModel {
         return true;
     }
     
+    /**
+     * Method inserts the default column visibility of a playlist into the Columns table
+     * @param playlistName the name of the playlist
+     * @return true if the columns were inserted. Otherwise, false
+     */
+    private boolean insertColumns(String playlistName) {
+        Object[] columnInsertArgs = new Object[8];
+        Arrays.fill(columnInsertArgs, playlistName);
+        return executeUpdate(COLUMN_INSERT_QUERY, columnInsertArgs);
+    }
+    
     /**
      * Method deletes a playlist from the Playlists table
      * @param playlistName the name of the playlist to be deleted
@@ -144,62 +348,386 @@ public class DatabaseModel {
      * @param song the song to be inserted
      * @param playlistName the playlist to associate the song with
      * @return true if the insertion was successful. False if an error occurred
+     * or the song is already in the Library
      */
     public boolean insertSong(Song song, String playlistName) {
-        int id;
-        String query;
-        Object[] args;
-        boolean songExistsInLibrary = false;
+        InsertResult result = insertSongs(Collections.singletonList(song), playlistName).get(0);
+        if(result == InsertResult.FAILED) System.out.println("\nUnable to add song");
+        return result == InsertResult.ADDED_TO_LIBRARY || result == InsertResult.ADDED_TO_PLAYLIST;
+    }
+    
+    /**
+     * Method inserts many songs into the database in one transaction
+     * @param songs the songs to be inserted
+     * @param playlistName the playlist to associate the songs with
+     * @return the result for each song, in the same order as the songs
+     */
+    public List<InsertResult> insertSongs(Collection<Song> songs, String playlistName) {
+        return insertSongs(songs, playlistName, null);
+    }
+    
+    /**
+     * Method inserts many songs into the database in one transaction. Songs already
+     * in the Library are found with one query per block of paths, playlist ids are
+     * computed from one query, and the rows are sent as JDBC batches
+     * @param songs the songs to be inserted
+     * @param playlistName the playlist to associate the songs with
+     * @param newSongIds map to put the songId given to each song added to the Library in, or null
+     * @return the result for each song, in the same order as the songs
+     */
+    public List<InsertResult> insertSongs(Collection<Song> songs, String playlistName, Map<String, Integer> newSongIds) {
+        long start = System.nanoTime();
+        List<Song> songList = new ArrayList<>(songs);
+        List<InsertResult> insertResults = new ArrayList<>(Collections.nCopies(songList.size(), InsertResult.FAILED));
+        if(songList.isEmpty()) return insertResults;
         
-        if(playlistName.equals("Library")) {
-            query = "INSERT INTO Songs VALUES (?,?,?,?,?,?,?)";
-            args = new Object[] {song.getTitle(), song.getArtist(), song.getAlbum(), song.getYear(), song.getGenre(), song.getComment(), song.getPath()};
-        }
-        else {
-            ResultSet results = executeQuery("SELECT path FROM Songs WHERE path = ?", new Object[] {song.getPath()});
-            // If the query failed, results will be null
-            if(results == null)
-                return false;
-            try {
-                if(results.next())
-                    songExistsInLibrary = true;
-            } catch(SQLException e) {
-                e.printStackTrace();
-                return false;
+        boolean library = playlistName.equals("Library");
+        PooledConnection pooled = null;
+        PreparedStatement songInsert = null, playlistInsert = null;
+        boolean failed = false;
+        try {
+            pooled = pool.borrow(Lane.WRITE);
+            pooled.getConnection().setAutoCommit(false);
+            
+            ArrayList<String> paths = new ArrayList<>();
+            for(Song song : songList)
+                paths.add(song.getPath());
+            Map<String, Integer> songIds = selectSongIds(pooled, paths);
+            
+            // Songs new to the Library are numbered by the SongIds sequence as they are inserted
+            songInsert = pooled.getStatements().prepare("INSERT INTO Songs (title, artist, album, yearCreated, genre, comment, path, songId," +
+                                                         " duration, bitrate, sampleRate, channelMode, vbr, fileSize, lastModified, fingerprint)" +
+                                                         " VALUES (?,?,?,?,?,?,?, NEXT VALUE FOR SongIds, ?,?,?,?,?,?,?,?)");
+            Set<String> newPaths = new LinkedHashSet<>();
+            for(int i = 0; i < songList.size(); i++) {
+                Song song = songList.get(i);
+                String path = song.getPath();
+                
+                // newPaths also collects songs added earlier in this batch, so duplicates are inserted once
+                if(!songIds.containsKey(path) && newPaths.add(path)) {
+                    // The audio metadata was read from the file headers when the Song was built, or is zero if it couldn't be read
+                    setParameters(songInsert, new Object[] {song.getTitle(), song.getArtist(), song.getAlbum(),
+                                                            song.getYear(), song.getGenre(), song.getComment(), path,
+                                                            song.getDuration(), song.getBitrate(), song.getSampleRate(),
+                                                            song.getChannelMode(), song.isVbr(), song.getFileSize(),
+                                                            song.getLastModified(), song.getFingerprint()});
+                    songInsert.addBatch();
+                    insertResults.set(i, InsertResult.ADDED_TO_LIBRARY);
+                }
+                else if(library) insertResults.set(i, InsertResult.ALREADY_IN_LIBRARY);
+                else insertResults.set(i, InsertResult.ADDED_TO_PLAYLIST);
             }
+            songInsert.executeBatch();
             
-            if(!songExistsInLibrary) {
-                query = "INSERT INTO Songs VALUES (?,?,?,?,?,?,?)";
-                args = new Object[] {song.getTitle(), song.getArtist(), song.getAlbum(), song.getYear(), song.getGenre(), song.getComment(), song.getPath()};
-                executeUpdate(query, args);
-                id = 0;
+            Map<String, Integer> insertedIds = Collections.emptyMap();
+            if(!newPaths.isEmpty() && (!library || newSongIds != null)) {
+                insertedIds = selectSongIds(pooled, new ArrayList<>(newPaths));
+                songIds.putAll(insertedIds);
             }
-            else {
-                String query2 = "SELECT MAX(id) AS ID FROM SongPlaylist WHERE playlistName = ? AND path = ?";
-                Object[] args2 = {playlistName, song.getPath()};
-                ResultSet results2 = executeQuery(query2, args2);
+            if(!library) {
+                Map<Integer, Integer> nextIds = selectNextPlaylistIds(pooled, playlistName);
                 
-                if(results2 == null)
-                    return false;
-                try {
-                    results2.next();
-                    if(results2.getObject("ID") == null) id = 0;
-                    else id = results2.getInt("ID") + 1;
-                } catch(SQLException e) {
-                    e.printStackTrace();
-                    return false;
+                playlistInsert = pooled.getStatements().prepare("INSERT INTO SongPlaylist (playlistName, path, id, songId) VALUES (?,?,?,?)");
+                for(Song song : songList) {
+                    int songId = songIds.get(song.getPath());
+                    Integer id = nextIds.get(songId);
+                    if(id == null) id = 0;
+                    nextIds.put(songId, id + 1);
+                    setParameters(playlistInsert, new Object[] {playlistName, song.getPath(), id, songId});
+                    playlistInsert.addBatch();
                 }
-                
+                playlistInsert.executeBatch();
             }
-            
-            query = "INSERT INTO SongPlaylist VALUES (?,?,?)";
-            args = new Object[] {playlistName, song.getPath(), id};
+            pooled.getConnection().commit();
+            if(newSongIds != null) newSongIds.putAll(insertedIds);
+        } catch(SQLException e) {
+            failed = true;
+            if(pooled != null) rollback(pooled);
+            try {
+                if(songInsert != null) songInsert.clearBatch();
+                if(playlistInsert != null) playlistInsert.clearBatch();
+            } catch(SQLException clearException) {
+                clearException.printStackTrace();
+            }
+            if(songList.size() == 1) e.printStackTrace();
+        } finally {
+            if(pooled != null) release(pooled);
         }
         
-        boolean wasInserted = executeUpdate(query, args);
-        if(songExistsInLibrary) return false;
-        if (!wasInserted) System.out.println("\nUnable to add song");
-        return wasInserted;
+        if(failed) {
+            // One bad row rolls back the whole batch, so retry each song on its own to find which ones fail
+            Collections.fill(insertResults, InsertResult.FAILED);
+            if(songList.size() > 1) {
+                for(int i = 0; i < songList.size(); i++)
+                    insertResults.set(i, insertSongs(Collections.singletonList(songList.get(i)), playlistName, newSongIds).get(0));
+            }
+        }
+        else if(songList.size() > 1)
+            System.out.println("\nInserted " + songList.size() + " songs into " + playlistName + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+        return insertResults;
+    }
+    
+    /**
+     * Method updates the tags and audio metadata of songs whose files changed on disk.
+     * The values read from the files replace the ones in the Songs table
+     * @param songs the songs, read again from their files
+     * @return true if every song was updated. Otherwise, false
+     */
+    public boolean updateSongFiles(Collection<Song> songs) {
+        if(songs.isEmpty()) return true;
+        long start = System.nanoTime();
+        PooledConnection pooled = null;
+        PreparedStatement songUpdate = null;
+        try {
+            pooled = pool.borrow(Lane.WRITE);
+            pooled.getConnection().setAutoCommit(false);
+            songUpdate = pooled.getStatements().prepare("UPDATE Songs SET title = ?, artist = ?, album = ?, yearCreated = ?, genre = ?, comment = ?," +
+                                                         " duration = ?, bitrate = ?, sampleRate = ?, channelMode = ?, vbr = ?, fileSize = ?," +
+                                                         " lastModified = ?, fingerprint = ? WHERE path = ?");
+            for(Song song : songs) {
+                setParameters(songUpdate, new Object[] {song.getTitle(), song.getArtist(), song.getAlbum(),
+                                                        song.getYear(), song.getGenre(), song.getComment(),
+                                                        song.getDuration(), song.getBitrate(), song.getSampleRate(),
+                                                        song.getChannelMode(), song.isVbr(), song.getFileSize(),
+                                                        song.getLastModified(), song.getFingerprint(), song.getPath()});
+                songUpdate.addBatch();
+            }
+            songUpdate.executeBatch();
+            pooled.getConnection().commit();
+            if(songs.size() > 1)
+                System.out.println("\nUpdated " + songs.size() + " songs from their files in " + (System.nanoTime() - start) / 1000000 + " ms");
+            return true;
+        } catch(SQLException e) {
+            e.printStackTrace();
+            if(pooled != null) rollback(pooled);
+            try {
+                if(songUpdate != null) songUpdate.clearBatch();
+            } catch(SQLException clearException) {
+                clearException.printStackTrace();
+            }
+            return false;
+        } finally {
+            if(pooled != null) release(pooled);
+        }
+    }
+    
+    /**
+     * Method returns the size and modification time stored for every song in a folder and its subfolders
+     * @param folder the folder, or null for every song in the Library
+     * @return map from each song's path to its file size and modification time. Empty if the query failed
+     */
+    public Map<String, long[]> returnFileStamps(String folder) {
+        String query = "SELECT path, fileSize, lastModified FROM Songs";
+        Object[] args = new Object[0];
+        if(folder != null) {
+            // Paths can contain the LIKE wildcards, so they are escaped
+            String prefix = folder.endsWith(File.separator) ? folder : folder + File.separator;
+            query += " WHERE path LIKE ? ESCAPE '\\'";
+            args = new Object[] {prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%"};
+        }
+        Map<String, long[]> stamps = executeQuery(query, args, 1000, results -> readFileStamps(results, new HashMap<>()));
+        return (stamps != null) ? stamps : new HashMap<>();
+    }
+    
+    /**
+     * Method returns the size and modification time stored for songs
+     * @param paths the paths of the songs to look for
+     * @return map from the path of each song in the Library to its file size and modification time
+     */
+    public Map<String, long[]> returnFileStamps(Collection<String> paths) {
+        Map<String, long[]> stamps = new HashMap<>();
+        List<String> pathList = new ArrayList<>(paths);
+        String query = "SELECT path, fileSize, lastModified FROM Songs WHERE path IN " + parameterList(IN_CHUNK_SIZE);
+        for(int start = 0; start < pathList.size(); start += IN_CHUNK_SIZE) {
+            // Pad the last block by repeating its first path, like setChunkParameters, so the statement is reused
+            Object[] args = new Object[IN_CHUNK_SIZE];
+            for(int i = 0; i < IN_CHUNK_SIZE; i++)
+                args[i] = pathList.get((start + i < pathList.size()) ? start + i : start);
+            executeQuery(query, args, results -> readFileStamps(results, stamps));
+        }
+        return stamps;
+    }
+    
+    /**
+     * Method returns the paths of the songs whose audio hasn't been fingerprinted
+     * @return list of the paths
+     */
+    public List<String> returnUnfingerprintedPaths() {
+        List<String> paths = executeQuery("SELECT path FROM Songs WHERE fingerprint = ?", new Object[] {AudioFingerprint.UNKNOWN}, results -> {
+            List<String> found = new ArrayList<>();
+            while(results.next())
+                found.add(results.getString(1));
+            return found;
+        });
+        return (paths != null) ? paths : new ArrayList<String>();
+    }
+    
+    /**
+     * Method stores the fingerprints of songs in one transaction
+     * @param fingerprints map from the path of each song to its AudioFingerprint
+     * @return true if every song was updated. Otherwise, false
+     */
+    public boolean updateFingerprints(Map<String, Long> fingerprints) {
+        if(fingerprints.isEmpty()) return true;
+        PooledConnection pooled = null;
+        PreparedStatement update = null;
+        try {
+            pooled = pool.borrow(Lane.WRITE);
+            pooled.getConnection().setAutoCommit(false);
+            update = pooled.getStatements().prepare("UPDATE Songs SET fingerprint = ? WHERE path = ?");
+            for(Map.Entry<String, Long> fingerprint : fingerprints.entrySet()) {
+                setParameters(update, new Object[] {fingerprint.getValue(), fingerprint.getKey()});
+                update.addBatch();
+            }
+            update.executeBatch();
+            pooled.getConnection().commit();
+            return true;
+        } catch(SQLException e) {
+            e.printStackTrace();
+            if(pooled != null) rollback(pooled);
+            try {
+                if(update != null) update.clearBatch();
+            } catch(SQLException clearException) {
+                clearException.printStackTrace();
+            }
+            return false;
+        } finally {
+            if(pooled != null) release(pooled);
+        }
+    }
+    
+    /**
+     * Method finds a song whose audio has a fingerprint
+     * @param fingerprint the AudioFingerprint to look for
+     * @return the path of a song with the fingerprint, or null if there is none
+     */
+    public String returnPathWithFingerprint(long fingerprint) {
+        return executeQuery("SELECT path FROM Songs WHERE fingerprint = ? FETCH FIRST 1 ROWS ONLY", new Object[] {fingerprint},
+                            results -> results.next() ? results.getString(1) : null);
+    }
+    
+    /**
+     * Method finds the songs whose audio is the same as another song's
+     * @return the paths of the duplicates, grouped by fingerprint. Each group has at least two paths
+     */
+    public List<List<String>> returnDuplicates() {
+        String query = "SELECT fingerprint, path FROM Songs WHERE fingerprint IN" +
+                       " (SELECT fingerprint FROM Songs WHERE fingerprint <> ? GROUP BY fingerprint HAVING COUNT(*) > 1)" +
+                       " ORDER BY fingerprint, path";
+        List<List<String>> groups = executeQuery(query, new Object[] {AudioFingerprint.UNKNOWN}, results -> {
+            List<List<String>> found = new ArrayList<>();
+            long previous = AudioFingerprint.UNKNOWN;
+            while(results.next()) {
+                if(found.isEmpty() || results.getLong(1) != previous) found.add(new ArrayList<>());
+                previous = results.getLong(1);
+                found.get(found.size() - 1).add(results.getString(2));
+            }
+            return found;
+        });
+        return (groups != null) ? groups : new ArrayList<List<String>>();
+    }
+    
+    /**
+     * Method reads rows of path, fileSize and lastModified into a map
+     * @param results the rows
+     * @param stamps the map to add the rows to
+     * @return the map
+     * @throws SQLException if a row could not be read
+     */
+    private static Map<String, long[]> readFileStamps(ResultSet results, Map<String, long[]> stamps) throws SQLException {
+        while(results.next())
+            stamps.put(results.getString(1), new long[] {results.getLong(2), results.getLong(3)});
+        return stamps;
+    }
+    
+    /**
+     * Method finds the songIds of paths that exist in the Songs table
+     * @param pooled the connection of the transaction
+     * @param paths the paths to look for
+     * @return map from each path in the Songs table to its songId
+     * @throws SQLException if a query failed
+     */
+    private Map<String, Integer> selectSongIds(PooledConnection pooled, List<String> paths) throws SQLException {
+        Map<String, Integer> songIds = new HashMap<>();
+        PreparedStatement statement = pooled.getStatements().prepare("SELECT path, songId FROM Songs WHERE path IN " + parameterList(IN_CHUNK_SIZE));
+        for(int start = 0; start < paths.size(); start += IN_CHUNK_SIZE) {
+            setChunkParameters(statement, paths, start);
+            try (ResultSet results = statement.executeQuery()) {
+                while(results.next())
+                    songIds.put(results.getString(1), results.getInt(2));
+            }
+        }
+        return songIds;
+    }
+    
+    /**
+     * Method finds the next unused id of every song in a playlist
+     * @param pooled the connection of the transaction
+     * @param playlistName the name of the playlist
+     * @return map from each song's songId to one more than its highest id in the playlist
+     * @throws SQLException if the query failed
+     */
+    private Map<Integer, Integer> selectNextPlaylistIds(PooledConnection pooled, String playlistName) throws SQLException {
+        Map<Integer, Integer> nextIds = new HashMap<>();
+        PreparedStatement statement = pooled.getStatements().prepare("SELECT songId, MAX(id) FROM SongPlaylist WHERE playlistName = ? GROUP BY songId");
+        statement.setString(1, playlistName);
+        try (ResultSet results = statement.executeQuery()) {
+            while(results.next())
+                nextIds.put(results.getInt(1), results.getInt(2) + 1);
+        }
+        return nextIds;
+    }
+    
+    /**
+     * Method builds a parenthesized list of parameter markers for an IN clause
+     * @param count the number of parameters
+     * @return the list, for example (?,?,?)
+     */
+    private static String parameterList(int count) {
+        StringBuilder list = new StringBuilder("(");
+        for(int i = 0; i < count; i++)
+            list.append(i == 0 ? "?" : ",?");
+        return list.append(")").toString();
+    }
+    
+    /**
+     * Method sets the parameters of an IN clause to one block of values. The last block
+     * is padded by repeating its first value, so every block uses the same cached statement
+     * @param statement the statement whose first IN_CHUNK_SIZE parameters form the IN clause
+     * @param values all of the values
+     * @param start the index of the first value in the block
+     * @throws SQLException if a parameter could not be set
+     */
+    private static void setChunkParameters(PreparedStatement statement, List<?> values, int start) throws SQLException {
+        for(int i = 0; i < IN_CHUNK_SIZE; i++) {
+            int index = (start + i < values.size()) ? start + i : start;
+            statement.setObject(i+1, values.get(index));
+        }
+    }
+    
+    /**
+     * Method rolls back the current transaction after a failed statement
+     * @param pooled the connection of the transaction
+     */
+    private void rollback(PooledConnection pooled) {
+        try {
+            pooled.getConnection().rollback();
+        } catch(SQLException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    /**
+     * Method ends a transaction by turning auto-commit back on and returning the connection to the pool
+     * @param pooled the connection of the transaction
+     */
+    private void release(PooledConnection pooled) {
+        try {
+            pooled.getConnection().setAutoCommit(true);
+        } catch(SQLException e) {
+            e.printStackTrace();
+        }
+        pool.release(pooled);
     }
     
     /**
@@ -210,29 +738,69 @@ public class DatabaseModel {
      * @return true if the song was deleted. Otherwise, false
      */
     public boolean deleteSong(Song song, String playlistName, int id) {
-        PreparedStatement statement;
-        if(playlistName.equals("Library")) {
-            ArrayList<String> playlists = new ArrayList<>();
-            ResultSet results = executeQuery("SELECT playlistName FROM SongPlaylist WHERE path = ?", new Object[] {song.getPath()});
-            
-            if(results == null)
-                return false;
-            try {
-                while(results.next()) 
-                    playlists.add(results.getString("playlistName"));
-            } catch(SQLException e) {
-                e.printStackTrace();
-                return false;
+        return deleteSongs(Collections.singletonList(song.getPath()), Collections.singletonList(id), playlistName);
+    }
+    
+    /**
+     * Method deletes many songs from the database in one transaction. Deleting from the
+     * Library removes the songs from every playlist with one IN-clause statement per block
+     * of paths. Deleting from a playlist removes each (path, id) entry in one JDBC batch.
+     * When the write connection is already inside a transaction, the deletes become part of it
+     * @param paths the paths of the songs to be deleted
+     * @param ids the unique id of each song in the playlist, in the same order as the paths.
+     * Ignored when deleting from the Library
+     * @param playlistName the playlist that the songs will be deleted from
+     * @return true if every song was deleted. Otherwise, false and nothing is deleted
+     */
+    public boolean deleteSongs(List<String> paths, List<Integer> ids, String playlistName) {
+        if(paths.isEmpty()) return true;
+        long start = System.nanoTime();
+        PooledConnection pooled = null;
+        PreparedStatement playlistDelete = null;
+        boolean joined = false;
+        try {
+            pooled = pool.borrow(Lane.WRITE);
+            // Join the caller's transaction if there is one, such as a batch of the write-behind queue
+            joined = !pooled.getConnection().getAutoCommit();
+            if(!joined) pooled.getConnection().setAutoCommit(false);
+            if(playlistName.equals("Library")) {
+                String inClause = " WHERE path IN " + parameterList(IN_CHUNK_SIZE);
+                PreparedStatement songPlaylistDelete = pooled.getStatements().prepare("DELETE FROM SongPlaylist WHERE songId IN" +
+                                                                                      " (SELECT songId FROM Songs" + inClause + ")");
+                PreparedStatement songDelete = pooled.getStatements().prepare("DELETE FROM Songs" + inClause);
+                for(int chunk = 0; chunk < paths.size(); chunk += IN_CHUNK_SIZE) {
+                    setChunkParameters(songPlaylistDelete, paths, chunk);
+                    songPlaylistDelete.executeUpdate();
+                    setChunkParameters(songDelete, paths, chunk);
+                    songDelete.executeUpdate();
+                }
             }
-
-            for(String playlist : playlists)
-                executeUpdate("DELETE FROM SongPlaylist WHERE playlistName = ? AND path = ?", new Object[] {playlist, song.getPath()});
-
-            return executeUpdate("DELETE FROM Songs WHERE path = ?", new Object[] {song.getPath()});
-        }
-        else {
-            executeUpdate("DELETE FROM SongPlaylist WHERE playlistName = ? AND path = ? AND id = ?", new Object[] {playlistName, song.getPath(), id});
+            else {
+                playlistDelete = pooled.getStatements().prepare("DELETE FROM SongPlaylist WHERE playlistName = ? AND path = ? AND id = ?");
+                for(int i = 0; i < paths.size(); i++) {
+                    setParameters(playlistDelete, new Object[] {playlistName, paths.get(i), ids.get(i)});
+                    playlistDelete.addBatch();
+                }
+                playlistDelete.executeBatch();
+            }
+            if(!joined) pooled.getConnection().commit();
+            if(paths.size() > 1)
+                System.out.println("\nDeleted " + paths.size() + " songs from " + playlistName + " in " + (System.nanoTime() - start) / 1000000 + " ms");
             return true;
+        } catch(SQLException e) {
+            e.printStackTrace();
+            if(pooled != null && !joined) rollback(pooled);
+            try {
+                if(playlistDelete != null) playlistDelete.clearBatch();
+            } catch(SQLException clearException) {
+                clearException.printStackTrace();
+            }
+            return false;
+        } finally {
+            if(pooled != null) {
+                if(joined) pool.release(pooled);
+                else release(pooled);
+            }
         }
     }
     
@@ -245,26 +813,45 @@ public class DatabaseModel {
      */
     public boolean updateSong(String path, int col, Object updatedValue) {
         PreparedStatement statement;
+        PooledConnection pooled = null;
         String[] attributes = {"title", "artist", "album", "yearCreated", "genre", "comment"};
         String query = "UPDATE Songs SET " + attributes[col] + " = ? WHERE path = ?";
         try {
-            statement = connection.prepareStatement(query);
-            if(updatedValue.getClass() == Integer.class || (updatedValue.getClass() == Double.class && col == 4))
-                statement.setInt(1, (int)updatedValue);
+            long start = System.nanoTime();
+            pooled = pool.borrow(Lane.WRITE);
+            statement = pooled.getStatements().prepare(query);
+            if(col == 4) updatedValue = TagWriter.Tags.genreNumber(updatedValue); // The table shows genres by name
+            if(updatedValue.getClass() == Integer.class)
+                statement.setInt(1, (Integer)updatedValue);
             else if(updatedValue.getClass() == String.class)
                 statement.setString(1, updatedValue.toString());
             else
-                statement.setObject(col, updatedValue);
+                statement.setObject(1, updatedValue);
             
             statement.setString(2, path);
             statement.executeUpdate();
+            updateStats.recordSince(start);
             return true;
         } catch(SQLException e) {
             e.printStackTrace();
             return false;
+        } finally {
+            if(pooled != null) pool.release(pooled);
         }
     }
     
+    /**
+     * Method updates the file size and modification time stored for a song, after its tags were written to the file
+     * @param path the song to update
+     * @param fileSize the new size of the file in bytes
+     * @param lastModified the new modification time of the file
+     * @return true if the update was successful. Otherwise, false
+     */
+    public boolean updateFileStamp(String path, long fileSize, long lastModified) {
+        String query = "UPDATE Songs SET fileSize = ?, lastModified = ? WHERE path = ?";
+        return executeUpdate(query, new Object[] {fileSize, lastModified, path});
+    }
+    
     /**
      * Method updates the column visibility for a column in a playlist
      * @param playlist the playlist containing the column
@@ -283,67 +870,308 @@ public class DatabaseModel {
      * @return array of Objects representing data in the table
      */
     public Object[] returnSong(String path) {
-        Object[] rowData = null;
-        ResultSet results = executeQuery("SELECT * FROM Songs WHERE path = ?", new Object[] {path});
-        
-        if(results != null) {
-            try {
-                if(results.next()) {
-                    rowData = new Object[7];
-                    for(int i = 0; i < 7; i++)
-                        rowData[i] = results.getString(i+1);
-                }
-            } catch(SQLException e) {
-                e.printStackTrace();
+        return executeQuery("SELECT title, artist, album, yearCreated, genre, comment, path FROM Songs WHERE path = ?", new Object[] {path}, results -> {
+            Object[] rowData = null;
+            if(results.next()) {
+                rowData = new Object[7];
+                for(int i = 0; i < 7; i++)
+                    rowData[i] = results.getString(i+1);
             }
-        }
-        return rowData;
+            return rowData;
+        });
+    }
+    
+    /**
+     * Method reads one song of the Library
+     * @param path the path of the song
+     * @return the song, or null if it isn't in the Library
+     */
+    public Song returnLibrarySong(String path) {
+        SongData songData = querySongs(SELECT_LIBRARY_SONGS + " WHERE path = ?", new Object[] {path});
+        return (songData.size() > 0) ? songData.getSong(0) : null;
+    }
+    
+    /**
+     * Method reads one song of the Library by its songId
+     * @param songId the songId of the song
+     * @return the song, or null if it isn't in the Library
+     */
+    public Song returnLibrarySong(int songId) {
+        SongData songData = querySongs(SELECT_LIBRARY_SONGS + " WHERE songId = ?", new Object[] {songId});
+        return (songData.size() > 0) ? songData.getSong(0) : null;
+    }
+    
+    /**
+     * Method determines whether a song is in the Songs table
+     * @param path the path of the song
+     * @return true if the song is in the Library. Otherwise, false
+     */
+    public boolean songExists(String path) {
+        return Boolean.TRUE.equals(executeQuery("SELECT 1 FROM Songs WHERE path = ?", new Object[] {path}, results -> results.next()));
+    }
+    
+    /**
+     * Method returns the length of a song stored in the Songs table
+     * @param path the path of the song
+     * @return the length in microseconds, or 0 if the song isn't in the Library or its length is unknown
+     */
+    public long returnDuration(String path) {
+        Long duration = executeQuery("SELECT duration FROM Songs WHERE path = ?", new Object[] {path},
+                                     results -> results.next() ? results.getLong(1) : 0L);
+        return (duration != null) ? duration : 0;
     }
     
     /**
      * Method returns all songs from the database
      * @param playlistName the name of the playlist to find songs in
-     * @return 2D array containing song info for table in GUI
+     * @return 2D array containing song info for table in GUI, with the audio metadata of each song after the table's columns
      */
     public Object[][] returnAllSongs(String playlistName) {
-        PreparedStatement statement;
-        String additionalClause = "";
-        if(!playlistName.equals("Library")) additionalClause = " INNER JOIN SongPlaylist USING (path) INNER JOIN Playlists USING (playlistName) WHERE playlistName = '" + playlistName + "'";
-        try {
-            statement = connection.prepareStatement("SELECT COUNT(*) FROM Songs" + additionalClause);
-            ResultSet results = statement.executeQuery();
-            int tableSize = 0;
-            while(results.next()) tableSize = results.getInt(1);
-            
-            // Create 2D table to be returned with correct size
-            Object[][] songData = new Object[tableSize][8];
-            
-            // Execute query again to actually get info from ResultSet
-            if(!playlistName.equals("Library")) statement = connection.prepareStatement("SELECT title, artist, album, yearCreated, genre, comment, path, id FROM Songs" + additionalClause);
-            else statement = connection.prepareStatement("SELECT * FROM Songs");
-            results = statement.executeQuery();
-
-            int row = 0;
+        return loadSongs(playlistName).toObjectArray();
+    }
+    
+    /**
+     * Method reads all songs in a playlist from the database in a single pass
+     * over the results, streaming rows into growable columns
+     * @param playlistName the name of the playlist to find songs in
+     * @return the songs in the playlist. Empty if the query failed
+     */
+    public SongData loadSongs(String playlistName) {
+        if(playlistName.equals("Library"))
+            return querySongs(SELECT_LIBRARY_SONGS, new Object[] {});
+        return querySongs(SELECT_PLAYLIST_SONGS + " WHERE sp.playlistName = ?", new Object[] {playlistName});
+    }
+    
+    /**
+     * Method reads one page of a playlist in a sort order, starting after the position of the
+     * last row of the previous page. Because the page starts from a key instead of an offset,
+     * the database seeks straight to it in the sort column's index, so every page costs the
+     * same no matter how deep into the playlist it is
+     * @param playlistName the name of the playlist to find songs in
+     * @param sort the order of the songs
+     * @param afterKey the position of the last row of the previous page, or null for the first page
+     * @param limit the maximum number of songs to read, or 0 to read the rest of the playlist
+     * @return the songs of the page. Empty if the query failed
+     */
+    public SongData returnSongs(String playlistName, SongSort sort, SongSort.Position afterKey, int limit) {
+        return returnSongs(playlistName, sort, afterKey, 0, limit);
+    }
+    
+    /**
+     * Method reads one page of a playlist in a sort order, starting at a row number. The
+     * database has to step over every row before the offset, so this is only used to jump
+     * to a page whose previous page hasn't been read
+     * @param playlistName the name of the playlist to find songs in
+     * @param sort the order of the songs
+     * @param offset the number of songs to skip
+     * @param limit the maximum number of songs to read, or 0 to read the rest of the playlist
+     * @return the songs of the page. Empty if the query failed
+     */
+    public SongData returnSongs(String playlistName, SongSort sort, int offset, int limit) {
+        return returnSongs(playlistName, sort, null, offset, limit);
+    }
+    
+    /**
+     * Method builds and runs the query of a page of songs
+     * @param playlistName the name of the playlist to find songs in
+     * @param sort the order of the songs
+     * @param afterKey the position that the page starts after, or null
+     * @param offset the number of songs to skip
+     * @param limit the maximum number of songs to read, or 0 for no limit
+     * @return the songs of the page. Empty if the query failed
+     */
+    private SongData returnSongs(String playlistName, SongSort sort, SongSort.Position afterKey, int offset, int limit) {
+        List<Object> args = new ArrayList<>();
+        String select = playlistName.equals("Library") ? SELECT_LIBRARY_SONGS : SELECT_PLAYLIST_SONGS;
+        boolean indexed = (limit > 0) && !playlistName.equals("Library") && isIndexed(playlistName, sort);
+        return querySongs(pageQuery(select, playlistName, sort, afterKey, offset, limit, indexed, args), args.toArray());
+    }
+    
+    /**
+     * Method decides whether a page of a playlist is read by walking an index in the sort
+     * order, joining each song to the playlist, rather than by joining and sorting every
+     * row of the playlist. Walking the index of Songs reads the songs of the Library that
+     * aren't in the playlist too, so it is only used for playlists with a large share of the
+     * Library. Playlists sorted by ID are walked in the index of SongPlaylist
+     * @param playlistName the name of the playlist
+     * @param sort the order of the songs
+     * @return true if pages of the playlist are read through the index. Always true for the Library
+     */
+    public boolean isIndexed(String playlistName, SongSort sort) {
+        if(playlistName.equals("Library") || sort.getColumn() == SongSort.Column.ID) return true;
+        if(!INDEXED_COLUMNS.contains(sort.getColumn())) return false;
+        return countSongs(playlistName) * INDEXED_PLAYLIST_FRACTION >= countSongs("Library");
+    }
+    
+    /**
+     * Method reads the songIds of every song in a playlist in a sort order, in the same
+     * order as the pages of returnSongs, without reading the rest of their columns
+     * @param playlistName the name of the playlist to find songs in
+     * @param sort the order of the songs
+     * @return the songIds in order. Empty if the query failed
+     */
+    public int[] returnSongIds(String playlistName, SongSort sort) {
+        List<Object> args = new ArrayList<>();
+        String select = playlistName.equals("Library") ? SELECT_LIBRARY_SONG_IDS : SELECT_PLAYLIST_SONG_IDS;
+        int[] songIds = executeQuery(pageQuery(select, playlistName, sort, null, 0, 0, false, args), args.toArray(), FETCH_SIZE, results -> {
+            int[] ids = new int[1024];
+            int count = 0;
             while(results.next()) {
-                songData[row][0] = results.getString(1);
-                songData[row][1] = results.getString(2);
-                songData[row][2] = results.getString(3); 
-                songData[row][3] = results.getString(4);
-                if(results.getInt(5) == -1) songData[row][4] = Controller.genres.get(2);
-                else songData[row][4] = Controller.genres.get(results.getInt(5));
-                songData[row][5] = results.getString(6);
-                songData[row][6] = results.getString(7);
-                if(!playlistName.equals("Library")) songData[row][7] = results.getInt(8);
-                else songData[row][7] = -1;
-                
-                row++;
+                if(count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+                ids[count++] = results.getInt(1);
             }
-            return songData;
+            return Arrays.copyOf(ids, count);
+        });
+        return (songIds != null) ? songIds : new int[0];
+    }
+    
+    /**
+     * Method builds the query of a page of songs. The sort column is followed by
+     * songId and then by the playlist id, unless the sort column is already unique, so the
+     * key of every row is unique and no row is skipped or repeated between pages. Rows of
+     * the same song in a playlist are always in the order of their playlist ids
+     * @param select the SELECT and FROM clauses, of the Library or of a playlist
+     * @param playlistName the name of the playlist to find songs in
+     * @param sort the order of the songs
+     * @param afterKey the position that the page starts after, or null
+     * @param offset the number of songs to skip
+     * @param limit the maximum number of songs to read, or 0 for no limit
+     * @param indexed whether a playlist is read by walking the index of its sort order. The
+     * database is told the order to join the tables in and the indexes to use, and only
+     * sorts by the columns of the outer table, which the index already returns in order
+     * @param args the list to add the values to be placed inside the query to
+     * @return the query
+     */
+    private String pageQuery(String select, String playlistName, SongSort sort, SongSort.Position afterKey, int offset, int limit,
+                             boolean indexed, List<Object> args) {
+        boolean library = playlistName.equals("Library");
+        List<String> keys = new ArrayList<>();
+        List<Boolean> ascending = new ArrayList<>();
+        List<Object> keyValues = new ArrayList<>();
+        int sortedKeys; // The keys the rows are sorted by. The rest only break ties in the page's condition
+        if(library) {
+            keys.add(sort.getColumn().getDatabaseColumn());
+            if(sort.getColumn() != SongSort.Column.PATH && sort.getColumn() != SongSort.Column.ID)
+                keys.add("songId");
+            sortedKeys = keys.size();
         }
-        catch(SQLException e) {
-            e.printStackTrace();
-            return new Object[0][0];
+        else if(sort.getColumn() == SongSort.Column.ID) {
+            // The playlist id and songId of a row are unique in the playlist
+            keys.add("sp.id");
+            keys.add("sp.songId");
+            sortedKeys = keys.size();
+        }
+        else {
+            keys.add("s." + sort.getColumn().getDatabaseColumn());
+            if(sort.getColumn() != SongSort.Column.PATH) keys.add("s.songId");
+            keys.add("sp.id");
+            // When Songs is walked in order, the rows of each song come from the playlist's index in id order
+            sortedKeys = indexed ? keys.size() - 1 : keys.size();
+        }
+        // The rows of a song in a playlist are in id order whichever way the playlist is sorted
+        for(int i = 0; i < keys.size(); i++)
+            ascending.add(sort.isAscending() || (i > 0 && keys.get(i).equals("sp.id")));
+        if(afterKey != null) {
+            for(String key : keys)
+                keyValues.add(keyValues.isEmpty() ? afterKey.getValue() : key.equals("sp.id") ? afterKey.getId() : afterKey.getSongId());
+        }
+        if(indexed) select = select.replace(PLAYLIST_JOIN, indexedJoin(sort));
+        
+        StringBuilder query = new StringBuilder(select);
+        if(!library) {
+            query.append(" WHERE sp.playlistName = ?");
+            args.add(playlistName);
+        }
+        if(afterKey != null) {
+            query.append(library ? " WHERE " : " AND ");
+            if(keys.size() == 1) {
+                query.append(keys.get(0)).append(ascending.get(0) ? " > ?" : " < ?");
+                args.add(keyValues.get(0));
+            }
+            else {
+                // The first condition lets the database seek in the index, the rest skip the rows tied with the last row
+                query.append(keys.get(0)).append(sort.isAscending() ? " >= ?" : " <= ?").append(" AND (");
+                args.add(keyValues.get(0));
+                for(int i = 0; i < keys.size(); i++) {
+                    if(i > 0) query.append(" OR ");
+                    if(i > 1) {
+                        query.append("(");
+                        for(int tied = 1; tied < i; tied++) {
+                            query.append(keys.get(tied)).append(" = ? AND ");
+                            args.add(keyValues.get(tied));
+                        }
+                    }
+                    query.append(keys.get(i)).append(ascending.get(i) ? " > ?" : " < ?");
+                    args.add(keyValues.get(i));
+                    if(i > 1) query.append(")");
+                }
+                query.append(")");
+            }
+        }
+        
+        query.append(" ORDER BY ");
+        for(int i = 0; i < sortedKeys; i++)
+            query.append((i == 0) ? "" : ", ").append(keys.get(i)).append(ascending.get(i) ? " ASC" : " DESC");
+        if(offset > 0) {
+            query.append(" OFFSET ? ROWS");
+            args.add(offset);
+        }
+        if(limit > 0) {
+            query.append(" FETCH NEXT ? ROWS ONLY");
+            args.add(limit);
+        }
+        return query.toString();
+    }
+    
+    /**
+     * Method builds the FROM clause that walks a playlist in the index of its sort order. Derby
+     * reads optimizer overrides from comments, which end at the end of the line
+     * @param sort the order of the songs. Its column must be one of INDEXED_COLUMNS or the ID
+     * @return the FROM clause
+     */
+    private static String indexedJoin(SongSort sort) {
+        if(sort.getColumn() == SongSort.Column.ID) {
+            String index = sort.isAscending() ? "SongPlaylist_playlistName_id_songId_IX" : "SongPlaylist_playlistName_id_songId_desc_IX";
+            return " FROM --DERBY-PROPERTIES joinOrder=FIXED\n SongPlaylist sp --DERBY-PROPERTIES index=" + index + "\n" +
+                   " INNER JOIN Songs s ON s.songId = sp.songId";
         }
+        String column = sort.getColumn().getDatabaseColumn();
+        String index;
+        if(sort.getColumn() == SongSort.Column.PATH) index = sort.isAscending() ? "constraint=Songs_PK" : "index=Songs_path_desc_IX";
+        else index = "index=Songs_" + column + (sort.isAscending() ? "_IX" : "_desc_IX");
+        return " FROM --DERBY-PROPERTIES joinOrder=FIXED\n Songs s --DERBY-PROPERTIES " + index + "\n" +
+               " INNER JOIN SongPlaylist sp --DERBY-PROPERTIES index=SongPlaylist_playlistName_songId_IX\n ON s.songId = sp.songId";
+    }
+    
+    /**
+     * Method gets the number of songs in a playlist
+     * @param playlistName the name of the playlist
+     * @return the number of songs in the playlist, or 0 if the query failed
+     */
+    public int countSongs(String playlistName) {
+        // Playlists.songCount is kept up to date by triggers, so nothing is counted here
+        Integer count = executeQuery("SELECT songCount FROM Playlists WHERE playlistName = ?", new Object[] {playlistName},
+                                     results -> results.next() ? results.getInt(1) : 0);
+        return (count != null) ? count : 0;
+    }
+    
+    /**
+     * Method runs a query whose columns are those of SELECT_LIBRARY_SONGS and streams its rows into columns
+     * @param query the query to be executed
+     * @param args the values to be placed inside the query
+     * @return the songs returned by the query. Empty if the query failed
+     */
+    private SongData querySongs(String query, Object[] args) {
+        SongData songData = executeQuery(query, args, FETCH_SIZE, results -> {
+            SongData data = new SongData();
+            while(results.next())
+                data.add(results.getString(1), results.getString(2), results.getString(3), results.getString(4), results.getInt(5),
+                         results.getString(6), results.getString(7), results.getInt(8), results.getInt(9), results.getLong(10),
+                         results.getInt(11), results.getInt(12), results.getString(13), results.getBoolean(14), results.getLong(15),
+                         results.getLong(16), results.getLong(17));
+            return data;
+        });
+        return (songData != null) ? songData : new SongData(0);
     }
     
     /**
@@ -351,17 +1179,13 @@ public class DatabaseModel {
      * @return ArrayList of strings that are the names of the playlists in the Playlists table
      */
     public ArrayList<String> returnAllPlaylists() {
-        ArrayList<String> playlists = new ArrayList<>();
-        ResultSet results = executeQuery("SELECT * FROM Playlists WHERE playlistName != ?", new Object[]{"Library"});
-        if(results != null) {
-            try {
-                while(results.next())
-                    playlists.add(results.getString("playlistName"));
-            } catch(SQLException e) {
-                e.printStackTrace();
-            }
-        }
-        return playlists;
+        ArrayList<String> playlists = executeQuery("SELECT * FROM Playlists WHERE playlistName != ?", new Object[]{"Library"}, results -> {
+            ArrayList<String> names = new ArrayList<>();
+            while(results.next())
+                names.add(results.getString("playlistName"));
+            return names;
+        });
+        return (playlists != null) ? playlists : new ArrayList<String>();
     }
     
     /**
@@ -372,16 +1196,12 @@ public class DatabaseModel {
     public boolean[] returnColumnVisibility(String playlistName) {
         boolean[] columnVisibilities = new boolean[8];
         String query = "SELECT visible FROM Columns WHERE playlistName = ? ORDER BY columnOrder";
-        ResultSet results = executeQuery(query, new Object[] {playlistName});
-        if(results != null) {
-            try {
-                int col = 0;
-                while(results.next())
-                    columnVisibilities[col++] = results.getBoolean(1);
-            } catch(SQLException e) {
-                e.printStackTrace();
-            }
-        }
+        executeQuery(query, new Object[] {playlistName}, results -> {
+            int col = 0;
+            while(results.next())
+                columnVisibilities[col++] = results.getBoolean(1);
+            return col;
+        });
         return columnVisibilities;
     }
     
@@ -409,46 +1229,44 @@ public class DatabaseModel {
         } else return songs;
     }*/
     
-    public ArrayList<String> returnRecentlyPlayedSongs() {
-        ArrayList<String> songs = new ArrayList<>();
-        String songQuery = "SELECT songName FROM RecentlyPlayed ORDER BY songOrder DESC";
-        ResultSet recentlyPlayed = executeQuery(songQuery, new Object[]{});
-        if(recentlyPlayed != null) {
-            try {
-                int counter = 0;
-                while(recentlyPlayed.next()) {
-                    songs.add(counter, recentlyPlayed.getString(1));
-                    counter++;
-                }
-            } catch(SQLException e) {
-                e.printStackTrace();
-            }
-        }
-        return songs;
-    }
-    
-    public int getRecentlyPlayedSize() {
-        int size = 0;
-        String query = "SELECT COUNT(*) FROM RecentlyPlayed";
-        ResultSet results = executeQuery(query, new Object[]{});
-        if(results != null) {
-            try {
-                while(results.next())
-                    size = results.getInt(1);
-            } catch(SQLException e) {
-                e.printStackTrace();
-            }
-        }
-        return size;
+    /**
+     * Method returns the most recently played songs
+     * @param limit the maximum number of songs to return
+     * @return the names of the songs, most recently played first
+     */
+    public ArrayList<String> returnRecentlyPlayedSongs(int limit) {
+        String songQuery = "SELECT songName FROM RecentlyPlayed ORDER BY songOrder DESC FETCH FIRST ? ROWS ONLY";
+        ArrayList<String> songs = executeQuery(songQuery, new Object[]{limit}, recentlyPlayed -> {
+            ArrayList<String> names = new ArrayList<>();
+            while(recentlyPlayed.next())
+                names.add(recentlyPlayed.getString(1));
+            return names;
+        });
+        return (songs != null) ? songs : new ArrayList<String>();
     }
     
-    public boolean addToRecentlyPlayed(String songName, int order) {
-        //String query = "INSERT INTO RecentlyPlayed (songName, songOrder) VALUES (?,?)";
-        //return executeUpdate(query, new Object[]{songName,order});
+    /**
+     * Method inserts a song at the end of the RecentlyPlayed table
+     * @param songName the name of the song that was played
+     * @return true if the song was inserted. Otherwise, false
+     */
+    public boolean addToRecentlyPlayed(String songName) {
+        // songOrder is an identity column, so the database numbers the songs in the order they are played
         String query = "INSERT INTO RecentlyPlayed (songName) VALUES (?)";
         return executeUpdate(query, new Object[]{songName});
     }
     
+    /**
+     * Method deletes all but the most recently played songs from the RecentlyPlayed table
+     * @param keep the number of songs to keep
+     * @return true if the delete succeeded. Otherwise, false
+     */
+    public boolean trimRecentlyPlayed(int keep) {
+        String query = "DELETE FROM RecentlyPlayed WHERE songOrder < (SELECT MIN(songOrder) FROM" +
+                       " (SELECT songOrder FROM RecentlyPlayed ORDER BY songOrder DESC FETCH FIRST ? ROWS ONLY) AS newest)";
+        return executeUpdate(query, new Object[]{keep});
+    }
+    
     public boolean deleteFromRecentlyPlayed(int order) {
         String query = "DELETE FROM RecentlyPlayed WHERE songOrder = ?";
         return executeUpdate(query, new Object[] {order});
@@ -459,11 +1277,23 @@ public class DatabaseModel {
      * the program from the database.
      */
     public void shutdown() {
-        if(connection != null) {
+        System.out.println("\n" + storageMode + " database: connected in " + connectMillis + " ms");
+        System.out.println(queryStats);
+        System.out.println(updateStats);
+        if(pool != null) {
+            System.out.println(pool);
+            System.out.println(pool.getStatementCacheSummary());
+            // The closed pool is kept, so a query still running gives its connection back to be closed
+            pool.close();
+        }
+        
+        // An embedded database has to be shut down so it is closed cleanly before the process exits
+        if(storageMode == StorageMode.EMBEDDED) {
             try {
-                connection.close();
+                DriverManager.getConnection(storageMode.getUrl() + ";shutdown=true");
             } catch (SQLException e) {
-                e.printStackTrace();
+                // Derby reports a successful shutdown of a single database with SQLState 08006
+                if(!"08006".equals(e.getSQLState())) e.printStackTrace();
             }
         }
     }
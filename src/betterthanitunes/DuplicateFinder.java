@@ -0,0 +1,153 @@
+package betterthanitunes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class finds the songs of the Library that have the same audio, such as the
+ * same track copied to two folders. Songs imported before fingerprints were
+ * stored are fingerprinted first, on a thread per processor, and the
+ * fingerprints are saved a batch at a time, so the next report is a single query.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class DuplicateFinder {
+    public static final int BATCH_SIZE = 500; // Fingerprints saved in each transaction
+
+    /**
+     * Class holds the duplicates found, and how much audio had to be fingerprinted first.
+     */
+    public static class Report {
+        private final List<List<String>> groups;
+        private final int fingerprinted, unreadable;
+        private final long bytes, millis;
+
+        private Report(List<List<String>> groups, int fingerprinted, int unreadable, long bytes, long millis) {
+            this.groups = groups;
+            this.fingerprinted = fingerprinted;
+            this.unreadable = unreadable;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        // Method returns the paths of the duplicates, grouped by their audio
+        public List<List<String>> getGroups() {
+            return groups;
+        }
+
+        // Method returns the number of songs that weren't fingerprinted until this report
+        public int getFingerprinted() {
+            return fingerprinted;
+        }
+
+        public int getUnreadable() {
+            return unreadable;
+        }
+
+        /**
+         * Method gets the rate at which the songs without fingerprints were fingerprinted
+         * @return the throughput of all threads together in MB/s
+         */
+        public double getMegabytesPerSecond() {
+            return bytes / 1048576.0 / Math.max(millis / 1000.0, 1e-3);
+        }
+
+        @Override
+        public String toString() {
+            int duplicates = 0;
+            for(List<String> group : groups)
+                duplicates += group.size() - 1;
+            String summary = groups.size() + " songs have " + duplicates + " duplicates";
+            if(fingerprinted > 0)
+                summary += String.format(". Fingerprinted %d songs (%d unreadable) at %.0f MB/s in %d ms",
+                                         fingerprinted, unreadable, getMegabytesPerSecond(), millis);
+            return summary;
+        }
+    }
+
+    private final Controller controller;
+    private final int threads;
+
+    /**
+     * Constructor creates a finder that fingerprints with a thread per processor
+     * @param controller the controller to read and save the fingerprints through
+     */
+    public DuplicateFinder(Controller controller) {
+        this(controller, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor creates a finder
+     * @param controller the controller to read and save the fingerprints through
+     * @param threads the number of threads fingerprinting songs
+     */
+    public DuplicateFinder(Controller controller, int threads) {
+        this.controller = controller;
+        this.threads = threads;
+    }
+
+    /**
+     * Method fingerprints the songs that don't have a fingerprint yet, then finds the duplicates
+     * @return the duplicates
+     */
+    public Report findDuplicates() {
+        long start = System.nanoTime();
+        List<String> paths = controller.returnUnfingerprintedPaths();
+        AtomicInteger unreadable = new AtomicInteger();
+        long bytes = 0;
+
+        if(!paths.isEmpty()) {
+            AtomicInteger threadCount = new AtomicInteger();
+            ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+                Thread thread = new Thread(task, "Fingerprinter " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            long hashedBefore = AudioFingerprint.getBytesHashed();
+            try {
+                for(int first = 0; first < paths.size(); first += BATCH_SIZE) {
+                    List<Callable<Long>> tasks = new ArrayList<>();
+                    for(String path : paths.subList(first, Math.min(first + BATCH_SIZE, paths.size()))) {
+                        tasks.add(() -> {
+                            try {
+                                return AudioFingerprint.compute(path);
+                            } catch(IOException e) {
+                                unreadable.incrementAndGet();
+                                return AudioFingerprint.UNKNOWN;
+                            }
+                        });
+                    }
+
+                    Map<String, Long> fingerprints = new HashMap<>();
+                    List<Future<Long>> results = pool.invokeAll(tasks);
+                    for(int i = 0; i < results.size(); i++) {
+                        long fingerprint = results.get(i).get();
+                        if(fingerprint != AudioFingerprint.UNKNOWN) fingerprints.put(paths.get(first + i), fingerprint);
+                    }
+                    controller.updateFingerprints(fingerprints);
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch(ExecutionException e) {
+                e.printStackTrace();
+            } finally {
+                pool.shutdown();
+            }
+            bytes = AudioFingerprint.getBytesHashed() - hashedBefore;
+        }
+
+        Report report = new Report(controller.returnDuplicates(), paths.size(), unreadable.get(), bytes,
+                                   (System.nanoTime() - start) / 1000000);
+        System.out.println("\nDuplicates: " + report);
+        return report;
+    }
+}
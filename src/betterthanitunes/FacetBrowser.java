@@ -0,0 +1,139 @@
+package betterthanitunes;
+
+import java.awt.BorderLayout;
+import java.awt.Dimension;
+import java.awt.GridLayout;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.DefaultListModel;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.ListSelectionModel;
+import javax.swing.Timer;
+import javax.swing.event.ListSelectionEvent;
+
+/**
+ * Class represents the browser above the song table of the Library: a list of the
+ * genres, years, artists and albums in the Library, each with its number of songs.
+ * Selecting values shows only the songs that have all of them, which are found in
+ * the FacetIndex instead of the database. Each list counts the songs that match the
+ * values selected in the other lists, and a Swing timer redraws the lists when the
+ * index changes, so songs imported, edited or deleted show up without a refresh.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class FacetBrowser extends JPanel {
+    private static final int UPDATE_INTERVAL_MS = 500; // How often the index is checked for changes
+    private static final int HEIGHT = 150;
+
+    private final FacetIndex index;
+    private final SongTableModel tableModel;
+    private final Map<FacetIndex.Facet, JList<String>> lists = new EnumMap<>(FacetIndex.Facet.class);
+    private final Map<FacetIndex.Facet, List<String>> values = new EnumMap<>(FacetIndex.Facet.class); // The value of each row, null for All
+    private final Map<FacetIndex.Facet, String> selection = FacetIndex.newSelection();
+    private boolean updating = false; // Set while the lists are redrawn, so their selection events are ignored
+    private int version = -1; // The version of the index the lists were drawn from
+    private boolean browsable = true; // False while the song table displays a playlist
+
+    /**
+     * Constructor creates the browser and starts watching the index for changes
+     * @param index the index of the Library
+     * @param tableModel the table model of the song table the browser filters
+     */
+    public FacetBrowser(FacetIndex index, SongTableModel tableModel) {
+        super(new GridLayout(1, FacetIndex.Facet.values().length));
+        this.index = index;
+        this.tableModel = tableModel;
+
+        for(FacetIndex.Facet facet : FacetIndex.Facet.values()) {
+            JList<String> list = new JList<>(new DefaultListModel<>());
+            list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+            list.addListSelectionListener(e -> valueSelected(facet, e));
+            lists.put(facet, list);
+            values.put(facet, new ArrayList<>());
+
+            JPanel column = new JPanel(new BorderLayout());
+            column.add(new JLabel(facet.getTitle()), BorderLayout.NORTH);
+            column.add(new JScrollPane(list), BorderLayout.CENTER);
+            add(column);
+        }
+        setPreferredSize(new Dimension(0, HEIGHT));
+
+        new Timer(UPDATE_INTERVAL_MS, e -> {
+            if(isShowing() && index.isBuilt() && index.getVersion() != version) update(!selection.isEmpty());
+        }).start();
+    }
+
+    /**
+     * Method is called when a value is selected in one of the lists. The song table
+     * shows the songs with the selected values, and the lists are counted again
+     * @param facet the facet of the list
+     * @param e the selection event
+     */
+    private void valueSelected(FacetIndex.Facet facet, ListSelectionEvent e) {
+        if(updating || e.getValueIsAdjusting()) return;
+        int row = lists.get(facet).getSelectedIndex();
+        String value = (row >= 0) ? values.get(facet).get(row) : null;
+        if(value == null) selection.remove(facet);
+        else selection.put(facet, value);
+        update(true);
+    }
+
+    /**
+     * Method redraws the lists from the index, so they show songs that were added, edited
+     * or deleted. A selected value that no song has any more is dropped from the selection
+     * @param selectSongs whether the song table should find the selected songs again
+     */
+    private void update(boolean selectSongs) {
+        version = index.getVersion();
+        boolean selectionChanged = false;
+        updating = true;
+        for(FacetIndex.Facet facet : FacetIndex.Facet.values()) {
+            Map<String, Integer> counts = index.countValues(facet, selection);
+            String selected = selection.get(facet);
+            if(selected != null && !counts.containsKey(selected)) {
+                selection.remove(facet);
+                selected = null;
+                selectionChanged = true;
+            }
+
+            int total = 0;
+            for(int count : counts.values())
+                total += count;
+            DefaultListModel<String> model = new DefaultListModel<>();
+            List<String> rowValues = values.get(facet);
+            rowValues.clear();
+            model.addElement("All (" + total + ")");
+            rowValues.add(null);
+            for(Map.Entry<String, Integer> entry : counts.entrySet()) {
+                model.addElement((entry.getKey().isEmpty() ? "Unknown" : entry.getKey()) + " (" + entry.getValue() + ")");
+                rowValues.add(entry.getKey());
+            }
+
+            JList<String> list = lists.get(facet);
+            list.setModel(model);
+            list.setSelectedIndex(rowValues.indexOf(selected));
+            list.ensureIndexIsVisible(list.getSelectedIndex());
+            list.setEnabled(browsable);
+        }
+        updating = false;
+        if(selectSongs || selectionChanged) tableModel.setSelection(selection);
+    }
+
+    /**
+     * Method is called when the song table changes playlist. Only the Library can be
+     * browsed, so the selection is cleared and the lists are disabled for a playlist
+     * @param playlistName the playlist the table displays
+     */
+    public void setPlaylist(String playlistName) {
+        browsable = playlistName.equals("Library");
+        selection.clear();
+        version = -1; // Redraw the lists the next time the timer fires
+        for(JList<String> list : lists.values())
+            list.setEnabled(browsable);
+    }
+}
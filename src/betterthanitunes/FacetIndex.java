@@ -0,0 +1,406 @@
+package betterthanitunes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class indexes the songs of the Library by genre, year, artist and album, so the
+ * browser can list the values of each with their number of songs, and filter the
+ * song table, without querying the database. The index is built from the Songs table
+ * once, in the background, and then kept up to date by the Controller as songs are
+ * added, edited and deleted. Each value keeps the songIds of its songs in an unordered
+ * array, and each song remembers its position in those arrays, so a song is added,
+ * moved or removed in constant time however many songs share its values.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class FacetIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Enum represents the fields of a song that the Library can be browsed by,
+     * in the order the browser displays them.
+     */
+    public enum Facet {
+        GENRE("Genre"), YEAR("Year"), ARTIST("Artist"), ALBUM("Album");
+
+        private final String title;
+
+        private Facet(String title) {
+            this.title = title;
+        }
+
+        // Method returns the header of the facet's list in the browser
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * Method gets the value of this facet for a song
+         * @param song the song
+         * @return the value, with the genre as its name
+         */
+        public String valueOf(Song song) {
+            String value;
+            switch(this) {
+                case GENRE: value = Controller.getGenreName(song.getGenre()); break;
+                case YEAR: value = song.getYear(); break;
+                case ARTIST: value = song.getArtist(); break;
+                default: value = song.getAlbum(); break;
+            }
+            return (value != null) ? value : "";
+        }
+    }
+
+    // Values are listed alphabetically ignoring case, and values that differ only by case are kept apart
+    public static final Comparator<String> VALUE_ORDER = (first, second) -> {
+        int order = String.CASE_INSENSITIVE_ORDER.compare(first, second);
+        return (order != 0) ? order : first.compareTo(second);
+    };
+
+    /**
+     * Class holds the values of one facet. Each value is given a code the first time a
+     * song has it, and the songs are looked up by code, so checking and counting the
+     * values of many songs reads arrays of ints instead of the songs themselves.
+     * Codes are never reused, which only costs the values no song has any more.
+     */
+    private static class Values {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final ArrayList<String> names = new ArrayList<>(); // The value of each code
+        private int[][] songIds = new int[16][]; // The songIds of the songs with each code, unordered
+        private int[] sizes = new int[16]; // The number of songs with each code
+        private int[] codeOf = new int[INITIAL_CAPACITY]; // The code of each songId's value
+        private int[] positions = new int[INITIAL_CAPACITY]; // Where each songId is in the songIds of its code
+        private int[] sortedCodes; // The codes in VALUE_ORDER of their values, or null once a value is added
+
+        /**
+         * Method gets the code of a value
+         * @param value the value
+         * @param create whether to give the value a code if it doesn't have one
+         * @return the code, or -1 if the value doesn't have one
+         */
+        private int code(String value, boolean create) {
+            Integer code = codes.get(value);
+            if(code != null) return code;
+            if(!create) return -1;
+            code = names.size();
+            codes.put(value, code);
+            names.add(value);
+            if(code == sizes.length) {
+                songIds = Arrays.copyOf(songIds, code * 2);
+                sizes = Arrays.copyOf(sizes, code * 2);
+            }
+            songIds[code] = new int[4];
+            sortedCodes = null;
+            return code;
+        }
+
+        private void add(int code, int songId) {
+            if(sizes[code] == songIds[code].length) songIds[code] = Arrays.copyOf(songIds[code], sizes[code] * 2);
+            codeOf[songId] = code;
+            positions[songId] = sizes[code];
+            songIds[code][sizes[code]++] = songId;
+        }
+
+        // Method removes a songId from its code's songIds by moving the last songId into its place
+        private void remove(int songId) {
+            int code = codeOf[songId], position = positions[songId];
+            int last = songIds[code][--sizes[code]];
+            songIds[code][position] = last;
+            positions[last] = position;
+        }
+
+        private void ensureCapacity(int capacity) {
+            codeOf = Arrays.copyOf(codeOf, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+
+        // Method returns every code in VALUE_ORDER, sorting them only if values were added since they were last sorted
+        private int[] sortedCodes() {
+            if(sortedCodes == null) {
+                Integer[] order = new Integer[names.size()];
+                for(int code = 0; code < order.length; code++)
+                    order[code] = code;
+                Arrays.sort(order, (first, second) -> VALUE_ORDER.compare(names.get(first), names.get(second)));
+                sortedCodes = new int[order.length];
+                for(int i = 0; i < order.length; i++)
+                    sortedCodes[i] = order[i];
+            }
+            return sortedCodes;
+        }
+    }
+
+    private final Facet[] facets = Facet.values();
+    private final Values[] values = new Values[facets.length];
+    private Song[] songs = new Song[INITIAL_CAPACITY]; // Indexed by songId
+    private final Map<String, Integer> songIds = new HashMap<>(); // The songId of each path
+    private boolean built = false;
+    private final List<Runnable> pending = new ArrayList<>(); // Changes made while the index was being built
+    private int version = 0;
+    private final LatencyStats selectStats = new LatencyStats("Browser selections");
+
+    public FacetIndex() {
+        for(int f = 0; f < facets.length; f++)
+            values[f] = new Values();
+    }
+
+    /**
+     * Method fills the index with the songs of the Library, then applies the changes made since
+     * they were read from the database. Until then, changes are kept and selections are empty
+     * @param library every song of the Library
+     */
+    public synchronized void build(SongData library) {
+        long start = System.nanoTime();
+        for(int row = 0; row < library.size(); row++)
+            index(library.getSong(row));
+        built = true;
+        for(Runnable change : pending)
+            change.run();
+        pending.clear();
+        version++;
+        System.out.println("\nIndexed " + songIds.size() + " songs for the browser in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Method adds a song to the index, or moves it to its new values if it is already indexed
+     * @param song the song. A song built from its file is matched to the indexed song by its path
+     */
+    public synchronized void put(Song song) {
+        if(!built) {
+            pending.add(() -> put(song));
+            return;
+        }
+        index(song);
+        version++;
+    }
+
+    /**
+     * Method adds a song to the songs of its values, moving it from its old values if it is indexed
+     * @param song the song
+     */
+    private void index(Song song) {
+        int songId = song.getSongId();
+        if(songId < 0) {
+            Integer indexedId = songIds.get(song.getPath());
+            if(indexedId == null) return; // Only songs of the Library have a songId
+            songId = indexedId;
+            song = song.withSongId(songId);
+        }
+        ensureCapacity(songId);
+
+        boolean indexed = songs[songId] != null;
+        for(int f = 0; f < facets.length; f++) {
+            int code = values[f].code(facets[f].valueOf(song), true);
+            if(indexed) {
+                if(values[f].codeOf[songId] == code) continue;
+                values[f].remove(songId);
+            }
+            values[f].add(code, songId);
+        }
+        songs[songId] = song;
+        songIds.put(song.getPath(), songId);
+    }
+
+    /**
+     * Method changes one tag field of an indexed song
+     * @param path the path of the song
+     * @param column the column of the field in the song table (0 - 5)
+     * @param value the new value
+     */
+    public synchronized void update(String path, int column, Object value) {
+        if(!built) {
+            pending.add(() -> update(path, column, value));
+            return;
+        }
+        Integer songId = songIds.get(path);
+        if(songId != null) {
+            index(songs[songId].withTag(column, value));
+            version++;
+        }
+    }
+
+    /**
+     * Method removes a song from the index
+     * @param path the path of the song
+     */
+    public synchronized void remove(String path) {
+        if(!built) {
+            pending.add(() -> remove(path));
+            return;
+        }
+        Integer songId = songIds.remove(path);
+        if(songId == null) return;
+        for(Values facetValues : values)
+            facetValues.remove(songId);
+        songs[songId] = null;
+        version++;
+    }
+
+    /**
+     * Method grows the arrays indexed by songId to hold a songId
+     * @param songId the songId
+     */
+    private void ensureCapacity(int songId) {
+        if(songId < songs.length) return;
+        int capacity = Math.max(songId + 1, songs.length * 2);
+        songs = Arrays.copyOf(songs, capacity);
+        for(Values facetValues : values)
+            facetValues.ensureCapacity(capacity);
+    }
+
+    /**
+     * Method finds the songs with the selected value of every facet in a selection
+     * @param selection the selected value of each facet. Facets that aren't in it match every song
+     * @return the songs, in no particular order
+     */
+    public synchronized ArrayList<Song> select(Map<Facet, String> selection) {
+        long start = System.nanoTime();
+        ArrayList<Song> selected = new ArrayList<>();
+        if(selection.isEmpty()) {
+            for(Song song : songs)
+                if(song != null) selected.add(song);
+        }
+        else {
+            int[] codes = selectedCodes(selection, null);
+            int smallest = smallestFacet(codes);
+            if(smallest >= 0) {
+                int[] candidates = values[smallest].songIds[codes[smallest]];
+                for(int i = 0; i < values[smallest].sizes[codes[smallest]]; i++) {
+                    if(matches(candidates[i], codes)) selected.add(songs[candidates[i]]);
+                }
+            }
+        }
+        selectStats.recordSince(start);
+        return selected;
+    }
+
+    /**
+     * Method counts the songs with each value of a facet, among the songs that match the
+     * values selected for the other facets, so picking one of them never empties the table
+     * @param facet the facet to count the values of
+     * @param selection the selected value of each facet
+     * @return map from each value that a song has to its number of songs, in VALUE_ORDER
+     */
+    public synchronized LinkedHashMap<String, Integer> countValues(Facet facet, Map<Facet, String> selection) {
+        Values facetValues = values[facet.ordinal()];
+        LinkedHashMap<String, Integer> counts = new LinkedHashMap<>();
+        int[] codes = selectedCodes(selection, facet);
+        int smallest = smallestFacet(codes);
+        int[] codeCounts;
+        if(smallest == -1) codeCounts = facetValues.sizes; // Nothing else is selected, so every song counts
+        else {
+            codeCounts = new int[facetValues.names.size()];
+            if(smallest >= 0) {
+                int[] candidates = values[smallest].songIds[codes[smallest]];
+                for(int i = 0; i < values[smallest].sizes[codes[smallest]]; i++) {
+                    if(matches(candidates[i], codes)) codeCounts[facetValues.codeOf[candidates[i]]]++;
+                }
+            }
+        }
+        for(int code : facetValues.sortedCodes()) {
+            if(codeCounts[code] > 0) counts.put(facetValues.names.get(code), codeCounts[code]);
+        }
+        return counts;
+    }
+
+    /**
+     * Method gets the codes of the values in a selection
+     * @param selection the selected value of each facet
+     * @param ignored a facet whose selection is ignored, or null
+     * @return the code of each facet's selected value, -1 for facets that aren't selected,
+     * or -2 for a value that no song has
+     */
+    private int[] selectedCodes(Map<Facet, String> selection, Facet ignored) {
+        int[] codes = new int[facets.length];
+        Arrays.fill(codes, -1);
+        for(Map.Entry<Facet, String> entry : selection.entrySet()) {
+            if(entry.getKey() == ignored) continue;
+            int code = values[entry.getKey().ordinal()].code(entry.getValue(), false);
+            codes[entry.getKey().ordinal()] = (code >= 0) ? code : -2;
+        }
+        return codes;
+    }
+
+    /**
+     * Method finds the selected value with the fewest songs, whose songs are the only ones a selection has to check
+     * @param codes the code of each facet's selected value
+     * @return the index of the facet, -1 if nothing is selected, or -2 if a selected value has no songs
+     */
+    private int smallestFacet(int[] codes) {
+        int smallest = -1;
+        for(int f = 0; f < codes.length; f++) {
+            if(codes[f] == -2) return -2;
+            if(codes[f] >= 0 && (smallest == -1 || values[f].sizes[codes[f]] < values[smallest].sizes[codes[smallest]])) smallest = f;
+        }
+        return smallest;
+    }
+
+    private boolean matches(int songId, int[] codes) {
+        for(int f = 0; f < codes.length; f++) {
+            if(codes[f] >= 0 && values[f].codeOf[songId] != codes[f]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Method gets an indexed song by its songId
+     * @param songId the songId
+     * @return the song, or null if it isn't indexed or the index isn't built yet
+     */
+    public synchronized Song getSong(int songId) {
+        return (songId >= 0 && songId < songs.length) ? songs[songId] : null;
+    }
+
+    /**
+     * Method gets the songId of an indexed song
+     * @param path the path of the song
+     * @return the songId, or -1 if it isn't indexed or the index isn't built yet
+     */
+    public synchronized int getSongId(String path) {
+        Integer songId = songIds.get(path);
+        return (songId != null) ? songId : -1;
+    }
+
+    /**
+     * Method gets the number of songs in the index
+     * @return the number of songs, which is 0 until the index is built
+     */
+    public synchronized int size() {
+        return songIds.size();
+    }
+
+    public synchronized boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Method gets a number that changes whenever the index changes, so the browser
+     * knows when its lists are out of date
+     * @return the version of the index
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Method gets the latency statistics of the selections made from the index
+     * @return the statistics of every call to select
+     */
+    public LatencyStats getSelectStats() {
+        return selectStats;
+    }
+
+    /**
+     * Method creates an empty selection
+     * @return a map to put the selected value of each facet in
+     */
+    public static Map<Facet, String> newSelection() {
+        return new EnumMap<>(Facet.class);
+    }
+}
@@ -0,0 +1,73 @@
+package betterthanitunes;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Class keeps how long songs took to be heard once they were played, broken down by
+ * the stages of starting a song: finding its metadata, opening it, starting the line
+ * and waiting for the player to report the first audio written to the line. Each stage
+ * has its own histogram, as has the whole time, so the stage that makes a start slow
+ * can be found. Songs of the Library and songs played from outside it are kept apart.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class FirstAudioStats {
+    /**
+     * Enum represents the stages of starting a song, in the order they happen.
+     */
+    public enum Stage {
+        METADATA("metadata"),             // Finding the song's title and length for the windows
+        OPEN("open"),                     // Reading the headers of the file and opening the line
+        LINE_START("line start"),         // Starting the line and the player's thread
+        FIRST_PROGRESS("first progress"), // Until the player reports the first audio written
+        TOTAL("total");                   // The whole time, from the metadata to the first audio
+
+        private final String name;
+
+        private Stage(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+
+    /**
+     * Constructor creates empty histograms for every stage
+     * @param name the kind of songs timed, used when printing the histograms
+     */
+    public FirstAudioStats(String name) {
+        for(Stage stage : Stage.values())
+            stages.put(stage, new LatencyHistogram(name + ", time to first audio, " + stage.name));
+    }
+
+    /**
+     * Method gets how long one stage took
+     * @param stage the stage
+     * @return the histogram of the stage, in milliseconds
+     */
+    public LatencyHistogram get(Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * Method records the stages of one song that has been heard
+     * @param marks the values of System.nanoTime() when each stage before TOTAL started,
+     * followed by the one when the first audio was reported
+     */
+    public void record(long[] marks) {
+        for(int stage = 0; stage < Stage.TOTAL.ordinal(); stage++)
+            stages.get(Stage.values()[stage]).record(marks[stage + 1] - marks[stage]);
+        stages.get(Stage.TOTAL).record(marks[Stage.TOTAL.ordinal()] - marks[0]);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        for(LatencyHistogram stage : stages.values()) {
+            if(summary.length() > 0) summary.append("\n");
+            summary.append(stage);
+        }
+        return summary.toString();
+    }
+}
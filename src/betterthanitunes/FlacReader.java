@@ -0,0 +1,118 @@
+package betterthanitunes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+import com.mpatric.mp3agic.ID3v1;
+
+/**
+ * Class reads the tags and length of a FLAC file from the metadata blocks at
+ * its start. The STREAMINFO block holds the sample rate, the channels and the
+ * number of samples, so the length is exact without reading any audio, and the
+ * VORBIS_COMMENT block holds the tags. Only the 4-byte header of the other
+ * blocks is read, so album art in a PICTURE block costs nothing to skip.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class FlacReader implements MetadataReader {
+    private static final int STREAMINFO = 0, VORBIS_COMMENT = 4;
+    private static final int STREAMINFO_LENGTH = 34;
+    private static final int MAX_BLOCKS = 1024; // Stops at a corrupt file whose last block is never marked
+
+    FlacReader() {}
+
+    @Override
+    public String getFormat() {
+        return "FLAC";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return Collections.singletonList("flac");
+    }
+
+    @Override
+    public boolean matches(ByteBuffer start) {
+        return isFlac(start);
+    }
+
+    private static boolean isFlac(ByteBuffer start) {
+        return start.remaining() >= 4 && start.get(0) == 'f' && start.get(1) == 'L' && start.get(2) == 'a' && start.get(3) == 'C';
+    }
+
+    @Override
+    public AudioMetadata read(String path, FileChannel channel) throws IOException {
+        long lastModified = new File(path).lastModified();
+        long fileSize = channel.size();
+        long position = Mp3TagReader.id3v2Length(channel); // Some taggers put an ID3v2 tag before the stream
+        if(!isFlac(Mp3TagReader.read(channel, position, 4))) throw new IOException(path + " is not a FLAC file");
+        position += 4;
+
+        ByteBuffer streamInfo = null;
+        ID3v1 tag = null;
+        boolean last = false;
+        for(int block = 0; block < MAX_BLOCKS && !last; block++) {
+            ByteBuffer header = Mp3TagReader.read(channel, position, 4);
+            if(header.remaining() < 4) throw new IOException("The metadata of " + path + " is cut short");
+            int type = header.get(0) & 0x7F;
+            int length = header.getInt(0) & 0xFFFFFF;
+            last = (header.get(0) & 0x80) != 0;
+            position += 4;
+            if(type == STREAMINFO && streamInfo == null) streamInfo = Mp3TagReader.read(channel, position, length);
+            else if(type == VORBIS_COMMENT && tag == null) tag = VorbisComment.parse(Mp3TagReader.read(channel, position, length));
+            position += length;
+        }
+        if(streamInfo == null || streamInfo.remaining() < STREAMINFO_LENGTH)
+            throw new IOException(path + " has no STREAMINFO block");
+
+        // Bytes 10 - 17 hold the sample rate (20 bits), channels - 1 (3 bits), bits per sample - 1 (5 bits) and samples (36 bits)
+        long packed = streamInfo.getLong(10);
+        int sampleRate = (int)(packed >>> 44);
+        int channels = (int)((packed >>> 41) & 7) + 1;
+        long samples = packed & 0xFFFFFFFFFL;
+        if(sampleRate == 0) throw new IOException(path + " has no sample rate");
+
+        // A stream whose encoder didn't know its length stores 0 samples
+        long duration = samples * 1000000 / sampleRate;
+        long audioBytes = Math.max(fileSize - position, 0);
+        int bitrate = (duration > 0) ? (int)(audioBytes * 8 / Math.max(duration / 1000, 1)) : 0;
+        return new AudioMetadata(tag, duration, bitrate, sampleRate, channelMode(channels), true,
+                                 fileSize, lastModified, AudioMetadata.DurationSource.STREAMINFO);
+    }
+
+    /**
+     * Method finds where the audio frames of a FLAC file start
+     * @param channel the open file
+     * @param start where the stream starts, after any ID3v2 tag
+     * @return the position after the last metadata block, or start if the file isn't a FLAC file
+     * @throws IOException if the file can't be read
+     */
+    static long audioOffset(FileChannel channel, long start) throws IOException {
+        if(!isFlac(Mp3TagReader.read(channel, start, 4))) return start;
+        long position = start + 4;
+        boolean last = false;
+        for(int block = 0; block < MAX_BLOCKS && !last; block++) {
+            ByteBuffer header = Mp3TagReader.read(channel, position, 4);
+            if(header.remaining() < 4) return start;
+            last = (header.get(0) & 0x80) != 0;
+            position += 4 + (header.getInt(0) & 0xFFFFFF);
+        }
+        return position;
+    }
+
+    /**
+     * Method names the channel layout of a FLAC or Ogg Vorbis stream
+     * @param channels the number of channels
+     * @return the channel mode shown for the song
+     */
+    static String channelMode(int channels) {
+        switch(channels) {
+            case 1: return "Mono";
+            case 2: return "Stereo";
+            default: return channels + " channels";
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package betterthanitunes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class imports every audio file in a folder and its subfolders in the background.
+ * One thread walks the folder, a pool with a thread per processor reads the tags
+ * of the files that aren't in the Library yet, and one thread adds the songs to
+ * the database in batches. The readers also fingerprint each file's audio, and
+ * can skip files whose audio is already in the Library under another path.
+ * The queues between them are bounded, so a large folder
+ * never has more than a few thousand files in memory. The counts can be read from
+ * any thread while the import runs, and the import can be cancelled at any time.
+ * Songs added before the import was cancelled stay in the Library.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class FolderImport {
+    public static final int BATCH_SIZE = 500; // Songs added to the database in each transaction
+
+    private final Controller controller;
+    private final File folder;
+    private final String playlistName;
+    private final boolean skipDuplicates;
+    private final ThreadPoolExecutor readers;
+    private final BlockingQueue<Song> songsRead = new ArrayBlockingQueue<>(BATCH_SIZE * 4);
+    private final LatencyStats batchStats = new LatencyStats("Folder import batches");
+    private final AtomicInteger found = new AtomicInteger(), processed = new AtomicInteger(), skipped = new AtomicInteger(),
+                                duplicates = new AtomicInteger(), failed = new AtomicInteger(), imported = new AtomicInteger();
+    private final Set<Long> fingerprints = ConcurrentHashMap.newKeySet(); // Audio read by this import, when skipping duplicates
+    private volatile boolean walking = true, cancelled = false, done = false;
+    private volatile long startNanos, endNanos;
+
+    /**
+     * Constructor creates an import that reads tags with a thread per processor
+     * @param controller the controller to add the songs through
+     * @param folder the folder to import
+     * @param playlistName the playlist to add the songs to
+     * @param skipDuplicates whether to skip files whose audio is already in the Library or earlier in the import
+     */
+    public FolderImport(Controller controller, File folder, String playlistName, boolean skipDuplicates) {
+        this(controller, folder, playlistName, skipDuplicates, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor creates an import
+     * @param controller the controller to add the songs through
+     * @param folder the folder to import
+     * @param playlistName the playlist to add the songs to
+     * @param skipDuplicates whether to skip files whose audio is already in the Library or earlier in the import
+     * @param threads the number of threads reading tags
+     */
+    public FolderImport(Controller controller, File folder, String playlistName, boolean skipDuplicates, int threads) {
+        this.controller = controller;
+        this.folder = folder;
+        this.playlistName = playlistName;
+        this.skipDuplicates = skipDuplicates;
+
+        // When the pool's queue is full the walking thread reads the file itself, which slows the walk down to the readers
+        AtomicInteger threadCount = new AtomicInteger();
+        readers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads * 64), task -> {
+            Thread thread = new Thread(task, "Folder import reader " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Method starts the threads walking the folder and adding songs to the database.
+     */
+    public void start() {
+        startNanos = System.nanoTime();
+        Thread walker = new Thread(this::walk, "Folder import walker");
+        Thread inserter = new Thread(this::insert, "Folder import inserter");
+        walker.setDaemon(true);
+        inserter.setDaemon(true);
+        walker.start();
+        inserter.start();
+    }
+
+    /**
+     * Method stops the import. Songs that are already in the database stay there.
+     */
+    public void cancel() {
+        cancelled = true;
+        // The readers aren't interrupted, since Derby closes a connection that is interrupted during a query
+        readers.shutdown();
+        readers.getQueue().clear();
+    }
+
+    /**
+     * Method waits for the import to finish
+     * @param timeoutMillis the longest time to wait
+     * @return true if the import finished. Otherwise, false
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized(this) {
+            while(!done) {
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0) return false;
+                wait(remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method walks the folder, handing every audio file MetadataReaders supports to the reader pool.
+     */
+    private void walk() {
+        try {
+            Files.walkFileTree(folder.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if(cancelled) return FileVisitResult.TERMINATE;
+                    if(attributes.isRegularFile() && MetadataReaders.isSupported(file.getFileName().toString())) {
+                        found.incrementAndGet();
+                        String path = file.toString();
+                        try {
+                            readers.execute(() -> readSong(path));
+                        } catch(RuntimeException e) {
+                            return FileVisitResult.TERMINATE; // The import was cancelled and the pool shut down
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    System.out.println("\nUnable to read " + file + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch(IOException e) {
+            e.printStackTrace();
+        } finally {
+            walking = false;
+            readers.shutdown();
+        }
+    }
+
+    /**
+     * Method reads the tags and fingerprint of one file, unless the song is already in the Library
+     * @param path the path of the file
+     */
+    private void readSong(String path) {
+        if(cancelled) return;
+        try {
+            if(controller.songExists(path)) {
+                skipped.incrementAndGet();
+                return;
+            }
+
+            Song song = new Song(path);
+            if(!song.isReadable()) {
+                failed.incrementAndGet(); // Not a file any MetadataReader understands
+                return;
+            }
+            try {
+                song = song.withFingerprint(AudioFingerprint.compute(path));
+            } catch(IOException e) {
+                System.out.println("\nUnable to fingerprint " + path + ": " + e.getMessage());
+            }
+            if(skipDuplicates && song.getFingerprint() != AudioFingerprint.UNKNOWN &&
+               (!fingerprints.add(song.getFingerprint()) || controller.returnPathWithFingerprint(song.getFingerprint()) != null)) {
+                duplicates.incrementAndGet();
+                return;
+            }
+            // Wait for the inserter to catch up, unless the import is cancelled and nothing will empty the queue
+            while(!songsRead.offer(song, 100, TimeUnit.MILLISECONDS)) {
+                if(cancelled) return;
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            processed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Method adds the songs the readers have read to the database, a batch at a time,
+     * until the folder has been walked and every file read.
+     */
+    private void insert() {
+        List<Song> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while(!cancelled) {
+                Song song = songsRead.poll(100, TimeUnit.MILLISECONDS);
+                if(song != null) {
+                    batch.add(song);
+                    songsRead.drainTo(batch, BATCH_SIZE - batch.size());
+                }
+                else if(!walking && readers.isTerminated() && songsRead.isEmpty()) break;
+
+                // Add a full batch, or whatever has been read when the readers fall behind
+                if(batch.size() >= BATCH_SIZE || (song == null && !batch.isEmpty()))
+                    addBatch(batch);
+            }
+            if(!cancelled) addBatch(batch);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            endNanos = System.nanoTime();
+            synchronized(this) {
+                done = true;
+                notifyAll();
+            }
+            System.out.println("\n" + this);
+            System.out.println(batchStats);
+        }
+    }
+
+    /**
+     * Method adds a batch of songs to the database and empties the batch
+     * @param batch the songs to add
+     */
+    private void addBatch(List<Song> batch) {
+        if(batch.isEmpty()) return;
+        long start = System.nanoTime();
+        List<DatabaseModel.InsertResult> results = controller.addSongs(batch, playlistName);
+        batchStats.record(System.nanoTime() - start);
+        for(DatabaseModel.InsertResult result : results) {
+            if(result == DatabaseModel.InsertResult.FAILED) failed.incrementAndGet();
+            else if(result == DatabaseModel.InsertResult.ALREADY_IN_LIBRARY) skipped.incrementAndGet();
+            else imported.incrementAndGet();
+        }
+        batch.clear();
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    public String getPlaylistName() {
+        return playlistName;
+    }
+
+    // Method returns the number of audio files found so far
+    public int getFound() {
+        return found.get();
+    }
+
+    // Method returns the number of files read, skipped or failed, out of the files found
+    public int getProcessed() {
+        return processed.get();
+    }
+
+    public int getImported() {
+        return imported.get();
+    }
+
+    // Method returns the number of files that were already in the Library
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    // Method returns the number of files skipped because their audio was already in the Library or the import
+    public int getDuplicates() {
+        return duplicates.get();
+    }
+
+    public boolean isSkippingDuplicates() {
+        return skipDuplicates;
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    // Method determines whether every file has been found, so getFound is the total
+    public boolean isWalking() {
+        return walking;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Method gets the number of files processed per second since the import started
+     * @return the throughput in files per second
+     */
+    public double getFilesPerSecond() {
+        long end = done ? endNanos : System.nanoTime();
+        return getProcessed() / Math.max((end - startNanos) / 1e9, 1e-3);
+    }
+
+    @Override
+    public String toString() {
+        return "Folder import of " + folder + (cancelled ? " (cancelled)" : "") + ": " + found.get() + " files found, " +
+                imported.get() + " imported, " + skipped.get() + " already in the Library, " + duplicates.get() + " duplicates, " +
+                failed.get() + " failed, " + String.format("%.0f files/s", getFilesPerSecond());
+    }
+}
@@ -0,0 +1,161 @@
+package betterthanitunes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class keeps the Library up to date with a folder and its subfolders while the
+ * application runs. Changes reported by a WatchService are collected until the
+ * folder has been quiet for a moment, or for at most a few seconds while files
+ * keep changing, and then handed to a LibraryScanner in one batch. Copying many
+ * files into the folder therefore refreshes the windows a few times, not once per file.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class FolderWatcher {
+    public static final int QUIET_MS = 1000; // Changes are applied once nothing has changed for this long
+    public static final int MAX_DELAY_MS = 5000; // Or once the oldest change has waited this long
+
+    private final LibraryScanner scanner;
+    private final Path folder;
+    private final WatchService watchService;
+    private final Set<String> changedPaths = new LinkedHashSet<>();
+    private final Set<File> changedFolders = new LinkedHashSet<>();
+    private long firstChange = 0;
+    private int batches = 0;
+
+    /**
+     * Constructor creates a watcher for a folder
+     * @param scanner the scanner that applies the changes to the Library
+     * @param folder the folder to watch, with its subfolders
+     * @throws IOException if the folder can't be watched
+     */
+    public FolderWatcher(LibraryScanner scanner, File folder) throws IOException {
+        this.scanner = scanner;
+        this.folder = folder.toPath();
+        watchService = this.folder.getFileSystem().newWatchService();
+    }
+
+    /**
+     * Method starts watching on a background thread. The folder is scanned
+     * first, to pick up the changes made while it wasn't being watched.
+     */
+    public void start() {
+        Thread thread = new Thread(this::run, "Folder watcher " + folder);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method stops watching the folder.
+     */
+    public void close() {
+        try {
+            watchService.close();
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public File getFolder() {
+        return folder.toFile();
+    }
+
+    /**
+     * Method waits for changes and applies them in batches until the watcher is closed.
+     */
+    private void run() {
+        try {
+            register(folder);
+            System.out.println("\nWatching " + folder + ". Initial scan: " + scanner.scanFolder(folder.toFile()));
+            while(true) {
+                // Wait as long as it takes for the first change, then only until the folder is quiet
+                WatchKey key = changedPaths.isEmpty() && changedFolders.isEmpty()
+                               ? watchService.take() : watchService.poll(QUIET_MS, TimeUnit.MILLISECONDS);
+                if(key != null) {
+                    if(firstChange == 0) firstChange = System.currentTimeMillis();
+                    collect(key);
+                }
+                if(firstChange != 0 && (key == null || System.currentTimeMillis() - firstChange >= MAX_DELAY_MS))
+                    applyChanges();
+            }
+        } catch(ClosedWatchServiceException | InterruptedException e) {
+            System.out.println("\nStopped watching " + folder + " after " + batches + " batches of changes");
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method records the changes reported by a watch key
+     * @param key the key of a watched folder
+     */
+    private void collect(WatchKey key) throws IOException {
+        Path directory = (Path)key.watchable();
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changedFolders.add(folder.toFile()); // Changes were lost, so the whole folder is scanned
+                continue;
+            }
+            Path path = directory.resolve((Path)event.context());
+            if(event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                // Files can be copied into a new folder before it is registered, so the new folder is scanned
+                register(path);
+                changedFolders.add(path.toFile());
+            }
+            else if(MetadataReaders.isSupported(path.getFileName().toString()))
+                changedPaths.add(path.toString());
+            else if(event.kind() == StandardWatchEventKinds.ENTRY_DELETE)
+                changedFolders.add(path.toFile()); // May have been a folder of songs
+        }
+        key.reset();
+    }
+
+    /**
+     * Method applies the recorded changes to the Library in one batch.
+     */
+    private void applyChanges() {
+        LibraryScanner.Result result = scanner.scan(changedPaths, changedFolders);
+        if(result.hasChanges()) batches++;
+        changedPaths.clear();
+        changedFolders.clear();
+        firstChange = 0;
+    }
+
+    /**
+     * Method watches a folder and all of its subfolders
+     * @param start the folder
+     */
+    private void register(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                try {
+                    directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                       StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                    return FileVisitResult.CONTINUE;
+                } catch(IOException e) {
+                    return FileVisitResult.SKIP_SUBTREE; // Deleted since it was found
+                }
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
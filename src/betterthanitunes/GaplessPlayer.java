@@ -0,0 +1,442 @@
+package betterthanitunes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import javazoom.jlgui.basicplayer.BasicController;
+import javazoom.jlgui.basicplayer.BasicPlayer;
+import javazoom.jlgui.basicplayer.BasicPlayerEvent;
+import javazoom.jlgui.basicplayer.BasicPlayerException;
+import javazoom.jlgui.basicplayer.BasicPlayerListener;
+import javazoom.spi.PropertiesContainer;
+
+/**
+ * Class represents a BasicPlayer that plays the next song without a gap. Shortly
+ * before a song ends, the Controller asks for the next song to be prepared: a
+ * background thread opens its file, sets up its decoder and decodes its first
+ * second into memory. When the song playing runs out, the player's thread keeps
+ * writing to the same line from the prepared song, so the line never drains and
+ * is never closed and opened again. The Controller is told the next song started
+ * when the line reaches it, not when it was decoded. A song whose audio can't go
+ * to the same line, such as one with another sample rate, isn't prepared, and
+ * plays after the usual end of media instead.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class GaplessPlayer extends BasicPlayer {
+    public static final long DECODE_AHEAD_MICROSECONDS = 5000000; // How long before the end of a song the next one is prepared
+    private static final int PREBUFFER_MILLISECONDS = 1000;       // Audio of the next song decoded before it is needed
+
+    /**
+     * Interface represents the object told when a prepared song starts to be heard.
+     */
+    public interface TrackListener {
+        /**
+         * Method is called on the player's thread when the line starts playing a prepared song
+         * @param track the object the song was prepared with
+         */
+        void trackStarted(Object track);
+    }
+
+    /**
+     * Class holds a song opened and partly decoded ahead of time.
+     */
+    private static class PreparedTrack {
+        private final Object track;
+        private final File file;
+        private final AudioFileFormat fileFormat;
+        private final AudioInputStream encoded, decoded;
+        private final byte[] prebuffer;
+        private final int prebufferLength;
+
+        private PreparedTrack(Object track, File file, AudioFileFormat fileFormat, AudioInputStream encoded, AudioInputStream decoded,
+                              byte[] prebuffer, int prebufferLength) {
+            this.track = track;
+            this.file = file;
+            this.fileFormat = fileFormat;
+            this.encoded = encoded;
+            this.decoded = decoded;
+            this.prebuffer = prebuffer;
+            this.prebufferLength = prebufferLength;
+        }
+
+        private void close() {
+            try {
+                decoded.close();
+                encoded.close();
+            } catch(IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Class represents the audio the player's thread writes to the line. It reads the song
+     * playing and, when that song ends, carries on with the prepared song if there is one,
+     * so the player's thread sees a single stream for every song played without a gap.
+     */
+    private class TrackStream extends AudioInputStream implements PropertiesContainer {
+        private AudioInputStream current;
+        private PreparedTrack playing;          // The prepared song being read, until its prebuffer is used up
+        private int prebufferPosition = 0;
+        private volatile PreparedTrack next;
+        private long bytesRead = 0;             // Bytes handed to the line since it was opened
+        private long trackStart = 0;            // Line position in microseconds where the song being heard started
+        private long pendingStart = -1;         // Line position where a prepared song starts, until the line reaches it
+        private Object pendingTrack;
+
+        private TrackStream(AudioInputStream current) {
+            super(new InputStream() {
+                @Override
+                public int read() {
+                    return -1;
+                }
+            }, current.getFormat(), AudioSystem.NOT_SPECIFIED);
+            this.current = current;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            startPendingTrack(false);
+            int read = readCurrent(buffer, offset, length);
+            if(read < 0) {
+                PreparedTrack prepared = next;
+                if(prepared != null) {
+                    long start = System.nanoTime();
+                    next = null;
+                    switchTo(prepared);
+                    read = readCurrent(buffer, offset, length);
+                    transitionStats.recordSince(start);
+                    gapless.incrementAndGet();
+                    // The line only plays without a gap if it still held audio of the last song
+                    if(m_line != null && m_line.available() >= m_line.getBufferSize()) underruns.incrementAndGet();
+                    pendingStart = bytesRead / getFormat().getFrameSize() * 1000000 / (long)getFormat().getFrameRate();
+                    pendingTrack = prepared.track;
+                }
+                else startPendingTrack(true); // A prepared song shorter than the line's buffer
+            }
+            if(read > 0) bytesRead += read;
+            return read;
+        }
+
+        private int readCurrent(byte[] buffer, int offset, int length) throws IOException {
+            if(playing != null && prebufferPosition < playing.prebufferLength) {
+                int read = Math.min(length, playing.prebufferLength - prebufferPosition);
+                System.arraycopy(playing.prebuffer, prebufferPosition, buffer, offset, read);
+                prebufferPosition += read;
+                return read;
+            }
+            return current.read(buffer, offset, length);
+        }
+
+        /**
+         * Method makes a prepared song the one read, closing the song that ended. The player's
+         * fields are pointed at the new song, so its position and seeking use the right file
+         */
+        private void switchTo(PreparedTrack prepared) throws IOException {
+            AudioInputStream ended = current;
+            current = prepared.decoded;
+            playing = prepared;
+            prebufferPosition = 0;
+            if(m_encodedaudioInputStream != null) m_encodedaudioInputStream.close();
+            ended.close();
+            m_encodedaudioInputStream = prepared.encoded;
+            encodedLength = (int)prepared.file.length();
+            m_audioFileFormat = prepared.fileFormat;
+            m_dataSource = prepared.file;
+        }
+
+        /**
+         * Method tells the listener a prepared song has started once the line has played everything before it
+         * @param ended whether the last song has ended, so the prepared song must have started
+         */
+        private void startPendingTrack(boolean ended) {
+            if(pendingTrack == null || (!ended && (m_line == null || m_line.getMicrosecondPosition() < pendingStart))) return;
+            Object track = pendingTrack;
+            trackStart = pendingStart;
+            pendingTrack = null;
+            if(trackListener != null) trackListener.trackStarted(track);
+        }
+
+        private void setNext(PreparedTrack prepared) {
+            PreparedTrack replaced = next;
+            next = prepared;
+            if(replaced != null) replaced.close();
+        }
+
+        private void cancelNext() {
+            setNext(null);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] sample = new byte[1];
+            return (read(sample, 0, 1) < 0) ? -1 : sample[0] & 0xFF;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return current.available();
+        }
+
+        // Method skips audio for a seek. Decoders that can't skip, such as the FLAC decoder, are read and the audio dropped
+        @Override
+        public long skip(long bytes) throws IOException {
+            try {
+                return current.skip(bytes);
+            } catch(IOException e) {
+                byte[] dropped = new byte[65536 - 65536 % getFormat().getFrameSize()];
+                long skipped = 0;
+                while(skipped < bytes) {
+                    int read = current.read(dropped, 0, (int)Math.min(dropped.length, bytes - skipped));
+                    if(read < 0) break;
+                    skipped += read;
+                }
+                return skipped;
+            }
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            cancelNext();
+            current.close();
+        }
+
+        // Method returns the properties of the decoder of the song being read
+        @Override
+        public Map properties() {
+            return (current instanceof PropertiesContainer) ? ((PropertiesContainer)current).properties() : Collections.emptyMap();
+        }
+    }
+
+    private final ExecutorService decoder = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "Decode-ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile TrackStream stream; // The audio of the line that is open, or null
+    private final AtomicInteger generation = new AtomicInteger(); // Changes when a song being prepared is no longer wanted
+    private TrackListener trackListener;
+    private long seekPosition = 0; // Where in the song the line opened by a seek starts, in microseconds
+    private final AtomicInteger gapless = new AtomicInteger(), underruns = new AtomicInteger(), unprepared = new AtomicInteger();
+    private final LatencyStats transitionStats = new LatencyStats("Gapless transitions");
+    private final LatencyStats prepareStats = new LatencyStats("Decode-ahead");
+
+    /**
+     * Constructor creates the player. The player's thread holds the audio of the song playing until
+     * it ends, and before ending it waits for the line to play all the audio queued on it, so a song
+     * opened or sought while another played waited for the line to drain. The player listens to its
+     * own progress, and flushes the line after the thread's last write once the song is let go of
+     */
+    public GaplessPlayer() {
+        addBasicPlayerListener(new LineReleaser());
+    }
+
+    /**
+     * Class flushes the line on the player's thread when the song playing is being replaced, sought or stopped.
+     */
+    private class LineReleaser implements BasicPlayerListener {
+        @Override
+        public void progress(int bytesread, long microseconds, byte[] pcmdata, Map properties) {
+            int status = getStatus();
+            SourceDataLine line = m_line;
+            if((status == UNKNOWN || status == SEEKING || status == STOPPED) && line != null) line.flush();
+        }
+
+        @Override
+        public void opened(Object stream, Map properties) {
+        }
+
+        @Override
+        public void stateUpdated(BasicPlayerEvent event) {
+        }
+
+        @Override
+        public void setController(BasicController controller) {
+        }
+    }
+
+    public void setTrackListener(TrackListener trackListener) {
+        this.trackListener = trackListener;
+    }
+
+    /**
+     * Method wraps the decoded audio of a song just opened, so songs prepared later can follow it on the same line
+     * @throws LineUnavailableException if the line can't be created
+     */
+    @Override
+    protected void createLine() throws LineUnavailableException {
+        super.createLine();
+        if(m_audioInputStream != null && !(m_audioInputStream instanceof TrackStream)) {
+            stream = new TrackStream(m_audioInputStream);
+            stream.trackStart = -seekPosition;
+            seekPosition = 0;
+            m_audioInputStream = stream;
+        }
+    }
+
+    // Method closes the audio of the song that was playing, and any song prepared to follow it
+    @Override
+    protected void closeStream() {
+        generation.incrementAndGet();
+        super.closeStream();
+        stream = null;
+    }
+
+    /**
+     * Method tells the listeners about an event on the thread that raised it. BasicPlayer starts
+     * a thread for every event, so events such as the end of media and the stop that follows it
+     * could reach the listeners in any order
+     */
+    @Override
+    protected void notifyEvent(int code, int position, double value, Object description) {
+        BasicPlayerEvent event = new BasicPlayerEvent(this, code, position, value, description);
+        for(Object listener : getListeners().toArray()) {
+            try {
+                ((BasicPlayerListener)listener).stateUpdated(event);
+            } catch(RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Method prepares the song to play after the one playing. The file is opened and its first
+     * second decoded on a background thread, and a song prepared before is replaced
+     * @param file the file of the next song
+     * @param track the object given back to the TrackListener when the song starts
+     */
+    public void prepareNext(File file, Object track) {
+        TrackStream target = stream;
+        if(target == null || m_line == null) return;
+        AudioFormat lineFormat = m_line.getFormat();
+        int expected = generation.incrementAndGet();
+        target.cancelNext();
+        decoder.execute(() -> {
+            long start = System.nanoTime();
+            PreparedTrack prepared = prepare(file, track, lineFormat);
+            if(prepared == null) {
+                unprepared.incrementAndGet();
+                return;
+            }
+            prepareStats.recordSince(start);
+            // The song playing may have been stopped or changed while this one was prepared
+            if(generation.get() == expected && stream == target) target.setNext(prepared);
+            else prepared.close();
+        });
+    }
+
+    /**
+     * Method forgets the song prepared to play next, when the song that should follow has changed.
+     */
+    public void cancelNext() {
+        generation.incrementAndGet();
+        TrackStream target = stream;
+        if(target != null) target.cancelNext();
+    }
+
+    /**
+     * Method opens a song and decodes its start into the format of the line
+     * @return the prepared song, or null if it can't be read or can't go to the line without reopening it
+     */
+    private PreparedTrack prepare(File file, Object track, AudioFormat lineFormat) {
+        AudioInputStream encoded = null;
+        try {
+            AudioFileFormat fileFormat = AudioSystem.getAudioFileFormat(file);
+            encoded = AudioSystem.getAudioInputStream(file);
+            AudioFormat format = encoded.getFormat();
+            if(format.getSampleRate() != lineFormat.getSampleRate() || format.getChannels() != lineFormat.getChannels()
+                    || !AudioSystem.isConversionSupported(lineFormat, format)) {
+                encoded.close();
+                return null;
+            }
+            AudioInputStream decoded = format.matches(lineFormat) ? encoded : AudioSystem.getAudioInputStream(lineFormat, encoded);
+
+            byte[] prebuffer = new byte[(int)(lineFormat.getFrameRate() * PREBUFFER_MILLISECONDS / 1000) * lineFormat.getFrameSize()];
+            int length = 0;
+            while(length < prebuffer.length) {
+                int read = decoded.read(prebuffer, length, prebuffer.length - length);
+                if(read < 0) break;
+                length += read;
+            }
+            return new PreparedTrack(track, file, fileFormat, encoded, decoded, prebuffer, length);
+        } catch(UnsupportedAudioFileException | IOException | IllegalArgumentException e) {
+            System.out.println("\nUnable to prepare " + file + ": " + e.getMessage());
+            try {
+                if(encoded != null) encoded.close();
+            } catch(IOException closeException) {
+                closeException.printStackTrace();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Method moves the song playing to a position. The song is opened again on a new line and
+     * its start skipped. MP3 decoders skip bytes of the file, and the others skip decoded audio
+     * @param microseconds the position to move to
+     * @param duration the length of the song in microseconds
+     * @return the number of bytes skipped
+     * @throws BasicPlayerException if the song can't be opened again or skipped
+     */
+    public long seekMicroseconds(long microseconds, long duration) throws BasicPlayerException {
+        AudioInputStream encoded = m_encodedaudioInputStream;
+        if(encoded == null || m_audioInputStream == null || duration <= 0) return 0;
+        long bytes;
+        if(encoded.getFormat().getEncoding().toString().startsWith("MPEG")) bytes = microseconds * encodedLength / duration;
+        else {
+            AudioFormat format = m_audioInputStream.getFormat();
+            bytes = (long)(microseconds / 1e6 * format.getFrameRate()) * format.getFrameSize();
+        }
+        seekPosition = microseconds;
+        try {
+            return seek(bytes);
+        } finally {
+            seekPosition = 0; // Used by the line the seek opened, and not by a later song if the seek failed
+        }
+    }
+
+    /**
+     * Method gets how far into the song being heard the line is. Songs played without
+     * a gap share a line, so the position of the line is counted from where the song started
+     * @return the position in microseconds
+     */
+    public long getTrackMicroseconds() {
+        TrackStream current = stream;
+        if(m_line == null || current == null) return 0;
+        return Math.max(m_line.getMicrosecondPosition() - current.trackStart, 0);
+    }
+
+    // Method returns how long it took the player's thread to carry on with each prepared song once the last one ended
+    public LatencyStats getTransitionStats() {
+        return transitionStats;
+    }
+
+    // Method returns how long each song took to open and decode its first second, on the background thread
+    public LatencyStats getPrepareStats() {
+        return prepareStats;
+    }
+
+    @Override
+    public String toString() {
+        return "Gapless player: " + gapless.get() + " songs played without a gap, " + underruns.get() + " underruns, "
+             + unprepared.get() + " songs that couldn't be prepared\n" + transitionStats + "\n" + prepareStats;
+    }
+}
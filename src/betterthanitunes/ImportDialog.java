@@ -0,0 +1,109 @@
+package betterthanitunes;
+
+import java.awt.BorderLayout;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.Timer;
+
+/**
+ * Class represents the window that shows the progress of a folder import.
+ * The import runs on its own threads, and a Swing timer reads its counts a few
+ * times a second, so the windows stay responsive however large the folder is.
+ * The song tables showing the playlist are refreshed as songs are added.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class ImportDialog extends JDialog {
+    private static final int UPDATE_INTERVAL_MS = 250; // How often the progress is shown
+    private static final int REFRESH_INTERVAL_MS = 2000; // How often the song tables are refreshed while songs are added
+
+    private final FolderImport folderImport;
+    private final JProgressBar progressBar = new JProgressBar();
+    private final JLabel status = new JLabel(" ");
+    private final JButton button = new JButton("Cancel");
+    private final Timer timer;
+    private int importedAtRefresh = 0;
+    private long lastRefresh = System.currentTimeMillis();
+
+    /**
+     * Constructor creates and shows the window for an import that has been started
+     * @param owner the window the import was started from
+     * @param folderImport the import to show
+     */
+    public ImportDialog(View owner, FolderImport folderImport) {
+        super(owner, "Importing " + folderImport.getFolder().getName(), false);
+        this.folderImport = folderImport;
+
+        progressBar.setIndeterminate(true);
+        progressBar.setStringPainted(true);
+        button.addActionListener(e -> {
+            if(folderImport.isDone()) dispose();
+            else folderImport.cancel();
+        });
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                if(!folderImport.isDone()) folderImport.cancel();
+            }
+        });
+
+        JPanel panel = new JPanel(new BorderLayout(10, 10));
+        panel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        panel.add(progressBar, BorderLayout.NORTH);
+        panel.add(status, BorderLayout.CENTER);
+        panel.add(button, BorderLayout.EAST);
+        add(panel);
+        setSize(600, 120);
+        setLocationRelativeTo(owner);
+
+        timer = new Timer(UPDATE_INTERVAL_MS, e -> update());
+        timer.start();
+        setVisible(true);
+    }
+
+    /**
+     * Method shows the progress of the import, and refreshes the song tables
+     * when songs have been added since they were last refreshed.
+     */
+    private void update() {
+        int found = folderImport.getFound(), processed = folderImport.getProcessed(), imported = folderImport.getImported();
+        if(!folderImport.isWalking()) {
+            // Every file has been found, so the total is known
+            progressBar.setIndeterminate(false);
+            progressBar.setMaximum(Math.max(found, 1));
+            progressBar.setValue(processed);
+        }
+        progressBar.setString(processed + " of " + found + (folderImport.isWalking() ? "+" : "") + " files");
+        status.setText(String.format("%d imported, %d already in the Library, %s%d failed, %.0f files/s", imported, folderImport.getSkipped(),
+                                     folderImport.isSkippingDuplicates() ? folderImport.getDuplicates() + " duplicates, " : "",
+                                     folderImport.getFailed(), folderImport.getFilesPerSecond()));
+
+        boolean done = folderImport.isDone();
+        if(imported > importedAtRefresh && (done || System.currentTimeMillis() - lastRefresh >= REFRESH_INTERVAL_MS))
+            refreshSongTables(imported);
+        if(done) {
+            timer.stop();
+            setTitle((folderImport.isCancelled() ? "Cancelled importing " : "Imported ") + folderImport.getFolder().getName());
+            button.setText("Close");
+        }
+    }
+
+    /**
+     * Method refreshes the song tables displaying the playlist the songs are added to, and the Library
+     * @param imported the number of songs imported so far
+     */
+    private void refreshSongTables(int imported) {
+        importedAtRefresh = imported;
+        lastRefresh = System.currentTimeMillis();
+        BetterThaniTunes.updateWindows(folderImport.getPlaylistName());
+        if(!folderImport.getPlaylistName().equals("Library") && BetterThaniTunes.getView(0).getCurrentPlaylist().equals("Library"))
+            BetterThaniTunes.updateLibrary();
+    }
+}
@@ -0,0 +1,76 @@
+package betterthanitunes;
+
+import java.util.Arrays;
+
+/**
+ * Class keeps the running totals of LatencyStats and also counts the runs by
+ * how long they took, in buckets that double in width from 1/8 of a millisecond,
+ * so a slow run now and then can be told apart from runs that are all slow.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class LatencyHistogram extends LatencyStats {
+    public static final long FIRST_BOUND_NANOS = 125000; // Upper bound of the first bucket
+    public static final int BUCKETS = 15;                 // The last bucket holds every run from 1024 ms up
+
+    private final long[] counts = new long[BUCKETS]; // Guarded by this
+
+    /**
+     * Constructor creates an empty histogram for an operation
+     * @param name the name of the operation, used when printing the histogram
+     */
+    public LatencyHistogram(String name) {
+        super(name);
+    }
+
+    @Override
+    public synchronized void record(long nanos) {
+        super.record(nanos);
+        counts[bucketOf(nanos)]++;
+    }
+
+    /**
+     * Method finds the bucket a run falls in
+     * @param nanos how long the run took in nanoseconds
+     * @return the index of the bucket
+     */
+    private static int bucketOf(long nanos) {
+        int bucket = 0;
+        for(long bound = FIRST_BOUND_NANOS; bucket < BUCKETS - 1 && nanos >= bound; bound <<= 1)
+            bucket++;
+        return bucket;
+    }
+
+    /**
+     * Method gets the upper bound of a bucket
+     * @param bucket the index of the bucket
+     * @return the bound in milliseconds, or infinity for the last bucket
+     */
+    public static double getBoundMillis(int bucket) {
+        return (bucket < BUCKETS - 1) ? (FIRST_BOUND_NANOS << bucket) / 1e6 : Double.POSITIVE_INFINITY;
+    }
+
+    public synchronized long getCount(int bucket) {
+        return counts[bucket];
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        Arrays.fill(counts, 0);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder summary = new StringBuilder(super.toString());
+        // Only the buckets that have runs are printed
+        for(int bucket = 0; bucket < BUCKETS; bucket++) {
+            if(counts[bucket] == 0) continue;
+            summary.append("\n    ");
+            if(bucket < BUCKETS - 1) summary.append(String.format("< %.3f ms: ", getBoundMillis(bucket)));
+            else summary.append(String.format(">= %.3f ms: ", getBoundMillis(bucket - 1)));
+            summary.append(counts[bucket]);
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package betterthanitunes;
+
+/**
+ * Class keeps running totals of how long an operation takes,
+ * so its count, mean and worst case can be reported.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class LatencyStats {
+    private final String name;
+    private long count = 0, totalNanos = 0, maxNanos = 0;
+
+    /**
+     * Constructor creates empty statistics for an operation
+     * @param name the name of the operation, used when printing the statistics
+     */
+    public LatencyStats(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Method records one run of the operation
+     * @param nanos how long the run took in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        count++;
+        totalNanos += nanos;
+        if(nanos > maxNanos) maxNanos = nanos;
+    }
+
+    /**
+     * Method records one run of the operation that started at a point in time
+     * @param startNanos the value of System.nanoTime() when the run started
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getMeanMillis() {
+        return (count == 0) ? 0 : totalNanos / (count * 1e6);
+    }
+
+    public synchronized double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+
+    public synchronized double getTotalMillis() {
+        return totalNanos / 1e6;
+    }
+
+    /**
+     * Method clears all recorded runs.
+     */
+    public synchronized void reset() {
+        count = totalNanos = maxNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d runs, mean %.3f ms, max %.3f ms", name, count, getMeanMillis(), getMaxMillis());
+    }
+}
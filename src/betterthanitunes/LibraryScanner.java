@@ -0,0 +1,190 @@
+package betterthanitunes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.swing.SwingUtilities;
+
+/**
+ * Class brings the Library up to date with the files on disk. The size and
+ * modification time stored for each song are compared with the file's, so only
+ * files that changed are read again. Songs whose files are gone are removed
+ * together, and new audio files in a scanned folder are added. Windows are
+ * refreshed once afterwards, when anything changed.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class LibraryScanner {
+    /**
+     * Class holds the number of songs a scan added, updated, removed and left alone.
+     */
+    public static class Result {
+        private final int added, changed, removed, unchanged;
+        private final long millis;
+
+        private Result(int added, int changed, int removed, int unchanged, long millis) {
+            this.added = added;
+            this.changed = changed;
+            this.removed = removed;
+            this.unchanged = unchanged;
+            this.millis = millis;
+        }
+
+        public int getAdded() {
+            return added;
+        }
+
+        public int getChanged() {
+            return changed;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        // Method determines whether the scan changed the Library
+        public boolean hasChanges() {
+            return added + changed + removed > 0;
+        }
+
+        @Override
+        public String toString() {
+            return added + " added, " + changed + " updated, " + removed + " removed, " + unchanged + " unchanged in " + millis + " ms";
+        }
+    }
+
+    private final Controller controller;
+
+    /**
+     * Constructor creates a scanner
+     * @param controller the controller to change the Library through
+     */
+    public LibraryScanner(Controller controller) {
+        this.controller = controller;
+    }
+
+    /**
+     * Method checks every song in the Library against its file
+     * @return the changes made
+     */
+    public Result rescanLibrary() {
+        long start = System.nanoTime();
+        Map<String, long[]> stamps = controller.returnFileStamps((String)null);
+        return apply(stamps, stamps.keySet(), start);
+    }
+
+    /**
+     * Method adds the new audio files in a folder and its subfolders to the Library,
+     * and checks the songs already in the Library from that folder against their files
+     * @param folder the folder to scan
+     * @return the changes made
+     */
+    public Result scanFolder(File folder) {
+        return scan(Collections.<String>emptyList(), Collections.singletonList(folder));
+    }
+
+    /**
+     * Method brings individual files and whole folders up to date, such as the
+     * files and folders a FolderWatcher saw change. A path that no longer exists
+     * is removed from the Library, whether it was a file or a folder
+     * @param paths files that were created, changed or deleted
+     * @param folders folders to scan, including folders that were deleted
+     * @return the changes made
+     */
+    public Result scan(Collection<String> paths, Collection<File> folders) {
+        long start = System.nanoTime();
+        Map<String, long[]> stamps = controller.returnFileStamps(paths);
+        Set<String> candidates = new LinkedHashSet<>(paths);
+        for(File folder : folders) {
+            stamps.putAll(controller.returnFileStamps(folder.getPath()));
+            if(folder.isDirectory()) findAudioFiles(folder.toPath(), candidates);
+        }
+        candidates.addAll(stamps.keySet());
+        return apply(stamps, candidates, start);
+    }
+
+    /**
+     * Method sorts the candidate files into songs to add, update and remove, and changes the Library
+     * @param stamps the stored size and modification time of each candidate in the Library
+     * @param candidates the paths to check
+     * @param start when the scan started, from System.nanoTime
+     * @return the changes made
+     */
+    private Result apply(Map<String, long[]> stamps, Collection<String> candidates, long start) {
+        List<Song> added = new ArrayList<>(), changed = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        int unchanged = 0;
+        for(String path : candidates) {
+            File file = new File(path);
+            long[] stamp = stamps.get(path);
+            if(!file.isFile()) {
+                if(stamp != null) removed.add(path);
+            }
+            else if(stamp != null && stamp[0] == file.length() && stamp[1] == file.lastModified())
+                unchanged++;
+            else if(stamp != null || MetadataReaders.isSupported(path)) {
+                // A file that can't be read yet, such as one still being copied, is left for the next scan
+                Song song = new Song(path);
+                if(!song.isReadable()) continue;
+                try {
+                    song = song.withFingerprint(AudioFingerprint.compute(path));
+                } catch(IOException e) {
+                    continue;
+                }
+                if(stamp != null) changed.add(song);
+                else added.add(song);
+            }
+        }
+
+        if(!added.isEmpty()) controller.addSongs(added, "Library");
+        if(!changed.isEmpty()) controller.updateSongFiles(changed);
+        if(!removed.isEmpty()) controller.deleteSongs(removed, Collections.nCopies(removed.size(), -1), "Library");
+
+        Result result = new Result(added.size(), changed.size(), removed.size(), unchanged, (System.nanoTime() - start) / 1000000);
+        if(result.hasChanges()) {
+            System.out.println("\nLibrary scan: " + result);
+            SwingUtilities.invokeLater(BetterThaniTunes::updateAllWindows);
+        }
+        return result;
+    }
+
+    /**
+     * Method adds the path of every audio file in a folder and its subfolders to a set
+     * @param folder the folder
+     * @param paths the set to add the paths to
+     */
+    private static void findAudioFiles(Path folder, Set<String> paths) {
+        try {
+            Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if(attributes.isRegularFile() && MetadataReaders.isSupported(file.getFileName().toString()))
+                        paths.add(file.toString());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package betterthanitunes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Interface represents a reader of the tags and length of one audio format.
+ * Readers are registered with MetadataReaders, which picks the reader for a
+ * file from the first bytes of its audio, so the rest of the program builds
+ * Songs the same way whatever the format of the file is. A reader only reads
+ * the headers and tags of a file, never its audio.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public interface MetadataReader {
+    /**
+     * Method returns the name of the format, such as MP3 or FLAC
+     * @return the name of the format
+     */
+    String getFormat();
+
+    /**
+     * Method returns the file extensions of the format, used to find its files in
+     * folders and to pick a reader when no reader recognises the start of a file
+     * @return the extensions in lower case, without the dot
+     */
+    List<String> getExtensions();
+
+    /**
+     * Method checks whether the start of a file's audio is in this format
+     * @param start the first bytes after any ID3v2 tag, positioned at 0. It may be shorter than expected
+     * @return true if this reader can read the file
+     */
+    boolean matches(ByteBuffer start);
+
+    /**
+     * Method reads the tags and length of a file
+     * @param path the path of the file
+     * @param channel the file, open for reading. The reader doesn't close it
+     * @return the metadata of the file. The tag is null if the file has no tags
+     * @throws IOException if the file can't be read or isn't in this format
+     */
+    AudioMetadata read(String path, FileChannel channel) throws IOException;
+}
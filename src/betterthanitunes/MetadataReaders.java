@@ -0,0 +1,111 @@
+package betterthanitunes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Class holds the MetadataReader of each audio format the Library can import.
+ * The reader of a file is picked from the first bytes of its audio, after any
+ * ID3v2 tag, so a file with the wrong extension is still read by the right
+ * reader. A file no reader recognises goes to the reader of its extension, and
+ * then to the MP3 reader, which can find the first frame of an MP3 file that
+ * starts with stray bytes. Folder imports, scans and the watcher ask this class
+ * which files they should import, so registering a reader is all a new format needs.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class MetadataReaders {
+    private static final int SIGNATURE_LENGTH = 64; // Bytes read from the start of the audio to pick a reader
+    private static final MetadataReader mp3Reader = new Mp3TagReader();
+    private static final List<MetadataReader> readers = new CopyOnWriteArrayList<>();
+
+    static {
+        register(new FlacReader());
+        register(new OggVorbisReader());
+        register(mp3Reader);
+    }
+
+    private MetadataReaders() {}
+
+    /**
+     * Method adds a reader. Readers added first are asked first whether they recognise a file
+     * @param reader the reader of a format
+     */
+    public static void register(MetadataReader reader) {
+        readers.add(reader);
+    }
+
+    // Method returns the registered readers, in the order they are asked to recognise a file
+    public static List<MetadataReader> getReaders() {
+        return new ArrayList<>(readers);
+    }
+
+    /**
+     * Method finds the reader of a file from its extension
+     * @param fileName the name or path of the file
+     * @return the reader, or null if no reader reads files with the extension
+     */
+    public static MetadataReader forName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if(dot < 0) return null;
+        String extension = fileName.substring(dot + 1).toLowerCase();
+        for(MetadataReader reader : readers) {
+            if(reader.getExtensions().contains(extension)) return reader;
+        }
+        return null;
+    }
+
+    /**
+     * Method determines whether a file should be imported into the Library
+     * @param fileName the name or path of the file
+     * @return true if a reader reads files with its extension
+     */
+    public static boolean isSupported(String fileName) {
+        return forName(fileName) != null;
+    }
+
+    /**
+     * Method returns the extensions of every format, for the filter of the file chooser
+     * @return the extensions, without the dot
+     */
+    public static String[] getExtensions() {
+        List<String> extensions = new ArrayList<>();
+        for(MetadataReader reader : readers)
+            extensions.addAll(reader.getExtensions());
+        return extensions.toArray(new String[extensions.size()]);
+    }
+
+    /**
+     * Method finds the reader of an open file from the first bytes of its audio
+     * @param path the path of the file
+     * @param channel the open file
+     * @return the reader that recognises the file, else the reader of its extension, else the MP3 reader
+     * @throws IOException if the file can't be read
+     */
+    public static MetadataReader forFile(String path, FileChannel channel) throws IOException {
+        ByteBuffer start = Mp3TagReader.read(channel, Mp3TagReader.id3v2Length(channel), SIGNATURE_LENGTH);
+        for(MetadataReader reader : readers) {
+            if(reader.matches(start.duplicate())) return reader;
+        }
+        MetadataReader reader = forName(path);
+        return (reader != null) ? reader : mp3Reader;
+    }
+
+    /**
+     * Method reads the tags and length of an audio file with the reader of its format
+     * @param path the path of the file
+     * @return the metadata of the file. The tag is null if the file has no tags
+     * @throws IOException if the file can't be read
+     */
+    public static AudioMetadata read(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ)) {
+            return forFile(path, channel).read(path, channel);
+        }
+    }
+}
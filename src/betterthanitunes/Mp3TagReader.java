@@ -0,0 +1,377 @@
+package betterthanitunes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import com.mpatric.mp3agic.ID3v1;
+import com.mpatric.mp3agic.ID3v1Tag;
+import com.mpatric.mp3agic.ID3v2TagFactory;
+import com.mpatric.mp3agic.Mp3File;
+import com.mpatric.mp3agic.InvalidDataException;
+import com.mpatric.mp3agic.NoSuchTagException;
+import com.mpatric.mp3agic.UnsupportedTagException;
+
+/**
+ * Class reads the tag and length of an MP3 file without reading its audio.
+ * Only the ID3v2 tag at the start of the file, the first few frames after it
+ * and the ID3v1 tag at the end are read. The length comes from the Xing, Info,
+ * LAME or VBRI header that encoders put in the first frame, or from the size
+ * of the audio and its bitrate when the first frames show a constant bitrate.
+ * Every frame is only read when the file is VBR without a header, which is
+ * the one case where nothing else gives an accurate length. It is the reader
+ * MetadataReaders falls back on for files no other reader recognises.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class Mp3TagReader implements MetadataReader {
+    private static final int SCAN_WINDOW = 64 * 1024; // Bytes read after the ID3v2 tag to find the first frames
+    private static final int CBR_CHECK_FRAMES = 32;   // Frames that must share a bitrate before the file is treated as CBR
+    private static final int ID3V1_LENGTH = 128, APE_FOOTER_LENGTH = 32;
+
+    private static final int[][] BITRATES = {
+        {32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448}, // MPEG 1 layer I
+        {32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},    // MPEG 1 layer II
+        {32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320},     // MPEG 1 layer III
+        {32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},    // MPEG 2 and 2.5 layer I
+        {8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}          // MPEG 2 and 2.5 layers II and III
+    };
+    private static final int[][] SAMPLE_RATES = {
+        {11025, 12000, 8000},  // MPEG 2.5
+        {},                    // Reserved
+        {22050, 24000, 16000}, // MPEG 2
+        {44100, 48000, 32000}  // MPEG 1
+    };
+    private static final String[] CHANNEL_MODES = {"Stereo", "Joint stereo", "Dual mono", "Mono"};
+
+    /**
+     * Class represents the 4-byte header at the start of every MPEG audio frame.
+     */
+    private static class FrameHeader {
+        private final int version, layer, bitrate, sampleRate, channelMode, length, samples;
+
+        private FrameHeader(int version, int layer, int bitrate, int sampleRate, int channelMode, int padding) {
+            this.version = version;
+            this.layer = layer;
+            this.bitrate = bitrate;
+            this.sampleRate = sampleRate;
+            this.channelMode = channelMode;
+            if(layer == 1) samples = 384;
+            else if(layer == 3 && version != 3) samples = 576;
+            else samples = 1152;
+            int slotSize = (layer == 1) ? 4 : 1;
+            length = (samples / 8 * bitrate * 1000 / sampleRate / slotSize + padding) * slotSize;
+        }
+
+        private boolean isMpeg1() {
+            return version == 3;
+        }
+
+        private boolean isMono() {
+            return channelMode == 3;
+        }
+
+        /**
+         * Method checks whether another frame could belong to the same stream as this one
+         * @param other the other frame
+         * @return true if both frames have the same version, layer and sample rate
+         */
+        private boolean matches(FrameHeader other) {
+            return version == other.version && layer == other.layer && sampleRate == other.sampleRate;
+        }
+    }
+
+    Mp3TagReader() {}
+
+    @Override
+    public String getFormat() {
+        return "MP3";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return Collections.singletonList("mp3");
+    }
+
+    // Method checks for the sync pattern of a frame header, which an MP3 file usually starts with after its ID3v2 tag
+    @Override
+    public boolean matches(ByteBuffer start) {
+        return start.remaining() >= 4 && parseHeader(start.getInt(0)) != null;
+    }
+
+    /**
+     * Method reads the tag and length of an MP3 file
+     * @param path the path of the file
+     * @return the metadata of the file. The tag is null if the file has no readable ID3 tag
+     * @throws IOException if the file can't be read
+     */
+    public static AudioMetadata read(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ)) {
+            return readMp3(path, channel);
+        }
+    }
+
+    @Override
+    public AudioMetadata read(String path, FileChannel channel) throws IOException {
+        return readMp3(path, channel);
+    }
+
+    /**
+     * Method reads the tag and length of an MP3 file
+     * @param path the path of the file
+     * @param channel the file, open for reading
+     * @return the metadata of the file. The tag is null if the file has no readable ID3 tag
+     * @throws IOException if the file can't be read
+     */
+    private static AudioMetadata readMp3(String path, FileChannel channel) throws IOException {
+        long lastModified = new File(path).lastModified();
+        long fileSize = channel.size();
+
+        // The ID3v2 tag, if there is one, is at the start of the file
+        long audioStart = 0;
+        ID3v1 tag = null;
+        ByteBuffer head = read(channel, 0, 10);
+        if(head.remaining() == 10 && head.get(0) == 'I' && head.get(1) == 'D' && head.get(2) == '3') {
+            int tagLength = 10 + syncsafeInt(head, 6) + (((head.get(5) & 0x10) != 0) ? 10 : 0);
+            audioStart = tagLength;
+            try {
+                tag = ID3v2TagFactory.createTag(toArray(read(channel, 0, tagLength)));
+            } catch(NoSuchTagException | UnsupportedTagException | InvalidDataException e) {
+                System.out.println("\nUnable to read the ID3v2 tag of " + path + ": " + e.getMessage());
+            }
+        }
+
+        // The ID3v1 tag, and an APE tag before it, are at the end of the file
+        long audioEnd = fileSize;
+        if(fileSize - audioStart >= ID3V1_LENGTH) {
+            byte[] tail = toArray(read(channel, fileSize - ID3V1_LENGTH, ID3V1_LENGTH));
+            if(tail[0] == 'T' && tail[1] == 'A' && tail[2] == 'G') {
+                audioEnd -= ID3V1_LENGTH;
+                try {
+                    ID3v1 id3v1Tag = new ID3v1Tag(tail);
+                    if(tag == null) tag = id3v1Tag;
+                } catch(NoSuchTagException e) {
+                    System.out.println("\nUnable to read the ID3v1 tag of " + path + ": " + e.getMessage());
+                }
+            }
+        }
+        audioEnd -= apeTagLength(channel, audioStart, audioEnd);
+
+        ByteBuffer window = read(channel, audioStart, (int)Math.min(SCAN_WINDOW, audioEnd - audioStart));
+        int frameOffset = findFirstFrame(window);
+        if(frameOffset < 0) return fullScan(path, tag, fileSize, lastModified);
+        FrameHeader first = parseHeader(window.getInt(frameOffset));
+        long audioBytes = audioEnd - audioStart - frameOffset;
+
+        AudioMetadata metadata = readXingHeader(window, frameOffset, first, audioBytes, tag, fileSize, lastModified);
+        if(metadata == null) metadata = readVbriHeader(window, frameOffset, first, audioBytes, tag, fileSize, lastModified);
+        if(metadata == null && isConstantBitrate(window, frameOffset, first)) {
+            long duration = audioBytes * 8000 / first.bitrate;
+            metadata = new AudioMetadata(tag, duration, first.bitrate, first.sampleRate, CHANNEL_MODES[first.channelMode],
+                                         false, fileSize, lastModified, AudioMetadata.DurationSource.CBR);
+        }
+        return (metadata != null) ? metadata : fullScan(path, tag, fileSize, lastModified);
+    }
+
+    /**
+     * Method reads bytes of a file into a new buffer
+     * @param channel the open file
+     * @param position where to start reading
+     * @param length the number of bytes to read
+     * @return buffer positioned at 0, holding fewer than length bytes if the file ended first
+     * @throws IOException if the file can't be read
+     */
+    static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(length, 0));
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) break;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Method reads an ID3v2 size, which uses 7 bits of each of its 4 bytes
+     * @param buffer the bytes of the tag header
+     * @param index the index of the first byte of the size
+     * @return the size
+     */
+    static int syncsafeInt(ByteBuffer buffer, int index) {
+        return ((buffer.get(index) & 0x7F) << 21) | ((buffer.get(index + 1) & 0x7F) << 14)
+             | ((buffer.get(index + 2) & 0x7F) << 7) | (buffer.get(index + 3) & 0x7F);
+    }
+
+    /**
+     * Method finds where the audio of a file starts, after the ID3v2 tags at its start.
+     * Some files have more than one ID3v2 tag in a row
+     * @param channel the open file
+     * @return the length of the ID3v2 tags, or 0 if the file has none
+     * @throws IOException if the file can't be read
+     */
+    static long id3v2Length(FileChannel channel) throws IOException {
+        long length = 0;
+        ByteBuffer head = read(channel, 0, 10);
+        while(head.remaining() == 10 && head.get(0) == 'I' && head.get(1) == 'D' && head.get(2) == '3') {
+            length += 10 + syncsafeInt(head, 6) + (((head.get(5) & 0x10) != 0) ? 10 : 0);
+            head = read(channel, length, 10);
+        }
+        return length;
+    }
+
+    /**
+     * Method finds the length of an APE tag that ends where the audio is thought to end
+     * @param channel the open file
+     * @param audioStart where the audio starts
+     * @param audioEnd where the audio ends, before any ID3v1 tag
+     * @return the length of the APE tag including its header, or 0 if there is none
+     * @throws IOException if the file can't be read
+     */
+    static long apeTagLength(FileChannel channel, long audioStart, long audioEnd) throws IOException {
+        if(audioEnd - audioStart < APE_FOOTER_LENGTH) return 0;
+        ByteBuffer footer = read(channel, audioEnd - APE_FOOTER_LENGTH, APE_FOOTER_LENGTH);
+        if(footer.remaining() < APE_FOOTER_LENGTH || !"APETAGEX".equals(new String(toArray(footer.duplicate()), 0, 8, StandardCharsets.ISO_8859_1)))
+            return 0;
+        footer.order(ByteOrder.LITTLE_ENDIAN);
+        long length = footer.getInt(12) & 0xFFFFFFFFL; // Includes the footer but not the header
+        if((footer.getInt(20) & 0x80000000) != 0) length += APE_FOOTER_LENGTH;
+        return Math.min(length, audioEnd - audioStart);
+    }
+
+    /**
+     * Method parses a frame header
+     * @param header the 4 bytes of the header, in big-endian order
+     * @return the header, or null if the bytes are not a valid header
+     */
+    private static FrameHeader parseHeader(int header) {
+        if((header >>> 21) != 0x7FF) return null;
+        int version = (header >>> 19) & 3;
+        int layer = 4 - ((header >>> 17) & 3);
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int sampleRateIndex = (header >>> 10) & 3;
+        // Reject the reserved version and layer, free-format and bad bitrates, and the reserved sample rate
+        if(version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) return null;
+
+        int table = (version == 3) ? layer - 1 : ((layer == 1) ? 3 : 4);
+        return new FrameHeader(version, layer, BITRATES[table][bitrateIndex - 1],
+                               SAMPLE_RATES[version][sampleRateIndex], (header >>> 6) & 3, (header >>> 9) & 1);
+    }
+
+    /**
+     * Method finds the first frame of the audio. A sync pattern only counts as a frame
+     * if another frame of the same stream starts right after it, so stray bytes that
+     * look like a header are skipped
+     * @param window the bytes after the ID3v2 tag
+     * @return the offset of the first frame in the window, or -1 if none was found
+     */
+    private static int findFirstFrame(ByteBuffer window) {
+        int limit = window.limit();
+        for(int offset = 0; offset + 4 <= limit; offset++) {
+            if((window.get(offset) & 0xFF) != 0xFF) continue;
+            FrameHeader header = parseHeader(window.getInt(offset));
+            if(header == null) continue;
+            int next = offset + header.length;
+            if(next + 4 > limit) {
+                if(next >= limit) return offset; // The audio ends with this frame, or the window does
+                continue;
+            }
+            FrameHeader nextHeader = parseHeader(window.getInt(next));
+            if(nextHeader != null && header.matches(nextHeader)) return offset;
+        }
+        return -1;
+    }
+
+    /**
+     * Method reads a Xing or Info header, written by LAME and most other encoders into the first
+     * frame. LAME also stores the encoder delay and padding, which are removed from the length
+     * @return the metadata, or null if the first frame has no Xing header with a frame count
+     */
+    private static AudioMetadata readXingHeader(ByteBuffer window, int frameOffset, FrameHeader first, long audioBytes,
+                                                ID3v1 tag, long fileSize, long lastModified) {
+        int sideInfo = first.isMpeg1() ? (first.isMono() ? 17 : 32) : (first.isMono() ? 9 : 17);
+        int xing = frameOffset + 4 + sideInfo;
+        if(xing + 16 > window.limit()) return null;
+        int id = window.getInt(xing);
+        boolean vbr = id == 0x58696E67; // "Xing". LAME writes "Info" for CBR files
+        if(!vbr && id != 0x496E666F) return null;
+
+        int flags = window.getInt(xing + 4);
+        if((flags & 1) == 0) return null;
+        long frames = window.getInt(xing + 8) & 0xFFFFFFFFL;
+        long bytes = ((flags & 2) != 0) ? window.getInt(xing + 12) & 0xFFFFFFFFL : audioBytes;
+        if(frames == 0) return null;
+
+        long samples = frames * first.samples;
+        int lame = xing + 120;
+        if(lame + 24 <= window.limit() && window.get(lame) == 'L' && window.get(lame + 1) == 'A'
+                && window.get(lame + 2) == 'M' && window.get(lame + 3) == 'E') {
+            int delayPadding = ((window.get(lame + 21) & 0xFF) << 16) | ((window.get(lame + 22) & 0xFF) << 8) | (window.get(lame + 23) & 0xFF);
+            long trimmed = samples - (delayPadding >>> 12) - (delayPadding & 0xFFF);
+            if(trimmed > 0) samples = trimmed;
+        }
+
+        long duration = samples * 1000000 / first.sampleRate;
+        int bitrate = vbr ? (int)(bytes * 8 / Math.max(duration / 1000, 1)) : first.bitrate;
+        return new AudioMetadata(tag, duration, bitrate, first.sampleRate, CHANNEL_MODES[first.channelMode],
+                                 vbr, fileSize, lastModified, AudioMetadata.DurationSource.XING);
+    }
+
+    /**
+     * Method reads a VBRI header, written by Fraunhofer encoders 32 bytes after the first frame's header
+     * @return the metadata, or null if the first frame has no VBRI header
+     */
+    private static AudioMetadata readVbriHeader(ByteBuffer window, int frameOffset, FrameHeader first, long audioBytes,
+                                                ID3v1 tag, long fileSize, long lastModified) {
+        int vbri = frameOffset + 36;
+        if(vbri + 18 > window.limit() || window.getInt(vbri) != 0x56425249) return null; // "VBRI"
+        long bytes = window.getInt(vbri + 10) & 0xFFFFFFFFL;
+        long frames = window.getInt(vbri + 14) & 0xFFFFFFFFL;
+        if(frames == 0) return null;
+
+        long duration = frames * first.samples * 1000000 / first.sampleRate;
+        int bitrate = (int)(((bytes > 0) ? bytes : audioBytes) * 8 / Math.max(duration / 1000, 1));
+        return new AudioMetadata(tag, duration, bitrate, first.sampleRate, CHANNEL_MODES[first.channelMode],
+                                 true, fileSize, lastModified, AudioMetadata.DurationSource.VBRI);
+    }
+
+    /**
+     * Method checks that the frames at the start of the window all have the bitrate of the first frame
+     * @return true if every frame checked has the same bitrate, so the file can be treated as CBR
+     */
+    private static boolean isConstantBitrate(ByteBuffer window, int frameOffset, FrameHeader first) {
+        int offset = frameOffset;
+        for(int frame = 0; frame < CBR_CHECK_FRAMES && offset + 4 <= window.limit(); frame++) {
+            FrameHeader header = parseHeader(window.getInt(offset));
+            if(header == null) return frame > 1; // Trailing bytes after the last frames of a short file
+            if(!header.matches(first) || header.bitrate != first.bitrate) return false;
+            offset += header.length;
+        }
+        return true;
+    }
+
+    /**
+     * Method reads every frame of the file to find its length, for VBR files without a header
+     * and files whose first frame couldn't be found in the window
+     * @return the metadata of the file, with its length averaged over every frame
+     * @throws IOException if the file can't be read or isn't an MP3 file
+     */
+    private static AudioMetadata fullScan(String path, ID3v1 tag, long fileSize, long lastModified) throws IOException {
+        try {
+            Mp3File mp3File = new Mp3File(path);
+            return new AudioMetadata(tag, mp3File.getLengthInMilliseconds() * 1000, mp3File.getBitrate(), mp3File.getSampleRate(),
+                                     mp3File.getChannelMode(), mp3File.isVbr(), fileSize, lastModified, AudioMetadata.DurationSource.FULL_SCAN);
+        } catch(UnsupportedTagException | InvalidDataException e) {
+            throw new IOException("Unable to read the frames of " + path, e);
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package betterthanitunes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+import com.mpatric.mp3agic.ID3v1;
+
+/**
+ * Class reads the tags and length of an Ogg Vorbis file. The first pages of the
+ * file hold the identification header, with the sample rate and channels, and
+ * the comment header, with the tags, which can continue over several pages when
+ * it holds album art. The length is the granule position of the last page, which
+ * counts the samples of the stream, so only the end of the file is read for it.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class OggVorbisReader implements MetadataReader {
+    private static final int PAGE_HEADER_LENGTH = 27;
+    private static final int MAX_PAGE_LENGTH = PAGE_HEADER_LENGTH + 255 + 255 * 255;
+    private static final int MAX_HEADER_PAGES = 1024;              // Pages read to find the comment header
+    private static final int MAX_COMMENT_LENGTH = 16 * 1024 * 1024; // Longer comments are cut short, losing only their last fields
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        // The CRC of an Ogg page uses the polynomial 0x04C11DB7 without reflecting the bits
+        for(int i = 0; i < 256; i++) {
+            int crc = i << 24;
+            for(int bit = 0; bit < 8; bit++)
+                crc = ((crc & 0x80000000) != 0) ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    OggVorbisReader() {}
+
+    @Override
+    public String getFormat() {
+        return "Ogg Vorbis";
+    }
+
+    @Override
+    public List<String> getExtensions() {
+        return Collections.singletonList("ogg");
+    }
+
+    // Method checks for a first page whose first packet is a Vorbis identification header
+    @Override
+    public boolean matches(ByteBuffer start) {
+        if(start.remaining() < PAGE_HEADER_LENGTH || !isCapturePattern(start, 0)) return false;
+        int packet = PAGE_HEADER_LENGTH + (start.get(26) & 0xFF);
+        return start.remaining() >= packet + 7 && isVorbisHeader(start, packet, 1);
+    }
+
+    // Method checks for "OggS", which starts every page
+    private static boolean isCapturePattern(ByteBuffer buffer, int offset) {
+        return buffer.get(offset) == 'O' && buffer.get(offset + 1) == 'g' && buffer.get(offset + 2) == 'g' && buffer.get(offset + 3) == 'S';
+    }
+
+    private static boolean isVorbisHeader(ByteBuffer buffer, int offset, int type) {
+        return buffer.get(offset) == type && buffer.get(offset + 1) == 'v' && buffer.get(offset + 2) == 'o' && buffer.get(offset + 3) == 'r'
+            && buffer.get(offset + 4) == 'b' && buffer.get(offset + 5) == 'i' && buffer.get(offset + 6) == 's';
+    }
+
+    @Override
+    public AudioMetadata read(String path, FileChannel channel) throws IOException {
+        long lastModified = new File(path).lastModified();
+        long fileSize = channel.size();
+        long position = Mp3TagReader.id3v2Length(channel);
+
+        // The packets of the headers are gathered from the pages of the first stream until the comment header is complete
+        ByteBuffer identification = null, comment = null;
+        int serial = 0, packet = 0;
+        for(int pageCount = 0; pageCount < MAX_HEADER_PAGES && packet < 2; pageCount++) {
+            ByteBuffer page = readPage(channel, position);
+            if(page == null) throw new IOException(path + " ends before its Vorbis headers");
+            position += page.limit();
+            if(pageCount == 0) serial = page.getInt(14);
+            else if(page.getInt(14) != serial) continue; // A page of another stream in the same file
+
+            int segments = page.get(26) & 0xFF;
+            int offset = PAGE_HEADER_LENGTH + segments;
+            for(int segment = 0; segment < segments && packet < 2; segment++) {
+                int length = page.get(PAGE_HEADER_LENGTH + segment) & 0xFF;
+                ByteBuffer target = (packet == 0) ? identification : comment;
+                if(target == null) {
+                    target = ByteBuffer.allocate((packet == 0) ? 255 : 64 * 1024);
+                    if(packet == 0) identification = target;
+                    else comment = target;
+                }
+                if(target.remaining() < length && target.capacity() < MAX_COMMENT_LENGTH) {
+                    ByteBuffer larger = ByteBuffer.allocate(Math.min(target.capacity() * 2 + length, MAX_COMMENT_LENGTH));
+                    target.flip();
+                    larger.put(target);
+                    target = larger;
+                    if(packet == 0) identification = target;
+                    else comment = target;
+                }
+                ByteBuffer bytes = page.duplicate();
+                bytes.position(offset).limit(offset + Math.min(length, target.remaining()));
+                target.put(bytes);
+                offset += length;
+                if(length < 255) packet++; // A segment shorter than 255 bytes ends its packet
+            }
+        }
+        if(identification == null) throw new IOException(path + " has no Vorbis identification header");
+        identification.flip();
+        if(identification.remaining() < 30 || !isVorbisHeader(identification, 0, 1))
+            throw new IOException(path + " is not an Ogg Vorbis file");
+        identification.order(ByteOrder.LITTLE_ENDIAN);
+        int channels = identification.get(11) & 0xFF;
+        int sampleRate = identification.getInt(12);
+        int maximumBitrate = identification.getInt(16), nominalBitrate = identification.getInt(20), minimumBitrate = identification.getInt(24);
+        if(sampleRate <= 0) throw new IOException(path + " has no sample rate");
+
+        ID3v1 tag = null;
+        if(comment != null) {
+            comment.flip();
+            if(comment.remaining() > 7 && isVorbisHeader(comment, 0, 3)) {
+                comment.position(7);
+                tag = VorbisComment.parse(comment.slice());
+            }
+        }
+
+        long samples = lastGranulePosition(channel, position, fileSize, serial);
+        long duration = samples * 1000000 / sampleRate;
+        long audioBytes = fileSize - position;
+        int bitrate = (duration > 0) ? (int)(audioBytes * 8 / Math.max(duration / 1000, 1)) : Math.max(nominalBitrate, 0) / 1000;
+        boolean vbr = !(nominalBitrate > 0 && minimumBitrate == nominalBitrate && maximumBitrate == nominalBitrate);
+        return new AudioMetadata(tag, duration, bitrate, sampleRate, FlacReader.channelMode(channels), vbr,
+                                 fileSize, lastModified, AudioMetadata.DurationSource.GRANULE);
+    }
+
+    /**
+     * Method reads a page of an Ogg file
+     * @param channel the open file
+     * @param position where the page starts
+     * @return the page in little-endian order, from its header to the end of its body, or null if there is no page there
+     * @throws IOException if the file can't be read
+     */
+    private static ByteBuffer readPage(FileChannel channel, long position) throws IOException {
+        ByteBuffer header = Mp3TagReader.read(channel, position, PAGE_HEADER_LENGTH);
+        if(header.remaining() < PAGE_HEADER_LENGTH || !isCapturePattern(header, 0)) return null;
+        int segments = header.get(26) & 0xFF;
+        ByteBuffer lacing = Mp3TagReader.read(channel, position + PAGE_HEADER_LENGTH, segments);
+        if(lacing.remaining() < segments) return null;
+        int bodyLength = 0;
+        for(int segment = 0; segment < segments; segment++)
+            bodyLength += lacing.get(segment) & 0xFF;
+
+        ByteBuffer page = Mp3TagReader.read(channel, position, PAGE_HEADER_LENGTH + segments + bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+        return (page.remaining() == PAGE_HEADER_LENGTH + segments + bodyLength) ? page : null;
+    }
+
+    /**
+     * Method finds the granule position of the last page of a stream, which for Vorbis is the number of samples
+     * in the stream. The end of the file is searched backwards for the capture pattern of a page, and a
+     * page only counts if its CRC is right, so audio that happens to contain "OggS" isn't taken for a page
+     * @param channel the open file
+     * @param audioStart where the audio pages start
+     * @param fileSize the size of the file
+     * @param serial the serial number of the stream
+     * @return the granule position, or 0 if no page with one was found
+     * @throws IOException if the file can't be read
+     */
+    private static long lastGranulePosition(FileChannel channel, long audioStart, long fileSize, int serial) throws IOException {
+        long start = Math.max(audioStart, fileSize - MAX_PAGE_LENGTH);
+        ByteBuffer tail = Mp3TagReader.read(channel, start, (int)(fileSize - start)).order(ByteOrder.LITTLE_ENDIAN);
+        for(int offset = tail.limit() - PAGE_HEADER_LENGTH; offset >= 0; offset--) {
+            if(!isCapturePattern(tail, offset)) continue;
+            int segments = tail.get(offset + 26) & 0xFF;
+            if(offset + PAGE_HEADER_LENGTH + segments > tail.limit()) continue;
+            int length = PAGE_HEADER_LENGTH + segments;
+            for(int segment = 0; segment < segments; segment++)
+                length += tail.get(offset + PAGE_HEADER_LENGTH + segment) & 0xFF;
+            long granule = tail.getLong(offset + 6);
+            if(offset + length > tail.limit() || tail.getInt(offset + 14) != serial || granule == -1) continue;
+            if(crc(tail, offset, length) == tail.getInt(offset + 22)) return granule;
+        }
+        return 0;
+    }
+
+    /**
+     * Method computes the CRC of a page, counting its CRC field as zeros
+     * @param buffer the bytes holding the page
+     * @param offset where the page starts
+     * @param length the length of the page
+     * @return the CRC
+     */
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        int crc = 0;
+        for(int i = 0; i < length; i++) {
+            int value = (i >= 22 && i < 26) ? 0 : buffer.get(offset + i) & 0xFF;
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ value) & 0xFF];
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,414 @@
+package betterthanitunes;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Class holds the songs that play one after another: the songIds of the rows of a
+ * song table in the order they were displayed, and the songs the user queued to
+ * play next, which play before the order continues. Songs are kept as songIds in
+ * int arrays, never as Songs or paths, so the order of a playlist of 100,000 songs
+ * is 400 KB and is read from the database once, not copied on every press of Play.
+ * A song is added to the end of the order or queued to play next in O(1) amortised
+ * time. A song removed from the order leaves an empty row behind, which is skipped,
+ * and the rows are packed once half of them are empty, so removing is O(1) amortised
+ * too. When shuffled, the order is played through a permutation of its rows, so
+ * unshuffling continues from the same song in the order of the table.
+ * Positions in the order are steps: the step of a row is its index when not shuffled.
+ * The methods are synchronized, as the player's thread reads the queue to prepare
+ * the next song while the windows change it.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class PlayQueue {
+    public static final int NONE = -1;    // No song, or no step
+    public static final int UP_NEXT = -2; // The step of the first song queued to play next
+    public static final int REPEAT = -3;  // The step that plays the current song again
+
+    private final Random random = new Random();
+    private int[] order = new int[16];  // The songId of each row, or NONE for a row that was removed
+    private int size = 0, removed = 0;
+    private int[] rowIndex = new int[16]; // Indexed by songId, holds its row + 1, or 0 if it isn't in the order
+    private boolean duplicates = false;   // Whether a song is on more than one row, so rowIndex isn't enough to remove it
+    private int[] shuffle, stepOf;        // The row of each step and the step of each row, or null when not shuffled
+    private int[] upNext = new int[16];   // Ring buffer of the songs queued to play next, or NONE for one that was removed
+    private int head = 0, queued = 0;
+    private int position = NONE; // The step of the last song played from the order
+    private int current = NONE;  // The songId of the song playing from the queue
+    private int startRow = NONE; // The row the user last played, to find it again when the order is replaced
+
+    /**
+     * Method replaces the order with the rows of a song table. The songs queued to play next
+     * are kept, and the song playing is found in the new order so playback continues from it
+     * @param songIds the songId of each row in the order they are displayed. The queue keeps the array
+     */
+    public synchronized void setOrder(int[] songIds) {
+        boolean shuffled = shuffle != null;
+        shuffle = null;
+        stepOf = null;
+        order = songIds;
+        size = songIds.length;
+        removed = 0;
+        indexRows();
+        // The row the user played is the one to continue from, if the song is on several rows
+        if(current == NONE) position = NONE;
+        else if(startRow >= 0 && startRow < size && order[startRow] == current) position = startRow;
+        else position = firstRowOf(current);
+        if(order.length == 0) order = new int[16];
+        if(shuffled) shuffle();
+    }
+
+    /**
+     * Method builds rowIndex from the order.
+     */
+    private void indexRows() {
+        int maxId = 0;
+        for(int row = 0; row < size; row++)
+            maxId = Math.max(maxId, order[row]);
+        rowIndex = new int[Math.max(maxId + 1, 16)];
+        duplicates = false;
+        for(int row = 0; row < size; row++) {
+            if(order[row] == NONE) continue;
+            if(rowIndex[order[row]] != 0) duplicates = true;
+            else rowIndex[order[row]] = row + 1;
+        }
+    }
+
+    /**
+     * Method finds the first row of a song
+     * @param songId the songId
+     * @return the row, or NONE if the song isn't in the order
+     */
+    private int firstRowOf(int songId) {
+        if(!duplicates) return (songId >= 0 && songId < rowIndex.length) ? rowIndex[songId] - 1 : NONE;
+        for(int row = 0; row < size; row++) {
+            if(order[row] == songId) return row;
+        }
+        return NONE;
+    }
+
+    /**
+     * Method records that the user played a row of the table. If the order is of that table,
+     * playback continues from the row. Otherwise it continues from the song's row in this
+     * order, if it has one, until the order of the table replaces this one. When shuffled,
+     * the row is moved to the step after the song that played last, so the songs that
+     * haven't played yet still follow it
+     * @param row the row of the song in the table
+     * @param songId the songId of the song
+     */
+    public synchronized void start(int row, int songId) {
+        current = songId;
+        startRow = row;
+        if(row < 0 || row >= size || order[row] != songId) {
+            row = firstRowOf(songId);
+            if(row == NONE) {
+                position = NONE;
+                return;
+            }
+        }
+        if(shuffle == null) {
+            position = row;
+            return;
+        }
+        int step = stepOf[row];
+        if(position == NONE) {
+            swapSteps(step, 0);
+            position = 0;
+        }
+        else if(step > position) {
+            swapSteps(step, position + 1);
+            position++;
+        }
+        else swapSteps(step, position); // A song that already played this time round takes the place of the last one
+    }
+
+    /**
+     * Method records that nothing from the queue is playing, because playback stopped
+     * or a song outside the Library is playing.
+     */
+    public synchronized void stop() {
+        current = NONE;
+        position = NONE;
+        startRow = NONE;
+    }
+
+    // Method returns whether the song playing was played from the queue
+    public synchronized boolean isPlaying() {
+        return current != NONE;
+    }
+
+    /**
+     * Method finds the step after the song playing: the first song queued to play next,
+     * or the next song of the order
+     * @param repeatPlaylist whether to continue from the first step after the last one
+     * @return UP_NEXT, a step of the order, or NONE if playback stops after the song playing
+     */
+    public synchronized int peekNext(boolean repeatPlaylist) {
+        if(current == NONE) return NONE;
+        if(firstQueued() != NONE) return UP_NEXT;
+        for(int step = position + 1; step < size; step++) {
+            if(order[rowAt(step)] != NONE) return step;
+        }
+        if(repeatPlaylist) {
+            for(int step = 0; step <= position && step < size; step++) {
+                if(order[rowAt(step)] != NONE) return step;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Method finds the step before the song playing. After a song queued to play next,
+     * that is the song of the order it interrupted
+     * @param repeatPlaylist whether to continue from the last step before the first one
+     * @return a step of the order, or NONE if there is no song before the one playing
+     */
+    public synchronized int peekPrevious(boolean repeatPlaylist) {
+        if(current == NONE || position == NONE) return NONE;
+        if(order[rowAt(position)] != current && order[rowAt(position)] != NONE) return position;
+        for(int step = position - 1; step >= 0; step--) {
+            if(order[rowAt(step)] != NONE) return step;
+        }
+        if(repeatPlaylist) {
+            for(int step = size - 1; step >= position; step--) {
+                if(order[rowAt(step)] != NONE) return step;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Method gets the song of a step without moving to it
+     * @param step a step from peekNext or peekPrevious, UP_NEXT or REPEAT
+     * @return the songId, or NONE if the step holds no song
+     */
+    public synchronized int songAt(int step) {
+        if(step == UP_NEXT) return firstQueued();
+        if(step == REPEAT) return current;
+        return (step >= 0 && step < size) ? order[rowAt(step)] : NONE;
+    }
+
+    /**
+     * Method moves to a step, taking the first song queued to play next off the queue for UP_NEXT
+     * @param step a step from peekNext or peekPrevious, UP_NEXT or REPEAT
+     * @return the songId of the song to play, or NONE if the step holds no song
+     */
+    public synchronized int advance(int step) {
+        int songId = songAt(step);
+        if(songId == NONE) return NONE;
+        if(step == UP_NEXT) dequeue();
+        else if(step >= 0) position = step;
+        current = songId;
+        return songId;
+    }
+
+    /**
+     * Method moves to a step the player prepared a song from, if the step still holds the
+     * song. The song is being heard either way, so it becomes the one playing
+     * @param step the step the song was prepared from
+     * @param songId the songId of the song prepared
+     */
+    public synchronized void advanceTo(int step, int songId) {
+        if(songAt(step) == songId) advance(step);
+        else current = songId;
+    }
+
+    /**
+     * Method adds a song to the end of the order. When shuffled, it is played at a random
+     * step among the songs that haven't played yet
+     * @param songId the songId
+     */
+    public synchronized void append(int songId) {
+        if(size == order.length) order = Arrays.copyOf(order, size * 2);
+        int row = size++;
+        order[row] = songId;
+        if(songId >= rowIndex.length) rowIndex = Arrays.copyOf(rowIndex, Math.max(songId + 1, rowIndex.length * 2));
+        if(rowIndex[songId] != 0) duplicates = true;
+        else rowIndex[songId] = row + 1;
+        if(shuffle != null) {
+            if(row >= shuffle.length) {
+                shuffle = Arrays.copyOf(shuffle, order.length);
+                stepOf = Arrays.copyOf(stepOf, order.length);
+            }
+            shuffle[row] = row;
+            stepOf[row] = row;
+            int first = position + 1;
+            swapSteps(row, first + random.nextInt(row - first + 1));
+        }
+    }
+
+    /**
+     * Method queues a song to play after the song playing, before the songs already queued
+     * @param songId the songId
+     */
+    public synchronized void insertNext(int songId) {
+        if(queued == upNext.length) growUpNext();
+        head = (head - 1 + upNext.length) % upNext.length;
+        upNext[head] = songId;
+        queued++;
+    }
+
+    /**
+     * Method queues a song to play after the songs already queued to play next
+     * @param songId the songId
+     */
+    public synchronized void enqueue(int songId) {
+        if(queued == upNext.length) growUpNext();
+        upNext[(head + queued) % upNext.length] = songId;
+        queued++;
+    }
+
+    /**
+     * Method removes a song from the order and from the songs queued to play next.
+     * Its rows are left empty until half of the rows are empty, then the rows are packed
+     * @param songId the songId
+     */
+    public synchronized void remove(int songId) {
+        if(duplicates) {
+            for(int row = 0; row < size; row++) {
+                if(order[row] == songId) removeRow(row);
+            }
+        }
+        else if(songId >= 0 && songId < rowIndex.length && rowIndex[songId] != 0) removeRow(rowIndex[songId] - 1);
+        for(int i = 0; i < queued; i++) {
+            int slot = (head + i) % upNext.length;
+            if(upNext[slot] == songId) upNext[slot] = NONE;
+        }
+        if(removed > 16 && removed > size / 2) compact();
+    }
+
+    private void removeRow(int row) {
+        if(rowIndex[order[row]] == row + 1) rowIndex[order[row]] = 0;
+        order[row] = NONE;
+        removed++;
+    }
+
+    /**
+     * Method shuffles the steps of the order. The song playing is moved to the first step,
+     * so every other song plays once before the order repeats.
+     */
+    public synchronized void shuffle() {
+        unshuffle();
+        shuffle = new int[Math.max(order.length, 16)];
+        stepOf = new int[shuffle.length];
+        for(int row = 0; row < size; row++)
+            shuffle[row] = row;
+        for(int step = size - 1; step > 0; step--) {
+            int other = random.nextInt(step + 1);
+            int row = shuffle[step];
+            shuffle[step] = shuffle[other];
+            shuffle[other] = row;
+        }
+        for(int step = 0; step < size; step++)
+            stepOf[shuffle[step]] = step;
+        if(position != NONE) {
+            // The order was unshuffled above, so position is a row
+            swapSteps(stepOf[position], 0);
+            position = 0;
+        }
+    }
+
+    /**
+     * Method plays the order in the order of its rows again, continuing from the song playing.
+     */
+    public synchronized void unshuffle() {
+        if(shuffle == null) return;
+        if(position != NONE) position = shuffle[position];
+        shuffle = null;
+        stepOf = null;
+    }
+
+    public synchronized boolean isShuffled() {
+        return shuffle != null;
+    }
+
+    // Method returns the number of songs in the order, not counting removed rows
+    public synchronized int size() {
+        return size - removed;
+    }
+
+    // Method returns the number of songs queued to play next
+    public synchronized int queuedCount() {
+        int count = 0;
+        for(int i = 0; i < queued; i++) {
+            if(upNext[(head + i) % upNext.length] != NONE) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Play queue: " + size() + " songs in the order, " + queuedCount() + " queued to play next" +
+               (isShuffled() ? ", shuffled" : "");
+    }
+
+    private int rowAt(int step) {
+        return (shuffle != null) ? shuffle[step] : step;
+    }
+
+    private void swapSteps(int a, int b) {
+        int row = shuffle[a];
+        shuffle[a] = shuffle[b];
+        shuffle[b] = row;
+        stepOf[shuffle[a]] = a;
+        stepOf[shuffle[b]] = b;
+    }
+
+    /**
+     * Method gets the first song queued to play next, dropping the removed songs before it
+     * @return the songId, or NONE if no song is queued
+     */
+    private int firstQueued() {
+        while(queued > 0 && upNext[head] == NONE) {
+            head = (head + 1) % upNext.length;
+            queued--;
+        }
+        return (queued > 0) ? upNext[head] : NONE;
+    }
+
+    private void dequeue() {
+        head = (head + 1) % upNext.length;
+        queued--;
+    }
+
+    private void growUpNext() {
+        int[] grown = new int[upNext.length * 2];
+        for(int i = 0; i < queued; i++)
+            grown[i] = upNext[(head + i) % upNext.length];
+        upNext = grown;
+        head = 0;
+    }
+
+    /**
+     * Method drops the empty rows of the order, keeping the order of the steps. If the
+     * song that played last was removed, the step before it becomes the last one played,
+     * so the song after it still plays next.
+     */
+    private void compact() {
+        int[] newRow = new int[size]; // The new row of each row, or NONE for an empty row
+        int rows = 0;
+        for(int row = 0; row < size; row++)
+            newRow[row] = (order[row] != NONE) ? rows++ : NONE;
+        int steps = 0, newPosition = NONE;
+        for(int step = 0; step < size; step++) {
+            int row = rowAt(step);
+            if(newRow[row] != NONE) {
+                if(shuffle != null) shuffle[steps] = newRow[row];
+                steps++;
+            }
+            if(step == position) newPosition = steps - 1;
+        }
+        for(int row = 0; row < size; row++) {
+            if(newRow[row] != NONE) order[newRow[row]] = order[row];
+        }
+        if(shuffle != null) {
+            for(int step = 0; step < rows; step++)
+                stepOf[shuffle[step]] = step;
+        }
+        size = rows;
+        removed = 0;
+        position = newPosition;
+        startRow = NONE;
+        indexRows();
+    }
+}
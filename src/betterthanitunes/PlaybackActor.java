@@ -0,0 +1,270 @@
+package betterthanitunes;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import javazoom.jlgui.basicplayer.BasicController;
+import javazoom.jlgui.basicplayer.BasicPlayerEvent;
+import javazoom.jlgui.basicplayer.BasicPlayerListener;
+
+/**
+ * Class represents the thread that owns the player. Commands from the windows are put
+ * on a queue and run one at a time on that thread, so the player is only ever opened,
+ * started, paused, sought and stopped from one place. The events of the player are
+ * queued in the order they were raised and move the actor between explicit states.
+ * Every event queued is handled before the next command, so a command sees the state
+ * the commands before it left. When a song ends, the player's thread reports the end of
+ * media and then that it stopped, and the next song is opened once the stop arrives,
+ * so nothing waits for the player by spinning. Each command is timed from when it was
+ * sent until the player shows its effect.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class PlaybackActor implements BasicPlayerListener {
+    /**
+     * Enum represents what the player is doing, as last reported by its events.
+     */
+    public enum State {
+        STOPPED, OPENING, OPENED, PLAYING, PAUSED, SEEKING,
+        ENDED // The song reached its end and the player's thread hasn't stopped yet
+    }
+
+    /**
+     * Enum represents the events of the player the actor reacts to.
+     */
+    public enum Event {
+        OPENING, OPENED, PLAYING, PAUSED, RESUMED, SEEKING, SEEKED, STOPPED, END_OF_MEDIA, GAIN,
+        FIRST_AUDIO; // The player wrote the first audio of a song to the line after it started playing
+
+        /**
+         * Method gets the event of a code of BasicPlayerEvent
+         * @param code the code of the event
+         * @return the event, or null for the events the actor ignores
+         */
+        private static Event of(int code) {
+            switch(code) {
+                case BasicPlayerEvent.OPENING: return OPENING;
+                case BasicPlayerEvent.OPENED: return OPENED;
+                case BasicPlayerEvent.PLAYING: return PLAYING;
+                case BasicPlayerEvent.PAUSED: return PAUSED;
+                case BasicPlayerEvent.RESUMED: return RESUMED;
+                case BasicPlayerEvent.SEEKING: return SEEKING;
+                case BasicPlayerEvent.SEEKED: return SEEKED;
+                case BasicPlayerEvent.STOPPED: return STOPPED;
+                case BasicPlayerEvent.EOM: return END_OF_MEDIA;
+                case BasicPlayerEvent.GAIN: return GAIN;
+                default: return null;
+            }
+        }
+    }
+
+    /**
+     * Enum represents the commands sent to the actor, with the events that show each one took effect.
+     */
+    public enum Command {
+        PLAY(Event.FIRST_AUDIO),
+        PAUSE(Event.PAUSED, Event.RESUMED),
+        NEXT(Event.FIRST_AUDIO),
+        PREVIOUS(Event.FIRST_AUDIO),
+        SEEK(Event.FIRST_AUDIO, Event.SEEKED),
+        STOP(Event.STOPPED),
+        VOLUME(Event.GAIN);
+
+        private final EnumSet<Event> effects;
+
+        private Command(Event effect, Event... otherEffects) {
+            effects = EnumSet.of(effect, otherEffects);
+        }
+    }
+
+    /**
+     * Class represents an entry of the queue: a command and the code that carries it out, or an event of the player.
+     */
+    private static class Message {
+        private final Command command;
+        private final Runnable action;
+        private final Event event;
+        private final long time; // When the message was sent, in nanoseconds
+
+        private Message(Command command, Runnable action, Event event) {
+            this.command = command;
+            this.action = action;
+            this.event = event;
+            time = System.nanoTime();
+        }
+    }
+
+    private final GaplessPlayer player = new GaplessPlayer();
+    private final Runnable endOfMedia;
+    private final ArrayDeque<Message> events = new ArrayDeque<>(), commands = new ArrayDeque<>(); // Guarded by this
+    private volatile State state = State.STOPPED;
+    private volatile boolean awaitingAudio = false; // Set when a song is opened, until the player writes its first audio
+    private Command pending; // The last command run whose effect hasn't been seen yet
+    private long pendingSince;
+    private int superseded = 0; // Commands replaced by another before their effect was seen
+    private final Map<Command, LatencyStats> latency = new EnumMap<>(Command.class);
+
+    /**
+     * Constructor creates the player and starts the thread that owns it
+     * @param endOfMedia run on the actor's thread when a song ends by itself and the player has stopped
+     */
+    public PlaybackActor(Runnable endOfMedia) {
+        this.endOfMedia = endOfMedia;
+        for(Command command : Command.values())
+            latency.put(command, new LatencyStats("Command " + command.name().toLowerCase()));
+        player.addBasicPlayerListener(this);
+
+        Thread thread = new Thread(this::run, "Playback");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method gets the player. Commands that change what it plays must only be
+     * given by actions sent to the actor, which run on the actor's thread
+     * @return the player
+     */
+    public GaplessPlayer getPlayer() {
+        return player;
+    }
+
+    /**
+     * Method queues a command. The action runs on the actor's thread after
+     * every command and event queued before it
+     * @param command the command, timed until its effect is seen, or null for work that isn't timed
+     * @param action the code that carries out the command
+     */
+    public synchronized void send(Command command, Runnable action) {
+        commands.add(new Message(command, action, null));
+        notifyAll();
+    }
+
+    private synchronized void post(Event event) {
+        events.add(new Message(null, null, event));
+        notifyAll();
+    }
+
+    /**
+     * Method waits for the next message the actor should handle: an event if there is one,
+     * else a command, unless a song has ended and the player's thread hasn't stopped yet
+     * @return the message
+     * @throws InterruptedException if the actor's thread is interrupted
+     */
+    private synchronized Message take() throws InterruptedException {
+        while(events.isEmpty() && (commands.isEmpty() || state == State.ENDED))
+            wait();
+        return events.isEmpty() ? commands.poll() : events.poll();
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    private void run() {
+        while(true) {
+            Message message;
+            try {
+                message = take();
+            } catch(InterruptedException e) {
+                return;
+            }
+            if(message.event != null) handle(message.event, message.time);
+            else execute(message);
+        }
+    }
+
+    /**
+     * Method runs a command on the actor's thread
+     * @param message the command and its action
+     */
+    private void execute(Message message) {
+        if(message.command != null) {
+            if(pending != null) superseded++;
+            pending = message.command;
+            pendingSince = message.time;
+        }
+        try {
+            message.action.run();
+        } catch(RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method moves the actor to the state an event of the player leads to,
+     * and records the latency of the command the event completes
+     * @param event the event
+     * @param time when the player sent the event, in nanoseconds
+     */
+    private void handle(Event event, long time) {
+        State previous = state;
+        switch(event) {
+            case OPENING: state = State.OPENING; break;
+            case OPENED: state = State.OPENED; break;
+            case PLAYING:
+            case RESUMED: state = State.PLAYING; break;
+            case PAUSED: state = State.PAUSED; break;
+            case SEEKING: state = State.SEEKING; break;
+            case END_OF_MEDIA: state = State.ENDED; break;
+            case STOPPED: state = State.STOPPED; break;
+            default: break; // SEEKED is followed by PLAYING or PAUSED, and the other events don't change the state
+        }
+
+        if(pending != null && pending.effects.contains(event)) {
+            latency.get(pending).record(time - pendingSince);
+            pending = null;
+        }
+
+        // The player's thread has stopped after the end of the song, so the line is free for the next one
+        if(event == Event.STOPPED && previous == State.ENDED) {
+            try {
+                endOfMedia.run();
+            } catch(RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void stateUpdated(BasicPlayerEvent e) {
+        Event event = Event.of(e.getCode());
+        if(event == null) return;
+        if(event == Event.OPENED) awaitingAudio = true;
+        post(event);
+    }
+
+    @Override
+    public void progress(int bytesread, long microseconds, byte[] pcmdata, Map properties) {
+        if(awaitingAudio) {
+            awaitingAudio = false;
+            post(Event.FIRST_AUDIO);
+        }
+    }
+
+    @Override
+    public void opened(Object stream, Map properties) {
+    }
+
+    @Override
+    public void setController(BasicController controller) {
+    }
+
+    /**
+     * Method gets how long a command took from being sent until the player showed its effect
+     * @param command the command
+     * @return the statistics, in milliseconds
+     */
+    public LatencyStats getLatency(Command command) {
+        return latency.get(command);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder summary = new StringBuilder("Playback actor: " + state + ", " + commands.size() + " commands queued, "
+                                                  + superseded + " commands superseded before their effect");
+        for(LatencyStats stats : latency.values())
+            if(stats.getCount() > 0) summary.append("\n").append(stats);
+        return summary.toString();
+    }
+}
@@ -0,0 +1,105 @@
+package betterthanitunes;
+
+/**
+ * Class carries the progress of the song playing from the player's thread to the
+ * windows. The player's thread publishes the position after every chunk of audio it
+ * writes, which only overwrites the latest value: a single volatile long holding the
+ * position and the length in milliseconds, so publishing doesn't lock or allocate.
+ * Each window samples the latest value with a Swing timer at a fixed rate, and
+ * positions published between two ticks are never drawn. The rate is set with
+ * -Dbetterthanitunes.progress.rate=... in updates per second.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class ProgressBus {
+    public static final String RATE_PROPERTY = "betterthanitunes.progress.rate";
+    public static final int DEFAULT_RATE = 10;     // Updates of the windows per second
+    public static final long NOTHING_PLAYING = -1; // The value sampled when no progress has been published
+    public static final int TIME_LENGTH = 12;      // Characters needed by formatTime
+
+    private volatile long latest = NOTHING_PLAYING;
+    private volatile long published = 0; // Only written by the player's thread
+
+    /**
+     * Method publishes the progress of the song playing, replacing the last progress published
+     * @param position the position in the song in microseconds
+     * @param length the length of the song in microseconds
+     */
+    public void publish(long position, long length) {
+        long positionMillis = Math.min(Math.max(position / 1000, 0), Integer.MAX_VALUE);
+        long lengthMillis = Math.min(Math.max(length / 1000, 0), Integer.MAX_VALUE);
+        latest = (positionMillis << 32) | lengthMillis;
+        published++;
+    }
+
+    /**
+     * Method clears the progress when playback stops.
+     */
+    public void clear() {
+        latest = NOTHING_PLAYING;
+    }
+
+    /**
+     * Method gets the last progress published
+     * @return the progress, read with positionMillis and lengthMillis, or NOTHING_PLAYING
+     */
+    public long sample() {
+        return latest;
+    }
+
+    public static long positionMillis(long progress) {
+        return progress >>> 32;
+    }
+
+    public static long lengthMillis(long progress) {
+        return progress & 0xFFFFFFFFL;
+    }
+
+    // Method returns how many times progress was published, drawn or not
+    public long getPublished() {
+        return published;
+    }
+
+    /**
+     * Method gets the rate at which the windows sample the progress
+     * @return the updates per second set by the betterthanitunes.progress.rate property, from 1 to 100
+     */
+    public static int getRate() {
+        return Math.max(1, Math.min(Integer.getInteger(RATE_PROPERTY, DEFAULT_RATE), 100));
+    }
+
+    /**
+     * Method writes a time as hours, minutes and seconds, such as 0:03:07, without allocating
+     * @param millis the time in milliseconds
+     * @param time the characters to write the time to, at least TIME_LENGTH long
+     * @return the number of characters written
+     */
+    public static int formatTime(long millis, char[] time) {
+        long seconds = Math.max(millis, 0) / 1000;
+        long hours = seconds / 3600;
+        int length = 0;
+        // Write the hours backwards, then reverse them
+        do {
+            time[length++] = (char)('0' + hours % 10);
+            hours /= 10;
+        } while(hours > 0);
+        for(int i = 0, j = length - 1; i < j; i++, j--) {
+            char digit = time[i];
+            time[i] = time[j];
+            time[j] = digit;
+        }
+        int minutes = (int)(seconds / 60 % 60), secs = (int)(seconds % 60);
+        time[length++] = ':';
+        time[length++] = (char)('0' + minutes / 10);
+        time[length++] = (char)('0' + minutes % 10);
+        time[length++] = ':';
+        time[length++] = (char)('0' + secs / 10);
+        time[length++] = (char)('0' + secs % 10);
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "Progress bus: " + published + " positions published, sampled " + getRate() + " times per second";
+    }
+}
@@ -0,0 +1,330 @@
+package betterthanitunes;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.PreparedStatement;
+
+/**
+ * Class brings the database schema up to date when the application starts.
+ * The schema version is kept in the SchemaVersion table, and every migration
+ * newer than that version is applied in order, each in its own transaction.
+ * To change the schema, add a migration to the end and raise LATEST_VERSION.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class SchemaMigrator {
+    public static final int LATEST_VERSION = 8;
+
+    private static final String[] DESCRIPTIONS = {
+        "",
+        "Create the Songs, Playlists, SongPlaylist, Columns and RecentlyPlayed tables",
+        "Give every song an integer songId and store it in SongPlaylist",
+        "Add indexes to SongPlaylist and RecentlyPlayed",
+        "Make song attributes NOT NULL and index the Songs columns the song table sorts by",
+        "Keep the number of songs in each playlist in Playlists",
+        "Store the length, audio format, size and modification time of every song in Songs",
+        "Store a fingerprint of the audio of every song in Songs, to find duplicates",
+        "Index the songs of each playlist by songId, so playlists are read a page at a time"
+    };
+
+    private final Connection connection;
+
+    /**
+     * Constructor creates a migrator for a connection
+     * @param connection the connection to the database to migrate
+     */
+    public SchemaMigrator(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Method applies every migration newer than the database's schema version
+     * @return the schema version of the database after migrating
+     * @throws SQLException if a migration failed. That migration is rolled back
+     */
+    public int migrate() throws SQLException {
+        int version = readVersion();
+        if(version > LATEST_VERSION)
+            throw new SQLException("Database schema version " + version + " is newer than this application supports (" + LATEST_VERSION + ")");
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            while(version < LATEST_VERSION) {
+                version++;
+                long start = System.nanoTime();
+                try {
+                    apply(version, statement);
+                    statement.executeUpdate("UPDATE SchemaVersion SET version = " + version);
+                    connection.commit();
+                } catch(SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+                System.out.println("\nMigrated database to version " + version + " (" + DESCRIPTIONS[version] + ") in " +
+                                   (System.nanoTime() - start) / 1000000 + " ms");
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        return version;
+    }
+
+    /**
+     * Method reads the schema version, creating the SchemaVersion table if it doesn't exist yet.
+     * A database without the table is either empty (version 0) or was set up by hand from
+     * 'Updates to database.sql' before migrations existed (version 1)
+     * @return the schema version of the database
+     * @throws SQLException if the version could not be read
+     */
+    private int readVersion() throws SQLException {
+        if(tableExists("SCHEMAVERSION")) {
+            try (Statement statement = connection.createStatement();
+                 ResultSet results = statement.executeQuery("SELECT version FROM SchemaVersion")) {
+                return results.next() ? results.getInt(1) : 0;
+            }
+        }
+
+        int version = tableExists("SONGS") ? 1 : 0;
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE SchemaVersion (version INTEGER NOT NULL)");
+            statement.executeUpdate("INSERT INTO SchemaVersion VALUES (" + version + ")");
+        }
+        return version;
+    }
+
+    /**
+     * Method determines whether a table exists in the database
+     * @param table the name of the table in upper case
+     * @return true if the table exists. Otherwise, false
+     * @throws SQLException if the database metadata could not be read
+     */
+    private boolean tableExists(String table) throws SQLException {
+        try (ResultSet tables = connection.getMetaData().getTables(null, null, table, null)) {
+            return tables.next();
+        }
+    }
+
+    /**
+     * Method applies one migration
+     * @param version the schema version that the migration brings the database to
+     * @param statement the statement to execute the migration with
+     * @throws SQLException if the migration failed
+     */
+    private void apply(int version, Statement statement) throws SQLException {
+        switch(version) {
+            case 1: createTables(statement); break;
+            case 2: addSongIds(statement); break;
+            case 3: addIndexes(statement); break;
+            case 4: addSortIndexes(statement); break;
+            case 5: addSongCounts(statement); break;
+            case 6: addAudioMetadata(statement); break;
+            case 7: addFingerprints(statement); break;
+            case 8: addPlaylistSongIndex(statement); break;
+            default: throw new SQLException("No migration to schema version " + version);
+        }
+    }
+
+    /**
+     * Migration 1 creates the tables of an empty database, the same
+     * tables that used to be created by hand on the network server.
+     * @param statement the statement to execute the migration with
+     * @throws SQLException if the migration failed
+     */
+    private void createTables(Statement statement) throws SQLException {
+        statement.executeUpdate("CREATE TABLE Songs (title VARCHAR(200), artist VARCHAR(200), album VARCHAR(200), yearCreated VARCHAR(200)," +
+                                " genre INTEGER, comment VARCHAR(1000), path VARCHAR(200) NOT NULL, CONSTRAINT Songs_PK PRIMARY KEY (path))");
+        statement.executeUpdate("CREATE TABLE Playlists (playlistName VARCHAR(200) NOT NULL, CONSTRAINT Playlists_PK PRIMARY KEY (playlistName))");
+        statement.executeUpdate("CREATE TABLE SongPlaylist (playlistName VARCHAR(200) NOT NULL, path VARCHAR(200) NOT NULL, id INTEGER NOT NULL," +
+                                " CONSTRAINT SongPlaylist_PK PRIMARY KEY (playlistName, path, id)," +
+                                " CONSTRAINT Playlists_SongPlaylist_FK FOREIGN KEY (playlistName) REFERENCES Playlists (playlistName)," +
+                                " CONSTRAINT Songs_SongPlaylist_FK FOREIGN KEY (path) REFERENCES Songs (path))");
+        statement.executeUpdate("CREATE TABLE Columns (playlistName VARCHAR(200) NOT NULL, columnName VARCHAR(200) NOT NULL," +
+                                " visible BOOLEAN NOT NULL, columnOrder INTEGER NOT NULL," +
+                                " CONSTRAINT Columns_PK PRIMARY KEY (playlistName, columnName)," +
+                                " CONSTRAINT Playlists_Columns_FK FOREIGN KEY (playlistName) REFERENCES Playlists (playlistName))");
+        statement.executeUpdate("CREATE TABLE RecentlyPlayed (songName VARCHAR(200) NOT NULL," +
+                                " songOrder INTEGER NOT NULL GENERATED ALWAYS AS IDENTITY (START WITH 0, INCREMENT BY 1)," +
+                                " CONSTRAINT pk_RecentlyPlayed PRIMARY KEY (songName, songOrder))");
+        statement.executeUpdate("INSERT INTO Playlists VALUES ('Library')");
+
+        try (PreparedStatement columnInsert = connection.prepareStatement(DatabaseModel.COLUMN_INSERT_QUERY)) {
+            for(int i = 1; i <= 8; i++)
+                columnInsert.setString(i, "Library");
+            columnInsert.executeUpdate();
+        }
+    }
+
+    /**
+     * Migration 2 numbers the existing songs 1, 2, 3... in path order, stores
+     * each song's number in SongPlaylist, and creates the SongIds sequence
+     * that numbers songs inserted from now on.
+     * @param statement the statement to execute the migration with
+     * @throws SQLException if the migration failed
+     */
+    private void addSongIds(Statement statement) throws SQLException {
+        statement.executeUpdate("ALTER TABLE Songs ADD COLUMN songId INTEGER");
+
+        int songId = 0;
+        try (PreparedStatement update = connection.prepareStatement("UPDATE Songs SET songId = ? WHERE path = ?");
+             Statement select = connection.createStatement();
+             ResultSet paths = select.executeQuery("SELECT path FROM Songs ORDER BY path")) {
+            while(paths.next()) {
+                update.setInt(1, ++songId);
+                update.setString(2, paths.getString(1));
+                update.addBatch();
+            }
+            update.executeBatch();
+        }
+
+        statement.executeUpdate("ALTER TABLE Songs ALTER COLUMN songId NOT NULL");
+        statement.executeUpdate("ALTER TABLE Songs ADD CONSTRAINT Songs_songId_UQ UNIQUE (songId)");
+        statement.executeUpdate("CREATE SEQUENCE SongIds AS INTEGER START WITH " + (songId + 1));
+
+        statement.executeUpdate("ALTER TABLE SongPlaylist ADD COLUMN songId INTEGER");
+        statement.executeUpdate("UPDATE SongPlaylist SET songId = (SELECT Songs.songId FROM Songs WHERE Songs.path = SongPlaylist.path)");
+        statement.executeUpdate("ALTER TABLE SongPlaylist ALTER COLUMN songId NOT NULL");
+        statement.executeUpdate("ALTER TABLE SongPlaylist ADD CONSTRAINT Songs_SongPlaylist_songId_FK FOREIGN KEY (songId) REFERENCES Songs (songId)");
+    }
+
+    /**
+     * Migration 3 indexes the columns that playlists and recently
+     * played songs are looked up and sorted by.
+     * @param statement the statement to execute the migration with
+     * @throws SQLException if the migration failed
+     */
+    private void addIndexes(Statement statement) throws SQLException {
+        statement.executeUpdate("CREATE INDEX SongPlaylist_path_IX ON SongPlaylist (path)");
+        statement.executeUpdate("CREATE INDEX SongPlaylist_playlistName_id_IX ON SongPlaylist (playlistName, id)");
+        statement.executeUpdate("CREATE INDEX RecentlyPlayed_songOrder_IX ON RecentlyPlayed (songOrder)");
+    }
+
+    /**
+     * Migration 4 indexes each sortable column of Songs together with songId, once in each
+     * direction because Derby can't read an index backwards, so a page of the Library in any
+     * sort order is read by seeking in an index. Keyset pages compare against the previous
+     * page's values, which doesn't work with NULLs, so any NULL attributes are replaced with
+     * empty strings, or -1 (Unknown) for the genre.
+     * @param statement the statement to execute the migration with
+     * @throws SQLException if the migration failed
+     */
+    private void addSortIndexes(Statement statement) throws SQLException {
+        String[] columns = {"title", "artist", "album", "yearCreated", "genre", "comment"};
+        for(String column : columns) {
+            String missing = column.equals("genre") ? "-1" : "''";
+            statement.executeUpdate("UPDATE Songs SET " + column + " = " + missing + " WHERE " + column + " IS NULL");
+            statement.executeUpdate("ALTER TABLE Songs ALTER COLUMN " + column + " NOT NULL");
+            statement.executeUpdate("CREATE INDEX Songs_" + column + "_IX ON Songs (" + column + ", songId)");
+            statement.executeUpdate("CREATE INDEX Songs_" + column + "_desc_IX ON Songs (" + column + " DESC, songId DESC)");
+        }
+        
+        // Path and songId are unique, so they are sorted without a tie breaker
+        statement.executeUpdate("CREATE INDEX Songs_path_desc_IX ON Songs (path DESC)");
+        statement.executeUpdate("CREATE INDEX Songs_songId_desc_IX ON Songs (songId DESC)");
+    }
+
+    /**
+     * Migration 5 stores the number of songs of each playlist, and of the Library, in
+     * Playlists.songCount so the song table can size itself without counting every row.
+     * Triggers keep the counts up to date however rows are inserted or deleted.
+     * @param statement the statement to execute the migration with
+     * @throws SQLException if the migration failed
+     */
+    private void addSongCounts(Statement statement) throws SQLException {
+        statement.executeUpdate("ALTER TABLE Playlists ADD COLUMN songCount INTEGER NOT NULL DEFAULT 0");
+        statement.executeUpdate("UPDATE Playlists SET songCount = (SELECT COUNT(*) FROM SongPlaylist WHERE SongPlaylist.playlistName = Playlists.playlistName)");
+        statement.executeUpdate("UPDATE Playlists SET songCount = (SELECT COUNT(*) FROM Songs) WHERE playlistName = 'Library'");
+
+        statement.executeUpdate("CREATE TRIGGER Songs_insert_TR AFTER INSERT ON Songs FOR EACH ROW" +
+                                " UPDATE Playlists SET songCount = songCount + 1 WHERE playlistName = 'Library'");
+        statement.executeUpdate("CREATE TRIGGER Songs_delete_TR AFTER DELETE ON Songs FOR EACH ROW" +
+                                " UPDATE Playlists SET songCount = songCount - 1 WHERE playlistName = 'Library'");
+        statement.executeUpdate("CREATE TRIGGER SongPlaylist_insert_TR AFTER INSERT ON SongPlaylist REFERENCING NEW AS added FOR EACH ROW" +
+                                " UPDATE Playlists SET songCount = songCount + 1 WHERE playlistName = added.playlistName");
+        statement.executeUpdate("CREATE TRIGGER SongPlaylist_delete_TR AFTER DELETE ON SongPlaylist REFERENCING OLD AS removed FOR EACH ROW" +
+                                " UPDATE Playlists SET songCount = songCount - 1 WHERE playlistName = removed.playlistName");
+    }
+
+    /**
+     * Migration 6 adds the length (in microseconds), bitrate, sample rate, channel mode,
+     * VBR flag, file size and modification time of each song to Songs, read once from the
+     * file headers by the MetadataReader of the file's format, so the song table never has
+     * to open audio files to show or sort by them. Songs whose files can't be read keep
+     * zeros. Length, bitrate and file size are indexed in both directions like the other
+     * sortable columns.
+     * @param statement the statement to execute the migration with
+     * @throws SQLException if the migration failed
+     */
+    private void addAudioMetadata(Statement statement) throws SQLException {
+        statement.executeUpdate("ALTER TABLE Songs ADD COLUMN duration BIGINT NOT NULL DEFAULT 0");
+        statement.executeUpdate("ALTER TABLE Songs ADD COLUMN bitrate INTEGER NOT NULL DEFAULT 0");
+        statement.executeUpdate("ALTER TABLE Songs ADD COLUMN sampleRate INTEGER NOT NULL DEFAULT 0");
+        statement.executeUpdate("ALTER TABLE Songs ADD COLUMN channelMode VARCHAR(20) NOT NULL DEFAULT ''");
+        statement.executeUpdate("ALTER TABLE Songs ADD COLUMN vbr BOOLEAN NOT NULL DEFAULT FALSE");
+        statement.executeUpdate("ALTER TABLE Songs ADD COLUMN fileSize BIGINT NOT NULL DEFAULT 0");
+        statement.executeUpdate("ALTER TABLE Songs ADD COLUMN lastModified BIGINT NOT NULL DEFAULT 0");
+
+        int read = 0, unreadable = 0;
+        try (PreparedStatement update = connection.prepareStatement("UPDATE Songs SET duration = ?, bitrate = ?, sampleRate = ?," +
+                                                                    " channelMode = ?, vbr = ?, fileSize = ?, lastModified = ? WHERE songId = ?");
+             Statement select = connection.createStatement();
+             ResultSet songs = select.executeQuery("SELECT songId, path FROM Songs")) {
+            while(songs.next()) {
+                AudioMetadata metadata;
+                try {
+                    metadata = MetadataReaders.read(songs.getString(2));
+                } catch(IOException e) {
+                    unreadable++;
+                    continue;
+                }
+                update.setLong(1, metadata.getDuration());
+                update.setInt(2, metadata.getBitrate());
+                update.setInt(3, metadata.getSampleRate());
+                update.setString(4, metadata.getChannelMode());
+                update.setBoolean(5, metadata.isVbr());
+                update.setLong(6, metadata.getFileSize());
+                update.setLong(7, metadata.getLastModified());
+                update.setInt(8, songs.getInt(1));
+                update.addBatch();
+                if(++read % 1000 == 0) update.executeBatch();
+            }
+            update.executeBatch();
+        }
+        if(unreadable > 0) System.out.println("\nRead the metadata of " + read + " songs, " + unreadable + " files could not be read");
+
+        for(String column : new String[] {"duration", "bitrate", "fileSize"}) {
+            statement.executeUpdate("CREATE INDEX Songs_" + column + "_IX ON Songs (" + column + ", songId)");
+            statement.executeUpdate("CREATE INDEX Songs_" + column + "_desc_IX ON Songs (" + column + " DESC, songId DESC)");
+        }
+    }
+
+    /**
+     * Migration 7 adds the fingerprint of each song's audio to Songs. Fingerprinting
+     * reads every byte of the audio, so existing songs are left at 0 (unknown) and
+     * are fingerprinted when duplicates are first looked for, not while starting up.
+     * @param statement the statement to execute the migration with
+     * @throws SQLException if the migration failed
+     */
+    private void addFingerprints(Statement statement) throws SQLException {
+        statement.executeUpdate("ALTER TABLE Songs ADD COLUMN fingerprint BIGINT NOT NULL DEFAULT 0");
+        statement.executeUpdate("CREATE INDEX Songs_fingerprint_IX ON Songs (fingerprint)");
+    }
+
+    /**
+     * Migration 8 indexes the rows of SongPlaylist by playlist and songId. A page of a
+     * playlist can then be read by walking the index of the sort column of Songs and
+     * looking up each song in the playlist, instead of joining and sorting every row of
+     * the playlist for each page. The playlist ids are indexed with songId in both
+     * directions, so a playlist sorted by ID is paged through SongPlaylist the same way.
+     * @param statement the statement to execute the migration with
+     * @throws SQLException if the migration failed
+     */
+    private void addPlaylistSongIndex(Statement statement) throws SQLException {
+        statement.executeUpdate("CREATE INDEX SongPlaylist_playlistName_songId_IX ON SongPlaylist (playlistName, songId, id)");
+        statement.executeUpdate("CREATE INDEX SongPlaylist_playlistName_id_songId_IX ON SongPlaylist (playlistName, id, songId)");
+        statement.executeUpdate("CREATE INDEX SongPlaylist_playlistName_id_songId_desc_IX ON SongPlaylist (playlistName, id DESC, songId DESC)");
+    }
+}
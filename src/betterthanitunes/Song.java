@@ -3,153 +3,237 @@ package betterthanitunes;
 import java.io.File;
 import java.io.IOException;
 import com.mpatric.mp3agic.ID3v1;
-import com.mpatric.mp3agic.ID3v24Tag;
-import com.mpatric.mp3agic.Mp3File;
-import com.mpatric.mp3agic.InvalidDataException;
-import com.mpatric.mp3agic.UnsupportedTagException;
 
 /**
- * Class represents an MP3 song, holding the path of
- * the file and the tag information all in one object. 
+ * Class represents a song: the path of the audio file, its tag information and
+ * its length and audio format. A Song is immutable and only holds strings and
+ * primitives, so the song cache, the browser's index and the play order can share
+ * the same Songs. The song tables keep their rows in the columns of SongData. Artist, album, year and channel mode go through StringDictionary,
+ * so a value repeated across the Library is stored once. Titles, comments and paths
+ * are mostly different from song to song, so they are kept as they are.
+ * A Song is built either from the Songs table or by reading the file's headers
+ * with the MetadataReader of its format, which doesn't read the audio of the file.
  * @author Steven McCracken
  * @author Mark Saavedra
  */
-public class Song {
-    private Mp3File file;
-    private String filename;
-    private String fullPath;
-    private ID3v1 tag;
+public final class Song {
+    private final String path, title, artist, album, year, comment, channelMode;
+    private final int songId, genre, bitrate, sampleRate;
+    private final long duration, fileSize, lastModified, fingerprint;
+    private final boolean vbr, readable;
 
+    /**
+     * Constructor builds a song by reading the tag and length from the file.
+     * Missing tag fields get the placeholders shown in the song table
+     * @param fullPath the path of the MP3, FLAC or Ogg Vorbis file
+     */
     public Song(String fullPath) {
+        AudioMetadata metadata = null;
         try {
-            file = new Mp3File(fullPath);
-            this.fullPath = fullPath;
-            filename = new File(fullPath).getName();
-
-            if(file.hasId3v2Tag()) {
-                tag = file.getId3v2Tag();
-                checkTags();
-            }
-            else if(file.hasId3v1Tag()) {
-                tag = file.getId3v1Tag();
-                checkTags();
-            }
-            
-            else {
-                tag = new ID3v24Tag();
-                checkTags();
-            }
-        } catch(InvalidDataException | UnsupportedTagException | IOException e) {
+            metadata = MetadataReaders.read(fullPath);
+        } catch(IOException e) {
             e.printStackTrace();
         }
+        ID3v1 tag = (metadata != null) ? metadata.getTag() : null; // The ID3v2 tag if the file has one, else the ID3v1 tag
+
+        path = fullPath;
+        songId = -1;
+        title = orDefault((tag != null) ? tag.getTitle() : null, new File(fullPath).getName());
+        artist = StringDictionary.intern(orDefault((tag != null) ? tag.getArtist() : null, "Unknown"));
+        album = StringDictionary.intern(orDefault((tag != null) ? tag.getAlbum() : null, "Unknown"));
+        year = StringDictionary.intern(orDefault((tag != null) ? tag.getYear() : null, "Unknown"));
+        genre = (tag != null) ? tag.getGenre() : -1;
+        comment = orDefault((tag != null) ? tag.getComment() : null, " ");
+        readable = metadata != null;
+        duration = readable ? metadata.getDuration() : 0;
+        bitrate = readable ? metadata.getBitrate() : 0;
+        sampleRate = readable ? metadata.getSampleRate() : 0;
+        channelMode = StringDictionary.intern(readable ? metadata.getChannelMode() : "");
+        vbr = readable && metadata.isVbr();
+        fileSize = readable ? metadata.getFileSize() : 0;
+        lastModified = readable ? metadata.getLastModified() : 0;
+        fingerprint = AudioFingerprint.UNKNOWN; // Reading every byte of the audio is left to the callers that need it
     }
-    
+
     /**
-     * Method ensures all tags are not null or invalid values.
+     * Constructor builds a song from a row of the Songs table
+     * @param songId the integer key of the song in the Songs table
+     * @param path the file path of the song
+     * @param title the title of the song
+     * @param artist the artist of the song
+     * @param album the album of the song
+     * @param year the year of the song
+     * @param genre the ID3 genre code of the song, or -1 if it doesn't have one
+     * @param comment the comment of the song
+     * @param duration the length of the song in microseconds
+     * @param bitrate the bitrate in kbps
+     * @param sampleRate the sample rate in Hz
+     * @param channelMode the channel mode, such as Stereo or Mono
+     * @param vbr whether the bitrate changes from frame to frame
+     * @param fileSize the size of the file in bytes
+     * @param lastModified when the file was last modified, in milliseconds since the epoch
+     * @param fingerprint the AudioFingerprint of the file, or AudioFingerprint.UNKNOWN
      */
-    public void checkTags() {
-        boolean changesMade = false;
-        if(tag.getTitle() == null || tag.getTitle().equals("")) {
-            tag.setTitle(filename);
-            changesMade = true;
-        }
-        if(tag.getArtist() == null || tag.getArtist().equals("")) {
-            tag.setArtist("Unknown");
-            changesMade = true;
-        }
-        if(tag.getAlbum() == null || tag.getAlbum().equals("")) {
-            tag.setAlbum("Unknown");
-            changesMade = true;
-        }
-        if(tag.getYear() == null || tag.getYear().equals("")) {
-            tag.setYear("Unknown");
-            changesMade = true;
-            
-        }
-        if(tag.getGenre() == -1) {
-            tag.setGenre(0);
-            changesMade = true;
-        }
-        if(tag.getComment() == null || tag.getComment().equals("")) {
-            tag.setComment(" ");
-            changesMade = true;
-        }
-        if(changesMade) file.setId3v1Tag(tag);
+    public Song(int songId, String path, String title, String artist, String album, String year, int genre, String comment,
+                long duration, int bitrate, int sampleRate, String channelMode, boolean vbr, long fileSize, long lastModified,
+                long fingerprint) {
+        this.songId = songId;
+        this.path = path;
+        this.title = title;
+        this.artist = StringDictionary.intern(artist);
+        this.album = StringDictionary.intern(album);
+        this.year = StringDictionary.intern(year);
+        this.genre = genre;
+        this.comment = comment;
+        this.duration = duration;
+        this.bitrate = bitrate;
+        this.sampleRate = sampleRate;
+        this.channelMode = StringDictionary.intern(channelMode);
+        this.vbr = vbr;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.fingerprint = fingerprint;
+        readable = true;
     }
-    
+
     /**
-     * Method saves the file. Currently doesn't work
-     * @param path the path to save the file to
+     * Method returns a tag value, or a placeholder if the tag doesn't have it
+     * @param value the value from the tag
+     * @param placeholder the value to use instead
+     * @return value, or placeholder if value is null or empty
      */
-    public void saveSong(String path) {
+    private static String orDefault(String value, String placeholder) {
+        return (value == null || value.equals("")) ? placeholder : value;
     }
-    
+
+    /**
+     * Method creates a copy of the song with one tag field changed
+     * @param column the column of the field in the song table (0 - 5)
+     * @param value the new value
+     * @return the changed song
+     */
+    public Song withTag(int column, Object value) {
+        String text = value.toString();
+        return new Song(songId, path, (column == 0) ? text : title, (column == 1) ? text : artist, (column == 2) ? text : album,
+                        (column == 3) ? text : year, (column == 4) ? TagWriter.Tags.genreNumber(value) : genre,
+                        (column == 5) ? text : comment, duration, bitrate, sampleRate, channelMode, vbr, fileSize, lastModified,
+                        fingerprint);
+    }
+
+    /**
+     * Method creates a copy of the song with its key in the Songs table
+     * @param songId the integer key of the song
+     * @return the song with the songId
+     */
+    public Song withSongId(int songId) {
+        return new Song(songId, path, title, artist, album, year, genre, comment, duration, bitrate, sampleRate,
+                        channelMode, vbr, fileSize, lastModified, fingerprint);
+    }
+
+    /**
+     * Method creates a copy of the song with the fingerprint of its audio
+     * @param fingerprint the AudioFingerprint of the file
+     * @return the song with the fingerprint
+     */
+    public Song withFingerprint(long fingerprint) {
+        return new Song(songId, path, title, artist, album, year, genre, comment, duration, bitrate, sampleRate,
+                        channelMode, vbr, fileSize, lastModified, fingerprint);
+    }
+
+    /**
+     * Method writes the song's tags to a file. The ID3v2 tag is rewritten in
+     * place when it fits in the file's existing tag, otherwise the file is rewritten
+     * @param path the path of the file to write the tags to
+     * @return true if the tags were written. Otherwise, false
+     */
+    public boolean saveSong(String path) {
+        try {
+            TagWriter.write(path, new TagWriter.Tags(this));
+            return true;
+        } catch(IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     // Method returns the name of the file
     public String getFilename() {
-        return filename;
+        return new File(path).getName();
     }
 
-    // Method returns total duration of mp3 file in microseconds
-    public long getDuration() {
-        return file.getLengthInMilliseconds()*1000;
+    /**
+     * Method determines whether the song's file could be read when the song was built
+     * @return false if the song was built from a file that couldn't be read. Otherwise, true
+     */
+    public boolean isReadable() {
+        return readable;
     }
 
     public String getPath() {
-        return fullPath;
+        return path;
+    }
+
+    // Method returns the integer key of the song in the Songs table, or -1 if it was built from its file
+    public int getSongId() {
+        return songId;
     }
 
     public String getTitle() {
-        return tag.getTitle();
+        return title;
     }
 
     public String getArtist() {
-        return tag.getArtist();
+        return artist;
     }
 
     public String getAlbum() {
-        return tag.getAlbum();
+        return album;
     }
-    
+
     public String getYear() {
-        return tag.getYear();
+        return year;
     }
-    
+
+    // Method returns the ID3 genre code of the song, or -1 if it doesn't have one
     public int getGenre() {
-        if(tag.getGenre() == -1) return 0;
-        else return tag.getGenre();
+        return genre;
     }
-    
+
     public String getComment() {
-        return tag.getComment();
+        return comment;
+    }
+
+    // Method returns total duration of mp3 file in microseconds
+    public long getDuration() {
+        return duration;
+    }
+
+    public int getBitrate() {
+        return bitrate;
     }
 
-    public void setTitle(String title) {
-        tag.setTitle(title);
-        file.setId3v1Tag(tag);
+    public int getSampleRate() {
+        return sampleRate;
     }
 
-    public void setArtist(String artist) {
-        tag.setArtist(artist);
-        file.setId3v1Tag(tag);
+    public String getChannelMode() {
+        return channelMode;
     }
 
-    public void setAlbum(String album) {
-        tag.setAlbum(album);
-        file.setId3v1Tag(tag);
+    public boolean isVbr() {
+        return vbr;
     }
-    
-    public void setYear(String year) {
-        tag.setYear(year);
-        file.setId3v1Tag(tag);
+
+    public long getFileSize() {
+        return fileSize;
     }
-    
-    public void setGenre(int genre) {
-        tag.setGenre(genre);
-        file.setId3v1Tag(tag);
+
+    public long getLastModified() {
+        return lastModified;
     }
-    
-    public void setComment(String comment) {
-        tag.setComment(comment);
-        file.setId3v1Tag(tag);
+
+    // Method returns the AudioFingerprint of the file, or AudioFingerprint.UNKNOWN if it hasn't been computed
+    public long getFingerprint() {
+        return fingerprint;
     }
-}
\ No newline at end of file
+}
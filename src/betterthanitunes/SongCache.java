@@ -0,0 +1,124 @@
+package betterthanitunes;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+
+/**
+ * Class caches the Song objects of the Library, keyed by their paths. A Song is
+ * only built the first time it is asked for, and once the cache is full the
+ * least recently used Song is dropped, so memory doesn't grow with the Library.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class SongCache {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * Interface builds the Song for a path that isn't in the cache.
+     */
+    public interface Loader {
+        /**
+         * Method builds a Song
+         * @param path the path of the song
+         * @return the Song, or null if there is no such song
+         */
+        Song load(String path);
+    }
+
+    private final Loader loader;
+    private final int capacity;
+    private final LinkedHashMap<String, Song> songs;
+    private long hits = 0, misses = 0, evictions = 0;
+
+    /**
+     * Constructor creates an empty cache
+     * @param loader builds the Songs that aren't cached
+     * @param capacity the maximum number of Songs kept in memory
+     */
+    public SongCache(Loader loader, int capacity) {
+        this.loader = loader;
+        this.capacity = capacity;
+
+        // Access-ordered map, so the eldest entry is always the least recently used song
+        songs = new LinkedHashMap<String, Song>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Song> eldest) {
+                if(size() <= SongCache.this.capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Method returns the Song for a path, building it on a miss. The Song is built
+     * outside the lock, since it reads the file, so other threads aren't kept waiting
+     * @param path the path of the song
+     * @return the Song, or null if the loader has no such song
+     */
+    public Song get(String path) {
+        synchronized(this) {
+            Song song = songs.get(path);
+            if(song != null) {
+                hits++;
+                return song;
+            }
+            misses++;
+        }
+
+        Song song = loader.load(path);
+        if(song == null) return null;
+        synchronized(this) {
+            // Another thread may have built the same song in the meantime. Keep the first one
+            Song existing = songs.putIfAbsent(path, song);
+            return (existing != null) ? existing : song;
+        }
+    }
+
+    /**
+     * Method returns the Song for a path only if it is already cached
+     * @param path the path of the song
+     * @return the cached Song, or null
+     */
+    public synchronized Song getIfPresent(String path) {
+        return songs.get(path);
+    }
+
+    /**
+     * Method caches a Song that was just built, such as a song added to the Library
+     * @param song the song to cache
+     */
+    public synchronized void put(Song song) {
+        songs.put(song.getPath(), song);
+    }
+
+    /**
+     * Method drops a song from the cache, such as a song deleted from the Library
+     * @param path the path of the song
+     */
+    public synchronized void remove(String path) {
+        songs.remove(path);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return songs.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Song cache: " + hits + " hits, " + misses + " misses, " +
+                evictions + " evictions, " + songs.size() + "/" + capacity + " songs";
+    }
+}
@@ -0,0 +1,290 @@
+package betterthanitunes;
+
+import java.util.Arrays;
+
+/**
+ * Class holds the rows of a song table column by column, so a playlist
+ * can be loaded in one pass without boxing every cell into an Object.
+ * Artist, album, year and channel mode go through StringDictionary, so the
+ * columns share one copy of each value with the Songs of the Library.
+ * The columns grow as rows are added.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class SongData {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int size = 0;
+    private String[] titles, artists, albums, years, comments, paths, channelModes;
+    private int[] genres, ids, songIds, bitrates, sampleRates;
+    private long[] durations, fileSizes, lastModifieds, fingerprints;
+    private boolean[] vbrs;
+
+    public SongData() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor creates empty columns with room for a number of rows
+     * @param capacity the number of rows to make room for
+     */
+    public SongData(int capacity) {
+        capacity = Math.max(capacity, 1);
+        titles = new String[capacity];
+        artists = new String[capacity];
+        albums = new String[capacity];
+        years = new String[capacity];
+        comments = new String[capacity];
+        paths = new String[capacity];
+        genres = new int[capacity];
+        ids = new int[capacity];
+        songIds = new int[capacity];
+        durations = new long[capacity];
+        bitrates = new int[capacity];
+        sampleRates = new int[capacity];
+        channelModes = new String[capacity];
+        vbrs = new boolean[capacity];
+        fileSizes = new long[capacity];
+        lastModifieds = new long[capacity];
+        fingerprints = new long[capacity];
+    }
+
+    /**
+     * Method appends a row to the end of the columns
+     * @param title the title of the song
+     * @param artist the artist of the song
+     * @param album the album of the song
+     * @param year the year of the song
+     * @param genre the ID3 genre code of the song
+     * @param comment the comment of the song
+     * @param path the file path of the song
+     * @param id the unique id of the song in its playlist, or -1 in the Library
+     * @param songId the integer key of the song in the Songs table
+     * @param duration the length of the song in microseconds
+     * @param bitrate the bitrate in kbps
+     * @param sampleRate the sample rate in Hz
+     * @param channelMode the channel mode, such as Stereo or Mono
+     * @param vbr whether the bitrate changes from frame to frame
+     * @param fileSize the size of the file in bytes
+     * @param lastModified when the file was last modified, in milliseconds since the epoch
+     * @param fingerprint the AudioFingerprint of the file, or AudioFingerprint.UNKNOWN
+     */
+    public void add(String title, String artist, String album, String year, int genre, String comment, String path, int id, int songId,
+                    long duration, int bitrate, int sampleRate, String channelMode, boolean vbr, long fileSize, long lastModified,
+                    long fingerprint) {
+        if(size == paths.length) grow();
+        set(size, title, artist, album, year, genre, comment, path, songId, duration, bitrate, sampleRate, channelMode, vbr,
+            fileSize, lastModified, fingerprint);
+        ids[size] = id;
+        size++;
+    }
+
+    /**
+     * Method appends the row of a song to the end of the columns
+     * @param song the song of the row
+     * @param id the unique id of the song in its playlist, or -1 in the Library
+     */
+    public void add(Song song, int id) {
+        add(song.getTitle(), song.getArtist(), song.getAlbum(), song.getYear(), song.getGenre(), song.getComment(), song.getPath(),
+            id, song.getSongId(), song.getDuration(), song.getBitrate(), song.getSampleRate(), song.getChannelMode(), song.isVbr(),
+            song.getFileSize(), song.getLastModified(), song.getFingerprint());
+    }
+
+    /**
+     * Method replaces the song of a row, keeping its id in the playlist
+     * @param row the index of the row
+     * @param song the new song of the row
+     */
+    public void setSong(int row, Song song) {
+        set(row, song.getTitle(), song.getArtist(), song.getAlbum(), song.getYear(), song.getGenre(), song.getComment(), song.getPath(),
+            song.getSongId(), song.getDuration(), song.getBitrate(), song.getSampleRate(), song.getChannelMode(), song.isVbr(),
+            song.getFileSize(), song.getLastModified(), song.getFingerprint());
+    }
+
+    /**
+     * Method writes the song columns of a row, sharing the strings that many rows have in common
+     */
+    private void set(int row, String title, String artist, String album, String year, int genre, String comment, String path,
+                     int songId, long duration, int bitrate, int sampleRate, String channelMode, boolean vbr, long fileSize,
+                     long lastModified, long fingerprint) {
+        titles[row] = title;
+        artists[row] = StringDictionary.intern(artist);
+        albums[row] = StringDictionary.intern(album);
+        years[row] = StringDictionary.intern(year);
+        genres[row] = genre;
+        comments[row] = comment;
+        paths[row] = path;
+        songIds[row] = songId;
+        durations[row] = duration;
+        bitrates[row] = bitrate;
+        sampleRates[row] = sampleRate;
+        channelModes[row] = StringDictionary.intern(channelMode);
+        vbrs[row] = vbr;
+        fileSizes[row] = fileSize;
+        lastModifieds[row] = lastModified;
+        fingerprints[row] = fingerprint;
+    }
+
+    /**
+     * Method doubles the capacity of every column.
+     */
+    private void grow() {
+        int capacity = paths.length * 2;
+        titles = Arrays.copyOf(titles, capacity);
+        artists = Arrays.copyOf(artists, capacity);
+        albums = Arrays.copyOf(albums, capacity);
+        years = Arrays.copyOf(years, capacity);
+        comments = Arrays.copyOf(comments, capacity);
+        paths = Arrays.copyOf(paths, capacity);
+        genres = Arrays.copyOf(genres, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        songIds = Arrays.copyOf(songIds, capacity);
+        durations = Arrays.copyOf(durations, capacity);
+        bitrates = Arrays.copyOf(bitrates, capacity);
+        sampleRates = Arrays.copyOf(sampleRates, capacity);
+        channelModes = Arrays.copyOf(channelModes, capacity);
+        vbrs = Arrays.copyOf(vbrs, capacity);
+        fileSizes = Arrays.copyOf(fileSizes, capacity);
+        lastModifieds = Arrays.copyOf(lastModifieds, capacity);
+        fingerprints = Arrays.copyOf(fingerprints, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Method builds the Song of a row. The Song shares the strings of the columns
+     * @param row the index of the row
+     * @return the song of the row
+     */
+    public Song getSong(int row) {
+        return new Song(songIds[row], paths[row], titles[row], artists[row], albums[row], years[row], genres[row], comments[row],
+                        durations[row], bitrates[row], sampleRates[row], channelModes[row], vbrs[row], fileSizes[row],
+                        lastModifieds[row], fingerprints[row]);
+    }
+
+    public String getTitle(int row) {
+        return titles[row];
+    }
+
+    public String getArtist(int row) {
+        return artists[row];
+    }
+
+    public String getAlbum(int row) {
+        return albums[row];
+    }
+
+    public String getYear(int row) {
+        return years[row];
+    }
+
+    public int getGenre(int row) {
+        return genres[row];
+    }
+
+    public String getComment(int row) {
+        return comments[row];
+    }
+
+    public String getPath(int row) {
+        return paths[row];
+    }
+
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    public int getSongId(int row) {
+        return songIds[row];
+    }
+
+    // Method returns the length of a row's song in microseconds
+    public long getDuration(int row) {
+        return durations[row];
+    }
+
+    public int getBitrate(int row) {
+        return bitrates[row];
+    }
+
+    public int getSampleRate(int row) {
+        return sampleRates[row];
+    }
+
+    public String getChannelMode(int row) {
+        return channelModes[row];
+    }
+
+    public boolean isVbr(int row) {
+        return vbrs[row];
+    }
+
+    public long getFileSize(int row) {
+        return fileSizes[row];
+    }
+
+    public long getLastModified(int row) {
+        return lastModifieds[row];
+    }
+
+    /**
+     * Method gets the name of a row's genre
+     * @param row the index of the row
+     * @return the genre name displayed in the song table
+     */
+    public String getGenreName(int row) {
+        return Controller.getGenreName(genres[row]);
+    }
+
+    /**
+     * Method gets one cell of the song table without building the whole row
+     * @param row the index of the row
+     * @param column the index of the column in the song table, or of a SongSort.Column after the table's columns
+     * @return the value displayed in the cell
+     */
+    public Object getValue(int row, int column) {
+        switch(column) {
+            case 0: return titles[row];
+            case 1: return artists[row];
+            case 2: return albums[row];
+            case 3: return years[row];
+            case 4: return getGenreName(row);
+            case 5: return comments[row];
+            case 6: return paths[row];
+            case 7: return ids[row];
+            case 8: return durations[row];
+            case 9: return bitrates[row];
+            case 10: return sampleRates[row];
+            case 11: return channelModes[row];
+            case 12: return vbrs[row];
+            case 13: return fileSizes[row];
+            default: return lastModifieds[row];
+        }
+    }
+
+    /**
+     * Method builds one row of the song table
+     * @param row the index of the row
+     * @return array of Objects in the same column order as the song table, followed by
+     * the length, bitrate, sample rate, channel mode, VBR flag, file size and modification time
+     */
+    public Object[] getRow(int row) {
+        return new Object[] {titles[row], artists[row], albums[row], years[row],
+                             getGenreName(row), comments[row], paths[row], ids[row],
+                             durations[row], bitrates[row], sampleRates[row], channelModes[row],
+                             vbrs[row], fileSizes[row], lastModifieds[row]};
+    }
+
+    /**
+     * Method converts the columns into rows, for callers that need a 2D array
+     * @return 2D array containing song info for table in GUI
+     */
+    public Object[][] toObjectArray() {
+        Object[][] songData = new Object[size][];
+        for(int row = 0; row < size; row++)
+            songData[row] = getRow(row);
+        return songData;
+    }
+}
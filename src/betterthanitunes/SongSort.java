@@ -0,0 +1,176 @@
+package betterthanitunes;
+
+import java.util.Comparator;
+import java.util.function.Function;
+
+/**
+ * Class represents the order that a page of songs is read from the database in.
+ * Songs are ordered by one column of the song table, and ties are broken by
+ * songId and then by the song's id in the playlist, so every row has a unique
+ * position that the next page can start after.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class SongSort {
+    public static final SongSort DEFAULT = new SongSort(Column.TITLE, true);
+
+    /**
+     * Enum represents the columns of the song table, in the same order as the table,
+     * followed by the audio metadata stored with each song.
+     */
+    public enum Column {
+        TITLE("title"), ARTIST("artist"), ALBUM("album"), YEAR("yearCreated"),
+        GENRE("genre"), COMMENT("comment"), PATH("path"), ID("songId"),
+        DURATION("duration"), BITRATE("bitrate"), SAMPLE_RATE("sampleRate"), CHANNEL_MODE("channelMode"),
+        VBR("vbr"), FILE_SIZE("fileSize"), LAST_MODIFIED("lastModified");
+
+        private final String databaseColumn;
+
+        private Column(String databaseColumn) {
+            this.databaseColumn = databaseColumn;
+        }
+
+        /**
+         * Method gets the name of the column in the Songs table
+         * @return the column name. The ID column is sorted by songId in the Library
+         */
+        public String getDatabaseColumn() {
+            return databaseColumn;
+        }
+
+        /**
+         * Method gets the column displayed at an index of the song table
+         * @param tableColumn the index of the column in the song table
+         * @return the column at that index
+         */
+        public static Column forTableColumn(int tableColumn) {
+            return values()[tableColumn];
+        }
+    }
+
+    /**
+     * Class represents the position of one row in a sort order: the value of its
+     * sort column, its songId and its id in the playlist (-1 in the Library).
+     */
+    public static class Position {
+        private final Object value;
+        private final int songId, id;
+
+        public Position(Object value, int songId, int id) {
+            this.value = value;
+            this.songId = songId;
+            this.id = id;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public int getSongId() {
+            return songId;
+        }
+
+        public int getId() {
+            return id;
+        }
+    }
+
+    private final Column column;
+    private final boolean ascending;
+
+    /**
+     * Constructor creates a sort order
+     * @param column the column to sort by
+     * @param ascending true to sort from lowest to highest, false for highest to lowest
+     */
+    public SongSort(Column column, boolean ascending) {
+        this.column = column;
+        this.ascending = ascending;
+    }
+
+    public Column getColumn() {
+        return column;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    /**
+     * Method gets the position of a row of songs in this sort order
+     * @param songData the songs containing the row
+     * @param row the index of the row
+     * @return the position of the row, which the next page of songs starts after
+     */
+    public Position positionOf(SongData songData, int row) {
+        Object value;
+        switch(column) {
+            case TITLE: value = songData.getTitle(row); break;
+            case ARTIST: value = songData.getArtist(row); break;
+            case ALBUM: value = songData.getAlbum(row); break;
+            case YEAR: value = songData.getYear(row); break;
+            case GENRE: value = songData.getGenre(row); break;
+            case COMMENT: value = songData.getComment(row); break;
+            case PATH: value = songData.getPath(row); break;
+            case DURATION: value = songData.getDuration(row); break;
+            case BITRATE: value = songData.getBitrate(row); break;
+            case SAMPLE_RATE: value = songData.getSampleRate(row); break;
+            case CHANNEL_MODE: value = songData.getChannelMode(row); break;
+            case VBR: value = songData.isVbr(row); break;
+            case FILE_SIZE: value = songData.getFileSize(row); break;
+            case LAST_MODIFIED: value = songData.getLastModified(row); break;
+            default: value = (songData.getId(row) == -1) ? songData.getSongId(row) : songData.getId(row); break;
+        }
+        return new Position(value, songData.getSongId(row), songData.getId(row));
+    }
+
+    /**
+     * Method gets this sort order as a comparator, to sort songs that are already in
+     * memory the same way the database sorts a page, with ties broken by songId
+     * @return the comparator
+     */
+    public Comparator<Song> comparator() {
+        Comparator<Song> order;
+        switch(column) {
+            case TITLE: order = byText(Song::getTitle); break;
+            case ARTIST: order = byText(Song::getArtist); break;
+            case ALBUM: order = byText(Song::getAlbum); break;
+            case YEAR: order = byText(Song::getYear); break;
+            case GENRE: order = Comparator.comparingInt(Song::getGenre); break;
+            case COMMENT: order = byText(Song::getComment); break;
+            case PATH: order = byText(Song::getPath); break;
+            case DURATION: order = Comparator.comparingLong(Song::getDuration); break;
+            case BITRATE: order = Comparator.comparingInt(Song::getBitrate); break;
+            case SAMPLE_RATE: order = Comparator.comparingInt(Song::getSampleRate); break;
+            case CHANNEL_MODE: order = byText(Song::getChannelMode); break;
+            case VBR: order = Comparator.comparing(Song::isVbr); break;
+            case FILE_SIZE: order = Comparator.comparingLong(Song::getFileSize); break;
+            case LAST_MODIFIED: order = Comparator.comparingLong(Song::getLastModified); break;
+            default: order = Comparator.comparingInt(Song::getSongId); break;
+        }
+        order = order.thenComparingInt(Song::getSongId);
+        return ascending ? order : order.reversed();
+    }
+
+    // Method orders songs by a text field like the database does, which puts nulls after every value
+    private static Comparator<Song> byText(Function<Song, String> field) {
+        return Comparator.comparing(field, Comparator.nullsLast(Comparator.naturalOrder()));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if(!(other instanceof SongSort)) return false;
+        SongSort sort = (SongSort)other;
+        return column == sort.column && ascending == sort.ascending;
+    }
+
+    @Override
+    public int hashCode() {
+        return column.hashCode() * 2 + (ascending ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return column + (ascending ? " ascending" : " descending");
+    }
+}
@@ -0,0 +1,401 @@
+package betterthanitunes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Class is the table model of a song table. Instead of holding every row of a
+ * playlist, it reads the playlist from the database one page at a time as the
+ * table displays rows, keeps a bounded number of recently used pages, and reads
+ * the page after the one being displayed in the background, so opening the Library
+ * costs one count and one page no matter how many songs it has. Sorting is done
+ * by the database, through the row sorter returned by createRowSorter. When values
+ * are selected in the browser, the table instead holds the songs of the Library
+ * that the FacetIndex selected, sorted in memory.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class SongTableModel extends AbstractTableModel {
+    public static final int PAGE_SIZE = 200;
+    private static final int SMALL_PLAYLIST = 1000; // Playlists up to this size are read as one page
+    private static final int MAX_PAGES = 16;
+
+    // One background thread reads ahead for every song table, using a read connection of the pool
+    private static final ExecutorService readAhead = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "Song table read-ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Controller controller;
+    private final String[] columnNames;
+    private String playlistName;
+    private SongSort sort = SongSort.DEFAULT;
+    private int rowCount = 0, pageSize = PAGE_SIZE;
+    private Map<FacetIndex.Facet, String> selection = FacetIndex.newSelection(); // Values selected in the browser
+    private SongData browsed; // The selected songs in display order, or null when nothing is selected
+
+    // Pages are guarded by their own lock because read-ahead adds to them from the background thread
+    private final Map<Integer, SongData> pages = new LinkedHashMap<Integer, SongData>(MAX_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, SongData> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private final Set<Integer> pendingPages = new HashSet<>();
+    private int generation = 0; // Incremented whenever the pages are cleared, so stale read-ahead is dropped
+    private final LatencyStats pageStats = new LatencyStats("Song table pages");
+
+    /**
+     * Constructor creates a table model displaying a playlist sorted by title
+     * @param controller the controller that reads songs from the database
+     * @param columnNames the headers of the song table
+     * @param playlistName the playlist to display
+     */
+    public SongTableModel(Controller controller, String[] columnNames, String playlistName) {
+        this.controller = controller;
+        this.columnNames = columnNames;
+        this.playlistName = playlistName;
+        countRows();
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columnNames[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if(browsed != null) return (row < browsed.size()) ? browsed.getValue(row, column) : "";
+        SongData page = getPage(row / pageSize);
+        int index = row % pageSize;
+        // A page can come back short if songs were deleted since the rows were counted
+        return (index < page.size()) ? page.getValue(index, column) : "";
+    }
+
+    /**
+     * Method gets a page of the playlist, reading it from the database if it isn't loaded.
+     * The page is read after the last row of the previous page when that page is loaded,
+     * otherwise by its offset
+     * @param page the index of the page
+     * @return the songs of the page
+     */
+    private SongData getPage(int page) {
+        SongData songData;
+        SongSort.Position afterKey = null;
+        int pageGeneration;
+        synchronized(pages) {
+            songData = pages.get(page);
+            if(songData == null && page > 0) {
+                SongData previous = pages.get(page - 1);
+                if(previous != null && previous.size() == pageSize)
+                    afterKey = sort.positionOf(previous, pageSize - 1);
+            }
+            pageGeneration = generation;
+        }
+
+        if(songData == null) {
+            long start = System.nanoTime();
+            if(page == 0 || afterKey != null)
+                songData = controller.returnSongs(playlistName, sort, afterKey, pageSize);
+            else
+                songData = controller.returnSongs(playlistName, sort, page * pageSize, pageSize);
+            pageStats.recordSince(start);
+            synchronized(pages) {
+                if(pageGeneration == generation) pages.put(page, songData);
+            }
+        }
+        readAhead(page + 1, songData);
+        return songData;
+    }
+
+    /**
+     * Method reads a page in the background if it isn't loaded or already being read
+     * @param page the index of the page
+     * @param previous the songs of the page before it
+     */
+    private void readAhead(int page, SongData previous) {
+        if(previous.size() < pageSize || page * pageSize >= rowCount) return;
+
+        String playlist;
+        SongSort pageSort;
+        SongSort.Position afterKey;
+        int readSize, pageGeneration;
+        synchronized(pages) {
+            if(pages.containsKey(page) || !pendingPages.add(page)) return;
+            playlist = playlistName;
+            pageSort = sort;
+            readSize = pageSize;
+            afterKey = sort.positionOf(previous, pageSize - 1);
+            pageGeneration = generation;
+        }
+
+        readAhead.execute(() -> {
+            SongData songData = controller.returnSongs(playlist, pageSort, afterKey, readSize);
+            synchronized(pages) {
+                if(pageGeneration == generation) {
+                    pendingPages.remove(page);
+                    pages.put(page, songData);
+                }
+            }
+        });
+    }
+
+    /**
+     * Method changes the playlist displayed by the table
+     * @param playlistName the playlist to display
+     */
+    public void setPlaylist(String playlistName) {
+        this.playlistName = playlistName;
+        selection = FacetIndex.newSelection();
+        refresh();
+    }
+    
+    /**
+     * Method shows the songs of the Library with the values selected in the browser
+     * @param selection the selected value of each facet, or an empty selection for the whole Library
+     */
+    public void setSelection(Map<FacetIndex.Facet, String> selection) {
+        this.selection = new EnumMap<>(FacetIndex.Facet.class);
+        this.selection.putAll(selection);
+        refresh();
+    }
+
+    // Method returns whether the table is showing songs selected in the browser
+    public boolean isBrowsing() {
+        return browsed != null;
+    }
+
+    public String getPlaylist() {
+        return playlistName;
+    }
+
+    public SongSort getSort() {
+        return sort;
+    }
+
+    /**
+     * Method drops every loaded page and counts the playlist's songs again, so the
+     * table shows the playlist as it is now in the database. With values selected in
+     * the browser, the selected songs are found in the FacetIndex again instead
+     */
+    public void refresh() {
+        synchronized(pages) {
+            generation++;
+            pages.clear();
+            pendingPages.clear();
+        }
+        if(selection.isEmpty()) {
+            browsed = null;
+            countRows();
+        }
+        else {
+            ArrayList<Song> songs = controller.getFacetIndex().select(selection);
+            songs.sort(sort.comparator());
+            browsed = new SongData(songs.size());
+            for(Song song : songs)
+                browsed.add(song, -1);
+            rowCount = browsed.size();
+        }
+        fireTableDataChanged();
+    }
+
+    /**
+     * Method counts the rows of the playlist and sizes the pages. A playlist is paged like
+     * the Library when the database reads its pages through an index. A small playlist, or
+     * one the database would have to join and sort in full for every page, is read as one
+     * page, with one query.
+     */
+    private void countRows() {
+        rowCount = controller.countSongs(playlistName);
+        boolean paged = playlistName.equals("Library") || (rowCount > SMALL_PLAYLIST && controller.isIndexed(playlistName, sort));
+        pageSize = paged ? PAGE_SIZE : Math.max(rowCount, 1);
+    }
+
+    /**
+     * Method gets a key of which rows the table displays and in what order: the playlist,
+     * the sort order and the values selected in the browser. Songs added to or deleted
+     * from the playlist don't change it, so the play queue can follow them one by one
+     * @return the key, equal to the key of any table showing the same rows in the same order
+     */
+    public List<Object> getOrderKey() {
+        return Arrays.asList(playlistName, sort, selection);
+    }
+
+    /**
+     * Method gets a reader of the songId of every row in the order they are displayed. It
+     * keeps the playlist and sort order the table has now, so it can be run on another thread
+     * later. The songs selected in the browser are already in memory; a playlist is read with
+     * one query of its songIds, without building any Song
+     * @return the reader
+     */
+    public Supplier<int[]> getSongIdReader() {
+        SongData songData = browsed;
+        if(songData != null) {
+            return () -> {
+                int[] songIds = new int[songData.size()];
+                for(int row = 0; row < songIds.length; row++)
+                    songIds[row] = songData.getSongId(row);
+                return songIds;
+            };
+        }
+        String playlist = playlistName;
+        SongSort idSort = sort;
+        return () -> controller.returnSongIds(playlist, idSort);
+    }
+
+    /**
+     * Method finds the row of a song without loading the pages of the table. Only the
+     * songIds of the rows are read, in the order they are displayed, and searched
+     * @param path the path of the song
+     * @return the row, or -1 if the song isn't in the table
+     */
+    public int findRow(String path) {
+        Song song = controller.getSong(path);
+        if(song == null) return -1;
+        int[] songIds = getSongIdReader().get();
+        for(int row = 0; row < songIds.length; row++) {
+            if(songIds[row] == song.getSongId()) return row;
+        }
+        return -1;
+    }
+
+    /**
+     * Method gets the Song of a row
+     * @param row the index of the row
+     * @return the song, or null if songs were deleted since the rows were counted
+     */
+    public Song getSong(int row) {
+        if(browsed != null) return (row < browsed.size()) ? browsed.getSong(row) : null;
+        SongData page = getPage(row / pageSize);
+        int index = row % pageSize;
+        return (index < page.size()) ? page.getSong(index) : null;
+    }
+
+    /**
+     * Method gets the latency statistics of pages read while the table was waiting
+     * @return the statistics of every page read on the event dispatch thread
+     */
+    public LatencyStats getPageStats() {
+        return pageStats;
+    }
+
+    /**
+     * Method creates a row sorter for the song table. Clicking a column header
+     * changes the order the database returns pages in, so rows are never sorted
+     * in memory and row indexes in the table and the model are the same
+     * @return the row sorter
+     */
+    public RowSorter<SongTableModel> createRowSorter() {
+        return new DatabaseRowSorter();
+    }
+
+    /**
+     * Class sorts the song table by passing the sort order to the table model.
+     */
+    private class DatabaseRowSorter extends RowSorter<SongTableModel> {
+        @Override
+        public SongTableModel getModel() {
+            return SongTableModel.this;
+        }
+
+        @Override
+        public void toggleSortOrder(int column) {
+            boolean ascending = sort.getColumn().ordinal() != column || !sort.isAscending();
+            changeSort(new SongSort(SongSort.Column.forTableColumn(column), ascending));
+        }
+
+        @Override
+        public void setSortKeys(List<? extends SortKey> keys) {
+            if(keys == null || keys.isEmpty() || keys.get(0).getSortOrder() == SortOrder.UNSORTED)
+                changeSort(SongSort.DEFAULT);
+            else
+                changeSort(new SongSort(SongSort.Column.forTableColumn(keys.get(0).getColumn()),
+                                        keys.get(0).getSortOrder() == SortOrder.ASCENDING));
+        }
+
+        @Override
+        public List<? extends SortKey> getSortKeys() {
+            return Collections.singletonList(new SortKey(sort.getColumn().ordinal(),
+                                                         sort.isAscending() ? SortOrder.ASCENDING : SortOrder.DESCENDING));
+        }
+
+        /**
+         * Method reloads the table in a new sort order and updates the sort arrow in the header
+         * @param newSort the new sort order
+         */
+        private void changeSort(SongSort newSort) {
+            if(newSort.equals(sort)) return;
+            sort = newSort;
+            fireSortOrderChanged();
+            refresh();
+        }
+
+        @Override
+        public int convertRowIndexToModel(int index) {
+            return index;
+        }
+
+        @Override
+        public int convertRowIndexToView(int index) {
+            return index;
+        }
+
+        @Override
+        public int getViewRowCount() {
+            return rowCount;
+        }
+
+        @Override
+        public int getModelRowCount() {
+            return rowCount;
+        }
+
+        // The database keeps the rows in order, so changes to the model need no sorting here
+        @Override
+        public void modelStructureChanged() {}
+
+        @Override
+        public void allRowsChanged() {}
+
+        @Override
+        public void rowsInserted(int firstRow, int endRow) {}
+
+        @Override
+        public void rowsDeleted(int firstRow, int endRow) {}
+
+        @Override
+        public void rowsUpdated(int firstRow, int endRow) {}
+
+        @Override
+        public void rowsUpdated(int firstRow, int endRow, int column) {}
+    }
+}
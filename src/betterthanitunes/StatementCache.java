@@ -0,0 +1,107 @@
+package betterthanitunes;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.PreparedStatement;
+
+/**
+ * Class caches the prepared statements of one database connection, keyed
+ * by their SQL text, so repeated queries skip Derby's statement compilation.
+ * Once the cache is full, the least recently used statement is closed.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class StatementCache {
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private final Connection connection;
+    private final int capacity;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private long hits = 0, misses = 0, evictions = 0;
+
+    /**
+     * Constructor creates an empty cache for a connection
+     * @param connection the connection that statements are prepared on
+     * @param capacity the maximum number of statements kept open
+     */
+    public StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.capacity = capacity;
+
+        // Access-ordered map, so the eldest entry is always the least recently used statement
+        statements = new LinkedHashMap<String, PreparedStatement>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if(size() <= StatementCache.this.capacity) return false;
+                closeStatement(eldest.getValue());
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Method returns the cached statement for a query, preparing it on a miss
+     * @param query the SQL text of the statement
+     * @return a prepared statement that is ready to have its parameters set
+     * @throws SQLException if the statement could not be prepared
+     */
+    public synchronized PreparedStatement prepare(String query) throws SQLException {
+        PreparedStatement statement = statements.get(query);
+        if(statement != null) {
+            hits++;
+            statement.clearParameters();
+            return statement;
+        }
+
+        misses++;
+        statement = connection.prepareStatement(query);
+        statements.put(query, statement);
+        return statement;
+    }
+
+    /**
+     * Method closes and removes every statement in the cache.
+     */
+    public synchronized void clear() {
+        for(PreparedStatement statement : statements.values())
+            closeStatement(statement);
+        statements.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return statements.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Statement cache: " + hits + " hits, " + misses + " misses, " +
+                evictions + " evictions, " + statements.size() + "/" + capacity + " open";
+    }
+
+    /**
+     * Method closes a statement that is being thrown away
+     * @param statement the statement to close
+     */
+    private void closeStatement(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch(SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
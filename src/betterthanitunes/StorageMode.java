@@ -0,0 +1,56 @@
+package betterthanitunes;
+
+/**
+ * Enum represents the ways the application can reach its Derby database.
+ * EMBEDDED runs the database inside the application's process, while
+ * NETWORK connects to a Derby network server on localhost.
+ * The mode is chosen at startup with -Dbetterthanitunes.storage=embedded|network
+ * and the connection URL can be overridden with -Dbetterthanitunes.url=...
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public enum StorageMode {
+    EMBEDDED("org.apache.derby.jdbc.EmbeddedDriver", "jdbc:derby:BetterThaniTunes"),
+    NETWORK("org.apache.derby.jdbc.ClientDriver", "jdbc:derby://localhost:1527/BetterThaniTunes");
+
+    public static final String MODE_PROPERTY = "betterthanitunes.storage";
+    public static final String URL_PROPERTY = "betterthanitunes.url";
+
+    private final String driver;
+    private final String defaultUrl;
+
+    private StorageMode(String driver, String defaultUrl) {
+        this.driver = driver;
+        this.defaultUrl = defaultUrl;
+    }
+
+    /**
+     * Method gets the class name of the JDBC driver for the mode
+     * @return the fully qualified name of the driver class
+     */
+    public String getDriver() {
+        return driver;
+    }
+
+    /**
+     * Method gets the URL of the database, without any connection attributes
+     * @return the URL set by the betterthanitunes.url property, or the mode's default URL
+     */
+    public String getUrl() {
+        return System.getProperty(URL_PROPERTY, defaultUrl);
+    }
+
+    /**
+     * Method gets the storage mode selected by the betterthanitunes.storage property
+     * @return the selected mode. EMBEDDED if the property is missing or not recognized
+     */
+    public static StorageMode fromSystemProperty() {
+        String mode = System.getProperty(MODE_PROPERTY, "embedded");
+        for(StorageMode storageMode : values()) {
+            if(storageMode.name().equalsIgnoreCase(mode.trim()))
+                return storageMode;
+        }
+        System.out.println("\nUnknown storage mode " + mode + ", using " + EMBEDDED);
+        return EMBEDDED;
+    }
+}
@@ -0,0 +1,36 @@
+package betterthanitunes;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Class keeps one copy of each string that many songs have in common: artist,
+ * album, year and channel mode. A large Library has far fewer artists and albums
+ * than songs, so songs read from the database or from files share these strings
+ * instead of each holding copies of its own. Strings are never removed, so only
+ * fields with few different values may be kept here. Fields that are mostly
+ * different for every song, such as titles and comments, would make the
+ * dictionary grow with every song and every edit.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class StringDictionary {
+    private static final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+
+    private StringDictionary() {}
+
+    /**
+     * Method gets the shared copy of a string, adding it if it is new
+     * @param value the string
+     * @return a string equal to value that every caller shares, or null if value is null
+     */
+    public static String intern(String value) {
+        if(value == null) return null;
+        String shared = strings.putIfAbsent(value, value);
+        return (shared != null) ? shared : value;
+    }
+
+    // Method returns the number of different strings kept
+    public static int size() {
+        return strings.size();
+    }
+}
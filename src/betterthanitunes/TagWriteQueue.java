@@ -0,0 +1,209 @@
+package betterthanitunes;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class writes tag changes to files in the background, so editing a song never
+ * waits for the disk. Changes to a file are collected for a short time, and any
+ * further change to the same file before it is written is merged into the
+ * pending one, so editing several cells of a song writes its file once.
+ * After a file is written the Controller records its new size and modification
+ * time, so a rescan doesn't read the file again.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class TagWriteQueue {
+    public static final long WRITE_DELAY_MS = 500; // How long changes to a file are collected before it is written
+
+    /**
+     * Class holds the changes waiting to be written to one file.
+     */
+    private static class PendingTags {
+        private final TagWriter.Tags tags = new TagWriter.Tags();
+        private final long queuedAt = System.currentTimeMillis();
+    }
+
+    private final Controller controller;
+    private final Thread writer;
+    // Files waiting to be written, oldest first
+    private final LinkedHashMap<String, PendingTags> pending = new LinkedHashMap<>();
+    private long queued = 0, coalesced = 0, inPlace = 0, rewritten = 0, failed = 0;
+    private boolean flushRequested = false, writing = false, closed = false;
+    private final LatencyStats inPlaceStats = new LatencyStats("Tag writes in place");
+    private final LatencyStats rewriteStats = new LatencyStats("Tag writes with a rewrite");
+
+    /**
+     * Constructor starts the thread that writes the queued changes
+     * @param controller the controller told about every file written
+     */
+    public TagWriteQueue(Controller controller) {
+        this.controller = controller;
+        writer = new Thread(this::writeLoop, "Tag writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Method queues a change to a file's tags, merging it with the changes already waiting for that file
+     * @param path the path of the file
+     * @param column the column of the changed field in the song table (0 - 5)
+     * @param value the new value
+     * @return true if the change was queued. False if the queue has been closed
+     */
+    public synchronized boolean submit(String path, int column, Object value) {
+        if(closed) {
+            System.out.println("\nThe tag writer is closed, a change to " + path + " was discarded");
+            return false;
+        }
+        PendingTags pendingTags = pending.get(path);
+        if(pendingTags == null) {
+            pendingTags = new PendingTags();
+            pending.put(path, pendingTags);
+        }
+        else coalesced++;
+        pendingTags.tags.set(column, value);
+        queued++;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Method waits until every queued change has been written.
+     */
+    public synchronized void flush() {
+        if(Thread.currentThread() == writer) return;
+        try {
+            while((!pending.isEmpty() || writing) && writer.isAlive()) {
+                flushRequested = true;
+                notifyAll();
+                wait(WRITE_DELAY_MS);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Method writes every queued change and stops the queue's thread. Changes submitted afterward are discarded
+     * @param timeoutMillis the longest time to wait for the changes to be written
+     * @return true if every change was written in time. Otherwise, false
+     */
+    public boolean close(long timeoutMillis) {
+        synchronized(this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join(timeoutMillis);
+        } catch(InterruptedException e) {
+            e.printStackTrace();
+        }
+        System.out.println("\n" + this);
+        return !writer.isAlive();
+    }
+
+    /**
+     * Method is run by the queue's thread. It writes each file once its oldest
+     * change has waited WRITE_DELAY_MS, or right away when flushed or closed
+     */
+    private void writeLoop() {
+        while(true) {
+            String path;
+            TagWriter.Tags tags;
+            synchronized(this) {
+                try {
+                    while(true) {
+                        if(pending.isEmpty()) {
+                            if(closed) return;
+                            flushRequested = false;
+                            wait();
+                            continue;
+                        }
+                        long remaining = pending.values().iterator().next().queuedAt + WRITE_DELAY_MS - System.currentTimeMillis();
+                        if(remaining <= 0 || flushRequested || closed) break;
+                        wait(remaining);
+                    }
+                } catch(InterruptedException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                Iterator<Map.Entry<String, PendingTags>> oldest = pending.entrySet().iterator();
+                Map.Entry<String, PendingTags> entry = oldest.next();
+                oldest.remove();
+                path = entry.getKey();
+                tags = entry.getValue().tags;
+                writing = true;
+            }
+
+            long start = System.nanoTime();
+            TagWriter.Result result = null;
+            try {
+                result = TagWriter.write(path, tags);
+                controller.tagsWritten(path);
+            } catch(IOException e) {
+                System.out.println("\nUnable to write the tags of " + path);
+                e.printStackTrace();
+            }
+            long nanos = System.nanoTime() - start;
+
+            synchronized(this) {
+                if(result == TagWriter.Result.IN_PLACE) {
+                    inPlace++;
+                    inPlaceStats.record(nanos);
+                }
+                else if(result == TagWriter.Result.REWRITTEN) {
+                    rewritten++;
+                    rewriteStats.record(nanos);
+                }
+                else failed++;
+                writing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Method gets the number of files waiting to be written
+     * @return the depth of the queue
+     */
+    public synchronized int getDepth() {
+        return pending.size();
+    }
+
+    /**
+     * Method gets the number of changes merged into a change already waiting for the same file
+     * @return the number of changes that didn't need a write of their own
+     */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    public synchronized long getInPlace() {
+        return inPlace;
+    }
+
+    public synchronized long getRewritten() {
+        return rewritten;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    public LatencyStats getInPlaceStats() {
+        return inPlaceStats;
+    }
+
+    public LatencyStats getRewriteStats() {
+        return rewriteStats;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Tag writer: " + queued + " changes, " + coalesced + " coalesced, " + inPlace + " files written in place, " +
+               rewritten + " rewritten, " + failed + " failed, depth " + pending.size() + "\n" + inPlaceStats + "\n" + rewriteStats;
+    }
+}
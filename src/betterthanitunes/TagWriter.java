@@ -0,0 +1,305 @@
+package betterthanitunes;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import com.mpatric.mp3agic.AbstractID3v2Tag;
+import com.mpatric.mp3agic.ID3v1;
+import com.mpatric.mp3agic.ID3v1Tag;
+import com.mpatric.mp3agic.ID3v24Tag;
+import com.mpatric.mp3agic.ID3v2TagFactory;
+import com.mpatric.mp3agic.InvalidDataException;
+import com.mpatric.mp3agic.NoSuchTagException;
+import com.mpatric.mp3agic.NotSupportedException;
+import com.mpatric.mp3agic.UnsupportedTagException;
+
+/**
+ * Class writes tag changes to MP3 files. The ID3v2 tag at the start of the file
+ * is rewritten in place when the new tag fits in the space of the old one,
+ * including its padding, so only the tag's bytes are written however large the
+ * file is. Otherwise the file is copied to a temporary file with the new tag and
+ * room to grow, and renamed over the original, so the file is never left half
+ * written. An ID3v1 tag at the end of the file is updated too.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class TagWriter {
+    public static final int PADDING = 4096; // Room left after a rewritten tag, so later changes fit in place
+    private static final int ID3V1_LENGTH = 128;
+
+    /**
+     * Enum represents how a file's tags were written.
+     */
+    public enum Result {
+        IN_PLACE,  // Only the tag's bytes were written
+        REWRITTEN  // The file was copied with a larger tag
+    }
+
+    /**
+     * Class holds the tag fields to write, using the columns of the song table.
+     * Fields that are null, or a genre of -1, are left as they are in the file.
+     */
+    public static class Tags {
+        private String title, artist, album, year, comment;
+        private int genre = -1;
+
+        // Constructor creates an empty set of changes
+        public Tags() {
+        }
+
+        /**
+         * Constructor creates changes that set every field to a song's values
+         * @param song the song
+         */
+        public Tags(Song song) {
+            title = song.getTitle();
+            artist = song.getArtist();
+            album = song.getAlbum();
+            year = song.getYear();
+            genre = song.getGenre();
+            comment = song.getComment();
+        }
+
+        /**
+         * Method sets a field, replacing an earlier change to it
+         * @param column the column of the field in the song table (0 - 5)
+         * @param value the new value
+         */
+        public void set(int column, Object value) {
+            switch(column) {
+                case 0: title = value.toString(); break;
+                case 1: artist = value.toString(); break;
+                case 2: album = value.toString(); break;
+                case 3: year = value.toString(); break;
+                case 4: genre = genreNumber(value); break;
+                case 5: comment = value.toString(); break;
+                default: throw new IllegalArgumentException("Column " + column + " is not a tag");
+            }
+        }
+
+        /**
+         * Method copies the fields of newer changes over these ones
+         * @param newer the newer changes
+         */
+        public void merge(Tags newer) {
+            if(newer.title != null) title = newer.title;
+            if(newer.artist != null) artist = newer.artist;
+            if(newer.album != null) album = newer.album;
+            if(newer.year != null) year = newer.year;
+            if(newer.genre != -1) genre = newer.genre;
+            if(newer.comment != null) comment = newer.comment;
+        }
+
+        /**
+         * Method sets the changed fields of a tag
+         * @param tag the tag to change
+         */
+        public void applyTo(ID3v1 tag) {
+            if(title != null) tag.setTitle(title);
+            if(artist != null) tag.setArtist(artist);
+            if(album != null) tag.setAlbum(album);
+            if(year != null) tag.setYear(year);
+            if(genre != -1) tag.setGenre(genre);
+            if(comment != null) tag.setComment(comment);
+        }
+
+        /**
+         * Method converts a genre from the song table to its number
+         * @param value the genre number, or the name of one of Controller.genres
+         * @return the genre number, or -1 if it isn't known
+         */
+        public static int genreNumber(Object value) {
+            if(value instanceof Number) return ((Number)value).intValue();
+            try {
+                return Integer.parseInt(value.toString());
+            } catch(NumberFormatException e) {
+                return Controller.genres.indexOf(value.toString());
+            }
+        }
+    }
+
+    private TagWriter() {}
+
+    /**
+     * Method determines whether tags can be written to a file. Only MP3 files have ID3 tags,
+     * so changes to FLAC and Ogg Vorbis songs are only kept in the Library
+     * @param path the path of the file
+     * @return true unless the file's extension belongs to another format
+     */
+    public static boolean canWrite(String path) {
+        MetadataReader reader = MetadataReaders.forName(path);
+        return reader == null || reader instanceof Mp3TagReader;
+    }
+
+    /**
+     * Method writes tag changes to a file
+     * @param path the path of the MP3 file
+     * @param tags the changes
+     * @return whether the tag was written in place or the file rewritten
+     * @throws IOException if the file couldn't be written or isn't an MP3 file. The file is unchanged
+     */
+    public static Result write(String path, Tags tags) throws IOException {
+        Path file = Paths.get(path);
+        byte[] tagBytes;
+        int oldTagLength = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MetadataReader reader = MetadataReaders.forFile(path, channel);
+            if(!(reader instanceof Mp3TagReader)) throw new IOException("Unable to write ID3 tags to " + reader.getFormat() + " file " + path);
+            AbstractID3v2Tag id3v2Tag = null;
+            ByteBuffer head = Mp3TagReader.read(channel, 0, 10);
+            if(head.remaining() == 10 && head.get(0) == 'I' && head.get(1) == 'D' && head.get(2) == '3') {
+                oldTagLength = 10 + Mp3TagReader.syncsafeInt(head, 6) + (((head.get(5) & 0x10) != 0) ? 10 : 0);
+                try {
+                    id3v2Tag = ID3v2TagFactory.createTag(Mp3TagReader.toArray(Mp3TagReader.read(channel, 0, oldTagLength)));
+                } catch(NoSuchTagException | UnsupportedTagException | InvalidDataException e) {
+                    System.out.println("\nReplacing the unreadable ID3v2 tag of " + path + ": " + e.getMessage());
+                }
+            }
+
+            // Frames that aren't changed, such as album art, are kept. A file without a tag gets an ID3v2.4 tag,
+            // starting from its ID3v1 tag so the fields that weren't changed don't disappear behind the new tag
+            if(id3v2Tag == null) {
+                id3v2Tag = new ID3v24Tag();
+                ID3v1Tag id3v1Tag = readId3v1Tag(channel);
+                if(id3v1Tag != null) copyFields(id3v1Tag, id3v2Tag);
+            }
+            tags.applyTo(id3v2Tag);
+            id3v2Tag.setPadding(false);
+            id3v2Tag.setFooter(false);
+            try {
+                tagBytes = id3v2Tag.toBytes();
+            } catch(NotSupportedException e) {
+                throw new IOException("Unable to write the tag of " + path, e);
+            }
+
+            if(oldTagLength > 0 && tagBytes.length <= oldTagLength) {
+                // The rest of the old tag's space becomes padding, and the audio isn't touched
+                writeFully(channel, paddedTag(tagBytes, oldTagLength), 0);
+                writeId3v1Tag(channel, tags);
+                channel.force(false);
+                return Result.IN_PLACE;
+            }
+        }
+
+        rewrite(file, paddedTag(tagBytes, tagBytes.length + PADDING), oldTagLength, tags);
+        return Result.REWRITTEN;
+    }
+
+    /**
+     * Method copies a file with a new ID3v2 tag to a temporary file in the same
+     * folder, then renames it over the original in one step
+     * @param file the file
+     * @param tag the new tag, including its padding
+     * @param oldTagLength the length of the file's old ID3v2 tag, which isn't copied
+     * @param tags the changes, for the file's ID3v1 tag
+     * @throws IOException if the file couldn't be rewritten. The original is unchanged
+     */
+    private static void rewrite(Path file, ByteBuffer tag, int oldTagLength, Tags tags) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "." + file.getFileName(), ".tmp");
+        try {
+            try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                while(tag.hasRemaining())
+                    target.write(tag);
+
+                // transferTo lets the operating system copy the audio without passing it through the heap
+                long audioLength = source.size() - oldTagLength, copied = 0;
+                while(copied < audioLength) {
+                    long count = source.transferTo(oldTagLength + copied, audioLength - copied, target);
+                    if(count <= 0) throw new IOException(file + " changed while it was being rewritten");
+                    copied += count;
+                }
+                writeId3v1Tag(target, tags);
+                target.force(true);
+            }
+            try {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(file));
+            } catch(UnsupportedOperationException e) {
+                // Not a POSIX file system, so the temporary file already has the usual permissions
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Method updates the ID3v1 tag at the end of a file, if it has one
+     * @param channel the open file
+     * @param tags the changes
+     * @throws IOException if the file couldn't be read or written
+     */
+    private static void writeId3v1Tag(FileChannel channel, Tags tags) throws IOException {
+        ID3v1Tag id3v1Tag = readId3v1Tag(channel);
+        if(id3v1Tag == null) return;
+        tags.applyTo(id3v1Tag);
+        writeFully(channel, ByteBuffer.wrap(id3v1Tag.toBytes()), channel.size() - ID3V1_LENGTH);
+    }
+
+    /**
+     * Method reads the ID3v1 tag at the end of a file
+     * @param channel the open file
+     * @return the tag, or null if the file doesn't have one
+     * @throws IOException if the file couldn't be read
+     */
+    private static ID3v1Tag readId3v1Tag(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if(size < ID3V1_LENGTH) return null;
+        byte[] tail = Mp3TagReader.toArray(Mp3TagReader.read(channel, size - ID3V1_LENGTH, ID3V1_LENGTH));
+        if(tail[0] != 'T' || tail[1] != 'A' || tail[2] != 'G') return null;
+        try {
+            return new ID3v1Tag(tail);
+        } catch(NoSuchTagException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method copies the fields of one tag to another
+     * @param from the tag to copy
+     * @param to the tag to change
+     */
+    private static void copyFields(ID3v1 from, ID3v1 to) {
+        to.setTitle(from.getTitle());
+        to.setArtist(from.getArtist());
+        to.setAlbum(from.getAlbum());
+        to.setYear(from.getYear());
+        to.setGenre(from.getGenre());
+        to.setComment(from.getComment());
+    }
+
+    /**
+     * Method pads a tag with zeros and sets the size in its header to include the padding
+     * @param tagBytes the tag without padding
+     * @param length the length of the tag with its padding
+     * @return buffer holding the padded tag
+     */
+    private static ByteBuffer paddedTag(byte[] tagBytes, int length) {
+        byte[] padded = new byte[length];
+        System.arraycopy(tagBytes, 0, padded, 0, tagBytes.length);
+        int size = length - 10;
+        padded[6] = (byte)((size >> 21) & 0x7F);
+        padded[7] = (byte)((size >> 14) & 0x7F);
+        padded[8] = (byte)((size >> 7) & 0x7F);
+        padded[9] = (byte)(size & 0x7F);
+        return ByteBuffer.wrap(padded);
+    }
+
+    /**
+     * Method writes all of a buffer at a position of a file
+     * @param channel the open file
+     * @param buffer the bytes to write
+     * @param position where to write them
+     * @throws IOException if the file couldn't be written
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+    }
+}
@@ -41,19 +41,21 @@ import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JSlider;
+import javax.swing.JSplitPane;
 import javax.swing.JTable;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.JTextPane;
 import javax.swing.JTree;
 import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import javax.swing.event.TreeSelectionEvent;
 import javax.swing.event.TreeSelectionListener;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.StyledDocument;
@@ -77,7 +79,8 @@ public class View extends JFrame {
     private JScrollPane songTableScrollPane, playlistTreeScrollPane;
     private JTable songTable;
     private JTree playlistTree;
-    private DefaultTableModel tableModel;
+    private SongTableModel tableModel;
+    private FacetBrowser facetBrowser; // Only the main window browses the Library
     private DefaultTreeModel treeModel;
     private JButton play, stop, pause_resume, next, previous;
     private JMenu showRecentlyPlayed;
@@ -92,9 +95,13 @@ public class View extends JFrame {
     private final Controller controller;
     private String currentPlaylist;
     private final String[] tableHeaders = {"Title", "Artist", "Album", "Year", "Genre", "Comment", "Path", "ID"};
-    private Object[][] songData;
     private boolean disableTableModelListener = false;
     private JProgressBar progressBar;
+    private Timer progressTimer; // Samples the ProgressBus of the controller
+    private long progressDrawn = ProgressBus.NOTHING_PLAYING;
+    private final char[] playedTime = new char[ProgressBus.TIME_LENGTH], remainingTime = new char[ProgressBus.TIME_LENGTH];
+    private final char[] timeBuffer = new char[ProgressBus.TIME_LENGTH];
+    private int playedLength = 0, remainingLength = 0;
     
     /**
      * Default constructor creates a BetterThaniTunes
@@ -202,24 +209,32 @@ public class View extends JFrame {
         shuffleOption.setSelected(shuffled);
     }
     
+    /**
+     * Method adds a song to the top of the Play Recent menu, removing the
+     * oldest songs once the menu holds more than the controller remembers
+     * @param songName the name of the song that was just played
+     */
+    public void addRecentlyPlayedSong(String songName) {
+        JMenuItem menuSong = new JMenuItem(songName);
+        menuSong.addActionListener(new recentlyPlayedSongListener());
+        showRecentlyPlayed.insert(menuSong, 0);
+        while(showRecentlyPlayed.getItemCount() > Controller.RECENTLY_PLAYED_SIZE)
+            showRecentlyPlayed.remove(showRecentlyPlayed.getItemCount() - 1);
+    }
+    
     /**
      * Method updates a window to display the songs in that window's current playlist
      * @param playlistName the playlist that the window is currently displaying
      */
     public void updateSongTableView(String playlistName) {
         disableTableModelListener = true;
-        // Clear the table of all existing rows
-        for(int row = tableModel.getRowCount() - 1; row >= 0; row--)
-            tableModel.removeRow(row);
-        
-        // Get all rows from the database and add them back to the table
-        Object[][] data = controller.returnAllSongs(playlistName);
-        for(int i = 0; i < data.length; i++)
-            tableModel.addRow(new Object[] {data[i][0], data[i][1], data[i][2],data[i][3],
-                                            data[i][4], data[i][5], data[i][6], data[i][7]});
-        
-        // Update tableModel to alert table that new rows have been added
-        tableModel.fireTableDataChanged();
+        // Count the playlist's songs and drop any loaded pages, the table reads the rows it displays.
+        // Refreshing the playlist already displayed keeps the values selected in the browser
+        if(playlistName.equals(tableModel.getPlaylist())) tableModel.refresh();
+        else {
+            tableModel.setPlaylist(playlistName);
+            if(facetBrowser != null) facetBrowser.setPlaylist(playlistName);
+        }
         disableTableModelListener = false;
     }
     
@@ -323,15 +338,27 @@ public class View extends JFrame {
     public void addSong(Song song, String playlistName) {
         // If adding the song to the controller returns true...
         if(controller.addSong(song, playlistName)) {
-            // Create a new row with the song's attributes
-            Object[] rowData = {song.getTitle(),song.getArtist(),song.getAlbum(),song.getYear(),
-                                controller.genres.get(song.getGenre()),song.getComment(),song.getPath(), -1};
-            tableModel.addRow(rowData); // Add the row to the playlist table
+            tableModel.refresh(); // Reload the playlist table, which now includes the song
             // Update all playlists displaying the playlist that the song was just added to
             BetterThaniTunes.updateWindows(currentPlaylist);
         }
     }
     
+    /**
+     * Method gets the Song objects of rows selected in the song table
+     * @param rows the indexes of the selected rows, as displayed in the table
+     * @return list of the selected songs
+     */
+    private ArrayList<Song> getSelectedSongs(int[] rows) {
+        ArrayList<Song> songs = new ArrayList<>();
+        for(int row : rows) {
+            // The table's Songs are the ones the Controller uses, so no song is read again
+            Song song = tableModel.getSong(songTable.convertRowIndexToModel(row));
+            if(song != null) songs.add(song);
+        }
+        return songs;
+    }
+    
     /**
      * Class defines behavior for when the user adds a new
      * song by selecting the option in the menu bar.
@@ -343,21 +370,14 @@ public class View extends JFrame {
             if(returnValue == JFileChooser.APPROVE_OPTION) {
                 // Get all files that user selected in the file chooser window
                 File[] files = fileChooser.getSelectedFiles();
+                ArrayList<Song> songs = new ArrayList<>();
                 for(File file : files) {
-                    // Create a Song object from the file
-                    Song song = new Song(file.getPath());
                     // If the song already exists in the library, don't do anything
-                    if(!controller.songExists(song.getPath())) {
-                        // Else, add it to the library and the current playlist
-                        if(controller.addSong(song, currentPlaylist)) {
-                            Object[] rowData = {song.getTitle(),song.getArtist(),song.getAlbum(),song.getYear(),controller.genres.get(song.getGenre()),song.getComment()};
-                            disableTableModelListener = true;
-                            tableModel.addRow(rowData);
-                            disableTableModelListener = false;
-                        }
-                    }
+                    if(!controller.songExists(file.getPath()))
+                        songs.add(new Song(file.getPath())); // Else, add it to the library and the current playlist
                 }
-                // Update all playlists displaying the playlist that the song was just added to
+                controller.addSongs(songs, currentPlaylist);
+                // Update all playlists displaying the playlist that the songs were just added to
                 BetterThaniTunes.updateWindows(currentPlaylist);
                 // If the main application window was displaying the library playlist, refresh that table
                 if(BetterThaniTunes.getView(0).getCurrentPlaylist().equals("Library"))
@@ -366,6 +386,96 @@ public class View extends JFrame {
         }
     }
     
+    /**
+     * Class defines behavior for when the user imports a folder by selecting
+     * the option in the menu bar. The folder is imported in the background
+     * while a window shows the progress.
+     */
+    class importFolderListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            JFileChooser folderChooser = new JFileChooser();
+            folderChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if(folderChooser.showOpenDialog(framePanel) == JFileChooser.APPROVE_OPTION) {
+                int skip = JOptionPane.showConfirmDialog(framePanel, "Skip songs whose audio is already in the Library under another path?",
+                                                         "Import folder", JOptionPane.YES_NO_CANCEL_OPTION);
+                if(skip == JOptionPane.CANCEL_OPTION || skip == JOptionPane.CLOSED_OPTION) return;
+                new ImportDialog(View.this, controller.importFolder(folderChooser.getSelectedFile(), currentPlaylist,
+                                                                    skip == JOptionPane.YES_OPTION));
+            }
+        }
+    }
+    
+    /**
+     * Class defines behavior for when the user rescans the library from the menu bar.
+     * Only files whose size or modification time changed are read again, on a
+     * background thread, and the windows are refreshed when it finishes.
+     */
+    class rescanLibraryListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            Thread rescan = new Thread(() -> {
+                LibraryScanner.Result result = controller.rescanLibrary();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(framePanel, "Library rescanned: " + result));
+            }, "Library rescan");
+            rescan.setDaemon(true);
+            rescan.start();
+        }
+    }
+    
+    /**
+     * Class defines behavior for when the user chooses a folder to watch from the menu bar.
+     * Songs added, changed or removed in the folder are applied to the library as it happens.
+     */
+    class watchFolderListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            JFileChooser folderChooser = new JFileChooser();
+            folderChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if(folderChooser.showOpenDialog(framePanel) == JFileChooser.APPROVE_OPTION) {
+                if(!controller.watchFolder(folderChooser.getSelectedFile()))
+                    JOptionPane.showMessageDialog(framePanel, "Unable to watch " + folderChooser.getSelectedFile());
+            }
+        }
+    }
+    
+    /**
+     * Class defines behavior for when the user stops watching a folder from the menu bar.
+     */
+    class stopWatchingListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            controller.stopWatching();
+        }
+    }
+    
+    /**
+     * Class defines behavior for when the user looks for duplicate songs from the menu bar.
+     * Songs without a fingerprint are fingerprinted on a background thread first,
+     * then the duplicates are listed in a scrollable window.
+     */
+    class findDuplicatesListener implements ActionListener {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            Thread finder = new Thread(() -> {
+                DuplicateFinder.Report report = controller.findDuplicates();
+                StringBuilder text = new StringBuilder(report.toString()).append("\n");
+                for(List<String> group : report.getGroups()) {
+                    text.append("\n");
+                    for(String path : group)
+                        text.append(path).append("\n");
+                }
+                SwingUtilities.invokeLater(() -> {
+                    JTextArea duplicates = new JTextArea(text.toString(), 20, 80);
+                    duplicates.setEditable(false);
+                    JOptionPane.showMessageDialog(framePanel, new JScrollPane(duplicates), "Duplicate songs", JOptionPane.INFORMATION_MESSAGE);
+                });
+            }, "Find duplicates");
+            finder.setDaemon(true);
+            finder.start();
+        }
+    }
+    
     /**
      * Class defines behavior for when user selects one or more songs and
      * deletes them from the option in the menu bar or the popup menu after
@@ -386,20 +496,25 @@ public class View extends JFrame {
                 // Get user confirmation or denial
                 int optionSelection = JOptionPane.showConfirmDialog(framePanel, message);
                 if(optionSelection == JOptionPane.YES_OPTION) {
-                    for(int row = rows.length-1; row >= 0; row--) {
-                        Song song = new Song(songTable.getValueAt(rows[row], 6).toString());
-                        // Remove each song from the database and the current window's playlist table
-                        if(controller.deleteSong(song, currentPlaylist, (int)songTable.getValueAt(rows[row],7))) {
-                            disableTableModelListener = true;
-                            tableModel.removeRow(rows[row]);
-                            disableTableModelListener = false;
-                        }
+                    ArrayList<String> paths = new ArrayList<>();
+                    ArrayList<Integer> ids = new ArrayList<>();
+                    for(int row = 0; row < rows.length; row++) {
+                        int modelRow = songTable.convertRowIndexToModel(rows[row]);
+                        paths.add(tableModel.getValueAt(modelRow, 6).toString());
+                        ids.add((int)tableModel.getValueAt(modelRow, 7));
+                    }
+                    
+                    // Remove all songs from the database, then from the current window's playlist table
+                    if(controller.deleteSongs(paths, ids, currentPlaylist)) {
+                        disableTableModelListener = true;
+                        tableModel.refresh();
+                        disableTableModelListener = false;
+                        // Update all the other windows
+                        if(currentPlaylist.equals("Library"))
+                            BetterThaniTunes.updateAllWindows(View.this);
+                        else
+                            BetterThaniTunes.updateWindows(View.this, currentPlaylist);
                     }
-                    // Update all the other windows
-                    if(currentPlaylist.equals("Library"))
-                        BetterThaniTunes.updateAllWindows();
-                    else
-                        BetterThaniTunes.updateWindows(currentPlaylist);
                 }
             }
         }
@@ -491,12 +606,8 @@ public class View extends JFrame {
                 if(controller.addPlaylist(playlistName)) {
                     // Add all selected songs to that playlist
                     int[] rows = songTable.getSelectedRows();
-                    if(rows.length > 0) {
-                        for(int row = 0; row < rows.length; row++) {
-                            Song song = new Song(tableModel.getValueAt(rows[row], 6).toString());
-                            controller.addSong(song, playlistName);
-                        }
-                    }
+                    if(rows.length > 0)
+                        controller.addSongs(getSelectedSongs(rows), playlistName);
                     
                     // Create new playlist node and add it to the playlist tree
                     DefaultMutableTreeNode playlist = new DefaultMutableTreeNode(playlistName);
@@ -512,6 +623,24 @@ public class View extends JFrame {
         }
     }
     
+    /**
+     * Class defines behavior for when user queues the selected songs
+     * to play after the song playing, from the popup menu.
+     */
+    class queueSongsListener implements ActionListener {
+        private final boolean next; // Whether the songs play before the songs already queued
+        
+        queueSongsListener(boolean next) {
+            this.next = next;
+        }
+        
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            int[] rows = songTable.getSelectedRows();
+            if(rows.length > 0) controller.queueSongs(getSelectedSongs(rows), next);
+        }
+    }
+    
     /**
      * Class defines behavior for when user adds a
      * selection of songs to an existing playlist.
@@ -524,10 +653,7 @@ public class View extends JFrame {
             int[] rows = songTable.getSelectedRows();
             if(rows.length > 0) {
                 // Add those songs to the playlist
-                for(int row = 0; row < rows.length; row++) {
-                    Song song = new Song(tableModel.getValueAt(rows[row], 6).toString());
-                    controller.addSong(song, playlist);
-                }
+                controller.addSongs(getSelectedSongs(rows), playlist);
                 // Update all windows displaying that playlist
                 BetterThaniTunes.updateWindows(playlist);
             }
@@ -647,16 +773,11 @@ public class View extends JFrame {
                     Random rand = new Random();
                     int songRow = rand.nextInt(songTable.getRowCount());
                     
-                    // Add all songs in the current playlist to the play order
-                    ArrayList<String> songPaths = new ArrayList<>();
-                    for(int i = 0; i < songTable.getRowCount(); i++)
-                        songPaths.add(songTable.getValueAt(i, 6).toString());
-                    controller.updatePlayOrder(songPaths);
-                    controller.shufflePlayOrder();
-
-                    // Play random song
+                    // Play random song, then make the play queue follow the current playlist and shuffle it
                     String path = songTable.getValueAt(songRow, 6).toString();
                     controller.play(path, songRow);
+                    controller.updatePlayOrder(tableModel);
+                    controller.shufflePlayOrder();
                     
                     secondsPlayed.setVisible(true);
                     secondsRemaining.setVisible(true);
@@ -666,12 +787,9 @@ public class View extends JFrame {
                 controller.updateRepeatPlaylistStatus(true);
                 controller.updateShuffleStatus(true);
             }
-            else { // Unshuffle    
-                ArrayList<String> songPaths = new ArrayList<>();
-                for(int i = 0; i < songTable.getRowCount(); i++)
-                    songPaths.add(songTable.getValueAt(i, 6).toString());
-                
-                controller.updatePlayOrder(songPaths);
+            else { // Unshuffle
+                controller.updatePlayOrder(tableModel);
+                controller.unshufflePlayOrder();
                 controller.updateRepeatPlaylistStatus(false);
                 controller.updateShuffleStatus(false);
             }
@@ -684,12 +802,6 @@ public class View extends JFrame {
     class playButtonListener implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
-            // Add all songs in the current playlist to the play order
-            ArrayList<String> songPaths = new ArrayList<>();
-            for(int i = 0; i < songTable.getRowCount(); i++)
-                songPaths.add(songTable.getValueAt(i, 6).toString());
-            controller.updatePlayOrder(songPaths);
-            
             // If user hasn't selected a row yet
             if(songTable.getSelectedRow() == -1) {
                 // If shuffle is checked
@@ -708,17 +820,10 @@ public class View extends JFrame {
                 String path = songTable.getValueAt(songTable.getSelectedRow(), 6).toString();
                 controller.play(path, songTable.getSelectedRow());
             }
+            // The play queue follows the current playlist. It is only read again if the playlist or its order changed
+            controller.updatePlayOrder(tableModel);
             
-            controller.addToRecentlyPlayed(controller.getCurrentSongName());
-            
-            showRecentlyPlayed.removeAll();
-            
-            ArrayList<String> recentlyPlayed = controller.getRecentlyPlayed();
-            for(String songName : recentlyPlayed) {
-                JMenuItem menuSong = new JMenuItem(songName);
-                menuSong.addActionListener(new recentlyPlayedSongListener());
-                showRecentlyPlayed.add(menuSong);
-            }
+            controller.addCurrentSongToRecentlyPlayed();
             
             secondsPlayed.setVisible(true);
             secondsRemaining.setVisible(true);
@@ -732,11 +837,7 @@ public class View extends JFrame {
     	@Override
         public void actionPerformed(ActionEvent e) {
             controller.stop();
-            secondsPlayed.setText("0:00:00");
-            secondsRemaining.setText("0:00:00");
-            secondsPlayed.setVisible(false);
-            secondsRemaining.setVisible(false);
-            progressBar.setValue(0);
+            resetProgress();
     	}
     }
     
@@ -759,16 +860,8 @@ public class View extends JFrame {
             if(controller.isPlayerActive()) {
                 controller.nextSong();
                 
-                controller.addToRecentlyPlayed(controller.getCurrentSongName());
-            
-                showRecentlyPlayed.removeAll();
+                controller.addCurrentSongToRecentlyPlayed();
 
-                ArrayList<String> recentlyPlayed = controller.getRecentlyPlayed();
-                for(String songName : recentlyPlayed) {
-                    JMenuItem menuSong = new JMenuItem(songName);
-                    menuSong.addActionListener(new recentlyPlayedSongListener());
-                    showRecentlyPlayed.add(menuSong);
-                }
             }
     	}
     }
@@ -782,20 +875,24 @@ public class View extends JFrame {
             if(controller.isPlayerActive()) {
                 controller.previousSong();
                 
-                controller.addToRecentlyPlayed(controller.getCurrentSongName());
-            
-                showRecentlyPlayed.removeAll();
+                controller.addCurrentSongToRecentlyPlayed();
 
-                ArrayList<String> recentlyPlayed = controller.getRecentlyPlayed();
-                for(String songName : recentlyPlayed) {
-                    JMenuItem menuSong = new JMenuItem(songName);
-                    menuSong.addActionListener(new recentlyPlayedSongListener());
-                    showRecentlyPlayed.add(menuSong);
-                }
             }
     	}
     }
     
+    /**
+     * Class defines behavior for when user clicks the progress bar, which moves the song to the point clicked.
+     */
+    class progressBarSeekListener extends MouseAdapter {
+        @Override
+        public void mousePressed(MouseEvent e) {
+            if(!controller.isPlayerActive() || progressBar.getWidth() == 0) return;
+            double fraction = Math.max(0, Math.min(1, e.getX() / (double)progressBar.getWidth()));
+            controller.seek((long)(fraction * progressBar.getMaximum()) * 1000); // The bar counts milliseconds
+        }
+    }
+    
     /**
      * Class defines behavior for when user adjusts the cursor on the volume slider.
      */
@@ -898,12 +995,14 @@ public class View extends JFrame {
                 if(fileList != null && fileList.size() > 0) {
                     songTable.clearSelection();
                     // Create song objects from files and add them to the playlist
+                    ArrayList<Song> songs = new ArrayList<>();
                     for(Object file : fileList) {
-                        if(file instanceof File) {
-                            File mp3File = (File)file;
-                            addSong(new Song(mp3File.getAbsolutePath()), currentPlaylist);
+                        if(file instanceof File && MetadataReaders.isSupported(((File)file).getName())) {
+                            File audioFile = (File)file;
+                            songs.add(new Song(audioFile.getAbsolutePath()));
                         }
                     }
+                    controller.addSongs(songs, currentPlaylist);
                     // Update all windows
                     BetterThaniTunes.updateWindows(currentPlaylist);
                     if(BetterThaniTunes.getView(0).getCurrentPlaylist().equals("Library"))
@@ -925,11 +1024,14 @@ public class View extends JFrame {
                     }
                     // The String data has rows separated by \n and cols separated by \t
                     String[] droppedRows = data.split("\n");
+                    ArrayList<Song> songs = new ArrayList<>();
                     for(String droppedRow : droppedRows) {
                         // Get the path from the 7th column of each row. Add each song to the playlist
                         String[] columns = droppedRow.split("\t");
-                        addSong(new Song(columns[6]), currentPlaylist);
+                        Song song = controller.getSong(columns[6]);
+                        songs.add((song != null) ? song : new Song(columns[6]));
                     }
+                    controller.addSongs(songs, currentPlaylist);
                     // Update all windows
                     BetterThaniTunes.updateWindows(currentPlaylist);
                     if(BetterThaniTunes.getView(0).getCurrentPlaylist().equals("Library"))
@@ -1008,12 +1110,11 @@ public class View extends JFrame {
         public void actionPerformed(ActionEvent e) {
             String currentSong = controller.getCurrentSong();
             if(currentSong.length() > 0) {
-                for(int row = 0; row < songTable.getRowCount(); row++) {
-                    if(songTable.getValueAt(row, 6).toString().equals(currentSong)) {
-                        songTable.getSelectionModel().setSelectionInterval(row, row);
-                        songTable.scrollRectToVisible(new Rectangle(songTable.getCellRect(row, 0, true)));
-                        break;
-                    }
+                // Find the song's row from the songIds of the playlist rather than reading every page of the table
+                int row = tableModel.findRow(currentSong);
+                if(row != -1) {
+                    songTable.getSelectionModel().setSelectionInterval(row, row);
+                    songTable.scrollRectToVisible(new Rectangle(songTable.getCellRect(row, 0, true)));
                 }
             } else {
                 int selectedRow = songTable.getSelectedRow();
@@ -1040,59 +1141,63 @@ public class View extends JFrame {
             }
             
             controller.play(songPath, songRow);
+            controller.updatePlayOrder(tableModel);
             
-            controller.addToRecentlyPlayed(controller.getCurrentSongName());
-            
-            showRecentlyPlayed.removeAll();
-            
-            ArrayList<String> recentlyPlayed = controller.getRecentlyPlayed();
-            for(String song : recentlyPlayed) {
-                JMenuItem menuSong = new JMenuItem(song);
-                menuSong.addActionListener(new recentlyPlayedSongListener());
-                showRecentlyPlayed.add(menuSong);
-            }
+            controller.addCurrentSongToRecentlyPlayed();
         }
     }
     
-    public void updateProgressBar(long msPlayed, long total_ms) {
+    /**
+     * Method draws the progress of the song playing, sampled from the ProgressBus by the
+     * window's timer. Nothing is drawn if it hasn't changed since the last tick, and the times
+     * are only set on their fields when the second they show changes
+     * @param progress the progress sampled, or ProgressBus.NOTHING_PLAYING
+     */
+    public void updateProgressBar(long progress) {
+        if(progress == progressDrawn) return;
+        progressDrawn = progress;
+        if(progress == ProgressBus.NOTHING_PLAYING) return;
+        long played = ProgressBus.positionMillis(progress), length = ProgressBus.lengthMillis(progress);
+        
         secondsPlayed.setVisible(true);
         secondsRemaining.setVisible(true);
+        progressBar.setMaximum((int)length);
+        progressBar.setValue((int)Math.min(played, length));
         
-        progressBar.setMinimum(0);
-        progressBar.setMaximum((int)total_ms);
-        progressBar.setValue((int)msPlayed);
-        
-        int sPlayed = (int)(msPlayed/1000000);
-        int mPlayed = (int)(msPlayed/60000000);
-        
-        long msLeft = total_ms - msPlayed;
-        
-        int sLeft = (int)(msLeft/1000000);
-        int mLeft = (int)(msLeft/60000000);
-        
-        String secondsP = "";
-        if(sPlayed == 0) secondsP = "00";
-        else if ((sPlayed%60) < 10) secondsP = "0" + (sPlayed%60);
-        else secondsP = "" + (sPlayed%60);
-        
-        String minutesP;
-        if(mPlayed == 0) minutesP = "00";
-        else if ((mPlayed%60) < 10) minutesP = "0" + (mPlayed%60);
-        else minutesP = "" + (mPlayed%60);
-        
-        String secondsL;
-        if(sLeft == 0) secondsL = "00";
-        else if ((sLeft%60) < 10) secondsL = "0" + (sLeft%60);
-        else secondsL = "" + (sLeft%60);
-        
-        String minutesL;
-        if(mLeft == 0) minutesL = "00";
-        else if ((mLeft%60) < 10) minutesL = "0" + (mLeft%60);
-        else minutesL = "" + (mLeft%60);
-        
-        secondsPlayed.setText("0:" + minutesP + ":" + secondsP);
-        secondsRemaining.setText("0:" + minutesL + ":" + secondsL);
-        bottomPanel.repaint();
+        playedLength = showTime(secondsPlayed, played, playedTime, playedLength);
+        remainingLength = showTime(secondsRemaining, Math.max(length - played, 0), remainingTime, remainingLength);
+    }
+    
+    /**
+     * Method shows a time in a text field if it differs from the time the field shows
+     * @param field the text field
+     * @param millis the time in milliseconds
+     * @param shown the characters of the time the field shows
+     * @param shownLength the number of characters of the time the field shows
+     * @return the number of characters of the time the field shows now
+     */
+    private int showTime(JTextField field, long millis, char[] shown, int shownLength) {
+        int length = ProgressBus.formatTime(millis, timeBuffer);
+        boolean same = length == shownLength;
+        for(int i = 0; same && i < length; i++)
+            same = timeBuffer[i] == shown[i];
+        if(!same) {
+            System.arraycopy(timeBuffer, 0, shown, 0, length);
+            field.setText(new String(shown, 0, length));
+        }
+        return length;
+    }
+    
+    /**
+     * Method resets the progress bar and the times when playback stops.
+     */
+    private void resetProgress() {
+        secondsPlayed.setText("0:00:00");
+        secondsRemaining.setText("0:00:00");
+        secondsPlayed.setVisible(false);
+        secondsRemaining.setVisible(false);
+        progressBar.setValue(0);
+        playedLength = remainingLength = 0; // The fields no longer show the times last formatted
     }
     
     class increaseVolumeOptionListener implements ActionListener {
@@ -1115,27 +1220,19 @@ public class View extends JFrame {
     
     public final void setupFileChooser() {
         fileChooser = new JFileChooser();
-        fileChooser.setFileFilter(new FileNameExtensionFilter("MP3 Files", "mp3"));
+        fileChooser.setFileFilter(new FileNameExtensionFilter("Audio Files", MetadataReaders.getExtensions()));
         fileChooser.setMultiSelectionEnabled(true);
     }
     
     public final void setupSongTable(String playlist) {
-        // Fill song table with songs from current playlists
+        // Song table reads the songs of the current playlist from the database as they are displayed
         currentPlaylist = playlist;
-        songData = controller.returnAllSongs(currentPlaylist);
-        
-        tableModel = new DefaultTableModel(songData, tableHeaders) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new SongTableModel(controller, tableHeaders, currentPlaylist);
         //tableModel.addTableModelListener(new tableModelListener());
         
         songTable = new JTable(tableModel);
         songTable.addMouseListener(new songTablePopupMenuListener());
-        songTable.setAutoCreateRowSorter(true); // Enable sorting by table headers
-        songTable.getRowSorter().toggleSortOrder(0);
+        songTable.setRowSorter(tableModel.createRowSorter()); // Enable sorting by table headers, sorted by title
         
         // Add drag and drop functionality to song table
         songTable.setDragEnabled(true);
@@ -1162,6 +1259,11 @@ public class View extends JFrame {
         JMenu controlMenu = new JMenu("Controls");
         
         JMenuItem addSongMenuItem = new JMenuItem("Add songs");
+        JMenuItem importFolderMenuItem = new JMenuItem("Import folder");
+        JMenuItem rescanLibraryMenuItem = new JMenuItem("Rescan library");
+        JMenuItem watchFolderMenuItem = new JMenuItem("Watch folder");
+        JMenuItem stopWatchingMenuItem = new JMenuItem("Stop watching folder");
+        JMenuItem findDuplicatesMenuItem = new JMenuItem("Find duplicates");
         JMenuItem deleteSongMenuItem = new JMenuItem("Delete selected songs");
         JMenuItem playExternalSongMenuItem = new JMenuItem("Play a song not in the library");
         JMenuItem createPlaylist = new JMenuItem("Create Playlist");
@@ -1202,6 +1304,11 @@ public class View extends JFrame {
         decreaseVolume.setAccelerator(keyStroke_decreaseVol);
         
         addSongMenuItem.addActionListener(new addSongListener());
+        importFolderMenuItem.addActionListener(new importFolderListener());
+        rescanLibraryMenuItem.addActionListener(new rescanLibraryListener());
+        watchFolderMenuItem.addActionListener(new watchFolderListener());
+        stopWatchingMenuItem.addActionListener(new stopWatchingListener());
+        findDuplicatesMenuItem.addActionListener(new findDuplicatesListener());
         deleteSongMenuItem.addActionListener(new deleteSongListener());
         playExternalSongMenuItem.addActionListener(new playExternalSongListener());
         createPlaylist.addActionListener(new createPlaylistListener());
@@ -1219,6 +1326,11 @@ public class View extends JFrame {
         repeatPlaylistOption.addActionListener(new repeatPlaylistOptionListener());
 
         fileMenu.add(addSongMenuItem);
+        fileMenu.add(importFolderMenuItem);
+        fileMenu.add(rescanLibraryMenuItem);
+        fileMenu.add(watchFolderMenuItem);
+        fileMenu.add(stopWatchingMenuItem);
+        fileMenu.add(findDuplicatesMenuItem);
         fileMenu.add(deleteSongMenuItem);
         fileMenu.add(playExternalSongMenuItem);
         fileMenu.add(new JSeparator());
@@ -1253,18 +1365,24 @@ public class View extends JFrame {
         JMenuItem addSong = new JMenuItem("Add songs");
         JMenuItem createPlaylistFromSelection = new JMenuItem("New Playlist from Selection");
         JMenuItem deleteSong = new JMenuItem("Delete");
+        JMenuItem playNext = new JMenuItem("Play Next");
+        JMenuItem playLater = new JMenuItem("Play Later");
         JMenuItem deletePlaylistMenuItem = new JMenuItem("Delete Playlist");
         JMenuItem openInNewWindow = new JMenuItem("Open in New Window");
         
         addSong.addActionListener(new addSongListener());
         createPlaylistFromSelection.addActionListener(new createPlaylist_AddSongsListener());
         deleteSong.addActionListener(new deleteSongListener());
+        playNext.addActionListener(new queueSongsListener(true));
+        playLater.addActionListener(new queueSongsListener(false));
         deletePlaylistMenuItem.addActionListener(new deletePlaylistListener());
         openInNewWindow.addActionListener(new openInNewWindowListener());
         
         songTablePopupMenu.add(addSong);
         songTablePopupMenu.add(createPlaylistFromSelection);
         songTablePopupMenu.add(deleteSong);
+        songTablePopupMenu.add(playNext);
+        songTablePopupMenu.add(playLater);
         sidePanelPopupMenu.add(deletePlaylistMenuItem);
         sidePanelPopupMenu.add(openInNewWindow);
         
@@ -1350,6 +1468,9 @@ public class View extends JFrame {
         
         progressBar = new JProgressBar();
         progressBar.setValue(0);
+        progressBar.addMouseListener(new progressBarSeekListener());
+        progressTimer = new Timer(1000 / ProgressBus.getRate(), e -> updateProgressBar(controller.getProgressBus().sample()));
+        progressTimer.start();
         
         secondsPlayed = new JTextField("0:00:00");
         secondsRemaining = new JTextField("0:00:00");
@@ -1370,8 +1491,13 @@ public class View extends JFrame {
         framePanel = new JPanel();
         framePanel.setLayout(new BorderLayout());
         framePanel.add(menuBar, BorderLayout.NORTH);
-        framePanel.add(songTableScrollPane,BorderLayout.CENTER);
-        if(!playlistWindow) framePanel.add(playlistTreeScrollPane, BorderLayout.WEST);
+        if(!playlistWindow) {
+            // The browser sits above the song table, and the divider between them can be dragged
+            facetBrowser = new FacetBrowser(controller.getFacetIndex(), tableModel);
+            framePanel.add(new JSplitPane(JSplitPane.VERTICAL_SPLIT, facetBrowser, songTableScrollPane), BorderLayout.CENTER);
+            framePanel.add(playlistTreeScrollPane, BorderLayout.WEST);
+        }
+        else framePanel.add(songTableScrollPane,BorderLayout.CENTER);
         framePanel.add(bottomPanel, BorderLayout.SOUTH);
         framePanel.addMouseListener(new songTablePopupMenuListener());
     }
@@ -1392,10 +1518,14 @@ public class View extends JFrame {
     @Override
     public void dispose() {
         BetterThaniTunes.removeView(this);
+        progressTimer.stop();
         if(getTitle().equals("BetterThaniTunes")) {
             controller.disconnectDatabase();
             System.exit(0);
         }
-        else super.dispose();
+        else {
+            controller.flushWrites(); // Write the changes made in this window before it closes
+            super.dispose();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package betterthanitunes;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import com.mpatric.mp3agic.ID3v1Tag;
+
+/**
+ * Class reads a Vorbis comment, the list of NAME=value tags that FLAC and Ogg
+ * Vorbis files store instead of an ID3 tag. The fields the song table shows are
+ * copied into an ID3v1Tag, so a Song is built from them the same way as from the
+ * tag of an MP3 file. Field names are case-insensitive, and a field that appears
+ * more than once keeps its first value.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class VorbisComment {
+    private VorbisComment() {}
+
+    /**
+     * Method reads a Vorbis comment
+     * @param buffer the comment, from its vendor string to the end of its last field
+     * @return the tag holding the fields, or null if the comment is cut short
+     */
+    public static ID3v1Tag parse(ByteBuffer buffer) {
+        buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.remaining() < 8) return null;
+        int vendorLength = buffer.getInt();
+        if(vendorLength < 0 || vendorLength > buffer.remaining() - 4) return null;
+        buffer.position(buffer.position() + vendorLength);
+        long fields = buffer.getInt() & 0xFFFFFFFFL;
+
+        ID3v1Tag tag = new ID3v1Tag();
+        tag.setGenre(-1);
+        for(long field = 0; field < fields; field++) {
+            if(buffer.remaining() < 4) return null;
+            int length = buffer.getInt();
+            if(length < 0 || length > buffer.remaining()) return null;
+            int start = buffer.position();
+            buffer.position(start + length);
+
+            // Only the name is decoded before the field is known to be needed, which skips pictures and lyrics
+            int equals = -1;
+            for(int i = start; i < start + length && equals < 0; i++) {
+                if(buffer.get(i) == '=') equals = i;
+            }
+            if(equals < 0) continue;
+            String name = new String(buffer.array(), buffer.arrayOffset() + start, equals - start, StandardCharsets.US_ASCII).toUpperCase();
+            if(!isShown(name)) continue;
+            String value = new String(buffer.array(), buffer.arrayOffset() + equals + 1, start + length - equals - 1, StandardCharsets.UTF_8).trim();
+            if(value.isEmpty()) continue;
+            switch(name) {
+                case "TITLE": if(tag.getTitle() == null) tag.setTitle(value); break;
+                case "ARTIST": if(tag.getArtist() == null) tag.setArtist(value); break;
+                case "ALBUM": if(tag.getAlbum() == null) tag.setAlbum(value); break;
+                case "DATE": case "YEAR": if(tag.getYear() == null) tag.setYear(year(value)); break;
+                case "GENRE": if(tag.getGenre() < 0) tag.setGenre(genreNumber(value)); break;
+                case "COMMENT": case "DESCRIPTION": if(tag.getComment() == null) tag.setComment(value); break;
+                case "TRACKNUMBER": if(tag.getTrack() == null) tag.setTrack(value); break;
+            }
+        }
+        return tag;
+    }
+
+    private static boolean isShown(String name) {
+        switch(name) {
+            case "TITLE": case "ARTIST": case "ALBUM": case "DATE": case "YEAR":
+            case "GENRE": case "COMMENT": case "DESCRIPTION": case "TRACKNUMBER": return true;
+            default: return false;
+        }
+    }
+
+    /**
+     * Method takes the year from a date, which is often written in full, such as 2009-05-01
+     * @param date the date
+     * @return the year, or the date if it doesn't start with one
+     */
+    private static String year(String date) {
+        if(date.length() > 4 && Character.isDigit(date.charAt(0)) && Character.isDigit(date.charAt(3)) && !Character.isDigit(date.charAt(4)))
+            return date.substring(0, 4);
+        return date;
+    }
+
+    /**
+     * Method converts a genre, which a Vorbis comment stores as text, to its ID3 genre code
+     * @param genre the name of the genre, ignoring case, or its code
+     * @return the code, or -1 if the genre isn't one of Controller.genres
+     */
+    private static int genreNumber(String genre) {
+        try {
+            int number = Integer.parseInt(genre);
+            return (number >= 0 && number < Controller.genres.size()) ? number : -1;
+        } catch(NumberFormatException e) {
+            for(int number = 0; number < Controller.genres.size(); number++) {
+                if(Controller.genres.get(number).equalsIgnoreCase(genre)) return number;
+            }
+            return -1;
+        }
+    }
+}
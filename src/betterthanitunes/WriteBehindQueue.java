@@ -0,0 +1,254 @@
+package betterthanitunes;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Class queues writes to the database so the window that made a change doesn't
+ * wait for the database. A background thread collects the writes for a short
+ * time and then commits all of them in one transaction. A write queued with a
+ * key replaces the write with the same key that hasn't been committed yet, so
+ * setting the same value again and again (toggling a column, editing the same
+ * cell) only reaches the database once. Anything that reads the database calls
+ * flush first, so it always sees the changes that were queued before it, or
+ * flushes only when a write it would see is waiting, so reads made while painting
+ * a window don't wait for writes that can't change what they read.
+ * @author Steven McCracken
+ * @author Mark Saavedra
+ */
+public class WriteBehindQueue {
+    public static final long FLUSH_DELAY_MS = 200; // How long writes are collected before they are committed
+    public static final int MAX_BATCH_SIZE = 500;  // The most writes committed in one transaction
+
+    /**
+     * Interface represents one queued change to the database.
+     */
+    public interface Write {
+        /**
+         * Method makes the change. It is called on the queue's thread, inside the transaction of its batch
+         * @return true if the change was made. Otherwise, false and only this write is rolled back
+         */
+        boolean write();
+    }
+
+    /**
+     * Class holds a write along with when it was queued.
+     */
+    private static class PendingWrite {
+        private final Object key;
+        private final Write write;
+        private final long sequence, queuedAt;
+
+        private PendingWrite(Object key, Write write, long sequence) {
+            this.key = key;
+            this.write = write;
+            this.sequence = sequence;
+            queuedAt = System.nanoTime();
+        }
+    }
+
+    private final DatabaseModel database;
+    private final Thread flusher;
+    // Writes waiting to be committed, oldest first. A replaced write moves to the end
+    private final LinkedHashMap<Object, PendingWrite> pending = new LinkedHashMap<>();
+    private List<PendingWrite> committing = new ArrayList<>(); // The batch being written, until it is committed
+    private long queued = 0, committed = 0; // Sequence numbers of the newest queued and newest committed writes
+    private long coalesced = 0, failed = 0;
+    private int peakDepth = 0;
+    private boolean flushRequested = false, closed = false;
+    private final LatencyStats flushStats = new LatencyStats("Write-behind flush");
+    private final LatencyStats delayStats = new LatencyStats("Write-behind delay");
+
+    /**
+     * Constructor starts the thread that commits the queued writes
+     * @param database the database that the writes change
+     */
+    public WriteBehindQueue(DatabaseModel database) {
+        this.database = database;
+        flusher = new Thread(this::flushLoop, "Write-behind queue");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Method queues a write that is never replaced by a later one
+     * @param write the change to make
+     * @return true if the write was queued. False if the queue has been closed
+     */
+    public boolean submit(Write write) {
+        return submit(new Object(), write);
+    }
+
+    /**
+     * Method queues a write, replacing the queued write with the same key if it hasn't been committed yet
+     * @param key identifies the row and column being written, such as a list of the table, row and column
+     * @param write the change to make
+     * @return true if the write was queued. False if the queue has been closed
+     */
+    public synchronized boolean submit(Object key, Write write) {
+        if(closed) {
+            System.out.println("\nThe write-behind queue is closed, a write was discarded");
+            return false;
+        }
+        if(pending.remove(key) != null) coalesced++;
+        pending.put(key, new PendingWrite(key, write, ++queued));
+        if(pending.size() > peakDepth) peakDepth = pending.size();
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Method waits until every write queued before it was called has been committed.
+     * It returns right away when nothing is waiting to be written
+     */
+    public synchronized void flush() {
+        if(Thread.currentThread() == flusher) return; // A write can't wait for its own batch
+        long target = queued;
+        try {
+            while(committed < target && flusher.isAlive()) {
+                flushRequested = true;
+                notifyAll();
+                wait(FLUSH_DELAY_MS);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Method waits until every write queued before it was called has been committed, if any
+     * write that hasn't been committed has a key the read depends on. Otherwise it returns
+     * right away, without waiting for writes the read can't see
+     * @param affects tests whether the write with a key changes what the caller reads
+     */
+    public void flush(Predicate<Object> affects) {
+        synchronized(this) {
+            boolean waiting = false;
+            for(PendingWrite pendingWrite : committing)
+                waiting |= affects.test(pendingWrite.key);
+            for(Object key : pending.keySet())
+                waiting |= affects.test(key);
+            if(!waiting) return;
+        }
+        flush();
+    }
+
+    /**
+     * Method commits every queued write and stops the queue's thread. Writes submitted afterward are discarded
+     * @param timeoutMillis the longest time to wait for the writes to be committed
+     * @return true if every write was committed in time. Otherwise, false
+     */
+    public boolean close(long timeoutMillis) {
+        synchronized(this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join(timeoutMillis);
+        } catch(InterruptedException e) {
+            e.printStackTrace();
+        }
+        System.out.println("\n" + this);
+        return !flusher.isAlive();
+    }
+
+    /**
+     * Method is run by the queue's thread. It waits for writes, collects them for FLUSH_DELAY_MS
+     * (or until flush is called or the batch is full) and commits them in one transaction
+     */
+    private void flushLoop() {
+        while(true) {
+            List<PendingWrite> batch = new ArrayList<>();
+            synchronized(this) {
+                try {
+                    while(pending.isEmpty() && !closed)
+                        wait();
+                    long deadline = System.currentTimeMillis() + FLUSH_DELAY_MS;
+                    long remaining = FLUSH_DELAY_MS;
+                    while(!flushRequested && !closed && pending.size() < MAX_BATCH_SIZE && remaining > 0) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                } catch(InterruptedException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                if(pending.isEmpty()) return; // Closed and every write has been committed
+
+                flushRequested = false;
+                Iterator<PendingWrite> writes = pending.values().iterator();
+                while(writes.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+                    batch.add(writes.next());
+                    writes.remove();
+                }
+                committing = batch;
+            }
+
+            List<Write> changes = new ArrayList<>(batch.size());
+            for(PendingWrite pendingWrite : batch)
+                changes.add(pendingWrite.write);
+            long start = System.nanoTime();
+            int failures = database.runInTransaction(changes);
+            long end = System.nanoTime();
+            flushStats.record(end - start);
+            for(PendingWrite pendingWrite : batch)
+                delayStats.record(end - pendingWrite.queuedAt);
+
+            synchronized(this) {
+                failed += failures;
+                committed = batch.get(batch.size() - 1).sequence;
+                committing = new ArrayList<>();
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Method gets the number of writes waiting to be committed
+     * @return the depth of the queue
+     */
+    public synchronized int getDepth() {
+        return pending.size();
+    }
+
+    public synchronized int getPeakDepth() {
+        return peakDepth;
+    }
+
+    /**
+     * Method gets the number of writes that were replaced before they were committed
+     * @return the number of writes that never had to reach the database
+     */
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    /**
+     * Method gets how long each batch of writes took to commit
+     * @return the statistics of every transaction committed by the queue
+     */
+    public LatencyStats getFlushStats() {
+        return flushStats;
+    }
+
+    /**
+     * Method gets how long writes waited between being queued and being committed
+     * @return the statistics of every write committed by the queue
+     */
+    public LatencyStats getDelayStats() {
+        return delayStats;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Write-behind queue: " + queued + " writes, " + coalesced + " coalesced, " + failed + " failed, depth " +
+               pending.size() + " (peak " + peakDepth + ")\n" + flushStats + "\n" + delayStats;
+    }
+}